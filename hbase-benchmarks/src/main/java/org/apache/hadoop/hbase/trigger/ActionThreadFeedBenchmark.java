@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * @author daidong
+ * ActionThread.feed() with a live consumer, as in the region server. Events cycle over 'rows'
+ * distinct rows with a fixed version, so with few rows most events are redundant and are
+ * dropped by the backlog when taken.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActionThreadFeedBenchmark {
+
+  @Param({"1", "64", "65536"})
+  public int rows;
+
+  private List<HTrigger> registered;
+  private ActionThread at;
+  private Thread consumer;
+  private HTriggerKey htk;
+  private byte[][] rowKeys;
+  private byte[] value;
+  private long next = 0L;
+
+  @Setup
+  public void setup(){
+    registered = BenchmarkTriggers.register(1);
+    HTrigger ht = registered.get(0);
+    ht.getConf().set(HTriggerEventBacklog.SPILL_DIR_KEY,
+        System.getProperty("java.io.tmpdir") + File.separator + "trigger-bench-spill");
+    htk = ht.getHTriggerKey();
+    rowKeys = new byte[rows][];
+    for (int i = 0; i < rows; i++){
+      rowKeys[i] = Bytes.toBytes("row-" + i);
+    }
+    value = Bytes.toBytes(1L);
+    at = new ActionThread(ht.getActionClass());
+    consumer = new Thread(at, "bench-action-thread");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    //the consumer drops what is still pending and ends, so no thread is left for the next trial.
+    at.stop();
+    consumer.join();
+    BenchmarkTriggers.unregister(registered);
+  }
+
+  @Benchmark
+  public void feed(){
+    long i = next++;
+    at.feed(new HTriggerEvent(htk, rowKeys[(int) (i % rows)], value, value, 1L, null));
+  }
+}
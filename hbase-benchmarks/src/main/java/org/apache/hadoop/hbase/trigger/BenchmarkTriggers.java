@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * @author daidong
+ * Helpers shared by the trigger benchmarks: a no-op action and registration of N triggers
+ * directly into LocalTriggerManage, without any trigger jar or region server.
+ */
+public class BenchmarkTriggers {
+
+  public static final byte[] TABLE = Bytes.toBytes("bench");
+  public static final byte[] FAMILY = Bytes.toBytes("cf");
+
+  public static class NoopAction extends HTriggerAction {
+    @Override
+    public void action(HTriggerEvent hte) {
+    }
+
+    @Override
+    public boolean filter(HTriggerEvent hte) {
+      return true;
+    }
+  }
+
+  public static byte[] column(int i){
+    return Bytes.toBytes("c" + i);
+  }
+
+  /**
+   * Register n ORDINARY triggers, the i-th one monitors column 'c&lt;i&gt;' of bench:cf.
+   */
+  public static List<HTrigger> register(int n){
+    List<HTrigger> triggers = new ArrayList<HTrigger>();
+    for (int i = 0; i < n; i++){
+      TriggerConf conf = new TriggerConf();
+      conf.set("trigger.type", TRIGGERTYPE.ORDINARY.toString());
+      HTriggerKey htk = new HTriggerKey(TABLE, FAMILY, column(i));
+      HTrigger ht = new HTrigger(i, htk, conf, new NoopAction());
+      LocalTriggerManage.register(ht);
+      triggers.add(ht);
+    }
+    return triggers;
+  }
+
+  public static void unregister(List<HTrigger> triggers){
+    for (HTrigger ht : triggers){
+      LocalTriggerManage.unregister(ht);
+    }
+  }
+
+  /** Empty the region server wide event queue, returns the number of drained events. */
+  public static int drainEventQueue(){
+    int n = 0;
+    while (HTriggerEventQueue.tryPoll() != null)
+      n++;
+    return n;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.wal.WALDetection;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * @author daidong
+ * Cost of WALDetection.checkDispatch() on every WAL append, with 0, 1 or N registered triggers.
+ * The edit carries 'kvs' KeyValues, each on one of the monitored columns when triggers exist.
+ * The region is left null, so no old value is fetched; the fired events are drained from
+ * HTriggerEventQueue inside the measured call to keep the queue size constant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CheckDispatchBenchmark {
+
+  @Param({"0", "1", "16"})
+  public int triggers;
+
+  @Param({"1", "8"})
+  public int kvs;
+
+  private List<HTrigger> registered;
+  private HRegionInfo info;
+  private WALEdit edit;
+
+  @Setup
+  public void setup(){
+    registered = BenchmarkTriggers.register(triggers);
+    info = new HRegionInfo(BenchmarkTriggers.TABLE);
+    edit = new WALEdit();
+    int columns = Math.max(triggers, 1);
+    for (int i = 0; i < kvs; i++){
+      edit.add(new KeyValue(Bytes.toBytes("row-" + i), BenchmarkTriggers.FAMILY,
+          BenchmarkTriggers.column(i % columns), 1L, Bytes.toBytes((long) i)));
+    }
+  }
+
+  @TearDown
+  public void tearDown(){
+    BenchmarkTriggers.unregister(registered);
+    BenchmarkTriggers.drainEventQueue();
+  }
+
+  @Benchmark
+  public int checkDispatch(){
+    WALDetection.checkDispatch(info, BenchmarkTriggers.TABLE, edit);
+    return BenchmarkTriggers.drainEventQueue();
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * @author daidong
+ * HTriggerEventQueue append/poll under contention: several WAL writer threads append while
+ * the ActionThreadManager side polls. append() still checks the queue for a redundant event,
+ * so its cost depends on the queue length; the consumer keeps it short like a healthy server.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventQueueBenchmark {
+
+  private static final int ROWS = 1024;
+
+  private HTriggerKey htk;
+  private byte[][] rows;
+  private byte[] value;
+
+  @Setup
+  public void setup(){
+    htk = new HTriggerKey(BenchmarkTriggers.TABLE, BenchmarkTriggers.FAMILY, BenchmarkTriggers.column(0));
+    rows = new byte[ROWS][];
+    for (int i = 0; i < ROWS; i++){
+      rows[i] = Bytes.toBytes("row-" + i);
+    }
+    value = Bytes.toBytes(1L);
+    //HTriggerEvent asks LocalTriggerManage whether htk is an accumulator
+    BenchmarkTriggers.register(1);
+  }
+
+  @TearDown
+  public void tearDown(){
+    BenchmarkTriggers.drainEventQueue();
+  }
+
+  @State(Scope.Thread)
+  public static class Producer {
+    long version = 0L;
+  }
+
+  @Benchmark
+  @Group("queue")
+  @GroupThreads(3)
+  public void append(Producer p){
+    long v = p.version++;
+    HTriggerEventQueue.append(new HTriggerEvent(htk, rows[(int) (v % ROWS)], value, value, v, null));
+  }
+
+  @Benchmark
+  @Group("queue")
+  @GroupThreads(1)
+  public HTriggerEvent poll(){
+    return HTriggerEventQueue.tryPoll();
+  }
+}
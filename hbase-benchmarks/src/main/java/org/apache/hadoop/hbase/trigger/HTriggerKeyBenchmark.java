@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * @author daidong
+ * HTriggerKey.equals()/hashCode(), called for every KeyValue of every WAL edit through
+ * LocalTriggerManage.containsTrigger().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HTriggerKeyBenchmark {
+
+  private HTriggerKey key;
+  private HTriggerKey same;
+  private HTriggerKey wildcard;
+  private HTriggerKey otherColumn;
+  private HTriggerKey otherFamily;
+
+  @Setup
+  public void setup(){
+    byte[] table = Bytes.toBytes("webpages");
+    byte[] family = Bytes.toBytes("content");
+    key = new HTriggerKey(table, family, Bytes.toBytes("text"));
+    same = new HTriggerKey(Bytes.toBytes("webpages"), Bytes.toBytes("content"), Bytes.toBytes("text"));
+    wildcard = new HTriggerKey(table, family, Bytes.toBytes("*"));
+    otherColumn = new HTriggerKey(table, family, Bytes.toBytes("title"));
+    otherFamily = new HTriggerKey(table, Bytes.toBytes("anchor"), Bytes.toBytes("text"));
+  }
+
+  @Benchmark
+  public int hashCodeKey(){
+    return key.hashCode();
+  }
+
+  @Benchmark
+  public boolean equalsSame(){
+    return key.equals(same);
+  }
+
+  @Benchmark
+  public boolean equalsWildcard(){
+    return key.equals(wildcard);
+  }
+
+  @Benchmark
+  public boolean equalsOtherColumn(){
+    return key.equals(otherColumn);
+  }
+
+  @Benchmark
+  public boolean equalsOtherFamily(){
+    return key.equals(otherFamily);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * @author daidong
+ * lazyOutput() of 'writes' WriteUnits followed by lazyCommit(), i.e. WritePreparedInst.flush(),
+ * against a table that only counts the calls. Measures the engine side of the lazy write path
+ * without any RPC.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WritePreparedFlushBenchmark {
+
+  @Param({"1", "100", "1000"})
+  public int writes;
+
+  private HTriggerAction action;
+  private byte[] outTable;
+  private byte[][] rows;
+  private byte[] column;
+  private long calls = 0L;
+  private HTableInterfaceFactory saved;
+
+  @Setup
+  public void setup(){
+    saved = TriggerTables.getFactory();
+    TriggerTables.setFactory(new CountingTables());
+    action = new BenchmarkTriggers.NoopAction();
+    outTable = Bytes.toBytes("bench-out");
+    column = Bytes.toBytes("c0");
+    rows = new byte[writes][];
+    for (int i = 0; i < writes; i++){
+      rows[i] = Bytes.toBytes("row-" + i);
+    }
+  }
+
+  @TearDown
+  public void tearDown(){
+    TriggerTables.setFactory(saved == null ? new HTableFactory() : saved);
+  }
+
+  @Benchmark
+  public long lazyWriteAndFlush(){
+    for (int i = 0; i < writes; i++){
+      action.lazyOutput(new WriteUnit(action, outTable, rows[i], BenchmarkTriggers.FAMILY, column, (long) i));
+    }
+    action.lazyCommit();
+    return calls;
+  }
+
+  private class CountingTables implements HTableInterfaceFactory {
+    @Override
+    public HTableInterface createHTableInterface(Configuration config, byte[] tableName) {
+      return (HTableInterface) Proxy.newProxyInstance(HTableInterface.class.getClassLoader(),
+          new Class<?>[]{HTableInterface.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              calls++;
+              Class<?> r = method.getReturnType();
+              if (r == boolean.class)
+                return Boolean.TRUE;
+              if (r == long.class)
+                return 0L;
+              if (r == int.class)
+                return 0;
+              return null;
+            }
+          });
+    }
+
+    @Override
+    public void releaseHTableInterface(HTableInterface table) {
+    }
+  }
+}
@@ -683,6 +683,13 @@ public final class HConstants {
   public static final String DISTRIBUTED_LOG_SPLITTING_KEY =
       "hbase.master.distributed.log.splitting";
 
+  /**
+   * Conf key that makes distributed log splitting replay the edits straight
+   * into the reassigned regions instead of writing recovered.edits files
+   */
+  public static final String DISTRIBUTED_LOG_REPLAY_KEY =
+      "hbase.master.distributed.log.replay";
+
   /**
    * The name of the configuration parameter that specifies
    * the number of bytes in a newly created checksum chunk.
@@ -707,6 +714,18 @@ public final class HConstants {
   public static final String ENABLE_WAL_COMPRESSION =
     "hbase.regionserver.wal.enablecompression";
 
+  /**
+   * Configuration name of the algorithm values are compressed with in the HLog,
+   * on top of the dictionary compression.  One of the names of
+   * {@link org.apache.hadoop.hbase.io.compress.Compression.Algorithm}.
+   */
+  public static final String WAL_VALUE_COMPRESSION_TYPE =
+    "hbase.regionserver.wal.value.compression.type";
+
+  /** Configuration name of the size under which HLog values are written raw */
+  public static final String WAL_VALUE_COMPRESSION_MIN_SIZE =
+    "hbase.regionserver.wal.value.compression.minsize";
+
   /** Region in Transition metrics threshold time */
   public static final String METRICS_RIT_STUCK_WARNING_THRESHOLD="hbase.metrics.rit.stuck.warning.threshold";
 
@@ -46,9 +46,25 @@ public class GenerateRandomWebGraph {
 	String pagePrefix = "pageid";
 	Random rand = null;
 
+	long kvsWritten = 0L;
+
 	public GenerateRandomWebGraph()  throws IOException{
+		this(HBaseConfiguration.create());
+	}
+
+	/**
+	 * Graph of at most 'pages' pages with 1 to 'maxOutLinks' out links each, used by the
+	 * Domino integration benchmark.
+	 */
+	public GenerateRandomWebGraph(Configuration conf, int pages, int maxOutLinks) throws IOException{
+		this(conf);
+		this.PAGES_NUMBER = pages;
+		this.LARGEST_PAGE_ID = pages;
+		this.LARGEST_OUT_LINKS = maxOutLinks;
+	}
+
+	public GenerateRandomWebGraph(Configuration conf)  throws IOException{
 		rand = new Random(System.currentTimeMillis());
-		Configuration conf = HBaseConfiguration.create();
 		admin = new HBaseAdmin(conf);
 		if (admin.tableExists("wbpages")){
 			admin.disableTable("wbpages");
@@ -111,7 +127,7 @@ public class GenerateRandomWebGraph {
 
 		long ts = 0L;
 		String content = "Hello, World!";
-        for (int ki = 0; ki < 100; ki++)
+        for (int ki = 0; ki < 10; ki++)
             content = content + " " + content;
         
 		byte[] rowKey = (pagePrefix+String.valueOf(pageId)).getBytes();
@@ -125,6 +141,15 @@ public class GenerateRandomWebGraph {
 		}    
 		webpage.put(p);
 		webpage.flushCommits();
+		kvsWritten += p.size();
+	}
+
+	public int getPagesCreated(){
+		return allPages.size();
+	}
+
+	public long getKVsWritten(){
+		return kvsWritten;
 	}
 
 	/**
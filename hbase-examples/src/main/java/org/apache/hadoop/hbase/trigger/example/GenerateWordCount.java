@@ -32,6 +32,8 @@ import org.apache.hadoop.hbase.util.Bytes;
 
 public class GenerateWordCount {
 
+	/** The document written into every row, also used by the Domino integration benchmark. */
+	public static final String CONTENT = "It has been more and more common for applications to obtain the ability of processing incremental inputs in cloud today. However, does not like programming with MapReduce or Dryad, it is still hard for developers to write such incremental applications under large-scale distributed environment. It is because the incremental algorithms are usually more complex, at the same time, developers are lack of efficient programming abstractions and runtime supports to program them. In this study, we proposed an incremental computing framework in cloud, namely Domino, which abstracts applications into a serial of triggers. Domino includes a rich set programming abstractions and runtime supports based on this trigger-based programming model. Besides, from a careful design, implementation and many novel optimizations, Domino is able to achieve much better performance comparing with current popular MapReduce framework and other incremental models under incremental scenario. Use cases and extensive evaluation results also confirm these advantages, which show a large range of applications can be implemented in Domino in a straightforward way, and their performance easily beats MapReduce for more than ten folders in the best case.";
 
 	HBaseAdmin admin;
 	HTable wbcontent;
@@ -66,11 +68,10 @@ public class GenerateWordCount {
 
 	public void createPages(int rows) throws IOException{
 		long ts = 0L;
-    String content = "It has been more and more common for applications to obtain the ability of processing incremental inputs in cloud today. However, does not like programming with MapReduce or Dryad, it is still hard for developers to write such incremental applications under large-scale distributed environment. It is because the incremental algorithms are usually more complex, at the same time, developers are lack of efficient programming abstractions and runtime supports to program them. In this study, we proposed an incremental computing framework in cloud, namely Domino, which abstracts applications into a serial of triggers. Domino includes a rich set programming abstractions and runtime supports based on this trigger-based programming model. Besides, from a careful design, implementation and many novel optimizations, Domino is able to achieve much better performance comparing with current popular MapReduce framework and other incremental models under incremental scenario. Use cases and extensive evaluation results also confirm these advantages, which show a large range of applications can be implemented in Domino in a straightforward way, and their performance easily beats MapReduce for more than ten folders in the best case.";
 		for (int i = 0; i < rows; i++){
 		  byte[] rowkey = Bytes.toBytes(i);
 		  Put p = new Put(rowkey);
-		  p.add("content".getBytes(), "en".getBytes(), ts, content.getBytes());
+		  p.add("content".getBytes(), "en".getBytes(), ts, CONTENT.getBytes());
 		  wbcontent.put(p);
 	    wbcontent.flushCommits();
 		}
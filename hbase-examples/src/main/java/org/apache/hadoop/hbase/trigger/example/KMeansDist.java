@@ -1,10 +1,165 @@
 package org.apache.hadoop.hbase.trigger.example;
 
-public class KMeansDist {
+import java.io.IOException;
 
-  public static void main(String[] args) {
-    // TODO Auto-generated method stub
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.trigger.HTriggerAction;
+import org.apache.hadoop.hbase.trigger.HTriggerEvent;
+import org.apache.hadoop.hbase.trigger.Trigger;
+import org.apache.hadoop.hbase.trigger.TriggerAggregator;
+import org.apache.hadoop.hbase.trigger.TriggerConf;
+import org.apache.hadoop.hbase.trigger.TriggerConfigured;
+import org.apache.hadoop.hbase.trigger.TriggerContext;
+import org.apache.hadoop.hbase.trigger.TriggerRunner;
+import org.apache.hadoop.hbase.trigger.TriggerTool;
+import org.apache.hadoop.hbase.util.Bytes;
 
+/**
+ *
+ * @author daidong
+ * KMeans with the centroids kept in cluster wide aggregates instead of table 'clusterings'.
+ * Table 'vectors' stores every vector together with the cluster it was last assigned to:
+ * __________________________________________
+ * row-key |               value            |
+ *         |               value            |
+ * ------------------------------------------
+ *    v0   | cluster(int) | x0 | x1 | ...   |
+ * ------------------------------------------
+ *
+ * In round r every vector adds its coordinates and a count of 1 to the slot of its cluster
+ * in aggregate 'kmeans-centroids', and 1 to 'kmeans-changed' if its cluster changed. In
+ * round r + 1 it reads the centroids of round r, picks the nearest one and writes itself
+ * back with version r + 1, which fires the next round. Vectors stop once no vector changed
+ * its cluster in a round. Round 1 assigns clusters by row hash.
+ *
+ * Every vector contributes once to both aggregates of a round, so with 'kmeans.vectors' set
+ * to the number of vectors a round is sealed as soon as all of them are in. A vector whose
+ * previous round is not sealed yet writes itself back unchanged to try the round again.
+ */
+public class KMeansDist extends TriggerConfigured implements TriggerTool {
+
+  private static final Log LOG = LogFactory.getLog(KMeansDist.class);
+
+  public static final String K_KEY = "kmeans.k";
+  public static final String MAX_ROUNDS_KEY = "kmeans.max.rounds";
+  public static final String WAIT_MS_KEY = "kmeans.aggregate.wait.ms";
+  public static final String VECTORS_KEY = "kmeans.vectors";
+
+  public static class VectorMonitor extends HTriggerAction{
+
+    @Override
+    public void action(HTriggerEvent hte) {
+      TriggerConf conf = this.getHTrigger().getConf();
+      int k = conf.getInt(K_KEY, 4);
+      long wait = conf.getLong(WAIT_MS_KEY, 10000L);
+      long vectors = conf.getLong(VECTORS_KEY, 0L);
+      TriggerContext ctx = this.getContext();
+      long round = this.getCurrentRound();
+
+      byte[] value = hte.getNewValue();
+      int dims = (value.length - Bytes.SIZEOF_INT) / Bytes.SIZEOF_DOUBLE;
+      double[] v = new double[dims];
+      for (int i = 0; i < dims; i++){
+        v[i] = Bytes.toDouble(value, Bytes.SIZEOF_INT + i * Bytes.SIZEOF_DOUBLE);
+      }
+      int cluster = Bytes.toInt(value, 0);
+      int assigned;
+      try {
+        if (round <= 1){
+          assigned = (Bytes.hashCode(hte.getRowKey()) & Integer.MAX_VALUE) % k;
+        } else {
+          byte[] changed = ctx.getAggregate("kmeans-changed", round - 1, wait);
+          byte[] centroids = changed == null ? null :
+            ctx.getAggregate("kmeans-centroids", round - 1, wait);
+          if (centroids == null){
+            // Not sealed yet, the events ahead of this one may still contribute to it
+            Put p = new Put(hte.getRowKey());
+            p.add("value".getBytes(), "value".getBytes(), round - 1, value);
+            ctx.putAsync("vectors".getBytes(), p);
+            return;
+          }
+          if (round > 2 && Bytes.toLong(changed) == 0)
+            return;
+          assigned = nearest(centroids, v, k, cluster);
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed to read the aggregates of round " + (round - 1) + ", skip vector "
+            + Bytes.toStringBinary(hte.getRowKey()), e);
+        return;
+      }
+
+      double[] contribution = new double[k * (dims + 1)];
+      System.arraycopy(v, 0, contribution, assigned * (dims + 1), dims);
+      contribution[assigned * (dims + 1) + dims] = 1.0;
+      ctx.aggregate("kmeans-centroids", TriggerAggregator.DoubleArraySum.class, round,
+          toBytes(contribution), vectors);
+      ctx.aggregate("kmeans-changed", TriggerAggregator.LongSum.class, round,
+          Bytes.toBytes(assigned == cluster && round > 1 ? 0L : 1L), vectors);
+
+      if (round >= conf.getLong(MAX_ROUNDS_KEY, 20L))
+        return;
+      byte[] next = value.clone();
+      Bytes.putInt(next, 0, assigned);
+      Put p = new Put(hte.getRowKey());
+      p.add("value".getBytes(), "value".getBytes(), round, next);
+      ctx.putAsync("vectors".getBytes(), p);
+    }
+
+    /**
+     * @param centroids per cluster, the coordinate sums and the count of its vectors
+     */
+    private int nearest(byte[] centroids, double[] v, int k, int current){
+      int best = current;
+      double bestDist = Double.MAX_VALUE;
+      for (int c = 0; c < k; c++){
+        int off = c * (v.length + 1) * Bytes.SIZEOF_DOUBLE;
+        if (off + (v.length + 1) * Bytes.SIZEOF_DOUBLE > centroids.length)
+          break;
+        double count = Bytes.toDouble(centroids, off + v.length * Bytes.SIZEOF_DOUBLE);
+        if (count == 0)
+          continue;
+        double dist = 0;
+        for (int i = 0; i < v.length; i++){
+          double d = v[i] - Bytes.toDouble(centroids, off + i * Bytes.SIZEOF_DOUBLE) / count;
+          dist += d * d;
+        }
+        if (dist < bestDist){
+          bestDist = dist;
+          best = c;
+        }
+      }
+      return best;
+    }
+
+    private static byte[] toBytes(double[] values){
+      byte[] b = new byte[values.length * Bytes.SIZEOF_DOUBLE];
+      for (int i = 0; i < values.length; i++){
+        Bytes.putDouble(b, i * Bytes.SIZEOF_DOUBLE, values[i]);
+      }
+      return b;
+    }
+
+    @Override
+    public boolean filter(HTriggerEvent hte) {
+      return true;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    TriggerRunner.run(new TriggerConf(), new KMeansDist(), args);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    TriggerConf tmp = (TriggerConf)this.getConf();
+
+    Trigger tg = new Trigger(tmp, "VectorMonitor", "vectors", "value", "value",
+        VectorMonitor.class.getName());
+    tg.submit();
+
+    return 0;
   }
 
 }
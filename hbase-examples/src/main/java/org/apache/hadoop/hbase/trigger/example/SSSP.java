@@ -2,6 +2,7 @@ package org.apache.hadoop.hbase.trigger.example;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
@@ -14,11 +15,14 @@ import org.apache.hadoop.hbase.trigger.HTriggerAction;
 import org.apache.hadoop.hbase.trigger.HTriggerEvent;
 import org.apache.hadoop.hbase.trigger.Trigger;
 import org.apache.hadoop.hbase.trigger.TriggerConf;
+import org.apache.hadoop.hbase.trigger.TriggerContext;
 import org.apache.hadoop.hbase.trigger.TriggerConfigured;
 import org.apache.hadoop.hbase.trigger.TriggerRunner;
 import org.apache.hadoop.hbase.trigger.TriggerTool;
 import org.apache.hadoop.hbase.util.Bytes;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * 
  * @author daidong
@@ -93,7 +97,7 @@ public class SSSP extends TriggerConfigured implements TriggerTool{
     @Override
     public void action(HTriggerEvent hte) {
       byte[] v = hte.getRowKey();
-      int dist = Bytes.toInt(hte.getNewValue());
+      int dist = hte.getNewInt();
       
       try {
         Get g = new Get(v);
@@ -101,9 +105,18 @@ public class SSSP extends TriggerConfigured implements TriggerTool{
         Map<byte[], byte[]> og = r.getFamilyMap("outgoing".getBytes());
         ArrayList<Put> ps = new ArrayList<Put>();
         
-        for (byte[] vertex : og.keySet()){
-          Get g1 = new Get(vertex);
-          int current = Bytes.toInt(distTable.get(g1).getValue("distance".getBytes(), "value".getBytes()));
+        //issue all the gets at once instead of one round trip per outgoing edge.
+        TriggerContext ctx = this.getContext();
+        ArrayList<byte[]> vertexes = new ArrayList<byte[]>(og.keySet());
+        List<ListenableFuture<Result>> fs = new ArrayList<ListenableFuture<Result>>();
+        for (byte[] vertex : vertexes){
+          fs.add(ctx.getAsync("dist".getBytes(), new Get(vertex)));
+        }
+        List<Result> currents = TriggerContext.waitAll(fs);
+        
+        for (int i = 0; i < vertexes.size(); i++){
+          byte[] vertex = vertexes.get(i);
+          int current = Bytes.toInt(currents.get(i).getValue("distance".getBytes(), "value".getBytes()));
           int ndist = Bytes.toInt(og.get(vertex)) + dist;
           if (ndist < current){
             Put p = new Put(v);
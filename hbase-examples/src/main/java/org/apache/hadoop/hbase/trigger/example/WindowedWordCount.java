@@ -0,0 +1,72 @@
+package org.apache.hadoop.hbase.trigger.example;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.trigger.HTriggerEvent;
+import org.apache.hadoop.hbase.trigger.Trigger;
+import org.apache.hadoop.hbase.trigger.TriggerConf;
+import org.apache.hadoop.hbase.trigger.TriggerConfigured;
+import org.apache.hadoop.hbase.trigger.TriggerRunner;
+import org.apache.hadoop.hbase.trigger.TriggerTool;
+import org.apache.hadoop.hbase.trigger.WindowedHTriggerAction;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ *
+ * @author daidong
+ * Runs next to WordCount: for every word, how many pages mentioned it in the last minute,
+ * refreshed every ten seconds. The TextMonitor of WordCount writes one 'acc' column per
+ * page into table 'words'; WordRate counts these updates in a sliding window and writes
+ * the result into 'rate:value' of the same row.
+ * __________________________________________
+ * row-key |  acc   |  count  |    rate    |
+ *         |w1| ... |  value  |   value    |
+ * ------------------------------------------
+ * words   |1 | ... |  123    |    17      |
+ * ------------------------------------------
+ */
+public class WindowedWordCount extends TriggerConfigured implements TriggerTool {
+
+  public static class WordRate extends WindowedHTriggerAction<long[]>{
+
+    @Override
+    public long[] create() {
+      return new long[1];
+    }
+
+    @Override
+    public long[] add(long[] acc, HTriggerEvent hte) {
+      acc[0]++;
+      return acc;
+    }
+
+    @Override
+    public long[] merge(long[] a, long[] b) {
+      return new long[]{a[0] + b[0]};
+    }
+
+    @Override
+    public void emit(byte[] row, long windowStart, long windowEnd, long[] result) {
+      Put p = new Put(row);
+      p.add("rate".getBytes(), "value".getBytes(), windowEnd, Bytes.toBytes(result[0]));
+      this.getContext().putAsync("words".getBytes(), p);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    TriggerRunner.run(new TriggerConf(), new WindowedWordCount(), args);
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+
+    TriggerConf tmp = (TriggerConf)this.getConf();
+
+    Trigger tg = new Trigger(tmp, "WordRate", "words" ,"acc", "*" ,
+        WordRate.class.getName(), "WINDOWED");
+    tg.setWindow(60000L, 10000L);
+    tg.submit();
+
+    return 0;
+  }
+
+}
@@ -3,7 +3,6 @@ package org.apache.hadoop.hbase.trigger.example;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -17,6 +16,7 @@ import org.apache.hadoop.hbase.trigger.TriggerConf;
 import org.apache.hadoop.hbase.trigger.TriggerConfigured;
 import org.apache.hadoop.hbase.trigger.TriggerRunner;
 import org.apache.hadoop.hbase.trigger.TriggerTool;
+import org.apache.hadoop.hbase.trigger.ValueCodec;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
@@ -44,7 +44,7 @@ import org.apache.hadoop.hbase.util.Bytes;
  */
 public class WordCount extends TriggerConfigured implements TriggerTool  {
 
-  public class TextMonitor extends HTriggerAction{
+  public static class TextMonitor extends HTriggerAction{
 
     private HTable wordTable = null;
     public TextMonitor(){
@@ -59,7 +59,7 @@ public class WordCount extends TriggerConfigured implements TriggerTool  {
     public void action(HTriggerEvent hte) {
       // TODO Auto-generated method stub
       byte[] item = hte.getRowKey();
-      String content = new String(hte.getNewValue());
+      String content = hte.getNewValue(ValueCodec.STRING);
       String[] words = content.split(" ");
       HashMap<String, Integer> localCount = new HashMap<String, Integer>();
       for (String word : words){
@@ -95,7 +95,7 @@ public class WordCount extends TriggerConfigured implements TriggerTool  {
     
   }
   
-  public class WordMonitor extends AccHTriggerAction{
+  public static class WordMonitor extends AccHTriggerAction{
 
     private HTable wordTable = null;
     public WordMonitor(){
@@ -108,11 +108,7 @@ public class WordCount extends TriggerConfigured implements TriggerTool  {
     }
     @Override
     public void action(HTriggerEvent hte) {
-      Map<byte[], byte[]> nodes = this.getReader().GetMapValues();
-      int count = 0;
-      for (byte[] c : nodes.values()){
-        count += Bytes.toInt(c);
-      }
+      int count = (int) this.getReader().GetLongValues().sumLong();
       
       Put p = new Put(hte.getRowKey());
       p.add("count".getBytes(), "value".getBytes(), this.getCurrentRound(), Bytes.toBytes(count));
@@ -139,11 +135,11 @@ public class WordCount extends TriggerConfigured implements TriggerTool  {
     TriggerConf tmp = (TriggerConf)this.getConf();
     
     Trigger tg2 = new Trigger(tmp, "TextMonitor", "wikis", "content", "en", 
-        "org.apache.hadoop.hbase.trigger.example.TextMonitor", "INITIAL");
+        TextMonitor.class.getName(), "INITIAL");
     tg2.submit();
     
     Trigger tg1 = new Trigger(tmp, "WordMonitor", "words" ,"acc", "*" ,
-        "org.apache.hadoop.hbase.trigger.example.WordMonitor", "ACCUMULATOR");
+        WordMonitor.class.getName(), "ACCUMULATOR");
     tg1.submit();
 
    
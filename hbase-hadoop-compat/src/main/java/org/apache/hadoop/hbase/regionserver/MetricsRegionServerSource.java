@@ -172,6 +172,20 @@ public interface MetricsRegionServerSource extends BaseSource {
   static final String BLOCK_CACHE_EXPRESS_HIT_PERCENT = "blockCacheExpressHitPercent";
   static final String BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC =
       "The percent of the time that requests with the cache turned on hit the cache.";
+  static final String BLOCK_CACHE_COMPRESSED_HIT_COUNT = "blockCacheCompressedHitCount";
+  static final String BLOCK_CACHE_COMPRESSED_HIT_COUNT_DESC =
+      "Count of the hits on blocks cached compressed, each one decompressed the block.";
+  static final String BLOCK_CACHE_UNPACK_TIME = "blockCacheUnpackTime";
+  static final String BLOCK_CACHE_UNPACK_TIME_DESC =
+      "Time in ms spent decompressing blocks cached compressed.";
+  static final String CHUNK_POOL_HIT_COUNT = "memStoreChunkPoolHitCount";
+  static final String CHUNK_POOL_HIT_COUNT_DESC =
+      "Number of memstore chunks reused from the chunk pool.";
+  static final String CHUNK_POOL_MISS_COUNT = "memStoreChunkPoolMissCount";
+  static final String CHUNK_POOL_MISS_COUNT_DESC =
+      "Number of memstore chunks allocated because the chunk pool was empty.";
+  static final String CHUNK_POOL_SIZE = "memStoreChunkPoolSize";
+  static final String CHUNK_POOL_SIZE_DESC = "Number of memstore chunks in the chunk pool.";
   static final String RS_START_TIME_NAME = "regionServerStartTime";
   static final String ZOOKEEPER_QUORUM_NAME = "zookeeperQuorum";
   static final String SERVER_NAME_NAME = "serverName";
@@ -202,4 +202,29 @@ public interface MetricsRegionServerWrapper {
    * Get the amount of time that updates were blocked.
    */
   long getUpdatesBlockedTime();
+
+  /**
+   * Get the number of block cache hits on blocks cached compressed.
+   */
+  long getBlockCacheCompressedHitCount();
+
+  /**
+   * Get the time in ms spent decompressing blocks cached compressed.
+   */
+  long getBlockCacheUnpackTime();
+
+  /**
+   * Get the number of memstore chunks taken from the chunk pool.
+   */
+  long getMemStoreChunkPoolHitCount();
+
+  /**
+   * Get the number of memstore chunks that had to be allocated because the chunk pool was empty.
+   */
+  long getMemStoreChunkPoolMissCount();
+
+  /**
+   * Get the number of memstore chunks waiting in the chunk pool.
+   */
+  long getMemStoreChunkPoolSize();
 }
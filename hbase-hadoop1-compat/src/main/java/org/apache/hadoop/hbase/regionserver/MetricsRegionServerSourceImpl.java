@@ -186,6 +186,15 @@ public class MetricsRegionServerSourceImpl
               BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC,
               rsWrap.getBlockCacheHitCachingPercent())
           .addCounter(UPDATES_BLOCKED_TIME, UPDATES_BLOCKED_DESC, rsWrap.getUpdatesBlockedTime())
+          .addCounter(BLOCK_CACHE_COMPRESSED_HIT_COUNT, BLOCK_CACHE_COMPRESSED_HIT_COUNT_DESC,
+              rsWrap.getBlockCacheCompressedHitCount())
+          .addCounter(BLOCK_CACHE_UNPACK_TIME, BLOCK_CACHE_UNPACK_TIME_DESC,
+              rsWrap.getBlockCacheUnpackTime())
+          .addCounter(CHUNK_POOL_HIT_COUNT, CHUNK_POOL_HIT_COUNT_DESC,
+              rsWrap.getMemStoreChunkPoolHitCount())
+          .addCounter(CHUNK_POOL_MISS_COUNT, CHUNK_POOL_MISS_COUNT_DESC,
+              rsWrap.getMemStoreChunkPoolMissCount())
+          .addGauge(CHUNK_POOL_SIZE, CHUNK_POOL_SIZE_DESC, rsWrap.getMemStoreChunkPoolSize())
           .tag(ZOOKEEPER_QUORUM_NAME, ZOOKEEPER_QUORUM_DESC, rsWrap.getZookeeperQuorum())
           .tag(SERVER_NAME_NAME, SERVER_NAME_DESC, rsWrap.getServerName())
           .tag(CLUSTER_ID_NAME, CLUSTER_ID_DESC, rsWrap.getClusterId());
@@ -194,6 +194,16 @@ public class MetricsRegionServerSourceImpl
               BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC), rsWrap.getBlockCacheHitCachingPercent())
           .addCounter(Interns.info(UPDATES_BLOCKED_TIME, UPDATES_BLOCKED_DESC),
               rsWrap.getUpdatesBlockedTime())
+          .addCounter(Interns.info(BLOCK_CACHE_COMPRESSED_HIT_COUNT,
+              BLOCK_CACHE_COMPRESSED_HIT_COUNT_DESC), rsWrap.getBlockCacheCompressedHitCount())
+          .addCounter(Interns.info(BLOCK_CACHE_UNPACK_TIME, BLOCK_CACHE_UNPACK_TIME_DESC),
+              rsWrap.getBlockCacheUnpackTime())
+          .addCounter(Interns.info(CHUNK_POOL_HIT_COUNT, CHUNK_POOL_HIT_COUNT_DESC),
+              rsWrap.getMemStoreChunkPoolHitCount())
+          .addCounter(Interns.info(CHUNK_POOL_MISS_COUNT, CHUNK_POOL_MISS_COUNT_DESC),
+              rsWrap.getMemStoreChunkPoolMissCount())
+          .addGauge(Interns.info(CHUNK_POOL_SIZE, CHUNK_POOL_SIZE_DESC),
+              rsWrap.getMemStoreChunkPoolSize())
           .tag(Interns.info(ZOOKEEPER_QUORUM_NAME, ZOOKEEPER_QUORUM_DESC),
               rsWrap.getZookeeperQuorum())
           .tag(Interns.info(SERVER_NAME_NAME, SERVER_NAME_DESC), rsWrap.getServerName())
@@ -0,0 +1,301 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.trigger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.Assert;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.IntegrationTests;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.trigger.example.GenerateRandomWebGraph;
+import org.apache.hadoop.hbase.trigger.example.GenerateWordCount;
+import org.apache.hadoop.hbase.trigger.example.PageRankDist;
+import org.apache.hadoop.hbase.trigger.example.PageRankSum;
+import org.apache.hadoop.hbase.trigger.example.WordCount;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * End-to-end benchmark of the Domino example applications. Brings up an in-process mini
+ * cluster with one region server, generates the input of every selected workload, submits
+ * its triggers, feeds the input and waits until the trigger pipeline is quiescent.
+ *
+ * For every workload one JSON line is appended to the output file, with the input size,
+ * convergence time (first input write until the last trigger event was processed), events
+ * and actions per second, write amplification (KeyValues written to the WAL of user tables
+ * divided by the KeyValues written by the generator) and the engine counters and per-stage
+ * latency percentiles from {@link TriggerStats}.
+ *
+ * The engine counters are read in-process, so this test never runs against a distributed
+ * cluster. Sizes and workloads are set through the configuration, e.g.
+ * -Dhbase.IntegrationTestDominoWorkloads.pages=5000
+ */
+@Category(IntegrationTests.class)
+public class IntegrationTestDominoWorkloads {
+  private static final Log LOG = LogFactory.getLog(IntegrationTestDominoWorkloads.class);
+
+  private static final String KEY_PREFIX = "hbase." + IntegrationTestDominoWorkloads.class.getSimpleName() + ".";
+  private static final String WORKLOADS_KEY = KEY_PREFIX + "workloads";
+  private static final String PAGES_KEY = KEY_PREFIX + "pages";
+  private static final String OUTLINKS_KEY = KEY_PREFIX + "outlinks";
+  private static final String DOCUMENTS_KEY = KEY_PREFIX + "documents";
+  private static final String QUIET_MS_KEY = KEY_PREFIX + "quiet.ms";
+  private static final String TIMEOUT_MS_KEY = KEY_PREFIX + "timeout.ms";
+  private static final String OUTPUT_KEY = KEY_PREFIX + "output";
+
+  private static final String DEFAULT_WORKLOADS = "pagerank,wordcount";
+  private static final int DEFAULT_PAGES = 1000;
+  private static final int DEFAULT_OUTLINKS = 5;
+  private static final int DEFAULT_DOCUMENTS = 1000;
+  private static final long DEFAULT_QUIET_MS = 3000;
+  private static final long DEFAULT_TIMEOUT_MS = 30 * 60 * 1000;
+  private static final String DEFAULT_OUTPUT = "target/domino-benchmark.json";
+
+  /** Where TriggerClient picks up the trigger jar, see TriggerSubmissionFiles. */
+  private static final String TRIGGER_JAR = "/tmp/hbase/triggerJar/trigger.jar";
+
+  private static final int NUM_SERVERS = 1;
+
+  private HBaseTestingUtility util;
+  private Configuration conf;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration base = HBaseConfiguration.create();
+    util = new HBaseTestingUtility(base);
+    // Example actions open their tables with HBaseConfiguration.create(), so the mini
+    // cluster has to listen on the zookeeper port of the default configuration.
+    util.getConfiguration().setInt("test.hbase.zookeeper.property.clientPort",
+        base.getInt(HConstants.ZOOKEEPER_CLIENT_PORT, HConstants.DEFAULT_ZOOKEPER_CLIENT_PORT));
+    // More than one region server in the same JVM would register every trigger twice
+    // in the static LocalTriggerManage.
+    util.startMiniCluster(NUM_SERVERS);
+    conf = util.getConfiguration();
+    buildTriggerJar(PageRankDist.class, new File(TRIGGER_JAR));
+    TriggerStats.setStagesEnabled(true);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    TriggerStats.setStagesEnabled(false);
+    util.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testWorkloads() throws Exception {
+    String[] workloads = conf.get(WORKLOADS_KEY, DEFAULT_WORKLOADS).split(",");
+    for (String w : workloads) {
+      String result;
+      if ("pagerank".equals(w.trim())) {
+        result = runPageRank();
+      } else if ("wordcount".equals(w.trim())) {
+        result = runWordCount();
+      } else {
+        throw new IllegalArgumentException("Unknown workload " + w);
+      }
+      LOG.info("Domino benchmark result: " + result);
+      appendResult(result);
+    }
+  }
+
+  private String runPageRank() throws Exception {
+    int pages = conf.getInt(PAGES_KEY, DEFAULT_PAGES);
+    int outlinks = conf.getInt(OUTLINKS_KEY, DEFAULT_OUTLINKS);
+    GenerateRandomWebGraph gen = new GenerateRandomWebGraph(conf, pages, outlinks);
+
+    List<Trigger> triggers = new ArrayList<Trigger>();
+    triggers.add(submit("PageRankDist", "wbpages", "prvalues", "pr",
+        PageRankDist.class.getName(), TRIGGERTYPE.ORDINARY));
+    triggers.add(submit("PageRankSum", "PageRankAcc", "nodes", "*",
+        PageRankSum.class.getName(), TRIGGERTYPE.ORDINARY));
+
+    waitForQuiescence();
+    TriggerStats.reset();
+    long start = EnvironmentEdgeManager.currentTimeMillis();
+    gen.createWebGraph();
+    long end = waitForQuiescence();
+    String result = report("pagerank", "{\"pages\":" + gen.getPagesCreated() + ",\"maxOutLinks\":" + outlinks + "}",
+        gen.getKVsWritten(), start, end);
+    stop(triggers);
+    return result;
+  }
+
+  private String runWordCount() throws Exception {
+    int documents = conf.getInt(DOCUMENTS_KEY, DEFAULT_DOCUMENTS);
+    util.createTable(Bytes.toBytes("wikis"), new byte[][] { Bytes.toBytes("content") });
+    util.createTable(Bytes.toBytes("words"), new byte[][] { Bytes.toBytes("acc"), Bytes.toBytes("count") });
+
+    List<Trigger> triggers = new ArrayList<Trigger>();
+    triggers.add(submit("TextMonitor", "wikis", "content", "en",
+        WordCount.TextMonitor.class.getName(), TRIGGERTYPE.INITIAL));
+    triggers.add(submit("WordMonitor", "words", "acc", "*",
+        WordCount.WordMonitor.class.getName(), TRIGGERTYPE.ACCUMULATOR));
+
+    waitForQuiescence();
+    TriggerStats.reset();
+    long start = EnvironmentEdgeManager.currentTimeMillis();
+    HTable wikis = new HTable(conf, "wikis");
+    byte[] content = Bytes.toBytes(GenerateWordCount.CONTENT);
+    for (int i = 0; i < documents; i++) {
+      Put p = new Put(Bytes.toBytes(i));
+      p.add(Bytes.toBytes("content"), Bytes.toBytes("en"), content);
+      wikis.put(p);
+    }
+    wikis.flushCommits();
+    wikis.close();
+    long end = waitForQuiescence();
+    String result = report("wordcount", "{\"documents\":" + documents + "}", documents, start, end);
+    stop(triggers);
+    return result;
+  }
+
+  private Trigger submit(String name, String table, String family, String column,
+      String actionClass, TRIGGERTYPE type) throws Exception {
+    Trigger tg = new Trigger(new TriggerConf(conf), name, table, family, column, actionClass,
+        type.toString());
+    tg.submit();
+    return tg;
+  }
+
+  private void stop(List<Trigger> triggers) throws Exception {
+    for (Trigger tg : triggers) {
+      tg.stop(tg.getTriggerOnTable(), Integer.parseInt(tg.getTriggerId()));
+    }
+  }
+
+  /**
+   * Wait until no trigger event is pending and the counters did not move for the quiet period.
+   * @return the time of the last observed progress
+   */
+  private long waitForQuiescence() throws InterruptedException {
+    long quietMs = conf.getLong(QUIET_MS_KEY, DEFAULT_QUIET_MS);
+    long timeoutMs = conf.getLong(TIMEOUT_MS_KEY, DEFAULT_TIMEOUT_MS);
+    long begin = EnvironmentEdgeManager.currentTimeMillis();
+    long lastChange = begin;
+    long lastProgress = -1;
+    while (true) {
+      long now = EnvironmentEdgeManager.currentTimeMillis();
+      long progress = TriggerStats.getFired() + TriggerStats.getCompleted() + TriggerStats.getDropped();
+      if (progress != lastProgress || !TriggerStats.isQuiescent()) {
+        lastProgress = progress;
+        lastChange = now;
+      } else if (now - lastChange >= quietMs) {
+        return lastChange;
+      }
+      Assert.assertTrue("Trigger pipeline did not quiesce within " + timeoutMs + " ms: "
+          + TriggerStats.toJson(), now - begin < timeoutMs);
+      Thread.sleep(100);
+    }
+  }
+
+  private String report(String workload, String params, long inputKVs, long start, long end) {
+    long convergenceMs = Math.max(1, end - start);
+    double seconds = convergenceMs / 1000D;
+    Assert.assertTrue("No trigger event fired for " + workload, TriggerStats.getFired() > 0);
+    return String.format(Locale.ROOT, "{\"workload\":\"%s\",\"params\":%s,\"inputKVs\":%d,"
+        + "\"convergenceMs\":%d,\"eventsPerSec\":%.1f,\"actionsPerSec\":%.1f,"
+        + "\"writeAmplification\":%.3f,\"engine\":%s}",
+        workload, params, inputKVs, convergenceMs,
+        TriggerStats.getFired() / seconds, TriggerStats.ACTION.getCount() / seconds,
+        inputKVs == 0 ? 0D : (double) TriggerStats.getWalKVs() / inputKVs, TriggerStats.toJson());
+  }
+
+  private void appendResult(String result) throws IOException {
+    File out = new File(conf.get(OUTPUT_KEY, DEFAULT_OUTPUT));
+    if (out.getParentFile() != null) {
+      out.getParentFile().mkdirs();
+    }
+    PrintWriter w = new PrintWriter(new FileWriter(out, true));
+    try {
+      w.println(result);
+    } finally {
+      w.close();
+    }
+  }
+
+  /**
+   * TriggerClient always ships the jar found at TRIGGER_JAR. Put the classes of the example
+   * package there, either by copying the jar they come from or by packing their directory.
+   */
+  private static void buildTriggerJar(Class<?> cls, File target) throws IOException {
+    File source = new File(cls.getProtectionDomain().getCodeSource().getLocation().getPath());
+    target.getParentFile().mkdirs();
+    if (source.isFile()) {
+      copy(new FileInputStream(source), new FileOutputStream(target));
+      return;
+    }
+    String pkg = cls.getPackage().getName().replace('.', '/');
+    JarOutputStream jar = new JarOutputStream(new FileOutputStream(target));
+    try {
+      File dir = new File(source, pkg);
+      File[] classes = dir.listFiles();
+      if (classes != null) {
+        for (File f : classes) {
+          if (!f.isFile()) {
+            continue;
+          }
+          jar.putNextEntry(new JarEntry(pkg + "/" + f.getName()));
+          copy(new FileInputStream(f), jar);
+          jar.closeEntry();
+        }
+      }
+    } finally {
+      jar.close();
+    }
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buf = new byte[8192];
+    try {
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        out.write(buf, 0, n);
+      }
+    } finally {
+      in.close();
+      if (!(out instanceof JarOutputStream)) {
+        out.close();
+      }
+    }
+  }
+}
@@ -81,6 +81,7 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
   public static final String CACHE_INDEX_ON_WRITE = "CACHE_INDEX_ON_WRITE";
   public static final String CACHE_BLOOMS_ON_WRITE = "CACHE_BLOOMS_ON_WRITE";
   public static final String EVICT_BLOCKS_ON_CLOSE = "EVICT_BLOCKS_ON_CLOSE";
+  public static final String PREFETCH_BLOCKS_ON_OPEN = "PREFETCH_BLOCKS_ON_OPEN";
 
   /**
    * Size of storefile/hfile 'blocks'.  Default is {@link #DEFAULT_BLOCKSIZE}.
@@ -189,6 +190,11 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
    */
   public static final boolean DEFAULT_EVICT_BLOCKS_ON_CLOSE = false;
 
+  /**
+   * Default setting for whether to prefetch blocks into the blockcache on open.
+   */
+  public static final boolean DEFAULT_PREFETCH_BLOCKS_ON_OPEN = false;
+
   private final static Map<String, String> DEFAULT_VALUES
     = new HashMap<String, String>();
   private final static Set<ImmutableBytesWritable> RESERVED_KEYWORDS
@@ -210,6 +216,7 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
       DEFAULT_VALUES.put(CACHE_INDEX_ON_WRITE, String.valueOf(DEFAULT_CACHE_INDEX_ON_WRITE));
       DEFAULT_VALUES.put(CACHE_BLOOMS_ON_WRITE, String.valueOf(DEFAULT_CACHE_BLOOMS_ON_WRITE));
       DEFAULT_VALUES.put(EVICT_BLOCKS_ON_CLOSE, String.valueOf(DEFAULT_EVICT_BLOCKS_ON_CLOSE));
+      DEFAULT_VALUES.put(PREFETCH_BLOCKS_ON_OPEN, String.valueOf(DEFAULT_PREFETCH_BLOCKS_ON_OPEN));
       for (String s : DEFAULT_VALUES.keySet()) {
         RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(s)));
       }
@@ -874,6 +881,25 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     return setValue(EVICT_BLOCKS_ON_CLOSE, Boolean.toString(value));
   }
 
+  /**
+   * @return true if we should prefetch blocks into the blockcache on open
+   */
+  public boolean shouldPrefetchBlocksOnOpen() {
+    String value = getValue(PREFETCH_BLOCKS_ON_OPEN);
+    if (value != null) {
+      return Boolean.valueOf(value).booleanValue();
+    }
+    return DEFAULT_PREFETCH_BLOCKS_ON_OPEN;
+  }
+
+  /**
+   * @param value true if we should prefetch blocks into the blockcache on open
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setPrefetchBlocksOnOpen(boolean value) {
+    return setValue(PREFETCH_BLOCKS_ON_OPEN, Boolean.toString(value));
+  }
+
   /**
    * @see java.lang.Object#toString()
    */
@@ -0,0 +1,257 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.io.RawComparator;
+
+/**
+ * Counts the reads of the data blocks of one HFile, so a compaction of the
+ * file knows which of its key ranges were hot, see
+ * {@link CompactionCacheWarmer}.  Only reads that would cache the block are
+ * counted.
+ * <p>
+ * The counts are kept in a fixed array of small saturating counters, about
+ * two per data block of the file and at most {@link #MAX_COUNTERS}, a block
+ * going to the counter its offset hashes to.  Blocks sharing a counter share
+ * their count.  Once the file was read {@link #SAMPLE_FACTOR} times per
+ * counter, all counts are halved, so they follow the recent reads rather
+ * than those since the file was opened.  A block is hot if it was read at
+ * least {@link #HOT_ACCESSES} times and twice as often as the average
+ * block read, so a file read evenly has no hot blocks.
+ * <p>
+ * Blocks are counted by offset, which says nothing about their keys.  The
+ * compaction reads every data block of the file in key order anyway, so
+ * once {@link #beginCompaction()} was called the scanner of the compaction
+ * reports each block it moves on to, and the first keys of the hot ones and
+ * of the blocks following them become the bounds of the hot key ranges.
+ * Consecutive hot blocks make one range.
+ */
+@InterfaceAudience.Private
+public class BlockAccessStats implements HeapSize {
+  /** Least reads, since the counts were last halved, of a hot data block */
+  static final int HOT_ACCESSES = 2;
+  /** Most counters of a file */
+  static final int MAX_COUNTERS = 1 << 14;
+  /** Reads per counter after which all counts are halved */
+  static final int SAMPLE_FACTOR = 8;
+  // Counts saturate there, as reads past it are as hot
+  private static final int MAX_COUNT = 2 * SAMPLE_FACTOR - 1;
+  private static final int MIN_COUNTERS = 16;
+
+  private static final long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT +
+      4 * ClassSize.REFERENCE + 4 * Bytes.SIZEOF_INT) +
+      ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) +
+      2 * ClassSize.ATOMIC_LONG;
+
+  private final AtomicIntegerArray counts;
+  private final int shift;
+  private final int sampleSize;
+  // Reads counted since the counts were last halved
+  private final AtomicLong sampled = new AtomicLong(0);
+  // Sum of the counts
+  private final AtomicLong total = new AtomicLong(0);
+  // Blocks the counts are spread over
+  private final int blocks;
+
+  // Hot key ranges of a running compaction, in key order.  Only used by the
+  // compaction thread.
+  private List<KeyRange> ranges;
+  private int cursor;
+
+  private static class KeyRange {
+    private final byte[] start;
+    // Exclusive, null while the compaction has not read past the range
+    private byte[] end;
+
+    KeyRange(final byte[] start) {
+      this.start = start;
+    }
+  }
+
+  /**
+   * @param dataBlocks Number of data blocks of the file, or
+   * Integer.MAX_VALUE if not known
+   */
+  public BlockAccessStats(final int dataBlocks) {
+    int bits = Integer.numberOfTrailingZeros(MIN_COUNTERS);
+    while ((1 << bits) < MAX_COUNTERS && (1 << bits) < 2L * dataBlocks) {
+      bits++;
+    }
+    this.counts = new AtomicIntegerArray(1 << bits);
+    this.blocks = Math.max(1, Math.min(dataBlocks, counts.length()));
+    this.shift = 64 - bits;
+    this.sampleSize = SAMPLE_FACTOR << bits;
+  }
+
+  /**
+   * Fibonacci hashing, spreads the offsets of the blocks, which are about
+   * evenly spaced, over the counters.
+   */
+  private int counter(final long offset) {
+    return (int) ((offset * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  /**
+   * A data block was read.
+   * @param offset Offset of the block in the file
+   */
+  public void recordAccess(final long offset) {
+    int i = counter(offset);
+    while (true) {
+      int count = counts.get(i);
+      if (count >= MAX_COUNT) break;
+      if (counts.compareAndSet(i, count, count + 1)) {
+        total.incrementAndGet();
+        break;
+      }
+    }
+    if (sampled.incrementAndGet() >= sampleSize) {
+      age();
+    }
+  }
+
+  /**
+   * Halves all counts.  Reads counted meanwhile may be halved or not.
+   */
+  private synchronized void age() {
+    // Another reader aged them already
+    if (sampled.get() < sampleSize) return;
+    long sum = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      int count;
+      do {
+        count = counts.get(i);
+      } while (!counts.compareAndSet(i, count, count >>> 1));
+      sum += count >>> 1;
+    }
+    total.set(sum);
+    sampled.addAndGet(-sampleSize);
+  }
+
+  private boolean isHotCount(final int count, final long sum) {
+    return count >= HOT_ACCESSES && (long) count * blocks >= 2 * sum;
+  }
+
+  /**
+   * @return true if the data block at <code>offset</code> was read often
+   * enough to be hot
+   */
+  public boolean isHot(final long offset) {
+    return isHotCount(counts.get(counter(offset)), total.get());
+  }
+
+  /**
+   * @return Number of counters of hot data blocks of the file, about the
+   * number of hot blocks
+   */
+  public int getHotBlockCount() {
+    long sum = total.get();
+    int hot = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      if (isHotCount(counts.get(i), sum)) hot++;
+    }
+    return hot;
+  }
+
+  @Override
+  public long heapSize() {
+    return FIXED_OVERHEAD + ClassSize.align(ClassSize.ARRAY +
+        counts.length() * Bytes.SIZEOF_INT);
+  }
+
+  /**
+   * Starts collecting the hot key ranges of the file, for a compaction about
+   * to read it.
+   */
+  public void beginCompaction() {
+    this.ranges = new ArrayList<KeyRange>();
+    this.cursor = 0;
+  }
+
+  /**
+   * Drops the hot key ranges collected for a compaction.
+   */
+  public void endCompaction() {
+    this.ranges = null;
+  }
+
+  boolean isCollectingRanges() {
+    return this.ranges != null;
+  }
+
+  /**
+   * @return true if the compaction reading the file moving on to the data
+   * block at <code>offset</code> starts or ends a hot range there, in which
+   * case the first key of the block must be passed to
+   * {@link #addRangeBound(ByteBuffer)}
+   */
+  boolean isRangeBound(final long offset) {
+    return isHot(offset) != inHotRange();
+  }
+
+  /**
+   * Starts a hot range at <code>key</code>, or ends the current one before it.
+   */
+  void addRangeBound(final ByteBuffer key) {
+    if (inHotRange()) {
+      ranges.get(ranges.size() - 1).end = Bytes.getBytes(key);
+    } else {
+      ranges.add(new KeyRange(Bytes.getBytes(key)));
+    }
+  }
+
+  private boolean inHotRange() {
+    return !ranges.isEmpty() && ranges.get(ranges.size() - 1).end == null;
+  }
+
+  /**
+   * Whether the keys from <code>firstKey</code> to the given last key, both
+   * included, overlap a hot range collected so far.  The keys asked for must
+   * grow from one call to the next, as the blocks of a file being written.
+   */
+  boolean overlapsHotRange(final RawComparator<byte[]> comparator,
+      final byte[] firstKey, final byte[] lastKey, final int lastKeyOffset,
+      final int lastKeyLength) {
+    if (ranges == null) return false;
+    while (cursor < ranges.size()) {
+      KeyRange range = ranges.get(cursor);
+      if (range.end != null &&
+          comparator.compare(range.end, 0, range.end.length,
+              firstKey, 0, firstKey.length) <= 0) {
+        // The range ends before the keys asked for, and so before any asked
+        // for later
+        cursor++;
+        continue;
+      }
+      return comparator.compare(range.start, 0, range.start.length,
+          lastKey, lastKeyOffset, lastKeyLength) <= 0;
+    }
+    return false;
+  }
+}
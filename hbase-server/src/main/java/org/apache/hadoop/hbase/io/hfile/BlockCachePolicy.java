@@ -0,0 +1,104 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Collection;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Decides which blocks an {@link LruBlockCache} takes in once it is full and
+ * which ones it evicts.  The class is set with {@link #POLICY_CLASS_KEY};
+ * without one the cache keeps its own priority buckets, evicting the least
+ * recently used blocks of each.
+ * <p>
+ * The cache calls {@link #recordAccess(BlockCacheKey)} for every lookup, hit
+ * or miss, {@link #admit(CachedBlock)} before caching a block that would grow
+ * it past the size evictions bring it down to, and {@link #evict(long)} from
+ * its eviction thread, one run at a time.
+ */
+@InterfaceAudience.Private
+public abstract class BlockCachePolicy {
+  public static final String POLICY_CLASS_KEY = "hbase.lru.blockcache.policy.class";
+
+  private LruBlockCache cache;
+
+  /**
+   * Called once, by the constructor of the cache.
+   * @param conf Configuration the cache was created with
+   */
+  protected void init(final LruBlockCache cache, final Configuration conf) {
+    this.cache = cache;
+  }
+
+  /**
+   * A block was looked up.
+   */
+  public abstract void recordAccess(BlockCacheKey cacheKey);
+
+  /**
+   * @param candidate Block about to be cached while the cache is full
+   * @return false to leave the block out of the cache
+   */
+  public abstract boolean admit(CachedBlock candidate);
+
+  /**
+   * Evicts blocks until at least <code>bytesToFree</code> bytes are freed or
+   * the cache is empty.
+   * @return bytes freed
+   */
+  public abstract long evict(long bytesToFree);
+
+  protected LruBlockCache getCache() {
+    return this.cache;
+  }
+
+  /**
+   * @return Live view of the cached blocks.  Its iterators are weakly
+   * consistent and may return blocks evicted after they were created.
+   */
+  protected final Collection<CachedBlock> getCachedBlocks() {
+    return this.cache.getCachedBlocks();
+  }
+
+  /**
+   * Evicts <code>block</code>, handing it to the victim cache if there is one.
+   * @return heap size of the block, or 0 if it was not cached anymore
+   */
+  protected final long evictBlock(final CachedBlock block) {
+    if (!this.cache.isCached(block)) return 0;
+    return this.cache.evictBlock(block, true);
+  }
+
+  /**
+   * @return The policy configured in <code>conf</code>, set up for
+   * <code>cache</code>, or null if none is.
+   */
+  static BlockCachePolicy create(final LruBlockCache cache,
+      final Configuration conf) {
+    Class<? extends BlockCachePolicy> clazz =
+        conf.getClass(POLICY_CLASS_KEY, null, BlockCachePolicy.class);
+    if (clazz == null) return null;
+    BlockCachePolicy policy = ReflectionUtils.newInstance(clazz, conf);
+    policy.init(cache, conf);
+    return policy;
+  }
+}
@@ -61,8 +61,9 @@ public class CacheConfig {
       "hfile.block.bloom.cacheonwrite";
 
   /**
-   * TODO: Implement this (jgray)
-   * Configuration key to cache data blocks in compressed format.
+   * Configuration key to cache data blocks in compressed format, that is as
+   * they are on disk.  Each cache hit decompresses the block again, in
+   * exchange the cache holds as many more blocks as the compression ratio.
    */
   public static final String CACHE_DATA_BLOCKS_COMPRESSED_KEY =
       "hbase.rs.blockcache.cachedatacompressed";
@@ -74,6 +75,28 @@ public class CacheConfig {
   public static final String EVICT_BLOCKS_ON_CLOSE_KEY =
       "hbase.rs.evictblocksonclose";
 
+  /**
+   * Configuration key to read all blocks of a file into the block cache in
+   * the background when the file is opened.
+   */
+  public static final String PREFETCH_BLOCKS_ON_OPEN_KEY =
+      "hbase.rs.prefetchblocksonopen";
+
+  /**
+   * Configuration key to count the reads of the data blocks of each file and
+   * have compactions cache the output blocks overlapping the key ranges that
+   * were hot in their inputs, see {@link CompactionCacheWarmer}.
+   */
+  public static final String CACHE_HOT_BLOCKS_ON_COMPACTION_KEY =
+      "hbase.rs.cachehotblocksoncompaction";
+
+  /**
+   * Configuration key for the share of the block cache a single compaction
+   * may fill with hot output blocks.
+   */
+  public static final String CACHE_HOT_BLOCKS_ON_COMPACTION_BUDGET_KEY =
+      "hbase.rs.cachehotblocksoncompaction.budget";
+
   /**
    * Configuration keys for Bucket cache
    */
@@ -105,6 +128,9 @@ public class CacheConfig {
   public static final boolean DEFAULT_CACHE_BLOOMS_ON_WRITE = false;
   public static final boolean DEFAULT_EVICT_ON_CLOSE = false;
   public static final boolean DEFAULT_COMPRESSED_CACHE = false;
+  public static final boolean DEFAULT_PREFETCH_ON_OPEN = false;
+  public static final boolean DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION = false;
+  public static final float DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION_BUDGET = 0.1f;
 
   /** Local reference to the block cache, null if completely disabled */
   private final BlockCache blockCache;
@@ -133,6 +159,15 @@ public class CacheConfig {
   /** Whether data blocks should be stored in compressed form in the cache */
   private final boolean cacheCompressed;
 
+  /** Whether the blocks of a file should be prefetched when it is opened */
+  private final boolean prefetchOnOpen;
+
+  /** Whether compactions should cache the output overlapping hot inputs */
+  private final boolean cacheHotBlocksOnCompaction;
+
+  /** Picks the data blocks to cache while writing a compaction output */
+  private CompactionCacheWarmer compactionWarmer;
+
   /**
    * Create a cache configuration using the specified configuration object and
    * family descriptor.
@@ -153,7 +188,11 @@ public class CacheConfig {
             DEFAULT_CACHE_BLOOMS_ON_WRITE) || family.shouldCacheBloomsOnWrite(),
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY,
             DEFAULT_EVICT_ON_CLOSE) || family.shouldEvictBlocksOnClose(),
-        conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_COMPRESSED_CACHE)
+        conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_COMPRESSED_CACHE),
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY,
+            DEFAULT_PREFETCH_ON_OPEN) || family.shouldPrefetchBlocksOnOpen(),
+        conf.getBoolean(CACHE_HOT_BLOCKS_ON_COMPACTION_KEY,
+            DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION)
      );
   }
 
@@ -174,7 +213,10 @@ public class CacheConfig {
                 DEFAULT_CACHE_BLOOMS_ON_WRITE),
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY, DEFAULT_EVICT_ON_CLOSE),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY,
-            DEFAULT_COMPRESSED_CACHE)
+            DEFAULT_COMPRESSED_CACHE),
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN),
+        conf.getBoolean(CACHE_HOT_BLOCKS_ON_COMPACTION_KEY,
+            DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION)
      );
   }
 
@@ -189,12 +231,16 @@ public class CacheConfig {
    * @param cacheBloomsOnWrite whether blooms should be cached on write
    * @param evictOnClose whether blocks should be evicted when HFile is closed
    * @param cacheCompressed whether to store blocks as compressed in the cache
+   * @param prefetchOnOpen whether to prefetch blocks upon open
+   * @param cacheHotBlocksOnCompaction whether compactions should cache the
+   *        output blocks overlapping hot key ranges of their inputs
    */
   CacheConfig(final BlockCache blockCache,
       final boolean cacheDataOnRead, final boolean inMemory,
       final boolean cacheDataOnWrite, final boolean cacheIndexesOnWrite,
       final boolean cacheBloomsOnWrite, final boolean evictOnClose,
-      final boolean cacheCompressed) {
+      final boolean cacheCompressed, final boolean prefetchOnOpen,
+      final boolean cacheHotBlocksOnCompaction) {
     this.blockCache = blockCache;
     this.cacheDataOnRead = cacheDataOnRead;
     this.inMemory = inMemory;
@@ -203,6 +249,8 @@ public class CacheConfig {
     this.cacheBloomsOnWrite = cacheBloomsOnWrite;
     this.evictOnClose = evictOnClose;
     this.cacheCompressed = cacheCompressed;
+    this.prefetchOnOpen = prefetchOnOpen;
+    this.cacheHotBlocksOnCompaction = cacheHotBlocksOnCompaction;
   }
 
   /**
@@ -213,7 +261,8 @@ public class CacheConfig {
     this(cacheConf.blockCache, cacheConf.cacheDataOnRead, cacheConf.inMemory,
         cacheConf.cacheDataOnWrite, cacheConf.cacheIndexesOnWrite,
         cacheConf.cacheBloomsOnWrite, cacheConf.evictOnClose,
-        cacheConf.cacheCompressed);
+        cacheConf.cacheCompressed, cacheConf.prefetchOnOpen,
+        cacheConf.cacheHotBlocksOnCompaction);
   }
 
   /**
@@ -276,6 +325,31 @@ public class CacheConfig {
     this.cacheDataOnWrite = cacheDataOnWrite;
   }
 
+  /**
+   * @return true if the reads of data blocks should be counted, and
+   *         compactions cache the output blocks overlapping the key ranges
+   *         that were hot in their inputs, false if not
+   */
+  public boolean shouldCacheHotBlocksOnCompaction() {
+    return isBlockCacheEnabled() && this.cacheHotBlocksOnCompaction;
+  }
+
+  /**
+   * @return The warmer picking the data blocks to cache while writing a
+   *         compaction output, or null
+   */
+  public CompactionCacheWarmer getCompactionWarmer() {
+    return isBlockCacheEnabled() ? this.compactionWarmer : null;
+  }
+
+  /**
+   * Only set on the copy a compaction writes its output with.
+   * @param compactionWarmer picks the data blocks to cache on write
+   */
+  public void setCompactionWarmer(CompactionCacheWarmer compactionWarmer) {
+    this.compactionWarmer = compactionWarmer;
+  }
+
   /**
    * @return true if index blocks should be written to the cache when an HFile
    *         is written, false if not
@@ -316,6 +390,23 @@ public class CacheConfig {
     return isBlockCacheEnabled() && this.cacheCompressed;
   }
 
+  /**
+   * @return true if blocks of this category should be compressed in the
+   *         cache.  Only data blocks are, index and bloom blocks are read too
+   *         often to pay for decompression on every hit.
+   */
+  public boolean shouldCacheCompressed(BlockCategory category) {
+    return shouldCacheCompressed() && category == BlockCategory.DATA;
+  }
+
+  /**
+   * @return true if the blocks of an HFile should be read into the cache in
+   *         the background when the file is opened, false if not
+   */
+  public boolean shouldPrefetchOnOpen() {
+    return isBlockCacheEnabled() && this.prefetchOnOpen;
+  }
+
   @Override
   public String toString() {
     if (!isBlockCacheEnabled()) {
@@ -327,7 +418,9 @@ public class CacheConfig {
       "[cacheIndexesOnWrite=" + shouldCacheIndexesOnWrite() + "] " +
       "[cacheBloomsOnWrite=" + shouldCacheBloomsOnWrite() + "] " +
       "[cacheEvictOnClose=" + shouldEvictOnClose() + "] " +
-      "[cacheCompressed=" + shouldCacheCompressed() + "]";
+      "[cacheCompressed=" + shouldCacheCompressed() + "] " +
+      "[prefetchOnOpen=" + shouldPrefetchOnOpen() + "] " +
+      "[cacheHotBlocksOnCompaction=" + shouldCacheHotBlocksOnCompaction() + "]";
   }
 
   // Static block cache reference and methods
@@ -0,0 +1,103 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Collection;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.RawComparator;
+
+/**
+ * Decides which data blocks the output of a compaction caches on write, so
+ * the hot working set of the compacted files is still cached once their
+ * readers are closed.  A block is cached if its keys overlap a hot key range
+ * of one of the inputs, see {@link BlockAccessStats}, until the blocks cached
+ * add up to the budget of the compaction.
+ * <p>
+ * Set on the {@link CacheConfig} the output is written with.  Only used by
+ * the compaction thread.
+ */
+@InterfaceAudience.Private
+public class CompactionCacheWarmer {
+  private final Collection<BlockAccessStats> inputs;
+  private final long budget;
+  private long cachedBytes = 0;
+  private int cachedBlocks = 0;
+
+  /**
+   * Starts collecting the hot key ranges of the inputs, call before the
+   * compaction opens its scanners.
+   * @param inputs Access stats of the files being compacted
+   * @param budget Most bytes of data blocks to cache
+   */
+  public CompactionCacheWarmer(final Collection<BlockAccessStats> inputs,
+      final long budget) {
+    this.inputs = inputs;
+    this.budget = budget;
+    for (BlockAccessStats stats : inputs) {
+      stats.beginCompaction();
+    }
+  }
+
+  /**
+   * @param comparator Key comparator of the file being written
+   * @param firstKey First key of the block
+   * @param lastKey Array holding the last key of the block
+   * @param size Size of the block
+   * @return true if the data block just written should be cached
+   */
+  boolean shouldCache(final RawComparator<byte[]> comparator,
+      final byte[] firstKey, final byte[] lastKey, final int lastKeyOffset,
+      final int lastKeyLength, final long size) {
+    if (cachedBytes + size > budget) return false;
+    boolean hot = false;
+    // Every input has to move its cursor past the block
+    for (BlockAccessStats stats : inputs) {
+      hot |= stats.overlapsHotRange(comparator, firstKey, lastKey,
+          lastKeyOffset, lastKeyLength);
+    }
+    if (!hot) return false;
+    cachedBytes += size;
+    cachedBlocks++;
+    return true;
+  }
+
+  /**
+   * Releases the hot key ranges of the inputs.
+   */
+  public void close() {
+    for (BlockAccessStats stats : inputs) {
+      stats.endCompaction();
+    }
+  }
+
+  /**
+   * @return Bytes of data blocks cached so far
+   */
+  public long getCachedBytes() {
+    return cachedBytes;
+  }
+
+  /**
+   * @return Number of data blocks cached so far
+   */
+  public int getCachedBlocks() {
+    return cachedBlocks;
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Estimates how often keys were seen recently.  The first occurrence of a key
+ * only sets its bits in a small bloom filter, the doorkeeper; the following
+ * ones are counted in a count-min sketch of 4 bit counters packed sixteen to
+ * a long.  Each key has one counter in each of four rows and its estimate is
+ * the smallest of them, plus one if the doorkeeper knows it.  Collisions can
+ * only make a key look more popular than it is, and keys seen once, like the
+ * blocks of a scan, do not add to the collisions of the counters.
+ * <p>
+ * All counters are halved and the doorkeeper cleared once the counters took
+ * ten increments per long, or the doorkeeper took a key per four of its bits,
+ * so the estimates follow a changing workload.
+ * <p>
+ * Updates are not synchronized.  Two racing updates of the same long may lose
+ * one of them, which only makes a key look slightly colder; the sketch is an
+ * estimate either way and this keeps it off the lock path of cache reads.
+ */
+@InterfaceAudience.Private
+class FrequencySketch {
+  /** Largest estimate */
+  static final int MAX_FREQUENCY = 16;
+
+  private static final long[] SEEDS = new long[] {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+    0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private final long[] table;
+  private final int tableMask;
+  private final long[] doorkeeper;
+  private final int doorkeeperMask;
+  private final int maxIncrements;
+  private final int maxDoorkeeperKeys;
+  private int increments;
+  private int doorkeeperKeys;
+
+  /**
+   * @param expectedKeys Number of distinct keys expected to be tracked at
+   * once, about the number of blocks fitting in the cache.
+   */
+  FrequencySketch(final long expectedKeys) {
+    int length = 1;
+    long wanted = Math.max(16, Math.min(expectedKeys, 1 << 24));
+    while (length < wanted) {
+      length <<= 1;
+    }
+    this.table = new long[length];
+    this.tableMask = length - 1;
+    // 64 bits per expected key
+    this.doorkeeper = new long[length];
+    this.doorkeeperMask = (length << 6) - 1;
+    this.maxIncrements = 10 * length;
+    this.maxDoorkeeperKeys = (length << 6) / 4;
+  }
+
+  /**
+   * @return Estimated number of recent occurrences of the key with the given
+   * hash code, at most {@link #MAX_FREQUENCY}.
+   */
+  int frequency(final int hashCode) {
+    int hash = spread(hashCode);
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return inDoorkeeper(hash) ? frequency + 1 : frequency;
+  }
+
+  /**
+   * Counts one occurrence of the key with the given hash code.
+   * @return true if this occurrence aged the sketch, halving all estimates
+   */
+  boolean increment(final int hashCode) {
+    int hash = spread(hashCode);
+    if (!inDoorkeeper(hash)) {
+      addToDoorkeeper(hash);
+      if (++doorkeeperKeys >= maxDoorkeeperKeys) {
+        reset();
+        return true;
+      }
+      return false;
+    }
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++increments >= maxIncrements) {
+      reset();
+      return true;
+    }
+    return false;
+  }
+
+  private boolean incrementAt(final int index, final int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    long value = table[index];
+    if ((value & mask) != mask) {
+      table[index] = value + (1L << offset);
+      return true;
+    }
+    return false;
+  }
+
+  private boolean inDoorkeeper(final int hash) {
+    int first = hash & doorkeeperMask;
+    int second = rehash(hash) & doorkeeperMask;
+    return (doorkeeper[first >>> 6] & (1L << first)) != 0 &&
+        (doorkeeper[second >>> 6] & (1L << second)) != 0;
+  }
+
+  private void addToDoorkeeper(final int hash) {
+    int first = hash & doorkeeperMask;
+    int second = rehash(hash) & doorkeeperMask;
+    doorkeeper[first >>> 6] |= 1L << first;
+    doorkeeper[second >>> 6] |= 1L << second;
+  }
+
+  /**
+   * Halves every counter and clears the doorkeeper.
+   */
+  synchronized void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    Arrays.fill(doorkeeper, 0L);
+    increments = increments / 2;
+    doorkeeperKeys = 0;
+  }
+
+  private int indexOf(final int hash, final int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+
+  private static int spread(final int hashCode) {
+    int h = hashCode * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int rehash(final int hash) {
+    int h = hash * 0x85ebca6b;
+    return h ^ (h >>> 13);
+  }
+}
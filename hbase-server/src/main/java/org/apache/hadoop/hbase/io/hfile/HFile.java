@@ -192,6 +192,10 @@ public class HFile {
   // For measuring number of checksum failures
   static final AtomicLong checksumFailures = new AtomicLong();
 
+  // For measuring what caching data blocks compressed costs
+  private static final AtomicLong compressedBlockHits = new AtomicLong();
+  private static final AtomicLong compressedBlockUnpackNano = new AtomicLong();
+
   // For getting more detailed stats on FS latencies
   // If, for some reason, the metrics subsystem stops polling for latencies, 
   // I don't want data to pile up in a memory leak
@@ -282,6 +286,26 @@ public class HFile {
     return checksumFailures.getAndSet(0);
   }
 
+  static final void offerCompressedBlockHit(long unpackNanos) {
+    compressedBlockHits.incrementAndGet();
+    compressedBlockUnpackNano.addAndGet(unpackNanos);
+  }
+
+  /**
+   * Number of block cache hits on blocks cached compressed, each of which
+   * had to be decompressed.
+   */
+  public static final long getCompressedBlockHitCount() {
+    return compressedBlockHits.get();
+  }
+
+  /**
+   * Time spent decompressing blocks cached compressed.
+   */
+  public static final long getCompressedBlockUnpackTimeMs() {
+    return compressedBlockUnpackNano.get() / 1000000;
+  }
+
   /** API required to write an {@link HFile} */
   public interface Writer extends Closeable {
 
@@ -82,7 +82,10 @@ import com.google.common.base.Preconditions;
  * </ul>
  * </ul>
  * The version 2 block representation in the block cache is the same as above,
- * except that the data section is always uncompressed in the cache.
+ * except that the data section is uncompressed in the cache.  With
+ * {@link CacheConfig#CACHE_DATA_BLOCKS_COMPRESSED_KEY} set, data blocks are
+ * cached packed instead, i.e. exactly as they are on disk, and are unpacked
+ * with {@link FSReaderV2#unpack(HFileBlock)} on every cache hit.
  */
 @InterfaceAudience.Private
 public class HFileBlock implements Cacheable {
@@ -139,40 +142,59 @@ public class HFileBlock implements Cacheable {
    */
   static final int CHECKSUM_SIZE = Bytes.SIZEOF_INT;
 
-  private static final CacheableDeserializer<Cacheable> blockDeserializer =
-      new CacheableDeserializer<Cacheable>() {
-        public HFileBlock deserialize(ByteBuffer buf, boolean reuse) throws IOException{
-          buf.limit(buf.limit() - HFileBlock.EXTRA_SERIALIZATION_SPACE).rewind();
-          ByteBuffer newByteBuffer;
-          if (reuse) {
-            newByteBuffer = buf.slice();
-          } else {
-           newByteBuffer = ByteBuffer.allocate(buf.limit());
-           newByteBuffer.put(buf);
-          }
-          buf.position(buf.limit());
-          buf.limit(buf.limit() + HFileBlock.EXTRA_SERIALIZATION_SPACE);
-          int minorVersion=buf.getInt();
-          HFileBlock ourBuffer = new HFileBlock(newByteBuffer, minorVersion);
-          ourBuffer.offset = buf.getLong();
-          ourBuffer.nextBlockOnDiskSizeWithHeader = buf.getInt();
-          return ourBuffer;
-        }
-        
-        @Override
-        public int getDeserialiserIdentifier() {
-          return deserializerIdentifier;
-        }
+  /**
+   * Deserializes cached blocks.  Packed and unpacked blocks are serialized
+   * the same way, so each kind has its own deserializer, registered under its
+   * own identifier.
+   */
+  private static class BlockDeserializer
+      implements CacheableDeserializer<Cacheable> {
+    private final boolean packed;
+    private int identifier;
 
-        @Override
-        public HFileBlock deserialize(ByteBuffer b) throws IOException {
-          return deserialize(b, false);
-        }
-      };
-  private static final int deserializerIdentifier;
+    BlockDeserializer(boolean packed) {
+      this.packed = packed;
+    }
+
+    public HFileBlock deserialize(ByteBuffer buf, boolean reuse) throws IOException{
+      buf.limit(buf.limit() - HFileBlock.EXTRA_SERIALIZATION_SPACE).rewind();
+      ByteBuffer newByteBuffer;
+      if (reuse) {
+        newByteBuffer = buf.slice();
+      } else {
+       newByteBuffer = ByteBuffer.allocate(buf.limit());
+       newByteBuffer.put(buf);
+      }
+      buf.position(buf.limit());
+      buf.limit(buf.limit() + HFileBlock.EXTRA_SERIALIZATION_SPACE);
+      int minorVersion=buf.getInt();
+      HFileBlock ourBuffer = new HFileBlock(newByteBuffer, minorVersion);
+      ourBuffer.offset = buf.getLong();
+      ourBuffer.nextBlockOnDiskSizeWithHeader = buf.getInt();
+      ourBuffer.packed = packed;
+      return ourBuffer;
+    }
+
+    @Override
+    public int getDeserialiserIdentifier() {
+      return identifier;
+    }
+
+    @Override
+    public HFileBlock deserialize(ByteBuffer b) throws IOException {
+      return deserialize(b, false);
+    }
+  }
+
+  private static final BlockDeserializer blockDeserializer =
+      new BlockDeserializer(false);
+  private static final BlockDeserializer packedBlockDeserializer =
+      new BlockDeserializer(true);
   static {
-    deserializerIdentifier = CacheableDeserializerIdManager
+    blockDeserializer.identifier = CacheableDeserializerIdManager
         .registerDeserializer(blockDeserializer);
+    packedBlockDeserializer.identifier = CacheableDeserializerIdManager
+        .registerDeserializer(packedBlockDeserializer);
   }
 
   private BlockType blockType;
@@ -217,6 +239,12 @@ public class HFileBlock implements Cacheable {
    */
   private int nextBlockOnDiskSizeWithHeader = -1;
 
+  /**
+   * Whether the data section is still compressed, as read from disk.  Only
+   * blocks of compressed files are ever packed.
+   */
+  private boolean packed = false;
+
   /**
    * Creates a new {@link HFile} block from the given fields. This constructor
    * is mostly used when the block data has already been read and uncompressed,
@@ -290,6 +318,26 @@ public class HFileBlock implements Cacheable {
     buf.rewind();
   }
 
+  /**
+   * Copies the fields of a block, the buffer is shared.  Used to unpack a
+   * block without touching the packed one, which may sit in the cache.
+   */
+  private HFileBlock(HFileBlock that) {
+    this.blockType = that.blockType;
+    this.onDiskSizeWithoutHeader = that.onDiskSizeWithoutHeader;
+    this.uncompressedSizeWithoutHeader = that.uncompressedSizeWithoutHeader;
+    this.prevBlockOffset = that.prevBlockOffset;
+    this.checksumType = that.checksumType;
+    this.bytesPerChecksum = that.bytesPerChecksum;
+    this.onDiskDataSizeWithHeader = that.onDiskDataSizeWithHeader;
+    this.minorVersion = that.minorVersion;
+    this.buf = that.buf.duplicate();
+    this.includesMemstoreTS = that.includesMemstoreTS;
+    this.offset = that.offset;
+    this.nextBlockOnDiskSizeWithHeader = that.nextBlockOnDiskSizeWithHeader;
+    this.packed = that.packed;
+  }
+
   public BlockType getBlockType() {
     return blockType;
   }
@@ -564,8 +612,8 @@ public class HFileBlock implements Cacheable {
         1 * Bytes.SIZEOF_BYTE +
         // This and previous block offset
         2 * Bytes.SIZEOF_LONG +
-        // "Include memstore timestamp" flag
-        Bytes.SIZEOF_BOOLEAN
+        // "Include memstore timestamp" and packed flags
+        2 * Bytes.SIZEOF_BOOLEAN
     );
 
     if (buf != null) {
@@ -1519,6 +1567,17 @@ public class HFileBlock implements Cacheable {
     @Override
     public HFileBlock readBlockData(long offset, long onDiskSizeWithHeaderL,
         int uncompressedSize, boolean pread) throws IOException {
+      return unpack(readPackedBlockData(offset, onDiskSizeWithHeaderL,
+          uncompressedSize, pread));
+    }
+
+    /**
+     * Reads a version 2 block like {@link #readBlockData(long, long, int,
+     * boolean)} but leaves it packed if the file is compressed, see
+     * {@link #unpack(HFileBlock)}.  Checksums are verified either way.
+     */
+    HFileBlock readPackedBlockData(long offset, long onDiskSizeWithHeaderL,
+        int uncompressedSize, boolean pread) throws IOException {
 
       // It is ok to get a reference to the stream here without any
       // locks because it is marked final.
@@ -1608,7 +1667,8 @@ public class HFileBlock implements Cacheable {
      * @param pread whether to use a positional read
      * @param verifyChecksum Whether to use HBase checksums. 
      *        If HBase checksum is switched off, then use HDFS checksum.
-     * @return the HFileBlock or null if there is a HBase checksum mismatch
+     * @return the HFileBlock, packed if the file is compressed, or null if
+     * there is a HBase checksum mismatch
      */
     private HFileBlock readBlockDataInternal(FSDataInputStream is, long offset, 
         long onDiskSizeWithHeaderL, int uncompressedSize, boolean pread,
@@ -1735,33 +1795,14 @@ public class HFileBlock implements Cacheable {
         return null;             // checksum mismatch
       }
 
-      if (isCompressed) {
-        // This will allocate a new buffer but keep header bytes.
-        b.allocateBuffer(nextBlockOnDiskSize > 0);
-        if (b.blockType.equals(BlockType.ENCODED_DATA)) {
-          encodedBlockDecodingCtx.prepareDecoding(b.getOnDiskSizeWithoutHeader(),
-              b.getUncompressedSizeWithoutHeader(), b.getBufferWithoutHeader(), onDiskBlock,
-              hdrSize);
-        } else {
-          defaultDecodingCtx.prepareDecoding(b.getOnDiskSizeWithoutHeader(),
-              b.getUncompressedSizeWithoutHeader(), b.getBufferWithoutHeader(), onDiskBlock,
-              hdrSize);
-        }
-        if (nextBlockOnDiskSize > 0) {
-          // Copy next block's header bytes into the new block if we have them.
-          System.arraycopy(onDiskBlock, onDiskSizeWithHeader, b.buf.array(),
-              b.buf.arrayOffset() + hdrSize
-              + b.uncompressedSizeWithoutHeader + b.totalChecksumBytes(),
-              hdrSize);
-        }
-      } else {
-        // The onDiskBlock will become the headerAndDataBuffer for this block.
-        // If nextBlockOnDiskSizeWithHeader is not zero, the onDiskBlock already
-        // contains the header of next block, so no need to set next
-        // block's header in it.
-        b = new HFileBlock(ByteBuffer.wrap(onDiskBlock, 0,
-                onDiskSizeWithHeader), getMinorVersion());
-      }
+      // The onDiskBlock will become the headerAndDataBuffer for this block,
+      // still compressed if the file is; unpack() decompresses it.
+      // If nextBlockOnDiskSizeWithHeader is not zero, the onDiskBlock already
+      // contains the header of next block, so no need to set next
+      // block's header in it.
+      b = new HFileBlock(ByteBuffer.wrap(onDiskBlock, 0,
+              onDiskSizeWithHeader), getMinorVersion());
+      b.packed = isCompressed;
 
       b.nextBlockOnDiskSizeWithHeader = nextBlockOnDiskSize;
 
@@ -1777,6 +1818,32 @@ public class HFileBlock implements Cacheable {
       return b;
     }
 
+    /**
+     * Decompresses the data section of a packed block into a new block.  The
+     * packed block is not modified, so a packed block from the cache can be
+     * unpacked by several readers at once.  The buffer of the new block is
+     * not reused: KeyValues handed out by a scanner share it.
+     * @param b a block of this file
+     * @return the unpacked block, or <code>b</code> if it was not packed
+     * @throws IOException
+     */
+    HFileBlock unpack(HFileBlock b) throws IOException {
+      if (!b.isPacked()) {
+        return b;
+      }
+      HFileBlock unpacked = new HFileBlock(b);
+      // This will allocate a new buffer but keep header bytes.
+      unpacked.allocateBuffer(false);
+      unpacked.packed = false;
+      HFileBlockDecodingContext decodingCtx =
+          b.blockType.equals(BlockType.ENCODED_DATA) ?
+              encodedBlockDecodingCtx : defaultDecodingCtx;
+      decodingCtx.prepareDecoding(b.getOnDiskSizeWithoutHeader(),
+          b.getUncompressedSizeWithoutHeader(), unpacked.getBufferWithoutHeader(),
+          b.buf.array(), b.buf.arrayOffset() + b.headerSize());
+      return unpacked;
+    }
+
     void setIncludesMemstoreTS(boolean enabled) {
       includesMemstoreTS = enabled;
     }
@@ -1828,7 +1895,8 @@ public class HFileBlock implements Cacheable {
 
   @Override
   public CacheableDeserializer<Cacheable> getDeserializer() {
-    return HFileBlock.blockDeserializer;
+    return packed ? HFileBlock.packedBlockDeserializer :
+        HFileBlock.blockDeserializer;
   }
 
   @Override
@@ -1863,6 +1931,9 @@ public class HFileBlock implements Cacheable {
     if (castedComparison.uncompressedSizeWithoutHeader != this.uncompressedSizeWithoutHeader) {
       return false;
     }
+    if (castedComparison.packed != this.packed) {
+      return false;
+    }
     if (this.buf.compareTo(castedComparison.buf) != 0) {
       return false;
     }
@@ -1879,6 +1950,14 @@ public class HFileBlock implements Cacheable {
     return includesMemstoreTS;
   }
 
+  /**
+   * @return true if the data section of this block is still compressed, see
+   * {@link FSReaderV2#unpack(HFileBlock)}
+   */
+  boolean isPacked() {
+    return packed;
+  }
+
   public DataBlockEncoding getDataBlockEncoding() {
     if (blockType == BlockType.ENCODED_DATA) {
       return DataBlockEncoding.getEncodingById(getDataBlockEncodingId());
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.io.hfile;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -34,7 +35,10 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoder;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
+import org.apache.hadoop.hbase.monitoring.MonitoredTask;
+import org.apache.hadoop.hbase.monitoring.TaskMonitor;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.IdLock;
 import org.apache.hadoop.io.WritableUtils;
@@ -73,6 +77,15 @@ public class HFileReaderV2 extends AbstractHFileReader {
    */
   private List<HFileBlock> loadOnOpenBlocks = new ArrayList<HFileBlock>();
 
+  /** Same as fsBlockReader, reads data blocks packed */
+  private final HFileBlock.FSReaderV2 fsBlockReaderV2;
+
+  /** Reads of the data blocks, null unless compactions cache hot blocks */
+  private final BlockAccessStats accessStats;
+
+  /** Prefetch of the blocks asked for on open, null if there was none */
+  private final PrefetchExecutor.Request prefetchRequest;
+
   /** Minimum minor version supported by this HFile format */
   static final int MIN_MINOR_VERSION = 0;
 
@@ -106,10 +119,14 @@ public class HFileReaderV2 extends AbstractHFileReader {
           closeIStream, cacheConf, hfs);
     trailer.expectMajorVersion(2);
     validateMinorVersion(path, trailer.getMinorVersion());
-    HFileBlock.FSReaderV2 fsBlockReaderV2 = new HFileBlock.FSReaderV2(fsdis,
+    this.fsBlockReaderV2 = new HFileBlock.FSReaderV2(fsdis,
         fsdisNoFsChecksum,
         compressAlgo, fileSize, trailer.getMinorVersion(), hfs, path);
     this.fsBlockReader = fsBlockReaderV2; // upcast
+    // The root of a single level data index has an entry per data block
+    this.accessStats = cacheConf.shouldCacheHotBlocksOnCompaction() ?
+        new BlockAccessStats(trailer.getNumDataIndexLevels() == 1 ?
+            trailer.getDataIndexCount() : Integer.MAX_VALUE) : null;
 
     // Comparator class name is stored in the trailer in version 2.
     comparator = trailer.createComparator();
@@ -158,6 +175,100 @@ public class HFileReaderV2 extends AbstractHFileReader {
     while ((b = blockIter.nextBlock()) != null) {
       loadOnOpenBlocks.add(b);
     }
+
+    // Prefetch file blocks upon open if requested
+    if (cacheConf.shouldPrefetchOnOpen()) {
+      prefetchRequest = PrefetchExecutor.request(
+          hfs == null ? null : hfs.getConf(), path, new Runnable() {
+            @Override
+            public void run() {
+              prefetchBlocks();
+            }
+          });
+    } else {
+      prefetchRequest = null;
+    }
+  }
+
+  /**
+   * Reads the data, leaf and intermediate index and bloom blocks of the file
+   * into the block cache, in file order.  Runs in the background, see
+   * {@link PrefetchExecutor}; progress shows in the task monitor.
+   */
+  private void prefetchBlocks() {
+    MonitoredTask status = TaskMonitor.get().createStatus(
+        "Prefetching blocks of " + path);
+    long end = trailer.getLoadOnOpenDataOffset();
+    long offset = 0;
+    int blocks = 0;
+    try {
+      long onDiskSize = -1;
+      while (offset < end) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Cancelled");
+        }
+        HFileBlock block = prefetchBlock(offset, onDiskSize);
+        PrefetchExecutor.throttle(block.getOnDiskSizeWithHeader());
+        onDiskSize = block.getNextBlockOnDiskSizeWithHeader();
+        offset += block.getOnDiskSizeWithHeader();
+        blocks++;
+        if (blocks % 100 == 0) {
+          status.setStatus("Prefetched " + offset + " of " + end + " bytes");
+        }
+      }
+      status.markComplete("Prefetched " + blocks + " blocks, " + end + " bytes");
+    } catch (IOException e) {
+      if (e instanceof InterruptedIOException ||
+          Thread.currentThread().isInterrupted()) {
+        // The reader was closed, possibly under our feet
+        status.abort("Cancelled after " + offset + " of " + end + " bytes");
+      } else {
+        // Nothing is lost, the blocks are read on demand as before
+        LOG.warn("Prefetch of " + path + " failed at offset " + offset, e);
+        status.abort("Failed at offset " + offset + ": " + e);
+      }
+    } finally {
+      status.cleanup();
+    }
+  }
+
+  /**
+   * Reads the block at <code>offset</code> from the filesystem and caches it
+   * under the key of its actual type, unless it is cached already.  Unlike
+   * {@link #readBlock(long, long, boolean, boolean, boolean, BlockType)} this
+   * does not need to know the type up front.
+   * @return The block as read from the filesystem
+   */
+  private HFileBlock prefetchBlock(long offset, long onDiskSize)
+      throws IOException {
+    HFileBlock packedBlock = fsBlockReaderV2.readPackedBlockData(offset,
+        onDiskSize, -1, false);
+    BlockCategory category = packedBlock.getBlockType().getCategory();
+    if (!cacheConf.shouldCacheBlockOnRead(category)) {
+      return packedBlock;
+    }
+    BlockCacheKey cacheKey = new BlockCacheKey(name, offset,
+        dataBlockEncoder.getEffectiveEncodingInCache(false),
+        packedBlock.getBlockType());
+    IdLock.Entry lockEntry = offsetLock.getLockEntry(offset);
+    try {
+      // A read may have beaten us to it.  Not a caching lookup, and a repeat
+      // one so it is not counted as a miss.
+      if (cacheConf.getBlockCache().getBlock(cacheKey, false, true) != null) {
+        return packedBlock;
+      }
+      HFileBlock unpackedBlock = fsBlockReaderV2.unpack(packedBlock);
+      HFileBlock hfileBlock = dataBlockEncoder.diskToCacheFormat(unpackedBlock, false);
+      HFileBlock toCache = hfileBlock;
+      if (packedBlock.isPacked() && hfileBlock == unpackedBlock &&
+          cacheConf.shouldCacheCompressed(category)) {
+        toCache = packedBlock;
+      }
+      cacheConf.getBlockCache().cacheBlock(cacheKey, toCache, cacheConf.isInMemory());
+    } finally {
+      offsetLock.releaseLockEntry(lockEntry);
+    }
+    return packedBlock;
   }
 
   /**
@@ -301,11 +412,17 @@ public class HFileReaderV2 extends AbstractHFileReader {
           HFileBlock cachedBlock = (HFileBlock) cacheConf.getBlockCache().getBlock(cacheKey,
               cacheBlock, useLock);
           if (cachedBlock != null) {
+            if (cachedBlock.isPacked()) {
+              long unpackStartNs = System.nanoTime();
+              cachedBlock = fsBlockReaderV2.unpack(cachedBlock);
+              HFile.offerCompressedBlockHit(System.nanoTime() - unpackStartNs);
+            }
             if (cachedBlock.getBlockType() == BlockType.DATA) {
               HFile.dataBlockReadCnt.incrementAndGet();
             }
 
             validateBlockType(cachedBlock, expectedBlockType);
+            recordAccess(cachedBlock, cacheBlock, isCompaction);
 
             // Validate encoding type for encoded blocks. We include encoding
             // type in the cache key, and we expect it to match on a cache hit.
@@ -327,17 +444,27 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
         // Load block from filesystem.
         long startTimeNs = System.nanoTime();
-        HFileBlock hfileBlock = fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, -1,
-            pread);
-        hfileBlock = dataBlockEncoder.diskToCacheFormat(hfileBlock, isCompaction);
+        HFileBlock packedBlock = fsBlockReaderV2.readPackedBlockData(dataBlockOffset,
+            onDiskBlockSize, -1, pread);
+        HFileBlock unpackedBlock = fsBlockReaderV2.unpack(packedBlock);
+        HFileBlock hfileBlock = dataBlockEncoder.diskToCacheFormat(unpackedBlock, isCompaction);
         validateBlockType(hfileBlock, expectedBlockType);
+        recordAccess(hfileBlock, cacheBlock, isCompaction);
 
         final long delta = System.nanoTime() - startTimeNs;
         HFile.offerReadLatency(delta, pread);
 
         // Cache the block if necessary
-        if (cacheBlock && cacheConf.shouldCacheBlockOnRead(hfileBlock.getBlockType().getCategory())) {
-          cacheConf.getBlockCache().cacheBlock(cacheKey, hfileBlock, cacheConf.isInMemory());
+        BlockCategory category = hfileBlock.getBlockType().getCategory();
+        if (cacheBlock && cacheConf.shouldCacheBlockOnRead(category)) {
+          // The packed block can stand in for the one we return only if it did
+          // not have to be re-encoded for the cache
+          HFileBlock toCache = hfileBlock;
+          if (packedBlock.isPacked() && hfileBlock == unpackedBlock &&
+              cacheConf.shouldCacheCompressed(category)) {
+            toCache = packedBlock;
+          }
+          cacheConf.getBlockCache().cacheBlock(cacheKey, toCache, cacheConf.isInMemory());
         }
 
         if (hfileBlock.getBlockType() == BlockType.DATA) {
@@ -353,6 +480,35 @@ public class HFileReaderV2 extends AbstractHFileReader {
     }
   }
 
+  /**
+   * Counts a read of a data block in the access stats of the file, if it
+   * keeps them.  Compactions and reads that do not cache do not count.
+   */
+  private void recordAccess(HFileBlock block, boolean cacheBlock,
+      boolean isCompaction) {
+    if (accessStats != null && cacheBlock && !isCompaction &&
+        block.getBlockType().isData()) {
+      accessStats.recordAccess(block.getOffset());
+    }
+  }
+
+  /**
+   * @return Reads of the data blocks of this file, or null if they are not
+   * counted, see {@link CacheConfig#shouldCacheHotBlocksOnCompaction()}
+   */
+  public BlockAccessStats getAccessStats() {
+    return accessStats;
+  }
+
+  /**
+   * @return the heap size of the block indexes, and of the access stats of
+   * the data blocks if they are counted
+   */
+  @Override
+  public long indexSize() {
+    return super.indexSize() + (accessStats != null ? accessStats.heapSize() : 0);
+  }
+
   /**
    * Compares the actual type of a block retrieved from cache or disk with its
    * expected type and throws an exception in case of a mismatch. Expected
@@ -406,6 +562,9 @@ public class HFileReaderV2 extends AbstractHFileReader {
   }
 
   public void close(boolean evictOnClose) throws IOException {
+    if (prefetchRequest != null) {
+      PrefetchExecutor.cancel(prefetchRequest);
+    }
     if (evictOnClose && cacheConf.isBlockCacheEnabled()) {
       int numEvicted = cacheConf.getBlockCache().evictBlocksByHfileName(name);
       if (LOG.isTraceEnabled()) {
@@ -474,6 +633,19 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
     protected abstract ByteBuffer getFirstKeyInBlock(HFileBlock curBlock);
 
+    /**
+     * Passes the hot key range bounds a compaction finds moving on to
+     * <code>newBlock</code> to the access stats of the file.
+     */
+    protected void recordCompactionRead(HFileBlock newBlock) {
+      if (!isCompaction) return;
+      BlockAccessStats stats = ((HFileReaderV2) reader).getAccessStats();
+      if (stats != null && stats.isCollectingRanges() &&
+          stats.isRangeBound(newBlock.getOffset())) {
+        stats.addRangeBound(getFirstKeyInBlock(newBlock));
+      }
+    }
+
     protected abstract int loadBlockAndSeekToKey(HFileBlock seekToBlock, byte[] nextIndexedKey,
         boolean rewind, byte[] key, int offset, int length, boolean seekBefore)
         throws IOException;
@@ -761,6 +933,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
       // Reset the next indexed key
       this.nextIndexedKey = null;
+      recordCompactionRead(block);
     }
 
     private final void readKeyValueLen() {
@@ -948,6 +1121,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
       seeker.setCurrentBuffer(getEncodedBuffer(newBlock));
       blockFetches++;
+      recordCompactionRead(newBlock);
     }
 
     private ByteBuffer getEncodedBuffer(HFileBlock newBlock) {
@@ -181,6 +181,15 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     
     if (cacheConf.shouldCacheDataOnWrite()) {
       doCacheOnWrite(lastDataBlockOffset);
+    } else {
+      // A compaction output may still cache the blocks that were hot in its
+      // inputs
+      CompactionCacheWarmer warmer = cacheConf.getCompactionWarmer();
+      if (warmer != null && warmer.shouldCache(comparator, firstKeyInBlock,
+          lastKeyBuffer, lastKeyOffset, lastKeyLength,
+          fsBlockWriter.getUncompressedSizeWithHeader())) {
+        doCacheOnWrite(lastDataBlockOffset);
+      }
     }
   }
 
@@ -210,8 +219,8 @@ public class HFileWriterV2 extends AbstractHFileWriter {
    *          the cache key.
    */
   private void doCacheOnWrite(long offset) {
-    // We don't cache-on-write data blocks on compaction, so assume this is not
-    // a compaction.
+    // Cache the block as user reads would, also when warming the cache with
+    // the output of a compaction.
     final boolean isCompaction = false;
     HFileBlock cacheFormatBlock = blockEncoder.diskToCacheFormat(
         fsBlockWriter.getBlockForCaching(), isCompaction);
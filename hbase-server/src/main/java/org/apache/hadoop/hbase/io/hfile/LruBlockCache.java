@@ -21,6 +21,7 @@ package org.apache.hadoop.hbase.io.hfile;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
@@ -91,7 +92,10 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * size, and then while scanning determines the fewest least-recently-used
  * blocks necessary from each of the three priorities (would be 3 times bytes
  * to free).  It then uses the priority chunk sizes to evict fairly according
- * to the relative sizes and usage.
+ * to the relative sizes and usage.<p>
+ *
+ * A {@link BlockCachePolicy} can be configured to replace both the admission,
+ * which otherwise takes in every block, and the priority bucket eviction.
  */
 @InterfaceAudience.Private
 public class LruBlockCache implements BlockCache, HeapSize {
@@ -178,6 +182,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** Where to send victims (blocks evicted from the cache) */
   private BucketCache victimHandler = null;
 
+  /** Admission and eviction policy, null for the priority buckets */
+  private BlockCachePolicy policy = null;
+
   /**
    * Default constructor.  Specify maximum size and expected average block
    * size (approximation is fine).
@@ -213,6 +220,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
         DEFAULT_SINGLE_FACTOR, 
         DEFAULT_MULTI_FACTOR,
         DEFAULT_MEMORY_FACTOR);
+    this.policy = BlockCachePolicy.create(this, conf);
   }
   
   public LruBlockCache(long maxSize, long blockSize, Configuration conf) {
@@ -295,6 +303,10 @@ public class LruBlockCache implements BlockCache, HeapSize {
       throw new RuntimeException("Cached an already cached block");
     }
     cb = new CachedBlock(cacheKey, buf, count.incrementAndGet(), inMemory);
+    if (policy != null && size.get() + cb.heapSize() > minSize() &&
+        !policy.admit(cb)) {
+      return;
+    }
     long newSize = updateSizeMetrics(cb, false);
     map.put(cacheKey, cb);
     elements.incrementAndGet();
@@ -345,6 +357,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
   @Override
   public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat) {
     CachedBlock cb = map.get(cacheKey);
+    if (policy != null && !(cb == null && repeat)) {
+      policy.recordAccess(cacheKey);
+    }
     if(cb == null) {
       if (!repeat) stats.miss(caching);
       if (victimHandler != null)
@@ -452,6 +467,16 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
       if(bytesToFree <= 0) return;
 
+      if (policy != null) {
+        long bytesFreed = policy.evict(bytesToFree);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Block cache eviction by " + policy.getClass().getSimpleName() +
+            " completed; freed=" + StringUtils.byteDesc(bytesFreed) + ", " +
+            "total=" + StringUtils.byteDesc(this.size.get()));
+        }
+        return;
+      }
+
       // Instantiate priority buckets
       BlockBucket bucketSingle = new BlockBucket(bytesToFree, blockSize,
           singleSize());
@@ -628,6 +653,22 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return this.stats.getEvictedCount();
   }
 
+  long getBlockSize() {
+    return this.blockSize;
+  }
+
+  BlockCachePolicy getPolicy() {
+    return this.policy;
+  }
+
+  Collection<CachedBlock> getCachedBlocks() {
+    return this.map.values();
+  }
+
+  boolean isCached(CachedBlock block) {
+    return this.map.get(block.getCacheKey()) == block;
+  }
+
   EvictionThread getEvictionThread() {
     return this.evictionThread;
   }
@@ -735,7 +776,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
   }
 
   public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
-      (3 * Bytes.SIZEOF_LONG) + (9 * ClassSize.REFERENCE) +
+      (3 * Bytes.SIZEOF_LONG) + (10 * ClassSize.REFERENCE) +
       (5 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN
       + ClassSize.OBJECT);
 
@@ -814,7 +855,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
       List<Runnable> runnables = this.scheduleThreadPool.shutdownNow();
       LOG.debug("Still running " + runnables);
     }
-    this.evictionThread.shutdown();
+    if (this.evictionThread != null) this.evictionThread.shutdown();
   }
 
   /** Clears the cache. Used in tests. */
@@ -0,0 +1,212 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the prefetches of HFile blocks into the block cache that readers of
+ * families with <code>PREFETCH_BLOCKS_ON_OPEN</code> request when they open,
+ * see {@link CacheConfig#shouldPrefetchOnOpen()}.  One pool of daemon threads,
+ * sized by <code>hbase.hfile.thread.prefetch</code>, is shared by all files of
+ * the JVM, and all of them together read no more than
+ * <code>hbase.hfile.prefetch.throughput</code> bytes a second, so warming a
+ * freshly opened region does not starve the reads it is being warmed for.
+ * Both are read when the first prefetch is requested.
+ * <p>
+ * Several readers may open the same file, a store file being reopened for
+ * instance, but only one prefetch of it runs, that of the first reader still
+ * open.  If that reader is closed before its prefetch is done, the prefetch
+ * is started over by the next one.
+ */
+@InterfaceAudience.Private
+public class PrefetchExecutor {
+  private static final Log LOG = LogFactory.getLog(PrefetchExecutor.class);
+
+  static final String THREADS_KEY = "hbase.hfile.thread.prefetch";
+  static final int THREADS_DEFAULT = 4;
+  static final String THROUGHPUT_KEY = "hbase.hfile.prefetch.throughput";
+  static final long THROUGHPUT_DEFAULT = 64 * 1024 * 1024;
+
+  /**
+   * Requests of the open readers of files being prefetched, by file.  The
+   * first request of a file is queued or running, the others wait for it.
+   * Changed under the lock of the map.
+   */
+  private static final ConcurrentMap<Path, List<Request>> prefetches =
+      new ConcurrentHashMap<Path, List<Request>>();
+
+  private static ThreadPoolExecutor pool;
+  private static long bytesPerSecond;
+  // When the bytes prefetched so far may all have been read, in nanoseconds
+  private static long throttledUntil = 0;
+
+  private static synchronized ThreadPoolExecutor getPool(Configuration conf) {
+    if (pool == null) {
+      int threads = THREADS_DEFAULT;
+      bytesPerSecond = THROUGHPUT_DEFAULT;
+      if (conf != null) {
+        threads = Math.max(1, conf.getInt(THREADS_KEY, THREADS_DEFAULT));
+        bytesPerSecond = conf.getLong(THROUGHPUT_KEY, THROUGHPUT_DEFAULT);
+      }
+      pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("HFilePrefetch-%d").build());
+      pool.allowCoreThreadTimeOut(true);
+    }
+    return pool;
+  }
+
+  /**
+   * The prefetch one reader asked for.
+   */
+  static class Request implements Runnable {
+    private final Path path;
+    private final Runnable prefetch;
+    private Future<?> future;
+
+    private Request(final Path path, final Runnable prefetch) {
+      this.path = path;
+      this.prefetch = prefetch;
+    }
+
+    private void start(final Configuration conf) {
+      FutureTask<Void> task = new FutureTask<Void>(this, null);
+      this.future = task;
+      getPool(conf).execute(task);
+    }
+
+    @Override
+    public void run() {
+      try {
+        prefetch.run();
+      } finally {
+        complete(this);
+      }
+    }
+  }
+
+  /**
+   * Queue the prefetch of the blocks of <code>path</code>, unless the file is
+   * being prefetched for another reader already.
+   * @return The request, to be passed to {@link #cancel(Request)} when the
+   * reader is closed
+   */
+  static Request request(final Configuration conf, final Path path,
+      final Runnable prefetch) {
+    Request request = new Request(path, prefetch);
+    synchronized (prefetches) {
+      List<Request> requests = prefetches.get(path);
+      if (requests != null) {
+        LOG.debug("Already prefetching " + path);
+        requests.add(request);
+        return request;
+      }
+      requests = new ArrayList<Request>(1);
+      requests.add(request);
+      // Registered before it can run, so it can always remove itself
+      prefetches.put(path, requests);
+      request.start(conf);
+    }
+    return request;
+  }
+
+  /**
+   * The prefetch of <code>request</code> finished, or gave up, which ends the
+   * prefetch of the file for all its readers.  Nothing to do if the request
+   * was cancelled meanwhile.
+   */
+  private static void complete(final Request request) {
+    synchronized (prefetches) {
+      List<Request> requests = prefetches.get(request.path);
+      if (requests != null && requests.get(0) == request) {
+        prefetches.remove(request.path, requests);
+      }
+    }
+  }
+
+  /**
+   * Withdraws <code>request</code>, its reader is being closed.  If its
+   * prefetch is the one queued or running it is stopped, and started over
+   * for the next reader of the file if there is one.  Blocks cached already
+   * are not cached again.
+   */
+  static void cancel(final Request request) {
+    synchronized (prefetches) {
+      List<Request> requests = prefetches.get(request.path);
+      if (requests == null) return;
+      boolean running = requests.get(0) == request;
+      if (!requests.remove(request) || !running) return;
+      request.future.cancel(true);
+      LOG.debug("Cancelled prefetch of " + request.path);
+      if (requests.isEmpty()) {
+        prefetches.remove(request.path, requests);
+      } else {
+        requests.get(0).start(null);
+      }
+    }
+  }
+
+  /**
+   * @return true if the blocks of <code>path</code> are not being prefetched,
+   * either because they all were or because the prefetch was never asked for.
+   */
+  public static boolean isCompleted(final Path path) {
+    return !prefetches.containsKey(path);
+  }
+
+  /**
+   * Waits until reading <code>bytes</code> more keeps the prefetches within
+   * their throughput.
+   * @throws InterruptedIOException if the prefetch was cancelled
+   */
+  static void throttle(final long bytes) throws InterruptedIOException {
+    long sleepNanos;
+    synchronized (PrefetchExecutor.class) {
+      if (bytesPerSecond <= 0) return;
+      long now = System.nanoTime();
+      throttledUntil = Math.max(throttledUntil, now) +
+          bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+      sleepNanos = throttledUntil - now;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(sleepNanos);
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted prefetching");
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock.BlockPriority;
+
+/**
+ * A frequency based {@link BlockCachePolicy}, after TinyLFU.  Every lookup is
+ * counted in a {@link FrequencySketch}, hits and misses alike, so the cache
+ * knows how popular a block was recently even when it is not cached.
+ * <p>
+ * Once the cache is filled past the size evictions bring it down to, a data
+ * block is only admitted if it was looked up more often than the blocks the
+ * eviction runs let go last.  A block read once by a scan has a count of one
+ * and does not push out blocks that gets keep coming back to; it is cached
+ * after a few misses if it turns out to be hot.
+ * In-memory blocks and index and bloom blocks are always admitted.
+ * <p>
+ * Eviction samples a few blocks at a time, walking the cache with a cursor
+ * that carries over between runs, and evicts the least frequently looked up
+ * of them, the least recently used one on ties, instead of sorting every
+ * cached block.  In-memory blocks are only evicted when a whole sample has
+ * nothing else.
+ */
+@InterfaceAudience.Private
+public class TinyLfuBlockCachePolicy extends BlockCachePolicy {
+  private static final Log LOG = LogFactory.getLog(TinyLfuBlockCachePolicy.class);
+
+  /** Number of blocks sampled for each eviction */
+  public static final String SAMPLE_SIZE_KEY = "hbase.lru.blockcache.tinylfu.sample.size";
+  static final int DEFAULT_SAMPLE_SIZE = 8;
+
+  private FrequencySketch sketch;
+  private int sampleSize;
+  // Frequency of the last block evicted, candidates must beat it
+  private volatile int victimFrequency = 0;
+  private final AtomicLong rejected = new AtomicLong(0);
+  // Only used by the eviction run, which holds the eviction lock
+  private Iterator<CachedBlock> cursor;
+
+  @Override
+  protected void init(final LruBlockCache cache, final Configuration conf) {
+    super.init(cache, conf);
+    this.sketch = new FrequencySketch(
+        cache.getMaxSize() / Math.max(1, cache.getBlockSize()));
+    this.sampleSize = Math.max(1, conf.getInt(SAMPLE_SIZE_KEY, DEFAULT_SAMPLE_SIZE));
+  }
+
+  @Override
+  public void recordAccess(final BlockCacheKey cacheKey) {
+    if (sketch.increment(cacheKey.hashCode())) {
+      // The counts were halved, so were the counts of the victims
+      victimFrequency = victimFrequency / 2;
+    }
+  }
+
+  @Override
+  public boolean admit(final CachedBlock candidate) {
+    if (candidate.getPriority() == BlockPriority.MEMORY) return true;
+    BlockType type = candidate.getBuffer().getBlockType();
+    if (type != null && type.getCategory() != BlockCategory.DATA) return true;
+    if (frequency(candidate) > victimFrequency) return true;
+    rejected.incrementAndGet();
+    return false;
+  }
+
+  @Override
+  public long evict(final long bytesToFree) {
+    long bytesFreed = 0;
+    while (bytesFreed < bytesToFree) {
+      CachedBlock victim = sample();
+      if (victim == null) break;
+      bytesFreed += evictBlock(victim);
+      victimFrequency = frequency(victim);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("TinyLFU eviction freed " + bytesFreed + " bytes, victimFrequency=" +
+          victimFrequency + ", rejected=" + rejected.get());
+    }
+    return bytesFreed;
+  }
+
+  /**
+   * @return The block to evict out of the next sample, or null if the cache
+   * is empty.
+   */
+  private CachedBlock sample() {
+    CachedBlock victim = null;
+    int victimFreq = Integer.MAX_VALUE;
+    boolean wrapped = false;
+    for (int i = 0; i < sampleSize; i++) {
+      if (cursor == null || !cursor.hasNext()) {
+        // Only start over once per sample, the cache may have emptied
+        if (wrapped) break;
+        wrapped = true;
+        cursor = getCachedBlocks().iterator();
+        if (!cursor.hasNext()) break;
+      }
+      CachedBlock cb = cursor.next();
+      int freq = frequency(cb);
+      if (victim == null || isBetterVictim(cb, freq, victim, victimFreq)) {
+        victim = cb;
+        victimFreq = freq;
+      }
+    }
+    return victim;
+  }
+
+  private static boolean isBetterVictim(final CachedBlock cb, final int freq,
+      final CachedBlock victim, final int victimFreq) {
+    boolean memory = cb.getPriority() == BlockPriority.MEMORY;
+    boolean victimMemory = victim.getPriority() == BlockPriority.MEMORY;
+    if (memory != victimMemory) return victimMemory;
+    if (freq != victimFreq) return freq < victimFreq;
+    // Ties go to the least recently used block
+    return cb.compareTo(victim) > 0;
+  }
+
+  private int frequency(final CachedBlock cb) {
+    return sketch.frequency(cb.getCacheKey().hashCode());
+  }
+
+  /**
+   * @return Number of blocks left out of the cache since it was created.
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+}
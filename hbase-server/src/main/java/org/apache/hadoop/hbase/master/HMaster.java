@@ -176,6 +176,8 @@ import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.trace.SpanReceiverHost;
 import org.apache.hadoop.hbase.trigger.HTriggerAction;
 import org.apache.hadoop.hbase.trigger.HTriggerKey;
+import org.apache.hadoop.hbase.trigger.TriggerAggregators;
+import org.apache.hadoop.hbase.trigger.TriggerRegistry;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.CompressionTest;
 import org.apache.hadoop.hbase.util.FSTableDescriptors;
@@ -304,6 +306,7 @@ Server {
   private Thread clusterStatusChore;
 
   private CatalogJanitor catalogJanitorChore;
+  private Chore triggerAggregatorReducer;
   private LogCleaner logCleaner;
   private HFileCleaner hfileCleaner;
 
@@ -739,6 +742,9 @@ Server {
     status.setStatus("Fixing up missing daughters");
     fixupDaughters(status);
 
+    status.setStatus("Reopening regions left recovering");
+    reopenRegionsLeftRecovering();
+
     if (!masterRecovery) {
       // Start balancer and meta catalog janitor after meta and regions have
       // been assigned.
@@ -747,6 +753,9 @@ Server {
       this.balancerChore = getAndStartBalancerChore(this);
       this.catalogJanitorChore = new CatalogJanitor(this, this);
       startCatalogJanitorChore();
+      this.triggerAggregatorReducer = new TriggerAggregators.Reducer(this.zooKeeper,
+          getConfiguration(), this);
+      Threads.setDaemonThreadRunning(this.triggerAggregatorReducer.getThread());
     }
 
     status.markComplete("Initialization successful");
@@ -961,6 +970,25 @@ Server {
     }
   }
 
+  /**
+   * Reopen the regions a previous master was replaying edits into when it
+   * died, so that they replay the rest of their edits from the
+   * recovered.edits files written by the log splitting at startup.
+   */
+  void reopenRegionsLeftRecovering() throws IOException {
+    for (byte[] regionName : this.fileSystemManager.getRegionsLeftRecovering()) {
+      Pair<HRegionInfo, ServerName> p =
+        MetaReader.getRegion(this.catalogTracker, regionName);
+      if (p == null || p.getSecond() == null) {
+        // Gone, or not assigned; it replays its edits when opened
+        continue;
+      }
+      LOG.info("Reopening " + p.getFirst().getRegionNameAsString() +
+        " left recovering by the previous master");
+      this.assignmentManager.unassign(p.getFirst());
+    }
+  }
+
   /**
    * Split a server's log and expire it if we find it is one of the online
    * servers.
@@ -1135,6 +1163,9 @@ Server {
     if (this.catalogJanitorChore != null) {
       this.catalogJanitorChore.interrupt();
     }
+    if (this.triggerAggregatorReducer != null) {
+      this.triggerAggregatorReducer.interrupt();
+    }
   }
 
   @Override
@@ -1614,25 +1645,44 @@ Server {
     }
   }
 
-  private static int CURRENT_TRIGGER_ID = 0;
   private HashMap<HTriggerKey, HTriggerAction> GlobalTriggerInfo; 
   
+  /**
+   * Trigger ids and definitions are kept in ZooKeeper by {@link TriggerRegistry}, so they
+   * survive master restarts and region servers can activate triggers by themselves.
+   */
   @Override 
-  public GetTriggerIdResponse getTriggerId(RpcController controller, GetTriggerIdRequest request){
-    int id = HMaster.CURRENT_TRIGGER_ID++;
-    return GetTriggerIdResponse.newBuilder().setId(id).build();
+  public GetTriggerIdResponse getTriggerId(RpcController controller, GetTriggerIdRequest request)
+      throws ServiceException{
+    try {
+      int id = TriggerRegistry.nextTriggerId(this.zooKeeper);
+      return GetTriggerIdResponse.newBuilder().setId(id).build();
+    } catch (KeeperException e) {
+      throw new ServiceException(e);
+    }
   }
   @Override
   public SubmitTriggerResponse submitTrigger(RpcController controller, SubmitTriggerRequest request)
       throws ServiceException{
     LOG.debug("submit trigger......");
-    System.out.println("Submit Trigger: " + request.getId());
+    try {
+      String table = TriggerRegistry.readTriggerTable(getConfiguration(), request.getId());
+      TriggerRegistry.persist(this.zooKeeper, table, request.getId());
+      LOG.info("Registered trigger " + request.getId() + " on table " + table);
+    } catch (Exception e) {
+      throw new ServiceException(e);
+    }
     return SubmitTriggerResponse.newBuilder().build();
   }
   @Override
   public StopTriggerResponse stopTrigger(RpcController controller, StopTriggerRequest request)
       throws ServiceException{
-     return StopTriggerResponse.newBuilder().setStopped(true).build();
+    try {
+      TriggerRegistry.remove(this.zooKeeper, request.getId());
+    } catch (KeeperException e) {
+      throw new ServiceException(e);
+    }
+    return StopTriggerResponse.newBuilder().setStopped(true).build();
   }
   @Override
   public GetAliveRegionServersResponse getAllRegionServer(
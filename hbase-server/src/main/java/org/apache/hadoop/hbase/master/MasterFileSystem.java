@@ -54,6 +54,8 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.FSTableDescriptors;
 import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
+import org.apache.zookeeper.KeeperException;
 
 /**
  * This class abstracts a bunch of operations the HMaster needs to interact with
@@ -82,7 +84,10 @@ public class MasterFileSystem {
   // create the split log lock
   final Lock splitLogLock = new ReentrantLock();
   final boolean distributedLogSplitting;
+  final boolean distributedLogReplay;
   final SplitLogManager splitLogManager;
+  // Regions a previous master left marked as recovering
+  private List<byte[]> regionsLeftRecovering = new ArrayList<byte[]>();
   private final MasterServices services;
 
   private final static PathFilter META_FILTER = new PathFilter() {
@@ -126,6 +131,8 @@ public class MasterFileSystem {
     } else {
       this.splitLogManager = null;
     }
+    this.distributedLogReplay = this.distributedLogSplitting &&
+      conf.getBoolean(HConstants.DISTRIBUTED_LOG_REPLAY_KEY, false);
     // setup the filesystem variable
     // set up the archived logs path
     this.oldLogDir = createInitialFileSystemLayout();
@@ -207,6 +214,21 @@ public class MasterFileSystem {
   void splitLogAfterStartup() {
     boolean retrySplitting = !conf.getBoolean("hbase.hlog.split.skip.errors",
         HLog.SPLIT_SKIP_ERRORS_DEFAULT);
+    // A previous master died while replaying edits into these regions.  The
+    // split below writes their remaining edits to recovered.edits files since
+    // nothing is assigned yet; the regions are reopened later on to pick them
+    // up, see #getRegionsLeftRecovering.
+    try {
+      this.regionsLeftRecovering =
+        ZKSplitLog.getRecoveringRegions(master.getZooKeeper());
+      for (byte[] regionName : this.regionsLeftRecovering) {
+        ZKSplitLog.clearRegionRecovering(master.getZooKeeper(),
+            HRegionInfo.encodeRegionName(regionName));
+      }
+    } catch (KeeperException e) {
+      master.abort("Failed clearing recovering regions", e);
+      return;
+    }
     Path logsDirPath = new Path(this.rootdir, HConstants.HREGION_LOGDIR_NAME);
     do {
       if (master.isStopped()) {
@@ -266,6 +288,51 @@ public class MasterFileSystem {
     } while (retrySplitting);
   }
 
+  /**
+   * @return region names of the regions a previous master was replaying edits
+   * into when it died.  They are to be reopened once user regions can be
+   * assigned.
+   */
+  public List<byte[]> getRegionsLeftRecovering() {
+    return this.regionsLeftRecovering;
+  }
+
+  /**
+   * @return true if the edits of dead servers are to be replayed into their
+   * regions after those are reassigned, instead of before.
+   */
+  public boolean isDistributedLogReplay() {
+    return this.distributedLogReplay;
+  }
+
+  /**
+   * Mark regions as recovering before they are assigned, so that the split
+   * log workers replay their edits into them, and that they turn reads away
+   * until {@link #clearRegionsRecovering(List)}.
+   */
+  public void markRegionsRecovering(final List<HRegionInfo> regions)
+  throws IOException {
+    try {
+      for (HRegionInfo hri : regions) {
+        ZKSplitLog.markRegionRecovering(master.getZooKeeper(), hri);
+      }
+    } catch (KeeperException e) {
+      throw new IOException("Failed marking regions as recovering", e);
+    }
+  }
+
+  public void clearRegionsRecovering(final List<HRegionInfo> regions)
+  throws IOException {
+    try {
+      for (HRegionInfo hri : regions) {
+        ZKSplitLog.clearRegionRecovering(master.getZooKeeper(),
+            hri.getEncodedName());
+      }
+    } catch (KeeperException e) {
+      throw new IOException("Failed clearing recovering regions", e);
+    }
+  }
+
   public void splitLog(final ServerName serverName) throws IOException {
     List<ServerName> serverNames = new ArrayList<ServerName>();
     serverNames.add(serverName);
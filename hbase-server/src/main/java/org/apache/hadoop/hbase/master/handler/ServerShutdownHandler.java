@@ -59,6 +59,10 @@ public class ServerShutdownHandler extends EventHandler {
   protected final MasterServices services;
   protected final DeadServer deadServers;
   protected final boolean shouldSplitHlog; // whether to split HLog or not
+  // With distributed log replay, the regions that were assigned before the
+  // logs are replayed into them.  Set once they are assigned, so a retry after
+  // a failed replay goes straight to the replay.
+  private List<HRegionInfo> recoveringRegions = null;
 
   public ServerShutdownHandler(final Server server, final MasterServices services,
       final DeadServer deadServers, final ServerName serverName,
@@ -117,8 +121,20 @@ public class ServerShutdownHandler extends EventHandler {
   public void process() throws IOException {
     final ServerName serverName = this.serverName;
     try {
+      if (this.recoveringRegions != null) {
+        replayLogs();
+        return;
+      }
+      // Replay the logs into the regions once they are reassigned, unless this
+      // handler is about to be requeued instead of assigning below.
+      boolean distributedLogReplay = this.shouldSplitHlog &&
+        this.services.getMasterFileSystem().isDistributedLogReplay() &&
+        !isCarryingRoot() && !isCarryingMeta() &&
+        this.services.getAssignmentManager().isFailoverCleanupDone();
       try {
-        if (this.shouldSplitHlog) {
+        if (distributedLogReplay) {
+          LOG.info("Replaying logs of " + serverName + " after assignment");
+        } else if (this.shouldSplitHlog) {
           LOG.info("Splitting logs for " + serverName);
           this.services.getMasterFileSystem().splitLog(serverName);
         } else {
@@ -262,6 +278,12 @@ public class ServerShutdownHandler extends EventHandler {
             }
           }
         }
+        if (distributedLogReplay) {
+          // Mark them before they open, they take writes but no reads until
+          // their edits are replayed
+          this.services.getMasterFileSystem().markRegionsRecovering(toAssignRegions);
+          this.recoveringRegions = toAssignRegions;
+        }
         try {
           am.assign(toAssignRegions);
         } catch (InterruptedException ie) {
@@ -269,12 +291,40 @@ public class ServerShutdownHandler extends EventHandler {
           throw new IOException(ie);
         }
       }
+      if (distributedLogReplay) {
+        if (this.recoveringRegions == null) {
+          this.recoveringRegions = new ArrayList<HRegionInfo>();
+        }
+        replayLogs();
+        return;
+      }
     } finally {
       this.deadServers.finish(serverName);
     }
     LOG.info("Finished processing of shutdown of " + serverName);
   }
 
+  /**
+   * Split the logs of the dead server with the regions it was carrying already
+   * reassigned: the split log workers replay the edits into the regions marked
+   * as recovering.  The regions are released once all logs are done.
+   * @throws IOException if the split failed, this handler is resubmitted
+   */
+  private void replayLogs() throws IOException {
+    try {
+      LOG.info("Replaying logs for " + serverName + " into " +
+        this.recoveringRegions.size() + " recovering region(s)");
+      this.services.getMasterFileSystem().splitLog(serverName);
+    } catch (IOException ioe) {
+      this.services.getExecutorService().submit((ServerShutdownHandler)this);
+      this.deadServers.add(serverName);
+      throw new IOException("failed log replay for " +
+        serverName + ", will retry", ioe);
+    }
+    this.services.getMasterFileSystem().clearRegionsRecovering(this.recoveringRegions);
+    LOG.info("Finished processing of shutdown of " + serverName);
+  }
+
   /**
    * Process a dead region from a dead RS. Checks if the region is disabled or
    * disabling or if the region has a partially completed split.
@@ -32,6 +32,11 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.BlockAccessStats;
+import org.apache.hadoop.hbase.io.hfile.BlockCache;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CompactionCacheWarmer;
+import org.apache.hadoop.hbase.io.hfile.HFileReaderV2;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.util.StringUtils;
@@ -105,6 +110,10 @@ class Compactor extends Configured {
     // keep track of compaction progress
     this.progress = new CompactionProgress(maxKeyCount);
 
+    // Before the scanners read the files, so their hot key ranges are
+    // collected
+    CompactionCacheWarmer warmer = createCacheWarmer(store, filesToCompact);
+
     // For each file, obtain a scanner:
     List<StoreFileScanner> scanners = StoreFileScanner
       .getScannersForStoreFiles(filesToCompact, false, false, true);
@@ -163,7 +172,8 @@ class Compactor extends Configured {
           // because we need record the max seq id for the store file, see
           // HBASE-6059
           if (writer == null) {
-            writer = store.createWriterInTmp(maxKeyCount, compactionCompression, true);
+            writer = store.createWriterInTmp(maxKeyCount, compactionCompression, true,
+                warmer);
           }
           if (writer != null) {
             // output to writer:
@@ -193,14 +203,53 @@ class Compactor extends Configured {
         }
       }
     } finally {
-      if (writer != null) {
-        writer.appendMetadata(maxId, majorCompaction);
-        writer.close();
+      try {
+        if (writer != null) {
+          writer.appendMetadata(maxId, majorCompaction);
+          writer.close();
+        }
+      } finally {
+        // Release the hot key ranges of the inputs even if the writer failed
+        if (warmer != null) {
+          warmer.close();
+          LOG.debug("Cached " + warmer.getCachedBlocks() + " hot blocks, " +
+            StringUtils.humanReadableInt(warmer.getCachedBytes()) +
+            ", of the compaction of " + store);
+        }
       }
     }
     return writer;
   }
 
+  /**
+   * @return A warmer caching the output blocks overlapping the hot key ranges
+   * of the files, or null if the store does not count block reads or none of
+   * the files has hot blocks.
+   */
+  private CompactionCacheWarmer createCacheWarmer(final HStore store,
+      final Collection<StoreFile> filesToCompact) {
+    CacheConfig cacheConf = store.getCacheConfig();
+    if (cacheConf == null || !cacheConf.shouldCacheHotBlocksOnCompaction()) {
+      return null;
+    }
+    List<BlockAccessStats> inputs = new ArrayList<BlockAccessStats>();
+    for (StoreFile file: filesToCompact) {
+      StoreFile.Reader r = file.getReader();
+      if (r == null || !(r.getHFileReader() instanceof HFileReaderV2)) continue;
+      BlockAccessStats stats = ((HFileReaderV2) r.getHFileReader()).getAccessStats();
+      if (stats != null && stats.getHotBlockCount() > 0) {
+        inputs.add(stats);
+      }
+    }
+    if (inputs.isEmpty()) return null;
+    BlockCache cache = cacheConf.getBlockCache();
+    long budget = (long) (getConf().getFloat(
+        CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_BUDGET_KEY,
+        CacheConfig.DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION_BUDGET) *
+        (cache.getCurrentSize() + cache.getFreeSize()));
+    return new CompactionCacheWarmer(inputs, budget);
+  }
+
   void isInterrupted(final HStore store, final StoreFile.Writer writer)
   throws IOException {
     if (store.getHRegion().areWritesEnabled()) return;
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A {@link FlushPolicy} that only flushes the stores whose memstore is larger
+ * than a lower bound, so a small, rarely written family is not flushed into a
+ * tiny file every time a large family of the same region fills the memstore.
+ * <p>
+ * The lower bound is <code>hbase.hregion.percolumnfamilyflush.size.lower.bound</code>,
+ * which can be set in the table or column family descriptor too.  It defaults
+ * to the region's flush size divided by the number of families: a region over
+ * its flush size always has a store over that.  If no store is over the bound
+ * all stores are flushed.
+ */
+@InterfaceAudience.Private
+public class FlushLargeStoresPolicy extends FlushPolicy {
+  private static final Log LOG = LogFactory.getLog(FlushLargeStoresPolicy.class);
+
+  public static final String FLUSH_SIZE_LOWER_BOUND_KEY =
+      "hbase.hregion.percolumnfamilyflush.size.lower.bound";
+
+  private long flushSizeLowerBound;
+
+  @Override
+  protected void configureForRegion(HRegion region) {
+    super.configureForRegion(region);
+    int families = Math.max(1, region.getTableDesc().getFamilies().size());
+    this.flushSizeLowerBound = getConf().getLong(FLUSH_SIZE_LOWER_BOUND_KEY,
+        region.memstoreFlushSize / families);
+  }
+
+  long getFlushSizeLowerBound(final Store store) {
+    String value = store.getFamily().getValue(FLUSH_SIZE_LOWER_BOUND_KEY);
+    if (value != null) {
+      try {
+        return Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        LOG.warn("Ignoring invalid " + FLUSH_SIZE_LOWER_BOUND_KEY + " '" + value +
+            "' of " + store);
+      }
+    }
+    return this.flushSizeLowerBound;
+  }
+
+  @Override
+  protected Collection<Store> selectStoresToFlush() {
+    Collection<Store> stores = region.getStores().values();
+    List<Store> selected = new ArrayList<Store>(stores.size());
+    for (Store store : stores) {
+      if (store.getMemStoreSize() - MemStore.DEEP_OVERHEAD > getFlushSizeLowerBound(store)) {
+        selected.add(store);
+      }
+    }
+    return selected.isEmpty() ? stores : selected;
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A flush policy determines which stores of a region are flushed when the
+ * region's memstore grows beyond its flush size.
+ * <p>
+ * Only flushes asked for because of memstore size use the policy.  Explicit
+ * flushes, flushes on close and split, and flushes forced by the log roller to
+ * let old logs be archived always flush all stores.
+ * @see FlushAllStoresPolicy Default flush policy
+ * @see FlushLargeStoresPolicy
+ */
+@InterfaceAudience.Private
+public abstract class FlushPolicy extends Configured {
+  public static final String FLUSH_POLICY_KEY = "hbase.regionserver.flush.policy";
+
+  private static final Class<? extends FlushPolicy>
+    DEFAULT_FLUSH_POLICY_CLASS = FlushAllStoresPolicy.class;
+
+  /**
+   * The region configured for this flush policy.
+   */
+  protected HRegion region;
+
+  /**
+   * Upon construction, this method will be called with the region
+   * to be governed. It will be called once and only once.
+   */
+  protected void configureForRegion(HRegion region) {
+    Preconditions.checkState(
+        this.region == null,
+        "Policy already configured for region {}",
+        this.region);
+
+    this.region = region;
+  }
+
+  /**
+   * @return the stores to flush, never empty if the region has any store.
+   */
+  protected abstract Collection<Store> selectStoresToFlush();
+
+  /**
+   * Create the FlushPolicy configured for the given region.  The policy class
+   * can also be set in the table descriptor's values.
+   * @param region
+   * @param conf the region's configuration
+   * @return a FlushPolicy
+   * @throws IOException
+   */
+  public static FlushPolicy create(HRegion region,
+      Configuration conf) throws IOException {
+    Class<? extends FlushPolicy> clazz = getFlushPolicyClass(region, conf);
+    FlushPolicy policy = ReflectionUtils.newInstance(clazz, conf);
+    policy.configureForRegion(region);
+    return policy;
+  }
+
+  static Class<? extends FlushPolicy> getFlushPolicyClass(
+      HRegion region, Configuration conf) throws IOException {
+    String className = conf.get(FLUSH_POLICY_KEY,
+        DEFAULT_FLUSH_POLICY_CLASS.getName());
+    try {
+      return Class.forName(className).asSubclass(FlushPolicy.class);
+    } catch (Exception  e) {
+      throw new IOException(
+          "Unable to load configured flush policy '" + className +
+          "' for region '" + region.getRegionNameAsString() + "'",
+          e);
+    }
+  }
+}
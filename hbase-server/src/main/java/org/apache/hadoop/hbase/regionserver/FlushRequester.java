@@ -32,4 +32,13 @@ public interface FlushRequester {
    * @param region the HRegion requesting the cache flush
    */
   void requestFlush(HRegion region);
+
+  /**
+   * Tell the listener the cache needs to be flushed.
+   *
+   * @param region the HRegion requesting the cache flush
+   * @param forceFlushAllStores whether all stores must be flushed, regardless
+   * of the region's {@link FlushPolicy}
+   */
+  void requestFlush(HRegion region, boolean forceFlushAllStores);
 }
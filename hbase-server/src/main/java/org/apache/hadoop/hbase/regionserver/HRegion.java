@@ -38,6 +38,7 @@ import java.util.NavigableSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
@@ -82,6 +83,7 @@ import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.RegionInRecoveryException;
 import org.apache.hadoop.hbase.RegionTooBusyException;
 import org.apache.hadoop.hbase.UnknownScannerException;
 import org.apache.hadoop.hbase.backup.HFileArchiver;
@@ -187,6 +189,14 @@ public class HRegion implements HeapSize { // , Writable{
   public static final String LOAD_CFS_ON_DEMAND_CONFIG_KEY =
       "hbase.hregion.scan.loadColumnFamiliesOnDemand";
 
+  /**
+   * Attribute of the mutations replaying the edits of a dead region server
+   * into a recovering region, see {@link #isRecovering()}.  Its value is the
+   * sequence number the edit had in the log of the dead server.  They fire no
+   * triggers and are not replicated again.
+   */
+  public static final String LOG_REPLAY_ATTRIBUTE = "_log_replay_";
+
   final AtomicBoolean closed = new AtomicBoolean(false);
   /* Closing can take some time; use the closing flag if there is stuff we don't
    * want to do while in closing state; e.g. like offer this region up to the
@@ -195,6 +205,13 @@ public class HRegion implements HeapSize { // , Writable{
    */
   final AtomicBoolean closing = new AtomicBoolean(false);
 
+  /* Set while the edits of a dead region server are replayed into this open
+   * region, see HLogSplitter.  Reads, and writes that read the row, are turned
+   * away.  Replayed edits keep the order of the dead server's log and sort
+   * below every write taken here, see replayMemstoreTS.
+   */
+  private volatile boolean recovering = false;
+
   protected long completeSequenceId = -1L;
 
   //////////////////////////////////////////////////////////////////////////////
@@ -383,6 +400,8 @@ public class HRegion implements HeapSize { // , Writable{
   private HTableDescriptor htableDescriptor = null;
   private RegionSplitPolicy splitPolicy;
 
+  private FlushPolicy flushPolicy;
+
   private final MetricsRegion metricsRegion;
   private final MetricsRegionWrapperImpl metricsRegionWrapper;
 
@@ -636,6 +655,9 @@ public class HRegion implements HeapSize { // , Writable{
     // Initialize split policy
     this.splitPolicy = RegionSplitPolicy.create(this, conf);
 
+    // Initialize flush policy
+    this.flushPolicy = FlushPolicy.create(this, conf);
+
     this.lastFlushTime = EnvironmentEdgeManager.currentTimeMillis();
     // Use maximum of log sequenceid or that which was found in stores
     // (particularly if no recovered edits, seqid will be -1).
@@ -881,6 +903,110 @@ public class HRegion implements HeapSize { // , Writable{
     return this.closing.get();
   }
 
+  /**
+   * @return True if edits of a dead region server are still being replayed
+   * into this region.
+   */
+  public boolean isRecovering() {
+    return this.recovering;
+  }
+
+  /**
+   * @param recovering True while edits of a dead region server are replayed
+   * into this region; reads, increments, appends, check-and-mutates and
+   * deletes of the latest version fail with {@link RegionInRecoveryException}.
+   * Puts and other deletes are taken.
+   */
+  public void setRecovering(final boolean recovering) {
+    if (this.recovering != recovering) {
+      LOG.info((recovering ? "Replaying edits into " : "Done replaying edits into ") +
+          this);
+    }
+    this.recovering = recovering;
+  }
+
+  /**
+   * @return true if the mutation replays an edit of a dead region server
+   */
+  static boolean isLogReplay(final Mutation m) {
+    return m.getAttribute(LOG_REPLAY_ATTRIBUTE) != null;
+  }
+
+  /**
+   * The memstoreTS of the cells of a replayed edit.  They keep the sequence
+   * number of the dead server's log, so a replayed edit wins over the older
+   * ones with the same key whatever order they are replayed in, offset below
+   * zero, so any write taken by this region wins over them.  Negative
+   * memstoreTSs are below every read point and set to 0 when flushed.
+   */
+  static long replayMemstoreTS(final long logSeqNum) {
+    return Long.MIN_VALUE + logSeqNum;
+  }
+
+  /*
+   * Turn away reads, and writes that read the row, while edits of a dead
+   * region server are replayed.
+   */
+  private void checkRecovering() throws RegionInRecoveryException {
+    if (this.recovering) {
+      throw new RegionInRecoveryException(getRegionNameAsString() +
+          " is recovering");
+    }
+  }
+
+  /*
+   * Take the replay of edits of a dead region server only while recovering,
+   * and the writes that do not read the row at any time.
+   */
+  private void checkRecovering(final Mutation m) throws IOException {
+    if (!isLogReplay(m)) {
+      if (m instanceof Delete && deletesLatestVersion(m)) {
+        checkRecovering();
+      }
+      return;
+    }
+    if (!this.recovering) {
+      // Left over from a replay that is over, the edits would land on top
+      // of newer writes
+      throw new DoNotRetryIOException(getRegionNameAsString() +
+          " is not recovering, refusing replayed edits");
+    }
+    byte[] seqNum = m.getAttribute(LOG_REPLAY_ATTRIBUTE);
+    if (seqNum.length != Bytes.SIZEOF_LONG || Bytes.toLong(seqNum) < 0) {
+      throw new DoNotRetryIOException("Replayed edit without a log sequence number");
+    }
+  }
+
+  private void checkRecovering(final Pair<Mutation, Integer>[] mutationsAndLocks)
+  throws IOException {
+    int replays = 0;
+    for (Pair<Mutation, Integer> p : mutationsAndLocks) {
+      checkRecovering(p.getFirst());
+      if (isLogReplay(p.getFirst())) {
+        replays++;
+      }
+    }
+    if (replays > 0 && replays < mutationsAndLocks.length) {
+      // The WAL edit of a mini batch is a replay or not as a whole
+      throw new DoNotRetryIOException("Replayed edits batched with other mutations");
+    }
+  }
+
+  /*
+   * @return true if the delete has to read the row to find the latest version
+   * of a column, see prepareDeleteTimestamps
+   */
+  private static boolean deletesLatestVersion(final Mutation m) {
+    for (List<KeyValue> kvs : m.getFamilyMap().values()) {
+      for (KeyValue kv : kvs) {
+        if (kv.isLatestTimestamp() && kv.isDeleteType()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   /** @return true if region is available (not closed and not closing) */
   public boolean isAvailable() {
     return !isClosed() && !isClosing();
@@ -901,6 +1027,14 @@ public class HRegion implements HeapSize { // , Writable{
      return mvcc;
    }
 
+  /**
+   * @return The lock that stops updates while the stores are snapshotted for
+   * a flush.  Updates hold its read lock.
+   */
+  ReentrantReadWriteLock getUpdatesLock() {
+    return this.updatesLock;
+  }
+
    public boolean isLoadingCfsOnDemandDefault() {
      return this.isLoadingCfsOnDemandDefault;
    }
@@ -1375,6 +1509,23 @@ public class HRegion implements HeapSize { // , Writable{
    * because a Snapshot was not properly persisted.
    */
   public boolean flushcache() throws IOException {
+    return flushcache(true);
+  }
+
+  /**
+   * Flush the cache, or only the stores the region's {@link FlushPolicy}
+   * selects.
+   *
+   * @param forceFlushAllStores whether to flush all stores regardless of the
+   * flush policy; needed to let the log roller archive old logs.
+   * @return true if cache was flushed
+   *
+   * @throws IOException general io exceptions
+   * @throws DroppedSnapshotException Thrown when replay of hlog is required
+   * because a Snapshot was not properly persisted.
+   * @see #flushcache()
+   */
+  public boolean flushcache(final boolean forceFlushAllStores) throws IOException {
     // fail-fast instead of waiting on the lock
     if (this.closing.get()) {
       LOG.debug("Skipping flush on " + this + " because closing");
@@ -1414,7 +1565,10 @@ public class HRegion implements HeapSize { // , Writable{
         }
       }
       try {
-        boolean result = internalFlushcache(status);
+        Collection<Store> storesToFlush =
+            (forceFlushAllStores || this.flushPolicy == null) ?
+                stores.values() : this.flushPolicy.selectStoresToFlush();
+        boolean result = internalFlushcache(this.log, -1, storesToFlush, status);
 
         if (coprocessorHost != null) {
           status.setStatus("Running post-flush coprocessor hooks");
@@ -1487,6 +1641,26 @@ public class HRegion implements HeapSize { // , Writable{
    */
   protected boolean internalFlushcache(
       final HLog wal, final long myseqid, MonitoredTask status)
+  throws IOException {
+    return internalFlushcache(wal, myseqid, stores.values(), status);
+  }
+
+  /**
+   * Flush the memstores of <code>storesToFlush</code>.  If they are not all
+   * the stores of the region, the others keep their edits in memory and the
+   * region's last flushed sequence id stays below their oldest edit, so that
+   * log splitting does not skip the edits of those stores.
+   * @param wal Null if we're NOT to go via hlog/wal.
+   * @param myseqid The seqid to use if <code>wal</code> is null writing out
+   * flush file.
+   * @param storesToFlush
+   * @param status
+   * @return true if the region needs compacting
+   * @throws IOException
+   * @see #internalFlushcache(MonitoredTask)
+   */
+  protected boolean internalFlushcache(final HLog wal, final long myseqid,
+      final Collection<Store> storesToFlush, MonitoredTask status)
   throws IOException {
     final long startTime = EnvironmentEdgeManager.currentTimeMillis();
     // Clear flush flag.
@@ -1519,19 +1693,40 @@ public class HRegion implements HeapSize { // , Writable{
     status.setStatus("Obtaining lock to block concurrent updates");
     // block waiting for the lock for internal flush
     this.updatesLock.writeLock().lock();
+    boolean flushAllStores = storesToFlush.size() == stores.size();
     long flushsize = this.memstoreSize.get();
+    Set<byte[]> flushedFamilies = null;
+    if (!flushAllStores) {
+      flushsize = 0;
+      flushedFamilies = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+      for (Store s : storesToFlush) {
+        flushsize += s.getMemStoreSize() - MemStore.DEEP_OVERHEAD;
+        flushedFamilies.add(s.getFamily().getName());
+      }
+    }
     status.setStatus("Preparing to flush by snapshotting stores");
-    List<StoreFlusher> storeFlushers = new ArrayList<StoreFlusher>(stores.size());
+    List<StoreFlusher> storeFlushers = new ArrayList<StoreFlusher>(storesToFlush.size());
     long completeSeqId = -1L;
+    // The sequence id the region is flushed up to, below the oldest edit of
+    // the stores that are not flushed
+    long flushedSeqId = -1L;
     try {
       // Record the mvcc for all transactions in progress.
       w = mvcc.beginMemstoreInsert();
       mvcc.advanceMemstore(w);
 
       sequenceId = (wal == null)? myseqid:
-        wal.startCacheFlush(this.regionInfo.getEncodedNameAsBytes());
+        wal.startCacheFlush(this.regionInfo.getEncodedNameAsBytes(), flushedFamilies);
       completeSeqId = this.getCompleteCacheFlushSequenceId(sequenceId);
-      for (Store s : stores.values()) {
+      flushedSeqId = completeSeqId;
+      if (wal != null && !flushAllStores) {
+        long oldestUnflushedSeqId =
+          wal.getOldestUnflushedSeqNum(this.regionInfo.getEncodedNameAsBytes());
+        if (oldestUnflushedSeqId > 0) {
+          flushedSeqId = Math.min(flushedSeqId, oldestUnflushedSeqId - 1);
+        }
+      }
+      for (Store s : storesToFlush) {
         storeFlushers.add(s.getStoreFlusher(completeSeqId));
       }
 
@@ -1543,7 +1738,9 @@ public class HRegion implements HeapSize { // , Writable{
       this.updatesLock.writeLock().unlock();
     }
     String s = "Finished snapshotting " + this +
-      ", commencing wait for mvcc, flushsize=" + flushsize;
+      ", commencing wait for mvcc, flushsize=" + flushsize +
+      (flushAllStores ? "" : ", flushing " + storesToFlush.size() + " of " +
+        stores.size() + " stores");
     status.setStatus(s);
     LOG.debug(s);
 
@@ -1616,7 +1813,7 @@ public class HRegion implements HeapSize { // , Writable{
 
     // Update the last flushed sequence id for region
     if (this.rsServices != null) {
-      completeSequenceId = completeSeqId;
+      completeSequenceId = flushedSeqId;
     }
 
     // C. Finally notify anyone waiting on memstore to clear:
@@ -1737,6 +1934,10 @@ public class HRegion implements HeapSize { // , Writable{
 
   protected RegionScanner getScanner(Scan scan,
       List<KeyValueScanner> additionalScanners) throws IOException {
+    if (this.recovering) {
+      throw new RegionInRecoveryException(getRegionNameAsString() +
+          " is recovering");
+    }
     startRegionOperation();
     try {
       // Verify families are all valid
@@ -1789,6 +1990,7 @@ public class HRegion implements HeapSize { // , Writable{
   public void delete(Delete delete, Integer lockid, boolean writeToWAL)
   throws IOException {
     checkReadOnly();
+    checkRecovering(delete);
     checkResources();
     Integer lid = null;
     startRegionOperation();
@@ -1915,6 +2117,7 @@ public class HRegion implements HeapSize { // , Writable{
   public void put(Put put, Integer lockid, boolean writeToWAL)
   throws IOException {
     checkReadOnly();
+    checkRecovering(put);
 
     // Do a rough check that we have resources to accept a write.  The check is
     // 'rough' in that between the resource check and the call to obtain a
@@ -1996,6 +2199,7 @@ public class HRegion implements HeapSize { // , Writable{
       new BatchOperationInProgress<Pair<Mutation,Integer>>(mutationsAndLocks);
 
     boolean initialized = false;
+    checkRecovering(mutationsAndLocks);
 
     while (!batchOp.isDone()) {
       checkReadOnly();
@@ -2229,7 +2433,8 @@ public class HRegion implements HeapSize { // , Writable{
             != OperationStatusCode.NOT_RUN) {
           continue;
         }
-        addedSize += applyFamilyMapToMemstore(familyMaps[i], w);
+        addedSize += applyFamilyMapToMemstore(familyMaps[i], w,
+            batchOp.operations[i].getFirst());
       }
 
       // ------------------------------------
@@ -2265,6 +2470,7 @@ public class HRegion implements HeapSize { // , Writable{
       // STEP 5. Append the edit to WAL. Do not sync wal.
       // -------------------------
       Mutation first = batchOp.operations[firstIndex].getFirst();
+      walEdit.setLogReplay(isLogReplay(first));
       txid = this.log.appendNoSync(regionInfo, this.htableDescriptor.getName(),
                walEdit, first.getClusterId(), now, this.htableDescriptor);
 
@@ -2386,6 +2592,7 @@ public class HRegion implements HeapSize { // , Writable{
       Integer lockId, boolean writeToWAL)
   throws IOException{
     checkReadOnly();
+    checkRecovering();
     //TODO, add check for value length or maybe even better move this to the
     //client if this becomes a global setting
     checkResources();
@@ -2596,11 +2803,13 @@ public class HRegion implements HeapSize { // , Writable{
    * @param familyMap Map of kvs per family
    * @param localizedWriteEntry The WriteEntry of the MVCC for this transaction.
    *        If null, then this method internally creates a mvcc transaction.
+   * @param m the mutation of the kvs; replayed edits keep the order of the
+   *        log they come from, see {@link #replayMemstoreTS(long)}
    * @return the additional memory usage of the memstore caused by the
    * new entries.
    */
   private long applyFamilyMapToMemstore(Map<byte[], List<KeyValue>> familyMap,
-    MultiVersionConsistencyControl.WriteEntry localizedWriteEntry) {
+    MultiVersionConsistencyControl.WriteEntry localizedWriteEntry, Mutation m) {
     long size = 0;
     boolean freemvcc = false;
 
@@ -2609,6 +2818,9 @@ public class HRegion implements HeapSize { // , Writable{
         localizedWriteEntry = mvcc.beginMemstoreInsert();
         freemvcc = true;
       }
+      long memstoreTS = isLogReplay(m) ?
+          replayMemstoreTS(Bytes.toLong(m.getAttribute(LOG_REPLAY_ATTRIBUTE))) :
+          localizedWriteEntry.getWriteNumber();
 
       for (Map.Entry<byte[], List<KeyValue>> e : familyMap.entrySet()) {
         byte[] family = e.getKey();
@@ -2616,7 +2828,7 @@ public class HRegion implements HeapSize { // , Writable{
 
         Store store = getStore(family);
         for (KeyValue kv: edits) {
-          kv.setMemstoreTS(localizedWriteEntry.getWriteNumber());
+          kv.setMemstoreTS(memstoreTS);
           size += store.add(kv);
         }
       }
@@ -2763,6 +2975,10 @@ public class HRegion implements HeapSize { // , Writable{
    * next time we go to recover. So, we have to flush inline, using seqids that
    * make sense in a this single region context only -- until we online.
    *
+   * <p>The edits files are read ahead by {@link RecoveredEditsDecoder}s on a
+   * few threads; the edits themselves are applied on the calling thread, a
+   * batch at a time and file after file.
+   *
    * @param regiondir
    * @param maxSeqIdInStores Any edit found in split editlogs needs to be in excess of
    * the maxSeqId for the store to be applied, else its skipped.
@@ -2787,6 +3003,7 @@ public class HRegion implements HeapSize { // , Writable{
     NavigableSet<Path> files = HLogUtil.getSplitEditFilesSorted(fs, regiondir);
     if (files == null || files.isEmpty()) return seqid;
 
+    List<Path> toReplay = new ArrayList<Path>(files.size());
     for (Path edits: files) {
       if (edits == null || !this.fs.exists(edits)) {
         LOG.warn("Null or non-existent edits file: " + edits);
@@ -2804,33 +3021,69 @@ public class HRegion implements HeapSize { // , Writable{
         LOG.debug(msg);
         continue;
       }
+      toReplay.add(edits);
+    }
 
-      try {
-        seqid = replayRecoveredEdits(edits, maxSeqIdInStores, reporter);
-      } catch (IOException e) {
-        boolean skipErrors = conf.getBoolean(
-            HConstants.HREGION_EDITS_REPLAY_SKIP_ERRORS,
-            conf.getBoolean(
-                "hbase.skip.errors",
-                HConstants.DEFAULT_HREGION_EDITS_REPLAY_SKIP_ERRORS));
-        if (conf.get("hbase.skip.errors") != null) {
-          LOG.warn(
-              "The property 'hbase.skip.errors' has been deprecated. Please use " +
-              HConstants.HREGION_EDITS_REPLAY_SKIP_ERRORS + " instead.");
+    // Files are decoded ahead on a few threads but applied one after the other
+    // in sequenceid order, an edit may overwrite the same cell of an older one.
+    // At least one decoder, or no edit would be replayed before the files are
+    // deleted below.
+    int threads = Math.min(toReplay.size(), Math.max(1,
+        conf.getInt(RecoveredEditsDecoder.THREADS_KEY,
+            RecoveredEditsDecoder.THREADS_DEFAULT)));
+    ThreadPoolExecutor decoderPool = null;
+    List<RecoveredEditsDecoder> decoders =
+        new ArrayList<RecoveredEditsDecoder>(toReplay.size());
+    if (threads > 0) {
+      decoderPool = getOpenAndCloseThreadPool(threads,
+          "RecoveredEditsDecoder-" + this.regionInfo.getEncodedName());
+      for (Path edits: toReplay) {
+        RecoveredEditsDecoder decoder = new RecoveredEditsDecoder(fs, conf, edits);
+        decoders.add(decoder);
+        decoderPool.execute(decoder);
+      }
+    }
+    try {
+      int replayed = 0;
+      for (RecoveredEditsDecoder decoder: decoders) {
+        Path edits = decoder.getPath();
+        status.setStatus("Replaying edits file " + (++replayed) + " of " +
+            decoders.size() + ": " + edits);
+        try {
+          long fileSeqId = replayRecoveredEdits(decoder, maxSeqIdInStores,
+              reporter, status);
+          // A file holding only skipped edits must not take seqid back
+          seqid = Math.max(seqid, fileSeqId);
+        } catch (IOException e) {
+          boolean skipErrors = conf.getBoolean(
+              HConstants.HREGION_EDITS_REPLAY_SKIP_ERRORS,
+              conf.getBoolean(
+                  "hbase.skip.errors",
+                  HConstants.DEFAULT_HREGION_EDITS_REPLAY_SKIP_ERRORS));
+          if (conf.get("hbase.skip.errors") != null) {
+            LOG.warn(
+                "The property 'hbase.skip.errors' has been deprecated. Please use " +
+                HConstants.HREGION_EDITS_REPLAY_SKIP_ERRORS + " instead.");
+          }
+          if (skipErrors) {
+            Path p = HLogUtil.moveAsideBadEditsFile(fs, edits);
+            LOG.error(HConstants.HREGION_EDITS_REPLAY_SKIP_ERRORS
+                + "=true so continuing. Renamed " + edits +
+                " as " + p, e);
+          } else {
+            throw e;
+          }
         }
-        if (skipErrors) {
-          Path p = HLogUtil.moveAsideBadEditsFile(fs, edits);
-          LOG.error(HConstants.HREGION_EDITS_REPLAY_SKIP_ERRORS
-              + "=true so continuing. Renamed " + edits +
-              " as " + p, e);
-        } else {
-          throw e;
+        // The edits size added into rsAccounting during this replaying will not
+        // be required any more. So just clear it.
+        if (this.rsAccounting != null) {
+          this.rsAccounting.clearRegionReplayEditsSize(this.regionInfo.getRegionName());
         }
       }
-      // The edits size added into rsAccounting during this replaying will not
-      // be required any more. So just clear it.
-      if (this.rsAccounting != null) {
-        this.rsAccounting.clearRegionReplayEditsSize(this.regionInfo.getRegionName());
+    } finally {
+      if (decoderPool != null) {
+        // Stops the decoders still reading ahead if we bailed out
+        decoderPool.shutdownNow();
       }
     }
     if (seqid > minSeqIdForTheRegion) {
@@ -2849,171 +3102,191 @@ public class HRegion implements HeapSize { // , Writable{
   }
 
   /*
-   * @param edits File of recovered edits.
+   * Applies the edits of one file as its decoder hands them over.  The KeyValues
+   * of a batch of entries are grouped by store and added to each memstore in
+   * one go; we flush between batches once the region is over its flush size.
+   * @param decoder Decoder of the file of recovered edits.
    * @param maxSeqIdInStores Maximum sequenceid found in each store.  Edits in log
    * must be larger than this to be replayed for each store.
    * @param reporter
+   * @param status Progress of the region open.
    * @return the sequence id of the last edit added to this region out of the
-   * recovered edits log or <code>minSeqId</code> if nothing added from editlogs.
+   * recovered edits log or <code>-1</code> if nothing added from it.
    * @throws IOException
    */
-  private long replayRecoveredEdits(final Path edits,
-      Map<byte[], Long> maxSeqIdInStores, final CancelableProgressable reporter)
+  private long replayRecoveredEdits(final RecoveredEditsDecoder decoder,
+      Map<byte[], Long> maxSeqIdInStores, final CancelableProgressable reporter,
+      final MonitoredTask status)
     throws IOException {
+    Path edits = decoder.getPath();
     String msg = "Replaying edits from " + edits;
     LOG.info(msg);
-    MonitoredTask status = TaskMonitor.get().createStatus(msg);
-
-    status.setStatus("Opening logs");
-    HLog.Reader reader = null;
-    try {
-      reader = HLogFactory.createReader(this.fs, edits, conf);
-      long currentEditSeqId = -1;
-      long firstSeqIdInLog = -1;
-      long skippedEdits = 0;
-      long editsCount = 0;
-      long intervalEdits = 0;
-      HLog.Entry entry;
-      Store store = null;
-      boolean reported_once = false;
 
-      try {
-        // How many edits seen before we check elapsed time
-        int interval = this.conf.getInt("hbase.hstore.report.interval.edits",
-            2000);
-        // How often to send a progress report (default 1/2 master timeout)
-        int period = this.conf.getInt("hbase.hstore.report.period",
-            this.conf.getInt("hbase.master.assignment.timeoutmonitor.timeout",
-                180000) / 2);
-        long lastReport = EnvironmentEdgeManager.currentTimeMillis();
-
-        while ((entry = reader.next()) != null) {
-          HLogKey key = entry.getKey();
-          WALEdit val = entry.getEdit();
-
-          if (reporter != null) {
-            intervalEdits += val.size();
-            if (intervalEdits >= interval) {
-              // Number of edits interval reached
-              intervalEdits = 0;
-              long cur = EnvironmentEdgeManager.currentTimeMillis();
-              if (lastReport + period <= cur) {
-                status.setStatus("Replaying edits..." +
-                    " skipped=" + skippedEdits +
-                    " edits=" + editsCount);
-                // Timeout reached
-                if(!reporter.progress()) {
-                  msg = "Progressable reporter failed, stopping replay";
-                  LOG.warn(msg);
-                  status.abort(msg);
-                  throw new IOException(msg);
-                }
-                reported_once = true;
-                lastReport = cur;
+    long currentEditSeqId = -1;
+    long firstSeqIdInLog = -1;
+    long skippedEdits = 0;
+    long editsCount = 0;
+    long intervalEdits = 0;
+    boolean reported_once = false;
+
+    // How many edits seen before we check elapsed time
+    int interval = this.conf.getInt("hbase.hstore.report.interval.edits",
+        2000);
+    // How often to send a progress report (default 1/2 master timeout)
+    int period = this.conf.getInt("hbase.hstore.report.period",
+        this.conf.getInt("hbase.master.assignment.timeoutmonitor.timeout",
+            180000) / 2);
+    long lastReport = EnvironmentEdgeManager.currentTimeMillis();
+
+    Map<Store, List<KeyValue>> kvsByStore = new HashMap<Store, List<KeyValue>>();
+    List<HLog.Entry> restored = new ArrayList<HLog.Entry>();
+    List<HLog.Entry> batch;
+    while ((batch = decoder.take()) != null) {
+      for (HLog.Entry entry: batch) {
+        HLogKey key = entry.getKey();
+        WALEdit val = entry.getEdit();
+
+        if (reporter != null) {
+          intervalEdits += val.size();
+          if (intervalEdits >= interval) {
+            // Number of edits interval reached
+            intervalEdits = 0;
+            long cur = EnvironmentEdgeManager.currentTimeMillis();
+            if (lastReport + period <= cur) {
+              status.setStatus("Replaying edits from " + edits +
+                  " skipped=" + skippedEdits +
+                  " edits=" + editsCount);
+              // Timeout reached
+              if(!reporter.progress()) {
+                msg = "Progressable reporter failed, stopping replay";
+                LOG.warn(msg);
+                throw new IOException(msg);
               }
+              reported_once = true;
+              lastReport = cur;
             }
           }
+        }
 
-          // Start coprocessor replay here. The coprocessor is for each WALEdit
-          // instead of a KeyValue.
-          if (coprocessorHost != null) {
-            status.setStatus("Running pre-WAL-restore hook in coprocessors");
-            if (coprocessorHost.preWALRestore(this.getRegionInfo(), key, val)) {
-              // if bypass this log entry, ignore it ...
-              continue;
-            }
+        // Start coprocessor replay here. The coprocessor is for each WALEdit
+        // instead of a KeyValue.
+        if (coprocessorHost != null) {
+          if (coprocessorHost.preWALRestore(this.getRegionInfo(), key, val)) {
+            // if bypass this log entry, ignore it ...
+            continue;
           }
+        }
 
-          if (firstSeqIdInLog == -1) {
-            firstSeqIdInLog = key.getLogSeqNum();
+        if (firstSeqIdInLog == -1) {
+          firstSeqIdInLog = key.getLogSeqNum();
+        }
+        Store store = null;
+        List<KeyValue> storeKvs = null;
+        for (KeyValue kv: val.getKeyValues()) {
+          // Check this edit is for me. Also, guard against writing the special
+          // METACOLUMN info such as HBASE::CACHEFLUSH entries
+          if (kv.matchingFamily(HLog.METAFAMILY) ||
+              !Bytes.equals(key.getEncodedRegionName(), this.regionInfo.getEncodedNameAsBytes())) {
+            skippedEdits++;
+            continue;
           }
-          boolean flush = false;
-          for (KeyValue kv: val.getKeyValues()) {
-            // Check this edit is for me. Also, guard against writing the special
-            // METACOLUMN info such as HBASE::CACHEFLUSH entries
-            if (kv.matchingFamily(HLog.METAFAMILY) ||
-                !Bytes.equals(key.getEncodedRegionName(), this.regionInfo.getEncodedNameAsBytes())) {
-              skippedEdits++;
-              continue;
-                }
-            // Figure which store the edit is meant for.
-            if (store == null || !kv.matchingFamily(store.getFamily().getName())) {
-              store = this.stores.get(kv.getFamily());
-            }
-            if (store == null) {
-              // This should never happen.  Perhaps schema was changed between
-              // crash and redeploy?
-              LOG.warn("No family for " + kv);
-              skippedEdits++;
-              continue;
-            }
-            // Now, figure if we should skip this edit.
-            if (key.getLogSeqNum() <= maxSeqIdInStores.get(store.getFamily()
-                .getName())) {
-              skippedEdits++;
-              continue;
+          // Figure which store the edit is meant for.
+          if (store == null || !kv.matchingFamily(store.getFamily().getName())) {
+            store = this.stores.get(kv.getFamily());
+            storeKvs = null;
+          }
+          if (store == null) {
+            // This should never happen.  Perhaps schema was changed between
+            // crash and redeploy?
+            LOG.warn("No family for " + kv);
+            skippedEdits++;
+            continue;
+          }
+          // Now, figure if we should skip this edit.
+          if (key.getLogSeqNum() <= maxSeqIdInStores.get(store.getFamily()
+              .getName())) {
+            skippedEdits++;
+            continue;
+          }
+          if (storeKvs == null) {
+            storeKvs = kvsByStore.get(store);
+            if (storeKvs == null) {
+              storeKvs = new ArrayList<KeyValue>();
+              kvsByStore.put(store, storeKvs);
             }
-            currentEditSeqId = key.getLogSeqNum();
-            // Once we are over the limit, restoreEdit will keep returning true to
-            // flush -- but don't flush until we've played all the kvs that make up
-            // the WALEdit.
-            flush = restoreEdit(store, kv);
-            editsCount++;
           }
-          if (flush) internalFlushcache(null, currentEditSeqId, status);
+          currentEditSeqId = key.getLogSeqNum();
+          storeKvs.add(kv);
+          editsCount++;
+        }
+        restored.add(entry);
+      }
 
-          if (coprocessorHost != null) {
-            coprocessorHost.postWALRestore(this.getRegionInfo(), key, val);
-          }
+      // Each store gets its KeyValues in log order; the whole batch is in
+      // before we look at the flush size, so a flush never splits a WALEdit.
+      boolean flush = false;
+      for (Map.Entry<Store, List<KeyValue>> e: kvsByStore.entrySet()) {
+        if (e.getValue().isEmpty()) continue;
+        flush |= restoreEdits(e.getKey(), e.getValue());
+        e.getValue().clear();
+      }
+      if (flush) {
+        status.setStatus("Flushing replayed edits at sequenceid " +
+            currentEditSeqId);
+        internalFlushcache(null, currentEditSeqId, status);
+      }
+
+      if (coprocessorHost != null) {
+        for (HLog.Entry entry: restored) {
+          coprocessorHost.postWALRestore(this.getRegionInfo(), entry.getKey(),
+              entry.getEdit());
         }
-      } catch (EOFException eof) {
+      }
+      restored.clear();
+    }
+
+    IOException ioe = decoder.getFailure();
+    if (ioe instanceof EOFException) {
+      Path p = HLogUtil.moveAsideBadEditsFile(fs, edits);
+      msg = "Encountered EOF. Most likely due to Master failure during " +
+          "log spliting, so we have this data in another edit.  " +
+          "Continuing, but renaming " + edits + " as " + p;
+      LOG.warn(msg, ioe);
+      status.setStatus(msg);
+    } else if (ioe != null) {
+      // If the IOE resulted from bad file format,
+      // then this problem is idempotent and retrying won't help
+      if (ioe.getCause() instanceof ParseException) {
         Path p = HLogUtil.moveAsideBadEditsFile(fs, edits);
-        msg = "Encountered EOF. Most likely due to Master failure during " +
-            "log spliting, so we have this data in another edit.  " +
+        msg = "File corruption encountered!  " +
             "Continuing, but renaming " + edits + " as " + p;
-        LOG.warn(msg, eof);
-        status.abort(msg);
-      } catch (IOException ioe) {
-        // If the IOE resulted from bad file format,
-        // then this problem is idempotent and retrying won't help
-        if (ioe.getCause() instanceof ParseException) {
-          Path p = HLogUtil.moveAsideBadEditsFile(fs, edits);
-          msg = "File corruption encountered!  " +
-              "Continuing, but renaming " + edits + " as " + p;
-          LOG.warn(msg, ioe);
-          status.setStatus(msg);
-        } else {
-          status.abort(StringUtils.stringifyException(ioe));
-          // other IO errors may be transient (bad network connection,
-          // checksum exception on one datanode, etc).  throw & retry
-          throw ioe;
-        }
-      }
-      if (reporter != null && !reported_once) {
-        reporter.progress();
-      }
-      msg = "Applied " + editsCount + ", skipped " + skippedEdits +
-        ", firstSequenceidInLog=" + firstSeqIdInLog +
-        ", maxSequenceidInLog=" + currentEditSeqId + ", path=" + edits;
-      status.markComplete(msg);
-      LOG.debug(msg);
-      return currentEditSeqId;
-    } finally {
-      status.cleanup();
-      if (reader != null) {
-         reader.close();
+        LOG.warn(msg, ioe);
+        status.setStatus(msg);
+      } else {
+        // other IO errors may be transient (bad network connection,
+        // checksum exception on one datanode, etc).  throw & retry
+        throw ioe;
       }
     }
+    if (reporter != null && !reported_once) {
+      reporter.progress();
+    }
+    msg = "Applied " + editsCount + ", skipped " + skippedEdits +
+      ", firstSequenceidInLog=" + firstSeqIdInLog +
+      ", maxSequenceidInLog=" + currentEditSeqId + ", path=" + edits;
+    status.setStatus(msg);
+    LOG.debug(msg);
+    return currentEditSeqId;
   }
 
   /**
    * Used by tests
-   * @param s Store to add edit too.
-   * @param kv KeyValue to add.
+   * @param s Store to add edits too.
+   * @param kvs KeyValues to add, in log order.
    * @return True if we should flush.
    */
-  protected boolean restoreEdit(final Store s, final KeyValue kv) {
-    long kvSize = s.add(kv);
+  protected boolean restoreEdits(final Store s, final List<KeyValue> kvs) {
+    long kvSize = s.add(kvs);
     if (this.rsAccounting != null) {
       rsAccounting.addAndGetRegionReplayEditsSize(this.regionInfo.getRegionName(), kvSize);
     }
@@ -4503,6 +4776,7 @@ public class HRegion implements HeapSize { // , Writable{
     }
     if (!processor.readOnly()) {
       checkReadOnly();
+      checkRecovering();
     }
     checkResources();
 
@@ -4699,6 +4973,7 @@ public class HRegion implements HeapSize { // , Writable{
       throws IOException {
     byte[] row = append.getRow();
     checkRow(row, "append");
+    checkRecovering();
     boolean flush = false;
     WALEdit walEdits = null;
     List<KeyValue> allKVs = new ArrayList<KeyValue>(append.size());
@@ -4864,6 +5139,7 @@ public class HRegion implements HeapSize { // , Writable{
   throws IOException {
     byte [] row = increment.getRow();
     checkRow(row, "increment");
+    checkRecovering();
     TimeRange tr = increment.getTimeRange();
     boolean flush = false;
     WALEdit walEdits = null;
@@ -19,12 +19,8 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -66,7 +62,6 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
-import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
@@ -200,16 +195,14 @@ import org.apache.hadoop.hbase.regionserver.handler.OpenRootHandler;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
 import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
+import org.apache.hadoop.hbase.regionserver.wal.RegionGroupingStrategy;
 import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.trigger.ActionThreadManager;
 import org.apache.hadoop.hbase.trigger.HTrigger;
-import org.apache.hadoop.hbase.trigger.HTriggerKey;
-import org.apache.hadoop.hbase.trigger.InitialLocalRunner;
 import org.apache.hadoop.hbase.trigger.LocalTriggerManage;
-import org.apache.hadoop.hbase.trigger.TRIGGERTYPE;
-import org.apache.hadoop.hbase.trigger.TriggerConf;
-import org.apache.hadoop.hbase.trigger.TriggerSubmissionFiles;
+import org.apache.hadoop.hbase.trigger.TriggerAggregators;
+import org.apache.hadoop.hbase.trigger.TriggerRegistry;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.CompressionTest;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
@@ -228,7 +221,6 @@ import org.apache.hadoop.hbase.zookeeper.ZKClusterId;
 import org.apache.hadoop.hbase.zookeeper.ZKUtil;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperNodeTracker;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
-import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.mapreduce.JobSubmissionFiles;
 import org.apache.hadoop.metrics.util.MBeanUtil;
@@ -381,15 +373,28 @@ public class  HRegionServer implements ClientProtocol,
    */
   Chore compactionChecker;
 
+  // Publishes and fetches the cluster wide trigger aggregates
+  private Chore triggerAggregatorSyncer;
+
+  // Activates the persisted triggers of the tables hosted here
+  private TriggerRegistry triggerRegistry;
+
   // HLog and HLog roller. log is protected rather than private to avoid
   // eclipse warning when accessed by inner classes
   protected volatile HLog hlog;
   // The meta updates are written to a different hlog. If this
   // regionserver holds meta regions, then this field will be non-null.
   protected volatile HLog hlogForMeta;
+  // All the hlogs user regions write to, hlog first.  More than one if
+  // hbase.regionserver.hlog.count is set; regions are mapped to them by
+  // hlogGroupingStrategy.
+  private volatile List<HLog> hlogs;
+  private RegionGroupingStrategy hlogGroupingStrategy;
 
   LogRoller hlogRoller;
   LogRoller metaHLogRoller;
+  // Rollers of the hlogs after the first one
+  final List<LogRoller> groupHLogRollers = new ArrayList<LogRoller>();
 
   // flag set after we're done setting up server threads (used for testing)
   protected volatile boolean isOnline;
@@ -406,6 +411,9 @@ public class  HRegionServer implements ClientProtocol,
   // Log Splitting Worker
   private SplitLogWorker splitLogWorker;
 
+  // Releases the regions edits of dead servers were replayed into
+  private RecoveringRegionWatcher recoveringRegionWatcher;
+
   // A sleeper that sleeps for msgInterval.
   private final Sleeper sleeper;
 
@@ -806,6 +814,9 @@ public class  HRegionServer implements ClientProtocol,
       this, this.conf.getInt("hbase.regionserver.catalog.timeout", 600000));
     catalogTracker.start();
 
+    this.recoveringRegionWatcher = new RecoveringRegionWatcher(this.zooKeeper);
+    this.recoveringRegionWatcher.start();
+
     // Retrieve clusterId
     // Since cluster status is now up
     // ID should have already been set by HMaster
@@ -866,6 +877,8 @@ public class  HRegionServer implements ClientProtocol,
 
     this.leases = new Leases(this.threadWakeFrequency);
 
+    this.triggerRegistry = new TriggerRegistry(this.zooKeeper, this, this.conf);
+
     // Create the thread for the ThriftServer.
     if (conf.getBoolean("hbase.regionserver.export.thrift", false)) {
       thriftServer = new HRegionThriftServer(this, conf);
@@ -977,11 +990,16 @@ public class  HRegionServer implements ClientProtocol,
     if (this.compactSplitThread != null) this.compactSplitThread.interruptIfNecessary();
     if (this.hlogRoller != null) this.hlogRoller.interruptIfNecessary();
     if (this.metaHLogRoller != null) this.metaHLogRoller.interruptIfNecessary();
+    for (LogRoller roller : this.groupHLogRollers) roller.interruptIfNecessary();
     if (this.compactionChecker != null)
       this.compactionChecker.interrupt();
     if (this.healthCheckChore != null) {
       this.healthCheckChore.interrupt();
     }
+    if (this.triggerAggregatorSyncer != null)
+      this.triggerAggregatorSyncer.interrupt();
+    if (this.triggerRegistry != null)
+      this.triggerRegistry.close();
 
     if (this.killed) {
       // Just skip out w/o closing regions.  Used when testing.
@@ -1187,6 +1205,12 @@ public class  HRegionServer implements ClientProtocol,
         //the directory cleanup to the follow-on closeAndDelete call.
         this.hlogForMeta.close();
       }
+      // Same for the other hlogs of the group; the first one archives all
+      if (this.hlogs != null) {
+        for (HLog log : this.hlogs) {
+          if (log != this.hlog) log.close();
+        }
+      }
       if (this.hlog != null) {
         if (delete) {
           hlog.closeAndDelete();
@@ -1454,7 +1478,24 @@ public class  HRegionServer implements ClientProtocol,
     // log directories.
     createNewReplicationInstance(conf, this, this.fs, logdir, oldLogDir);
 
-    return instantiateHLog(rootDir, logName);
+    HLog first = instantiateHLog(rootDir, logName);
+    int count = Math.max(1, conf.getInt(RegionGroupingStrategy.HLOG_COUNT_KEY,
+        RegionGroupingStrategy.DEFAULT_HLOG_COUNT));
+    List<HLog> logs = new ArrayList<HLog>(count);
+    logs.add(first);
+    for (int i = 1; i < count; i++) {
+      logs.add(HLogFactory.createGroupHLog(this.fs.getBackingFs(), rootDir,
+          logName, this.conf, getGroupWALActionListeners(i),
+          RegionGroupingStrategy.getPrefix(
+              this.serverNameFromMasterPOV.toString(), i)));
+    }
+    if (count > 1) {
+      this.hlogGroupingStrategy = RegionGroupingStrategy.create(conf);
+      LOG.info("Writing user regions to " + count + " hlogs, grouped by " +
+          this.hlogGroupingStrategy.getClass().getSimpleName());
+    }
+    this.hlogs = logs;
+    return first;
   }
 
   private HLog getMetaWAL() throws IOException {
@@ -1503,6 +1544,28 @@ public class  HRegionServer implements ClientProtocol,
     return listeners;
   }
 
+  /**
+   * @param group index of the hlog, more than 0
+   * @return the WALActionsListeners of an hlog after the first one: its own
+   * log roller, and replication, which follows all hlogs of user regions.
+   */
+  protected List<WALActionsListener> getGroupWALActionListeners(final int group) {
+    List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
+    LogRoller roller = new LogRoller(this, this) {
+      @Override
+      protected HLog getWAL() throws IOException {
+        return hlogs.get(group);
+      }
+    };
+    this.groupHLogRollers.add(roller);
+    listeners.add(roller);
+    if (this.replicationSourceHandler != null &&
+        this.replicationSourceHandler.getWALActionsListener() != null) {
+      listeners.add(this.replicationSourceHandler.getWALActionsListener());
+    }
+    return listeners;
+  }
+
   protected List<WALActionsListener> getMetaWALActionListeners() {
     List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
     // Log roller.
@@ -1560,6 +1623,10 @@ public class  HRegionServer implements ClientProtocol,
 
     Threads.setDaemonThreadRunning(this.hlogRoller.getThread(), n + ".logRoller",
         uncaughtExceptionHandler);
+    for (int i = 0; i < this.groupHLogRollers.size(); i++) {
+      Threads.setDaemonThreadRunning(this.groupHLogRollers.get(i).getThread(),
+          n + ".logRoller." + (i + 1), uncaughtExceptionHandler);
+    }
     Threads.setDaemonThreadRunning(this.cacheFlusher.getThread(), n + ".cacheFlusher",
       uncaughtExceptionHandler);
     Threads.setDaemonThreadRunning(this.compactionChecker.getThread(), n +
@@ -1596,6 +1663,11 @@ public class  HRegionServer implements ClientProtocol,
     this.splitLogWorker = new SplitLogWorker(this.zooKeeper,
         this.getConfiguration(), this.getServerName(), this);
     splitLogWorker.start();
+
+    this.triggerAggregatorSyncer = TriggerAggregators.start(this.zooKeeper,
+        this.getServerName(), this.getConfiguration(), this);
+    Threads.setDaemonThreadRunning(this.triggerAggregatorSyncer.getThread(), n +
+      ".triggerAggregatorSyncer", uncaughtExceptionHandler);
   }
 
   /**
@@ -1652,6 +1724,12 @@ public class  HRegionServer implements ClientProtocol,
       stop("Meta HLog roller thread is no longer alive -- stop");
       return false;
     }
+    for (LogRoller roller : this.groupHLogRollers) {
+      if (!roller.isAlive()) {
+        stop("HLog roller thread " + roller.getName() + " is no longer alive -- stop");
+        return false;
+      }
+    }
     return true;
   }
 
@@ -1674,6 +1752,10 @@ public class  HRegionServer implements ClientProtocol,
         regionInfo.isMetaTable()) {
       return getMetaWAL();
     }
+    List<HLog> logs = this.hlogs;
+    if (regionInfo != null && logs != null && logs.size() > 1) {
+      return logs.get(this.hlogGroupingStrategy.group(regionInfo, logs.size()));
+    }
     return this.hlog;
   }
 
@@ -1708,6 +1790,10 @@ public class  HRegionServer implements ClientProtocol,
     checkOpen();
     LOG.info("Post open deploy tasks for region=" + r.getRegionNameAsString() +
       ", daughter=" + daughter);
+    // Reads have to wait if edits of a dead server are replayed into the region
+    if (this.recoveringRegionWatcher != null && !r.getRegionInfo().isMetaTable()) {
+      this.recoveringRegionWatcher.regionOpened(r);
+    }
     // Do checks to see if we need to compact (references or too many files)
     for (Store s : r.getStores().values()) {
       if (s.hasReferences() || s.needsCompaction()) {
@@ -1813,6 +1899,9 @@ public class  HRegionServer implements ClientProtocol,
    */
   protected void join() {
     Threads.shutdown(this.compactionChecker.getThread());
+    if (this.triggerAggregatorSyncer != null) {
+      Threads.shutdown(this.triggerAggregatorSyncer.getThread());
+    }
     Threads.shutdown(this.cacheFlusher.getThread());
     if (this.healthCheckChore != null) {
       Threads.shutdown(this.healthCheckChore.getThread());
@@ -1823,6 +1912,9 @@ public class  HRegionServer implements ClientProtocol,
     if (this.metaHLogRoller != null) {
       Threads.shutdown(this.metaHLogRoller.getThread());
     }
+    for (LogRoller roller : this.groupHLogRollers) {
+      Threads.shutdown(roller.getThread());
+    }
     if (this.compactSplitThread != null) {
       this.compactSplitThread.join();
     }
@@ -2084,7 +2176,10 @@ public class  HRegionServer implements ClientProtocol,
 
   @Override
   public void addToOnlineRegions(HRegion region) {
-    this.onlineRegions.put(region.getRegionInfo().getEncodedName(), region);
+    HRegion previous = this.onlineRegions.put(region.getRegionInfo().getEncodedName(), region);
+    if (previous == null && this.triggerRegistry != null) {
+      this.triggerRegistry.regionOpened(region.getRegionInfo());
+    }
   }
 
   /**
@@ -2580,6 +2675,12 @@ public class  HRegionServer implements ClientProtocol,
   @Override
   public boolean removeFromOnlineRegions(final String encodedRegionName, ServerName destination) {
     HRegion toReturn = this.onlineRegions.remove(encodedRegionName);
+    if (this.recoveringRegionWatcher != null) {
+      this.recoveringRegionWatcher.regionClosed(encodedRegionName);
+    }
+    if (toReturn != null && this.triggerRegistry != null) {
+      this.triggerRegistry.regionClosed(toReturn.getRegionInfo());
+    }
 
     if (destination != null){
       addToMovedRegions(encodedRegionName, destination);
@@ -3306,87 +3407,8 @@ public class  HRegionServer implements ClientProtocol,
   @Override
   public RSTriggerResponse createRSTrigger(final RpcController controller, RSTriggerRequest request){
     System.out.println("Create RS Trigger");
-    int triggerId = request.getId();
-    TriggerConf trigger = new TriggerConf(conf);
-    
-    try {
-      Path triggerStagingArea = TriggerSubmissionFiles.getHDFSStagingDir(trigger);
-      Path submitTriggerDir = new Path(triggerStagingArea, String.valueOf(triggerId));
-      Path submitTriggerFile = TriggerSubmissionFiles.getJobConfPath(submitTriggerDir);
-      Path submitTriggerJar = TriggerSubmissionFiles.getTriggerJar(submitTriggerDir);
-      Path submitTriggerLibDir = TriggerSubmissionFiles.getTriggerLibJars(submitTriggerDir);
-      FileSystem fs = submitTriggerFile.getFileSystem(trigger);
-      
-      /**
-       * load hdfs jar file into local dir
-       */
-      Path localJarPath =  new Path("/tmp/trigger/triggerJar/"+String.valueOf(triggerId)+"/trigger.jar");
-      fs.copyToLocalFile(submitTriggerJar, localJarPath);
-      
-      /**
-       * load tmpjars into local dir
-       */
-      if (fs.exists(submitTriggerLibDir)){
-        File localJarDir = new File("/tmp/trigger/triggerJar/"+String.valueOf(triggerId)+"/lib");
-        if (!localJarDir.exists())
-          localJarDir.mkdirs();
-        FileStatus[] contents = fs.listStatus(submitTriggerLibDir);
-        
-        for (int i = 0; i < contents.length; i++){
-          System.out.println("LOAD Lib Jars: " + contents[i].getPath().toString());
-          InputStream in = null;
-          OutputStream out = null;
-          try {
-            in = fs.open(contents[i].getPath());
-            File localJarLib = new File(localJarDir.getPath(), contents[i].getPath().getName());
-            out = new FileOutputStream(localJarLib);
-            IOUtils.copyBytes(in, out, trigger, true);
-          } catch (IOException e){
-            IOUtils.closeStream(in);
-            IOUtils.closeStream(out);
-          }
-        }
-      }
-
-      /*
-      FileUtil.copy(fs, submitTriggerLibDir, 
-          localExternalJarDir.getFileSystem(trigger), localExternalJarDir, false, trigger);
-      System.out.println("After Copy External Jars to Local");
-      */
-      
-      /**
-       * load trigger's xml file into current trigger configuration object
-       */
-      Path localTriggerXMLFile = new Path("/tmp/trigger/staging/"+String.valueOf(triggerId)+"/trigger.xml");
-      fs.copyToLocalFile(submitTriggerFile, localTriggerXMLFile);
-      //fs.copyToLocalFile(submitTriggerJar, localTriggerXMLFile);
-      
-      
-      trigger.addResource(localTriggerXMLFile);
-      /**
-       * setup the trigger
-       */
-      String tableName = trigger.getTriggerOnTable();
-      String columnFamily = trigger.getTriggerOnColumnFamily();
-      String column = trigger.getTriggerOnColumn();
-      HTriggerKey htk = new HTriggerKey(tableName.getBytes(), columnFamily.getBytes(), column.getBytes());
-      HTrigger newTrigger = new HTrigger(triggerId, htk, trigger);
-      LocalTriggerManage.register(newTrigger);
-      
-      //if this trigger is an initial trigger. we need to run it 
-      //on local datastore once.
-      TRIGGERTYPE type = TRIGGERTYPE.fromString(trigger.getTriggerType());
-      if (type == TRIGGERTYPE.INITIAL || type == TRIGGERTYPE.INITIALWITHCONVERGE){
-        InitialLocalRunner ir = new InitialLocalRunner(newTrigger, this);
-        Thread irthread = new Thread(ir);
-        irthread.start();
-      }
-      
-      System.out.println("current registed htrigger key: " + LocalTriggerManage.prettyPrint());
-    } catch (Exception e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
+    //explicit pushes activate right away; normally the registry activates on region open.
+    this.triggerRegistry.activate(request.getId(), true);
     
     RSTriggerResponse.Builder builder = RSTriggerResponse.newBuilder();
     builder.setSucc(true);
@@ -3881,12 +3903,15 @@ public class  HRegionServer implements ClientProtocol,
       final RollWALWriterRequest request) throws ServiceException {
     try {
       requestCount.increment();
-      HLog wal = this.getWAL();
-      byte[][] regionsToFlush = wal.rollWriter(true);
       RollWALWriterResponse.Builder builder = RollWALWriterResponse.newBuilder();
-      if (regionsToFlush != null) {
-        for (byte[] region: regionsToFlush) {
-          builder.addRegionToFlush(ByteString.copyFrom(region));
+      List<HLog> wals = this.hlogs != null ? this.hlogs :
+          Collections.singletonList(this.getWAL());
+      for (HLog wal : wals) {
+        byte[][] regionsToFlush = wal.rollWriter(true);
+        if (regionsToFlush != null) {
+          for (byte[] region: regionsToFlush) {
+            builder.addRegionToFlush(ByteString.copyFrom(region));
+          }
         }
       }
       return builder.build();
@@ -56,6 +56,7 @@ import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.io.HFileLink;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CompactionCacheWarmer;
 import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoder;
 import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
@@ -199,7 +200,13 @@ public class HStore implements Store, StoreConfiguration {
     // Why not just pass a HColumnDescriptor in here altogether?  Even if have
     // to clone it?
     scanInfo = new ScanInfo(family, ttl, timeToPurgeDeletes, this.comparator);
-    this.memstore = new MemStore(conf, this.comparator);
+    long inMemoryFlushSize = 0;
+    if (conf.getBoolean(MemStore.COMPACTING_KEY, MemStore.COMPACTING_DEFAULT)) {
+      inMemoryFlushSize = (long)(region.memstoreFlushSize *
+          conf.getFloat(MemStore.IN_MEMORY_FLUSH_FRACTION_KEY,
+              MemStore.IN_MEMORY_FLUSH_FRACTION_DEFAULT));
+    }
+    this.memstore = new MemStore(conf, this.comparator, inMemoryFlushSize);
 
     // Setting up cache configuration for this family
     this.cacheConf = new CacheConfig(conf, family);
@@ -470,7 +477,21 @@ public class HStore implements Store, StoreConfiguration {
   public long add(final KeyValue kv) {
     lock.readLock().lock();
     try {
-      return this.memstore.add(kv);
+      long size = this.memstore.add(kv);
+      requestMemStoreCompactionIfNeeded();
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long add(final Iterable<KeyValue> kvs) {
+    lock.readLock().lock();
+    try {
+      long size = this.memstore.add(kvs);
+      requestMemStoreCompactionIfNeeded();
+      return size;
     } finally {
       lock.readLock().unlock();
     }
@@ -485,7 +506,9 @@ public class HStore implements Store, StoreConfiguration {
   protected long delete(final KeyValue kv) {
     lock.readLock().lock();
     try {
-      return this.memstore.delete(kv);
+      long size = this.memstore.delete(kv);
+      requestMemStoreCompactionIfNeeded();
+      return size;
     } finally {
       lock.readLock().unlock();
     }
@@ -687,7 +710,7 @@ public class HStore implements Store, StoreConfiguration {
 
   /**
    * Snapshot this stores memstore. Call before running
-   * {@link #flushCache(long, SortedSet, TimeRangeTracker, AtomicLong, MonitoredTask)}
+   * {@link #flushCache(long, SortedSet, List, TimeRangeTracker, AtomicLong, MonitoredTask)}
    *  so it has some work to do.
    */
   void snapshot() {
@@ -699,6 +722,7 @@ public class HStore implements Store, StoreConfiguration {
    * previously.
    * @param logCacheFlushId flush sequence number
    * @param snapshot
+   * @param segments pipeline segments of the snapshot
    * @param snapshotTimeRangeTracker
    * @param flushedSize The number of bytes flushed
    * @param status
@@ -707,18 +731,20 @@ public class HStore implements Store, StoreConfiguration {
    */
   private Path flushCache(final long logCacheFlushId,
       SortedSet<KeyValue> snapshot,
+      List<NavigableSet<KeyValue>> segments,
       TimeRangeTracker snapshotTimeRangeTracker,
       AtomicLong flushedSize,
       MonitoredTask status) throws IOException {
     // If an exception happens flushing, we let it out without clearing
     // the memstore snapshot.  The old snapshot will be returned when we say
     // 'snapshot', the next time flush comes around.
-    return internalFlushCache(
-        snapshot, logCacheFlushId, snapshotTimeRangeTracker, flushedSize, status);
+    return internalFlushCache(snapshot, segments, logCacheFlushId,
+        snapshotTimeRangeTracker, flushedSize, status);
   }
 
   /*
    * @param cache
+   * @param segments pipeline segments flushed along with cache
    * @param logCacheFlushId
    * @param snapshotTimeRangeTracker
    * @param flushedSize The number of bytes flushed
@@ -726,6 +752,7 @@ public class HStore implements Store, StoreConfiguration {
    * @throws IOException
    */
   private Path internalFlushCache(final SortedSet<KeyValue> set,
+      final List<NavigableSet<KeyValue>> segments,
       final long logCacheFlushId,
       TimeRangeTracker snapshotTimeRangeTracker,
       AtomicLong flushedSize,
@@ -736,8 +763,12 @@ public class HStore implements Store, StoreConfiguration {
     long smallestReadPoint = region.getSmallestReadPoint();
     long flushed = 0;
     Path pathName;
+    int count = set.size();
+    for (NavigableSet<KeyValue> segment : segments) {
+      count += segment.size();
+    }
     // Don't flush if there are no entries.
-    if (set.size() == 0) {
+    if (count == 0) {
       return null;
     }
     // Use a store scanner to find which rows to flush.
@@ -745,6 +776,15 @@ public class HStore implements Store, StoreConfiguration {
     // treat this as a minor compaction.
     InternalScanner scanner = null;
     KeyValueScanner memstoreScanner = new CollectionBackedScanner(set, this.comparator);
+    if (!segments.isEmpty()) {
+      List<KeyValueScanner> scanners =
+        new ArrayList<KeyValueScanner>(segments.size() + 1);
+      scanners.add(memstoreScanner);
+      for (NavigableSet<KeyValue> segment : segments) {
+        scanners.add(new CollectionBackedScanner(segment, this.comparator));
+      }
+      memstoreScanner = new KeyValueHeap(scanners, this.comparator);
+    }
     if (getHRegion().getCoprocessorHost() != null) {
       scanner = getHRegion().getCoprocessorHost()
           .preFlushScannerOpen(this, memstoreScanner);
@@ -773,7 +813,7 @@ public class HStore implements Store, StoreConfiguration {
       synchronized (flushLock) {
         status.setStatus("Flushing " + this + ": creating writer");
         // A. Write the map out to the disk
-        writer = createWriterInTmp(set.size());
+        writer = createWriterInTmp(count);
         writer.setTimeRangeTracker(snapshotTimeRangeTracker);
         pathName = writer.getPath();
         try {
@@ -877,12 +917,29 @@ public class HStore implements Store, StoreConfiguration {
    */
   StoreFile.Writer createWriterInTmp(int maxKeyCount,
     Compression.Algorithm compression, boolean isCompaction)
+  throws IOException {
+    return createWriterInTmp(maxKeyCount, compression, isCompaction, null);
+  }
+
+  /*
+   * @param maxKeyCount
+   * @param compression Compression algorithm to use
+   * @param isCompaction whether we are creating a new file in a compaction
+   * @param warmer picks the data blocks of a compaction output to cache on
+   * write, or null
+   * @return Writer for a new StoreFile in the tmp dir.
+   */
+  StoreFile.Writer createWriterInTmp(int maxKeyCount,
+    Compression.Algorithm compression, boolean isCompaction,
+    CompactionCacheWarmer warmer)
   throws IOException {
     final CacheConfig writerCacheConf;
     if (isCompaction) {
-      // Don't cache data on write on compactions.
+      // Don't cache data on write on compactions, other than the blocks the
+      // warmer picks.
       writerCacheConf = new CacheConfig(cacheConf);
       writerCacheConf.setCacheDataOnWrite(false);
+      writerCacheConf.setCompactionWarmer(warmer);
     } else {
       writerCacheConf = cacheConf;
     }
@@ -1791,12 +1848,92 @@ public class HStore implements Store, StoreConfiguration {
   public long upsert(Iterable<KeyValue> kvs, long readpoint) throws IOException {
     this.lock.readLock().lock();
     try {
-      return this.memstore.upsert(kvs, readpoint);
+      long size = this.memstore.upsert(kvs, readpoint);
+      requestMemStoreCompactionIfNeeded();
+      return size;
     } finally {
       this.lock.readLock().unlock();
     }
   }
 
+  /*
+   * Queue an in-memory compaction if the memstore compacts in memory, its
+   * kvset has grown beyond the in-memory flush size and no compaction of it
+   * is queued or running yet.
+   */
+  private void requestMemStoreCompactionIfNeeded() {
+    if (this.memstore.shouldFlushInMemory() &&
+        this.memstore.compacting.compareAndSet(false, true)) {
+      MemStoreCompactor.requestCompaction(this);
+    }
+  }
+
+  /**
+   * Flushes the kvset of the memstore in memory and compacts the pipeline into
+   * one flat segment.  The pipeline goes through a StoreScanner just like a
+   * flush, so the segment keeps exactly what a flush would have written.
+   * Called on the {@link MemStoreCompactor} threads.
+   * @throws IOException
+   */
+  void compactMemStore() throws IOException {
+    try {
+      this.memstore.flushInMemory();
+      List<MemStore.Segment> segments = this.memstore.getPipeline();
+      if (segments.isEmpty() || (segments.size() == 1 &&
+          segments.get(0).kvs instanceof KeyValueArraySet)) {
+        return;
+      }
+      // Writes still in progress when their kvset was moved into the pipeline
+      // can roll back their cells, which is only possible as long as those are
+      // in a skip list.  Wait for them, as a flush does.
+      MultiVersionConsistencyControl mvcc = this.region.getMVCC();
+      mvcc.completeMemstoreInsert(mvcc.beginMemstoreInsert());
+
+      List<KeyValueScanner> scanners =
+        new ArrayList<KeyValueScanner>(segments.size());
+      for (MemStore.Segment segment : segments) {
+        scanners.add(new CollectionBackedScanner(segment.kvs, this.comparator));
+      }
+      Scan scan = new Scan();
+      scan.setMaxVersions(scanInfo.getMaxVersions());
+      InternalScanner scanner = new StoreScanner(this, scanInfo, scan, scanners,
+          ScanType.MINOR_COMPACT, this.region.getSmallestReadPoint(),
+          HConstants.OLDEST_TIMESTAMP);
+      List<KeyValue> compacted = new ArrayList<KeyValue>();
+      try {
+        int compactionKVMax = conf.getInt(HConstants.COMPACTION_KV_MAX, 10);
+        List<KeyValue> kvs = new ArrayList<KeyValue>();
+        boolean hasMore;
+        do {
+          hasMore = scanner.next(kvs, compactionKVMax);
+          compacted.addAll(kvs);
+          kvs.clear();
+        } while (hasMore);
+      } finally {
+        scanner.close();
+      }
+
+      // A flush subtracts the region memstore size it read while snapshotting,
+      // so the size must not change in between.
+      long delta;
+      this.region.getUpdatesLock().readLock().lock();
+      try {
+        delta = this.memstore.swapPipeline(segments,
+            compacted.toArray(new KeyValue[compacted.size()]));
+        this.region.addAndGetGlobalMemstoreSize(delta);
+      } finally {
+        this.region.getUpdatesLock().readLock().unlock();
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Compacted " + segments.size() + " memstore segments of " +
+            this + " into " + compacted.size() + " cells, memstore size change " +
+            StringUtils.humanReadableInt(delta));
+      }
+    } finally {
+      this.memstore.compacting.set(false);
+    }
+  }
+
   public StoreFlusher getStoreFlusher(long cacheFlushId) {
     return new StoreFlusherImpl(cacheFlushId);
   }
@@ -1805,6 +1942,7 @@ public class HStore implements Store, StoreConfiguration {
 
     private long cacheFlushId;
     private SortedSet<KeyValue> snapshot;
+    private List<NavigableSet<KeyValue>> snapshotSegments;
     private StoreFile storeFile;
     private Path storeFilePath;
     private TimeRangeTracker snapshotTimeRangeTracker;
@@ -1819,13 +1957,14 @@ public class HStore implements Store, StoreConfiguration {
     public void prepare() {
       memstore.snapshot();
       this.snapshot = memstore.getSnapshot();
+      this.snapshotSegments = memstore.getSnapshotSegments();
       this.snapshotTimeRangeTracker = memstore.getSnapshotTimeRangeTracker();
     }
 
     @Override
     public void flushCache(MonitoredTask status) throws IOException {
-      storeFilePath = HStore.this.flushCache(
-        cacheFlushId, snapshot, snapshotTimeRangeTracker, flushedSize, status);
+      storeFilePath = HStore.this.flushCache(cacheFlushId, snapshot,
+        snapshotSegments, snapshotTimeRangeTracker, flushedSize, status);
     }
 
     @Override
@@ -0,0 +1,270 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * An immutable {@link java.util.NavigableSet} of {@link KeyValue}s backed by a
+ * sorted array.  This is the flat form the compacting {@link MemStore} keeps
+ * its compacted segments in: one reference per KeyValue instead of a skip list
+ * node and index nodes, and lookups by binary search.
+ * <p>
+ * Views returned by headSet and tailSet share the array.  Nothing can be added
+ * or removed; <code>remove()</code> on an iterator is ignored so that the
+ * memstore code which prunes expired KeyValues while walking a set works on
+ * both kinds of sets.  Expired KeyValues in a flat segment are dropped by the
+ * next in-memory compaction or flush instead.
+ */
+@InterfaceAudience.Private
+class KeyValueArraySet implements NavigableSet<KeyValue> {
+  private final KeyValue.KVComparator comparator;
+  private final KeyValue [] kvs;
+  // The view covers kvs[from, to)
+  private final int from;
+  private final int to;
+
+  /**
+   * @param c Comparator
+   * @param kvs KeyValues sorted by <code>c</code>, without duplicates.  Not copied.
+   */
+  KeyValueArraySet(final KeyValue.KVComparator c, final KeyValue [] kvs) {
+    this(c, kvs, 0, kvs.length);
+  }
+
+  private KeyValueArraySet(final KeyValue.KVComparator c, final KeyValue [] kvs,
+      final int from, final int to) {
+    this.comparator = c;
+    this.kvs = kvs;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * @return Index of the first KeyValue that is not less than <code>kv</code>
+   * or, if <code>inclusive</code> is false, greater than <code>kv</code>.
+   */
+  private int search(final KeyValue kv, final boolean inclusive) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int cmp = this.comparator.compare(kvs[mid], kv);
+      if (cmp < 0 || (cmp == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private KeyValue at(final int i) {
+    return i >= from && i < to ? kvs[i] : null;
+  }
+
+  public KeyValue ceiling(KeyValue e) {
+    return at(search(e, true));
+  }
+
+  public KeyValue higher(KeyValue e) {
+    return at(search(e, false));
+  }
+
+  public KeyValue floor(KeyValue e) {
+    return at(search(e, false) - 1);
+  }
+
+  public KeyValue lower(KeyValue e) {
+    return at(search(e, true) - 1);
+  }
+
+  public KeyValue get(KeyValue kv) {
+    KeyValue found = ceiling(kv);
+    return found != null && this.comparator.compare(found, kv) == 0 ? found : null;
+  }
+
+  public Iterator<KeyValue> iterator() {
+    return new Iterator<KeyValue>() {
+      private int next = from;
+
+      public boolean hasNext() {
+        return next < to;
+      }
+
+      public KeyValue next() {
+        if (next >= to) {
+          throw new NoSuchElementException();
+        }
+        return kvs[next++];
+      }
+
+      public void remove() {
+        // Immutable, see class comment.
+      }
+    };
+  }
+
+  public Iterator<KeyValue> descendingIterator() {
+    return new Iterator<KeyValue>() {
+      private int next = to - 1;
+
+      public boolean hasNext() {
+        return next >= from;
+      }
+
+      public KeyValue next() {
+        if (next < from) {
+          throw new NoSuchElementException();
+        }
+        return kvs[next--];
+      }
+
+      public void remove() {
+        // Immutable, see class comment.
+      }
+    };
+  }
+
+  public NavigableSet<KeyValue> descendingSet() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public SortedSet<KeyValue> headSet(final KeyValue toElement) {
+    return headSet(toElement, false);
+  }
+
+  public NavigableSet<KeyValue> headSet(final KeyValue toElement,
+      boolean inclusive) {
+    return new KeyValueArraySet(comparator, kvs, from, search(toElement, !inclusive));
+  }
+
+  public SortedSet<KeyValue> tailSet(KeyValue fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  public NavigableSet<KeyValue> tailSet(KeyValue fromElement, boolean inclusive) {
+    return new KeyValueArraySet(comparator, kvs, search(fromElement, inclusive), to);
+  }
+
+  public SortedSet<KeyValue> subSet(KeyValue fromElement, KeyValue toElement) {
+    return subSet(fromElement, true, toElement, false);
+  }
+
+  public NavigableSet<KeyValue> subSet(KeyValue fromElement,
+      boolean fromInclusive, KeyValue toElement, boolean toInclusive) {
+    int start = search(fromElement, fromInclusive);
+    int end = Math.max(start, search(toElement, !toInclusive));
+    return new KeyValueArraySet(comparator, kvs, start, end);
+  }
+
+  public KeyValue pollFirst() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public KeyValue pollLast() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public Comparator<? super KeyValue> comparator() {
+    return this.comparator;
+  }
+
+  public KeyValue first() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return kvs[from];
+  }
+
+  public KeyValue last() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return kvs[to - 1];
+  }
+
+  public boolean add(KeyValue e) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean addAll(Collection<? extends KeyValue> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public void clear() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean contains(Object o) {
+    return o instanceof KeyValue && get((KeyValue)o) != null;
+  }
+
+  public boolean containsAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean isEmpty() {
+    return from >= to;
+  }
+
+  public boolean remove(Object o) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean removeAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean retainAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public int size() {
+    return to - from;
+  }
+
+  public Object[] toArray() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public <T> T[] toArray(T[] a) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  /**
+   * @return heap size of a set holding <code>count</code> KeyValues, not counting
+   * the KeyValues themselves.
+   */
+  static long heapSizeOf(final int count) {
+    return ClassSize.align(ClassSize.OBJECT + (2 * ClassSize.REFERENCE) +
+        (2 * Bytes.SIZEOF_INT)) +
+        ClassSize.align(ClassSize.ARRAY + (count * ClassSize.REFERENCE));
+  }
+}
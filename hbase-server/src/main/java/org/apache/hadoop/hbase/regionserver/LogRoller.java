@@ -129,7 +129,8 @@ class LogRoller extends HasThread implements WALActionsListener {
     if (r != null) {
       requester = this.services.getFlushRequester();
       if (requester != null) {
-        requester.requestFlush(r);
+        // Flush all stores, the oldest edits may be in any of them
+        requester.requestFlush(r, true);
         scheduled = true;
       }
     }
@@ -22,12 +22,14 @@ package org.apache.hadoop.hbase.regionserver;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.rmi.UnexpectedException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -50,6 +52,14 @@ import org.apache.hadoop.hbase.util.ClassSize;
  * to snapshot and is cleared.  We continue to serve edits out of new memstore
  * and backing snapshot until flusher reports in that the flush succeeded. At
  * this point we let the snapshot go.
+ * <p>
+ * A compacting memstore, one with an in-memory flush size, also keeps a
+ * pipeline of immutable segments between the kvset and the snapshot.  Once
+ * the kvset grows beyond the in-memory flush size it is moved into the
+ * pipeline, and {@link HStore#compactMemStore()} merges the pipeline into a
+ * single flat {@link KeyValueArraySet}, dropping the versions and deleted
+ * cells a flush would drop.  A snapshot takes the kvset and the whole
+ * pipeline.
  * TODO: Adjust size of the memstore when we remove items because they have
  * been deleted.
  * TODO: With new KVSLS, need to make sure we update HeapSize with difference
@@ -63,6 +73,14 @@ public class MemStore implements HeapSize {
     "hbase.hregion.memstore.mslab.enabled";
   private static final boolean USEMSLAB_DEFAULT = false;
 
+  static final String COMPACTING_KEY =
+    "hbase.hregion.memstore.compacting.enabled";
+  static final boolean COMPACTING_DEFAULT = false;
+  /** Fraction of the region flush size at which the kvset is flushed in memory */
+  static final String IN_MEMORY_FLUSH_FRACTION_KEY =
+    "hbase.hregion.memstore.compacting.flush.fraction";
+  static final float IN_MEMORY_FLUSH_FRACTION_DEFAULT = 0.25f;
+
   private Configuration conf;
 
   // MemStore.  Use a KeyValueSkipListSet rather than SkipListSet because of the
@@ -72,9 +90,16 @@ public class MemStore implements HeapSize {
   // reference passed.
   volatile KeyValueSkipListSet kvset;
 
+  // Immutable segments flushed in memory, oldest first.  Lists are replaced,
+  // never modified, so scanners can hold on to them.
+  volatile List<Segment> pipeline;
+
   // Snapshot of memstore.  Made for flusher.
   volatile KeyValueSkipListSet snapshot;
 
+  // The pipeline at the time of the snapshot, flushed along with it.
+  volatile List<Segment> snapshotPipeline;
+
   final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
   final KeyValue.KVComparator comparator;
@@ -92,8 +117,13 @@ public class MemStore implements HeapSize {
   TimeRangeTracker snapshotTimeRangeTracker;
 
   MemStoreLAB allocator;
+  // The allocator of the snapshot, closed once the snapshot is cleared
+  MemStoreLAB snapshotAllocator;
 
-
+  // Size of the kvset at which it is flushed in memory, 0 if not compacting
+  private final long inMemoryFlushSize;
+  // Set while an in-memory compaction of this memstore is queued or running
+  final AtomicBoolean compacting = new AtomicBoolean(false);
 
   /**
    * Default constructor. Used for tests.
@@ -108,13 +138,28 @@ public class MemStore implements HeapSize {
    */
   public MemStore(final Configuration conf,
                   final KeyValue.KVComparator c) {
+    this(conf, c, 0);
+  }
+
+  /**
+   * Constructor.
+   * @param c Comparator
+   * @param inMemoryFlushSize Size at which the kvset is moved into the
+   * pipeline, 0 for a memstore that does not compact in memory.
+   */
+  public MemStore(final Configuration conf,
+                  final KeyValue.KVComparator c,
+                  final long inMemoryFlushSize) {
     this.conf = conf;
+    this.inMemoryFlushSize = inMemoryFlushSize;
     this.comparator = c;
     this.comparatorIgnoreTimestamp =
       this.comparator.getComparatorIgnoringTimestamps();
     this.comparatorIgnoreType = this.comparator.getComparatorIgnoringType();
     this.kvset = new KeyValueSkipListSet(c);
+    this.pipeline = Collections.emptyList();
     this.snapshot = new KeyValueSkipListSet(c);
+    this.snapshotPipeline = Collections.emptyList();
     timeRangeTracker = new TimeRangeTracker();
     snapshotTimeRangeTracker = new TimeRangeTracker();
     this.size = new AtomicLong(DEEP_OVERHEAD);
@@ -126,12 +171,31 @@ public class MemStore implements HeapSize {
   }
 
   void dump() {
-    for (KeyValue kv: this.kvset) {
-      LOG.info(kv);
+    for (NavigableSet<KeyValue> set: getSets()) {
+      for (KeyValue kv: set) {
+        LOG.info(kv);
+      }
+    }
+  }
+
+  /**
+   * @return The kvset, the pipeline segments, the snapshot and the snapshot
+   * pipeline segments, newest first.
+   */
+  private List<NavigableSet<KeyValue>> getSets() {
+    List<Segment> pipeline = this.pipeline;
+    List<Segment> snapshotPipeline = this.snapshotPipeline;
+    List<NavigableSet<KeyValue>> sets = new ArrayList<NavigableSet<KeyValue>>(
+        2 + pipeline.size() + snapshotPipeline.size());
+    sets.add(this.kvset);
+    for (int i = pipeline.size() - 1; i >= 0; i--) {
+      sets.add(pipeline.get(i).kvs);
     }
-    for (KeyValue kv: this.snapshot) {
-      LOG.info(kv);
+    sets.add(this.snapshot);
+    for (int i = snapshotPipeline.size() - 1; i >= 0; i--) {
+      sets.add(snapshotPipeline.get(i).kvs);
     }
+    return sets;
   }
 
   /**
@@ -144,19 +208,29 @@ public class MemStore implements HeapSize {
     try {
       // If snapshot currently has entries, then flusher failed or didn't call
       // cleanup.  Log a warning.
-      if (!this.snapshot.isEmpty()) {
+      if (!this.snapshot.isEmpty() || !this.snapshotPipeline.isEmpty()) {
         LOG.warn("Snapshot called again without clearing previous. " +
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
       } else {
-        if (!this.kvset.isEmpty()) {
+        if (!this.kvset.isEmpty() || !this.pipeline.isEmpty()) {
           this.snapshot = this.kvset;
           this.kvset = new KeyValueSkipListSet(this.comparator);
           this.snapshotTimeRangeTracker = this.timeRangeTracker;
           this.timeRangeTracker = new TimeRangeTracker();
+          if (!this.pipeline.isEmpty()) {
+            this.snapshotPipeline = this.pipeline;
+            this.pipeline = Collections.emptyList();
+            this.snapshotTimeRangeTracker =
+              new TimeRangeTracker(this.snapshotTimeRangeTracker);
+            for (Segment segment : this.snapshotPipeline) {
+              this.snapshotTimeRangeTracker.includeTimeRange(segment.timeRangeTracker);
+            }
+          }
           // Reset heap to not include any keys
           this.size.set(DEEP_OVERHEAD);
           // Reset allocator so we get a fresh buffer for the new memstore
           if (allocator != null) {
+            this.snapshotAllocator = this.allocator;
             this.allocator = new MemStoreLAB(conf);
           }
         }
@@ -178,6 +252,22 @@ public class MemStore implements HeapSize {
     return this.snapshot;
   }
 
+  /**
+   * Return the pipeline segments of the current snapshot, oldest first.  They
+   * have to be flushed along with {@link #getSnapshot()}.
+   * @return The sets of the snapshot pipeline, empty if the memstore does not
+   * compact in memory.
+   */
+  List<NavigableSet<KeyValue>> getSnapshotSegments() {
+    List<Segment> snapshotPipeline = this.snapshotPipeline;
+    List<NavigableSet<KeyValue>> sets =
+      new ArrayList<NavigableSet<KeyValue>>(snapshotPipeline.size());
+    for (Segment segment : snapshotPipeline) {
+      sets.add(segment.kvs);
+    }
+    return sets;
+  }
+
   /**
    * The passed snapshot was successfully persisted; it can be let go.
    * @param ss The snapshot to clean out.
@@ -186,6 +276,7 @@ public class MemStore implements HeapSize {
    */
   void clearSnapshot(final SortedSet<KeyValue> ss)
   throws UnexpectedException {
+    MemStoreLAB tmpAllocator = null;
     this.lock.writeLock().lock();
     try {
       if (this.snapshot != ss) {
@@ -194,10 +285,115 @@ public class MemStore implements HeapSize {
       }
       // OK. Passed in snapshot is same as current snapshot.  If not-empty,
       // create a new snapshot and let the old one go.
-      if (!ss.isEmpty()) {
+      if (!ss.isEmpty() || !this.snapshotPipeline.isEmpty()) {
         this.snapshot = new KeyValueSkipListSet(this.comparator);
+        this.snapshotPipeline = Collections.emptyList();
         this.snapshotTimeRangeTracker = new TimeRangeTracker();
       }
+      if (this.snapshotAllocator != null) {
+        tmpAllocator = this.snapshotAllocator;
+        this.snapshotAllocator = null;
+      }
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+    // The chunks go back to the pool once the scanners still reading them are closed
+    if (tmpAllocator != null) {
+      tmpAllocator.close();
+    }
+  }
+
+  /**
+   * @return True if this memstore compacts in memory and its kvset has grown
+   * beyond the in-memory flush size.
+   */
+  boolean shouldFlushInMemory() {
+    return this.inMemoryFlushSize > 0 &&
+      keySize() - pipelineKeySize(this.pipeline) > this.inMemoryFlushSize;
+  }
+
+  private static long pipelineKeySize(final List<Segment> segments) {
+    long s = 0;
+    for (Segment segment : segments) {
+      s += segment.size.get();
+    }
+    return s;
+  }
+
+  /**
+   * Moves the kvset to the end of the pipeline and starts a new one.  Unlike
+   * {@link #snapshot()} this does not change the size of the memstore, the
+   * cells stay in memory until the pipeline is snapshotted.
+   * @return True if there was anything to move.
+   */
+  boolean flushInMemory() {
+    this.lock.writeLock().lock();
+    try {
+      if (this.kvset.isEmpty()) {
+        return false;
+      }
+      Segment segment = new Segment(this.kvset, this.timeRangeTracker,
+          keySize() - pipelineKeySize(this.pipeline));
+      List<Segment> newPipeline = new ArrayList<Segment>(this.pipeline.size() + 1);
+      newPipeline.addAll(this.pipeline);
+      newPipeline.add(segment);
+      this.pipeline = newPipeline;
+      this.kvset = new KeyValueSkipListSet(this.comparator);
+      this.timeRangeTracker = new TimeRangeTracker();
+      return true;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return The current pipeline, oldest segment first.  The list must not
+   * be modified.
+   */
+  List<Segment> getPipeline() {
+    return this.pipeline;
+  }
+
+  /**
+   * Replaces the oldest segments of the pipeline by the result of compacting
+   * them.  Does nothing if the segments are no longer at the head of the
+   * pipeline, because a snapshot took them while they were compacted.
+   * @param compacted Segments as returned by {@link #getPipeline()}
+   * @param kvs The cells left after compacting <code>compacted</code>, sorted
+   * @return Change in heap size of the memstore, usually negative.
+   */
+  long swapPipeline(final List<Segment> compacted, final KeyValue [] kvs) {
+    TimeRangeTracker trt = new TimeRangeTracker();
+    long resultSize = KeyValueArraySet.heapSizeOf(kvs.length);
+    for (KeyValue kv : kvs) {
+      trt.includeTimestamp(kv);
+      resultSize += kv.heapSize();
+    }
+    Segment result = new Segment(new KeyValueArraySet(this.comparator, kvs),
+        trt, resultSize);
+
+    this.lock.writeLock().lock();
+    try {
+      List<Segment> current = this.pipeline;
+      if (current.size() < compacted.size()) {
+        return 0;
+      }
+      for (int i = 0; i < compacted.size(); i++) {
+        if (current.get(i) != compacted.get(i)) {
+          return 0;
+        }
+      }
+      List<Segment> newPipeline = new ArrayList<Segment>(
+          current.size() - compacted.size() + 1);
+      long delta = -pipelineKeySize(compacted);
+      if (kvs.length > 0) {
+        newPipeline.add(result);
+        delta += resultSize;
+      }
+      newPipeline.addAll(current.subList(compacted.size(), current.size()));
+      this.pipeline = newPipeline;
+      this.size.addAndGet(delta);
+      return delta;
     } finally {
       this.lock.writeLock().unlock();
     }
@@ -218,6 +414,24 @@ public class MemStore implements HeapSize {
     }
   }
 
+  /**
+   * Write a batch of updates under one acquisition of the lock
+   * @param kvs
+   * @return approximate size of the passed keys and values.
+   */
+  long add(final Iterable<KeyValue> kvs) {
+    long size = 0;
+    this.lock.readLock().lock();
+    try {
+      for (KeyValue kv : kvs) {
+        size += internalAdd(maybeCloneWithAllocator(kv));
+      }
+      return size;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
   /**
    * Internal version of add() that doesn't clone KVs with the
    * allocator, and doesn't take the lock.
@@ -270,6 +484,9 @@ public class MemStore implements HeapSize {
       if (found != null && found.getMemstoreTS() == kv.getMemstoreTS()) {
         this.snapshot.remove(kv);
       }
+      for (Segment segment : this.snapshotPipeline) {
+        segment.rollback(kv);
+      }
       // If the key is in the memstore, delete it. Update this.size.
       found = this.kvset.get(kv);
       if (found != null && found.getMemstoreTS() == kv.getMemstoreTS()) {
@@ -277,6 +494,10 @@ public class MemStore implements HeapSize {
         long s = heapSizeChange(kv, true);
         this.size.addAndGet(-s);
       }
+      // The pipeline counts in this.size as well.
+      for (Segment segment : this.pipeline) {
+        this.size.addAndGet(-segment.rollback(kv));
+      }
     } finally {
       this.lock.readLock().unlock();
     }
@@ -294,10 +515,11 @@ public class MemStore implements HeapSize {
       KeyValue toAdd = maybeCloneWithAllocator(delete);
       s += heapSizeChange(toAdd, this.kvset.add(toAdd));
       timeRangeTracker.includeTimestamp(toAdd);
+      // Inside the lock, so an in-memory flush sees the size of its kvset
+      this.size.addAndGet(s);
     } finally {
       this.lock.readLock().unlock();
     }
-    this.size.addAndGet(s);
     return s;
   }
 
@@ -309,7 +531,11 @@ public class MemStore implements HeapSize {
   KeyValue getNextRow(final KeyValue kv) {
     this.lock.readLock().lock();
     try {
-      return getLowest(getNextRow(kv, this.kvset), getNextRow(kv, this.snapshot));
+      KeyValue lowest = null;
+      for (NavigableSet<KeyValue> set : getSets()) {
+        lowest = getLowest(lowest, getNextRow(kv, set));
+      }
+      return lowest;
     } finally {
       this.lock.readLock().unlock();
     }
@@ -358,8 +584,9 @@ public class MemStore implements HeapSize {
   void getRowKeyAtOrBefore(final GetClosestRowBeforeTracker state) {
     this.lock.readLock().lock();
     try {
-      getRowKeyAtOrBefore(kvset, state);
-      getRowKeyAtOrBefore(snapshot, state);
+      for (NavigableSet<KeyValue> set : getSets()) {
+        getRowKeyAtOrBefore(set, state);
+      }
     } finally {
       this.lock.readLock().unlock();
     }
@@ -655,11 +882,18 @@ public class MemStore implements HeapSize {
    * @return False if the key definitely does not exist in this Memstore
    */
   public boolean shouldSeek(Scan scan, long oldestUnexpiredTS) {
-    return (timeRangeTracker.includesTimeRange(scan.getTimeRange()) ||
-        snapshotTimeRangeTracker.includesTimeRange(scan.getTimeRange()))
-        && (Math.max(timeRangeTracker.getMaximumTimestamp(),
-                     snapshotTimeRangeTracker.getMaximumTimestamp()) >=
-            oldestUnexpiredTS);
+    TimeRangeTracker trt = this.timeRangeTracker;
+    TimeRangeTracker strt = this.snapshotTimeRangeTracker;
+    boolean includes = trt.includesTimeRange(scan.getTimeRange()) ||
+        strt.includesTimeRange(scan.getTimeRange());
+    long maxTimestamp = Math.max(trt.getMaximumTimestamp(),
+        strt.getMaximumTimestamp());
+    for (Segment segment : this.pipeline) {
+      includes |= segment.timeRangeTracker.includesTimeRange(scan.getTimeRange());
+      maxTimestamp = Math.max(maxTimestamp,
+          segment.timeRangeTracker.getMaximumTimestamp());
+    }
+    return includes && maxTimestamp >= oldestUnexpiredTS;
   }
 
   public TimeRangeTracker getSnapshotTimeRangeTracker() {
@@ -668,39 +902,44 @@ public class MemStore implements HeapSize {
 
   /*
    * MemStoreScanner implements the KeyValueScanner.
-   * It lets the caller scan the contents of a memstore -- both current
-   * map and snapshot.
+   * It lets the caller scan the contents of a memstore -- the current map,
+   * the pipeline and the snapshot.
    * This behaves as if it were a real scanner but does not maintain position.
    */
   protected class MemStoreScanner extends NonLazyKeyValueScanner {
-    // Next row information for either kvset or snapshot
-    private KeyValue kvsetNextRow = null;
-    private KeyValue snapshotNextRow = null;
-
-    // last iterated KVs for kvset and snapshot (to restore iterator state after reseek)
-    private KeyValue kvsetItRow = null;
-    private KeyValue snapshotItRow = null;
-    
+    // The kvset, pipeline and snapshot sets at the time of creating this
+    // scanner, newest first.  Ties between sets go to the newer one.
+    private final List<NavigableSet<KeyValue>> setsAtCreation;
+
+    // Next row information for each set
+    private final KeyValue [] nextRows;
+
+    // last iterated KVs for each set (to restore iterator state after reseek)
+    private final KeyValue [] itRows;
+
     // iterator based scanning.
-    private Iterator<KeyValue> kvsetIt;
-    private Iterator<KeyValue> snapshotIt;
+    private final List<Iterator<KeyValue>> its;
 
-    // The kvset and snapshot at the time of creating this scanner
-    private KeyValueSkipListSet kvsetAtCreation;
-    private KeyValueSkipListSet snapshotAtCreation;
+    // the allocators of kvset and snapshot at the time of creating this scanner
+    private MemStoreLAB allocatorAtCreation;
+    private MemStoreLAB snapshotAllocatorAtCreation;
 
-    // the pre-calculated KeyValue to be returned by peek() or next()
+    // the pre-calculated KeyValue to be returned by peek() or next(), and the
+    // set it comes from
     private KeyValue theNext;
+    private int theNextIndex = -1;
 
     /*
     Some notes...
 
      So memstorescanner is fixed at creation time. this includes pointers/iterators into
-    existing kvset/snapshot.  during a snapshot creation, the kvset is null, and the
+    existing kvset/pipeline/snapshot.  during a snapshot creation, the kvset is null, and the
     snapshot is moved.  since kvset is null there is no point on reseeking on both,
       we can save us the trouble. During the snapshot->hfile transition, the memstore
       scanner is re-created by StoreScanner#updateReaders().  StoreScanner should
       potentially do something smarter by adjusting the existing memstore scanner.
+      In-memory flushes and compactions only ever replace sets by sets holding the
+      same visible cells, so a scanner keeps reading the sets it started with.
 
       But there is a greater problem here, that being once a scanner has progressed
       during a snapshot scenario, we currently iterate past the kvset then 'finish' up.
@@ -716,12 +955,23 @@ public class MemStore implements HeapSize {
     MemStoreScanner() {
       super();
 
-      kvsetAtCreation = kvset;
-      snapshotAtCreation = snapshot;
+      setsAtCreation = getSets();
+      nextRows = new KeyValue[setsAtCreation.size()];
+      itRows = new KeyValue[setsAtCreation.size()];
+      its = new ArrayList<Iterator<KeyValue>>(setsAtCreation.size());
+      if (allocator != null) {
+        this.allocatorAtCreation = allocator;
+        this.allocatorAtCreation.incScannerCount();
+      }
+      if (snapshotAllocator != null) {
+        this.snapshotAllocatorAtCreation = snapshotAllocator;
+        this.snapshotAllocatorAtCreation.incScannerCount();
+      }
     }
 
-    private KeyValue getNext(Iterator<KeyValue> it) {
+    private KeyValue getNext(int i) {
       long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
+      Iterator<KeyValue> it = its.get(i);
 
       KeyValue v = null;
       try {
@@ -736,11 +986,7 @@ public class MemStore implements HeapSize {
       } finally {
         if (v != null) {
           // in all cases, remember the last KV iterated to
-          if (it == snapshotIt) {
-            snapshotItRow = v;
-          } else {
-            kvsetItRow = v;
-          }
+          itRows[i] = v;
         }
       }
     }
@@ -759,12 +1005,13 @@ public class MemStore implements HeapSize {
         return false;
       }
 
-      // kvset and snapshot will never be null.
+      // the sets will never be null.
       // if tailSet can't find anything, SortedSet is empty (not null).
-      kvsetIt = kvsetAtCreation.tailSet(key).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(key).iterator();
-      kvsetItRow = null;
-      snapshotItRow = null;
+      its.clear();
+      for (int i = 0; i < setsAtCreation.size(); i++) {
+        its.add(setsAtCreation.get(i).tailSet(key).iterator());
+        itRows[i] = null;
+      }
 
       return seekInSubLists(key);
     }
@@ -774,11 +1021,12 @@ public class MemStore implements HeapSize {
      * (Re)initialize the iterators after a seek or a reseek.
      */
     private synchronized boolean seekInSubLists(KeyValue key){
-      kvsetNextRow = getNext(kvsetIt);
-      snapshotNextRow = getNext(snapshotIt);
+      for (int i = 0; i < nextRows.length; i++) {
+        nextRows[i] = getNext(i);
+      }
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      setTheNext();
 
       // has data
       return (theNext != null);
@@ -799,14 +1047,15 @@ public class MemStore implements HeapSize {
       1) It's not possible to use the 'kvTail' and 'snapshot'
        variables, as they are modified during a flush.
       2) The ideal implementation for performance would use the sub skip list
-       implicitly pointed by the iterators 'kvsetIt' and
-       'snapshotIt'. Unfortunately the Java API does not offer a method to
-       get it. So we remember the last keys we iterated to and restore
-       the reseeked set to at least that point.
+       implicitly pointed by the iterators in 'its'. Unfortunately the Java API
+       does not offer a method to get it. So we remember the last keys we
+       iterated to and restore the reseeked set to at least that point.
        */
 
-      kvsetIt = kvsetAtCreation.tailSet(getHighest(key, kvsetItRow)).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(getHighest(key, snapshotItRow)).iterator();
+      its.clear();
+      for (int i = 0; i < setsAtCreation.size(); i++) {
+        its.add(setsAtCreation.get(i).tailSet(getHighest(key, itRows[i])).iterator());
+      }
 
       return seekInSubLists(key);
     }
@@ -826,15 +1075,11 @@ public class MemStore implements HeapSize {
 
       final KeyValue ret = theNext;
 
-      // Advance one of the iterators
-      if (theNext == kvsetNextRow) {
-        kvsetNextRow = getNext(kvsetIt);
-      } else {
-        snapshotNextRow = getNext(snapshotIt);
-      }
+      // Advance the iterator theNext came from
+      nextRows[theNextIndex] = getNext(theNextIndex);
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      setTheNext();
 
       //long readpoint = ReadWriteConsistencyControl.getThreadReadPoint();
       //DebugPrint.println(" MS@" + hashCode() + " next: " + theNext + " next_next: " +
@@ -843,19 +1088,20 @@ public class MemStore implements HeapSize {
     }
 
     /*
-     * Returns the lower of the two key values, or null if they are both null.
-     * This uses comparator.compare() to compare the KeyValue using the memstore
-     * comparator.
+     * Sets theNext to the lowest of the next rows, or null if they are all
+     * null.  This uses comparator.compare() to compare the KeyValue using the
+     * memstore comparator.
      */
-    private KeyValue getLowest(KeyValue first, KeyValue second) {
-      if (first == null && second == null) {
-        return null;
-      }
-      if (first != null && second != null) {
-        int compare = comparator.compare(first, second);
-        return (compare <= 0 ? first : second);
+    private void setTheNext() {
+      theNext = null;
+      theNextIndex = -1;
+      for (int i = 0; i < nextRows.length; i++) {
+        if (nextRows[i] != null &&
+            (theNext == null || comparator.compare(nextRows[i], theNext) < 0)) {
+          theNext = nextRows[i];
+          theNextIndex = i;
+        }
       }
-      return (first != null ? first : second);
     }
 
     /*
@@ -875,14 +1121,19 @@ public class MemStore implements HeapSize {
     }
 
     public synchronized void close() {
-      this.kvsetNextRow = null;
-      this.snapshotNextRow = null;
-
-      this.kvsetIt = null;
-      this.snapshotIt = null;
-
-      this.kvsetItRow = null;
-      this.snapshotItRow = null;
+      Arrays.fill(this.nextRows, null);
+      Arrays.fill(this.itRows, null);
+      this.its.clear();
+      this.theNext = null;
+
+      if (allocatorAtCreation != null) {
+        this.allocatorAtCreation.decScannerCount();
+        this.allocatorAtCreation = null;
+      }
+      if (snapshotAllocatorAtCreation != null) {
+        this.snapshotAllocatorAtCreation.decScannerCount();
+        this.snapshotAllocatorAtCreation = null;
+      }
     }
 
     /**
@@ -901,8 +1152,48 @@ public class MemStore implements HeapSize {
     }
   }
 
+  /**
+   * An immutable part of the pipeline: a kvset that was flushed in memory, or
+   * the flat result of compacting the pipeline.
+   */
+  static class Segment {
+    final NavigableSet<KeyValue> kvs;
+    final TimeRangeTracker timeRangeTracker;
+    // Heap size of the cells.  Only changes if a rollback removes a cell from
+    // a kvset that was flushed in memory before its write completed.
+    final AtomicLong size;
+
+    Segment(final NavigableSet<KeyValue> kvs, final TimeRangeTracker trt,
+        final long size) {
+      this.kvs = kvs;
+      this.timeRangeTracker = trt;
+      this.size = new AtomicLong(size);
+    }
+
+    /**
+     * Removes <code>kv</code> if it is here with the same memstoreTS.  Flat
+     * segments only hold cells of completed writes, see
+     * {@link HStore#compactMemStore()}, so there is nothing to remove there.
+     * @return Heap size removed.
+     */
+    long rollback(final KeyValue kv) {
+      if (!(kvs instanceof KeyValueSkipListSet)) {
+        return 0;
+      }
+      KeyValueSkipListSet set = (KeyValueSkipListSet)kvs;
+      KeyValue found = set.get(kv);
+      if (found == null || found.getMemstoreTS() != kv.getMemstoreTS()) {
+        return 0;
+      }
+      set.remove(kv);
+      long s = ClassSize.align(ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY + kv.heapSize());
+      this.size.addAndGet(-s);
+      return s;
+    }
+  }
+
   public final static long FIXED_OVERHEAD = ClassSize.align(
-      ClassSize.OBJECT + (11 * ClassSize.REFERENCE));
+      ClassSize.OBJECT + (15 * ClassSize.REFERENCE) + Bytes.SIZEOF_LONG);
 
   public final static long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD +
       ClassSize.REENTRANT_LOCK + ClassSize.ATOMIC_LONG +
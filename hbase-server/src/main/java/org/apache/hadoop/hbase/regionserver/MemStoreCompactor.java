@@ -0,0 +1,78 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the in-memory compactions of compacting memstores, see
+ * {@link HStore#compactMemStore()}.  One pool of daemon threads is shared by
+ * all stores of the JVM, sized by
+ * <code>hbase.regionserver.thread.memstore.compaction</code> when the first
+ * compaction is requested.
+ */
+@InterfaceAudience.Private
+class MemStoreCompactor {
+  private static final Log LOG = LogFactory.getLog(MemStoreCompactor.class);
+
+  static final String THREADS_KEY = "hbase.regionserver.thread.memstore.compaction";
+  static final int THREADS_DEFAULT = 1;
+
+  private static ThreadPoolExecutor pool;
+
+  private static synchronized ThreadPoolExecutor getPool(Configuration conf) {
+    if (pool == null) {
+      int threads = Math.max(1, conf.getInt(THREADS_KEY, THREADS_DEFAULT));
+      pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("MemStoreCompactor-%d").build());
+      pool.allowCoreThreadTimeOut(true);
+    }
+    return pool;
+  }
+
+  /**
+   * Queue an in-memory compaction of <code>store</code>.  The caller must have
+   * set the compacting flag of its memstore, the compaction clears it.
+   */
+  static void requestCompaction(final HStore store) {
+    getPool(store.conf).execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          store.compactMemStore();
+        } catch (IOException e) {
+          // The pipeline is left as it is, the next flush writes it out
+          LOG.warn("In-memory compaction of " + store + " failed", e);
+        }
+      }
+    });
+  }
+}
@@ -77,9 +77,9 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
   protected final long globalMemStoreLimit;
   protected final long globalMemStoreLimitLowMark;
 
-  private static final float DEFAULT_UPPER = 0.4f;
+  static final float DEFAULT_UPPER = 0.4f;
   private static final float DEFAULT_LOWER = 0.35f;
-  private static final String UPPER_KEY =
+  static final String UPPER_KEY =
     "hbase.regionserver.global.memstore.upperLimit";
   private static final String LOWER_KEY =
     "hbase.regionserver.global.memstore.lowerLimit";
@@ -203,7 +203,7 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
       Preconditions.checkState(regionToFlush.memstoreSize.get() > 0);
 
       LOG.info("Flush of region " + regionToFlush + " due to global heap pressure");
-      flushedOne = flushRegion(regionToFlush, true);
+      flushedOne = flushRegion(regionToFlush, true, false);
       if (!flushedOne) {
         LOG.info("Excluding unflushable region " + regionToFlush +
           " - trying to find a different region to flush.");
@@ -313,13 +313,20 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
   }
 
   public void requestFlush(HRegion r) {
+    requestFlush(r, false);
+  }
+
+  public void requestFlush(HRegion r, boolean forceFlushAllStores) {
     synchronized (regionsInQueue) {
-      if (!regionsInQueue.containsKey(r)) {
+      FlushRegionEntry queued = regionsInQueue.get(r);
+      if (queued == null) {
         // This entry has no delay so it will be added at the top of the flush
         // queue.  It'll come out near immediately.
-        FlushRegionEntry fqe = new FlushRegionEntry(r);
+        FlushRegionEntry fqe = new FlushRegionEntry(r, forceFlushAllStores);
         this.regionsInQueue.put(r, fqe);
         this.flushQueue.add(fqe);
+      } else if (forceFlushAllStores) {
+        queued.forceFlushAllStores = true;
       }
     }
   }
@@ -381,7 +388,7 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
         return true;
       }
     }
-    return flushRegion(region, false);
+    return flushRegion(region, false, fqe.forceFlushAllStores);
   }
 
   /*
@@ -391,14 +398,20 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
    * needs to be removed from the flush queue. If false, when we were called
    * from the main flusher run loop and we got the entry to flush by calling
    * poll on the flush queue (which removed it).
+   * @param forceFlushAllStores whether to flush all stores or only those the
+   * region's flush policy selects.
    *
    * @return true if the region was successfully flushed, false otherwise. If
    * false, there will be accompanying log messages explaining why the log was
    * not flushed.
    */
-  private boolean flushRegion(final HRegion region, final boolean emergencyFlush) {
+  private boolean flushRegion(final HRegion region, final boolean emergencyFlush,
+      boolean forceFlushAllStores) {
     synchronized (this.regionsInQueue) {
       FlushRegionEntry fqe = this.regionsInQueue.remove(region);
+      if (fqe != null) {
+        forceFlushAllStores |= fqe.forceFlushAllStores;
+      }
       if (fqe != null && emergencyFlush) {
         // Need to remove from region from delay queue.  When NOT an
         // emergencyFlush, then item was removed via a flushQueue.poll.
@@ -407,7 +420,7 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
      lock.lock();
     }
     try {
-      boolean shouldCompact = region.flushcache();
+      boolean shouldCompact = region.flushcache(forceFlushAllStores);
       // We just want to check the size
       boolean shouldSplit = region.checkSplit() != null;
       if (shouldSplit) {
@@ -546,9 +559,12 @@ class MemStoreFlusher extends HasThread implements FlushRequester {
     private final long createTime;
     private long whenToExpire;
     private int requeueCount = 0;
+    // Set if anyone asked for a flush of all stores; guarded by regionsInQueue
+    private boolean forceFlushAllStores;
 
-    FlushRegionEntry(final HRegion r) {
+    FlushRegionEntry(final HRegion r, final boolean forceFlushAllStores) {
       this.region = r;
+      this.forceFlushAllStores = forceFlushAllStores;
       this.createTime = System.currentTimeMillis();
       this.whenToExpire = this.createTime;
     }
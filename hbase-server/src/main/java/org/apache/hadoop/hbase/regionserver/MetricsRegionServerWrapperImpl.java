@@ -27,6 +27,7 @@ import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
+import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.metrics2.MetricsExecutor;
@@ -314,6 +315,34 @@ class MetricsRegionServerWrapperImpl
     return this.regionServer.cacheFlusher.getUpdatesBlockedMsHighWater().get();
   }
 
+  @Override
+  public long getBlockCacheCompressedHitCount() {
+    return HFile.getCompressedBlockHitCount();
+  }
+
+  @Override
+  public long getBlockCacheUnpackTime() {
+    return HFile.getCompressedBlockUnpackTimeMs();
+  }
+
+  @Override
+  public long getMemStoreChunkPoolHitCount() {
+    MemStoreChunkPool pool = MemStoreChunkPool.getPoolIfCreated();
+    return pool == null ? 0 : pool.getHitCount();
+  }
+
+  @Override
+  public long getMemStoreChunkPoolMissCount() {
+    MemStoreChunkPool pool = MemStoreChunkPool.getPoolIfCreated();
+    return pool == null ? 0 : pool.getMissCount();
+  }
+
+  @Override
+  public long getMemStoreChunkPoolSize() {
+    MemStoreChunkPool pool = MemStoreChunkPool.getPoolIfCreated();
+    return pool == null ? 0 : pool.getPoolSize();
+  }
+
 
   /**
    * This is the runnable that will be executed on the executor every PERIOD number of seconds
@@ -0,0 +1,174 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
+
+/**
+ * Reads one recovered.edits file ahead of the region replaying it.  The
+ * entries are handed over in batches through a small bounded queue, so a
+ * region with many edits files decodes several of them at once while it
+ * applies them in order, without holding more than a few batches per file.
+ * <p>
+ * A failure to read the file is not thrown on the decoding thread; it is kept
+ * and returned by {@link #getFailure()} once {@link #take()} has returned null,
+ * so the replaying thread handles it the same way it handled errors of the
+ * reader it used to drive itself.  Anything else the reader throws is kept
+ * the same way, wrapped in an IOException, so the replaying thread is never
+ * left waiting for a decoder that is gone.
+ */
+@InterfaceAudience.Private
+class RecoveredEditsDecoder implements Runnable {
+  private static final Log LOG = LogFactory.getLog(RecoveredEditsDecoder.class);
+
+  static final String BATCH_SIZE_KEY =
+      "hbase.hregion.recovered.edits.replay.batch.size";
+  static final int BATCH_SIZE_DEFAULT = 1000;
+  static final String THREADS_KEY = "hbase.hregion.recovered.edits.replay.threads";
+  static final int THREADS_DEFAULT = 3;
+
+  // Batches read ahead of the replaying thread, per file
+  private static final int QUEUED_BATCHES = 4;
+  // Put after the last batch
+  private static final List<HLog.Entry> END = Collections.emptyList();
+
+  private final FileSystem fs;
+  private final Configuration conf;
+  private final Path edits;
+  private final int batchSize;
+  private final BlockingQueue<List<HLog.Entry>> batches =
+      new ArrayBlockingQueue<List<HLog.Entry>>(QUEUED_BATCHES);
+  private volatile IOException failure;
+  private boolean done = false;
+
+  RecoveredEditsDecoder(final FileSystem fs, final Configuration conf,
+      final Path edits) {
+    this.fs = fs;
+    this.conf = conf;
+    this.edits = edits;
+    this.batchSize = Math.max(1, conf.getInt(BATCH_SIZE_KEY, BATCH_SIZE_DEFAULT));
+  }
+
+  Path getPath() {
+    return this.edits;
+  }
+
+  @Override
+  public void run() {
+    boolean interrupted = false;
+    try {
+      decode();
+    } catch (InterruptedException e) {
+      // The replay gave up on this region, nobody reads what is left
+      LOG.debug("Interrupted decoding " + edits);
+      interrupted = true;
+    } catch (Throwable t) {
+      this.failure = new IOException("Failed decoding " + edits, t);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      } else {
+        try {
+          batches.put(END);
+        } catch (InterruptedException e) {
+          LOG.debug("Interrupted handing over the end of " + edits);
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  HLog.Reader createReader() throws IOException {
+    return HLogFactory.createReader(this.fs, this.edits, this.conf);
+  }
+
+  private void decode() throws InterruptedException {
+    HLog.Reader reader = null;
+    try {
+      reader = createReader();
+      List<HLog.Entry> batch = new ArrayList<HLog.Entry>(batchSize);
+      HLog.Entry entry;
+      while ((entry = reader.next()) != null) {
+        batch.add(entry);
+        if (batch.size() >= batchSize) {
+          batches.put(batch);
+          batch = new ArrayList<HLog.Entry>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) {
+        batches.put(batch);
+      }
+    } catch (IOException e) {
+      // Entries read before the failure were handed over already
+      this.failure = e;
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          LOG.warn("Failed to close reader of " + edits, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits for the next batch of entries.
+   * @return The next entries in file order, or null once the whole file, or
+   * everything up to a read failure, was handed over.
+   * @throws InterruptedIOException
+   */
+  List<HLog.Entry> take() throws InterruptedIOException {
+    if (done) return null;
+    List<HLog.Entry> batch;
+    try {
+      batch = batches.take();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted waiting on edits of " + edits);
+    }
+    if (batch == END) {
+      done = true;
+      return null;
+    }
+    return batch;
+  }
+
+  /**
+   * @return The exception reading the file failed with, if any.  Only
+   * meaningful after {@link #take()} returned null.
+   */
+  IOException getFailure() {
+    return this.failure;
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
+import org.apache.hadoop.hbase.zookeeper.ZKUtil;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperListener;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Keeps the regions of this server that the edits of a dead region server are
+ * replayed into in recovering state, see {@link HRegion#isRecovering()}, until
+ * the master removes their node from the recovering regions znode.
+ */
+@InterfaceAudience.Private
+public class RecoveringRegionWatcher extends ZooKeeperListener {
+  // Encoded region name => region, of the recovering regions
+  private final Map<String, HRegion> recoveringRegions =
+    new ConcurrentHashMap<String, HRegion>();
+
+  public RecoveringRegionWatcher(ZooKeeperWatcher watcher) {
+    super(watcher);
+  }
+
+  public void start() {
+    watcher.registerListener(this);
+  }
+
+  /**
+   * Put a region that was just opened in recovering state if the master
+   * marked it as recovering.  Call before the region is published in META.
+   */
+  void regionOpened(final HRegion r) throws KeeperException {
+    String encodedName = r.getRegionInfo().getEncodedName();
+    this.recoveringRegions.put(encodedName, r);
+    if (ZKSplitLog.isRegionRecovering(watcher, encodedName, true)) {
+      r.setRecovering(true);
+      if (!this.recoveringRegions.containsKey(encodedName)) {
+        // Released between the check and setting the flag
+        r.setRecovering(false);
+      }
+    } else {
+      this.recoveringRegions.remove(encodedName);
+    }
+  }
+
+  void regionClosed(final String encodedName) {
+    this.recoveringRegions.remove(encodedName);
+  }
+
+  @Override
+  public void nodeDeleted(String path) {
+    if (ZKSplitLog.isRecoveringRegionPath(watcher, path)) {
+      HRegion r = this.recoveringRegions.remove(ZKUtil.getNodeName(path));
+      if (r != null) {
+        r.setRecovering(false);
+      }
+    }
+  }
+}
@@ -65,6 +65,10 @@ import org.apache.zookeeper.data.Stat;
  * unavoidable race here - a worker might have just finished its task when it
  * is stripped of its ownership. Here we rely on the idempotency of the log
  * splitting task for correctness
+ * <p>
+ * The edits of regions the master marked as recovering are replayed straight
+ * into the regions instead of being written to recovered.edits files, see
+ * {@link HLogSplitter}.
  */
 @InterfaceAudience.Private
 public class SplitLogWorker extends ZooKeeperListener implements Runnable {
@@ -90,7 +94,7 @@ public class SplitLogWorker extends ZooKeeperListener implements Runnable {
     this.splitTaskExecutor = splitTaskExecutor;
   }
 
-  public SplitLogWorker(ZooKeeperWatcher watcher, final Configuration conf,
+  public SplitLogWorker(final ZooKeeperWatcher watcher, final Configuration conf,
       final ServerName serverName, final LastSequenceId sequenceIdChecker) {
     this(watcher, conf, serverName, new TaskExecutor () {
       @Override
@@ -109,7 +113,8 @@ public class SplitLogWorker extends ZooKeeperListener implements Runnable {
         // encountered a bad non-retry-able persistent error.
         try {
           if (!HLogSplitter.splitLogFile(rootdir,
-              fs.getFileStatus(new Path(filename)), fs, conf, p, sequenceIdChecker)) {
+              fs.getFileStatus(new Path(filename)), fs, conf, p, sequenceIdChecker,
+              watcher)) {
             return Status.PREEMPTED;
           }
         } catch (InterruptedIOException iioe) {
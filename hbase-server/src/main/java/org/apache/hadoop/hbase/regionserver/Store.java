@@ -95,6 +95,13 @@ public interface Store extends  HeapSize {
    */
   public long add(KeyValue kv);
 
+  /**
+   * Adds values to the memstore, taking the store lock once for all of them
+   * @param kvs
+   * @return memstore size delta
+   */
+  public long add(Iterable<KeyValue> kvs);
+
   /**
    * Removes a kv from the memstore. The KeyValue is removed only if its key & memstoreTS match the
    * key & memstoreTS value of the kv parameter.
@@ -21,9 +21,12 @@ package org.apache.hadoop.hbase.regionserver.wal;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.io.DataOutputBuffer;
 
 /**
- * Context that holds the various dictionaries for compression in HLog.
+ * Context that holds the various dictionaries for compression in HLog, and
+ * the algorithm values are compressed with, if any.
  */
 @InterfaceAudience.Private
 class CompressionContext {
@@ -33,6 +36,13 @@ class CompressionContext {
   final Dictionary qualifierDict;
   final Dictionary rowDict;
 
+  /** Algorithm for the values, null if values are written raw */
+  Compression.Algorithm valueCompression;
+  /** Values shorter than this are written raw, compressing them does not pay */
+  int valueCompressionMinSize;
+  /** Scratch buffer for compressing one value, see {@link KeyValueCompression} */
+  final DataOutputBuffer valueBuffer = new DataOutputBuffer();
+
   public CompressionContext(Class<? extends Dictionary> dictType)
   throws SecurityException, NoSuchMethodException, InstantiationException,
       IllegalAccessException, InvocationTargetException {
@@ -45,6 +55,19 @@ class CompressionContext {
     rowDict = dictConstructor.newInstance();
   }
 
+  /**
+   * Set the algorithm values are compressed with.
+   * @param algorithm null or {@link Compression.Algorithm#NONE} to write the
+   * values raw
+   * @param minSize values shorter than this are written raw
+   */
+  void setValueCompression(final Compression.Algorithm algorithm,
+      final int minSize) {
+    this.valueCompression =
+      algorithm == Compression.Algorithm.NONE ? null : algorithm;
+    this.valueCompressionMinSize = minSize;
+  }
+
   void clear() {
     regionDict.clear();
     tableDict.clear();
@@ -20,21 +20,27 @@ package org.apache.hadoop.hbase.regionserver.wal;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URLEncoder;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -63,6 +69,8 @@ import org.apache.hadoop.hbase.util.HasThread;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.util.StringUtils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * HLog stores all the edits to the HStore.  Its the hbase write-ahead-log
  * implementation.
@@ -133,9 +141,10 @@ class FSHLog implements HLog, Syncable {
   final static Object [] NO_ARGS = new Object []{};
 
   /*
-   * Current log file.
+   * Current log file.  Volatile as the LogSyncer thread writes to it without
+   * holding the updateLock.
    */
-  Writer writer;
+  volatile Writer writer;
 
   /*
    * Map of all log files but the current one.
@@ -150,6 +159,25 @@ class FSHLog implements HLog, Syncable {
   private final ConcurrentSkipListMap<byte [], Long> lastSeqWritten =
     new ConcurrentSkipListMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
 
+  /*
+   * Map of encoded region names to the sequence id of the oldest edit of each
+   * column family in their memstore.  Lets a flush of only some of the stores
+   * of a region move the region's entry in lastSeqWritten up to the oldest
+   * edit of the stores that stay in memory.
+   */
+  private final ConcurrentSkipListMap<byte [], ConcurrentSkipListMap<byte [], Long>>
+    oldestFamilySeqWritten =
+      new ConcurrentSkipListMap<byte [], ConcurrentSkipListMap<byte [], Long>>(
+        Bytes.BYTES_COMPARATOR);
+
+  /*
+   * The entries of oldestFamilySeqWritten taken out by startCacheFlush, put
+   * back if the flush is aborted.
+   */
+  private final ConcurrentSkipListMap<byte [], Map<byte [], Long>>
+    snapshotFamilySeqWritten =
+      new ConcurrentSkipListMap<byte [], Map<byte [], Long>>(Bytes.BYTES_COMPARATOR);
+
   private volatile boolean closed = false;
 
   private final AtomicLong logSeqNum = new AtomicLong(0);
@@ -186,7 +214,6 @@ class FSHLog implements HLog, Syncable {
   // during an update
   // locked during appends
   private final Object updateLock = new Object();
-  private final Object flushLock = new Object();
 
   private final boolean enabled;
 
@@ -198,10 +225,17 @@ class FSHLog implements HLog, Syncable {
   private final int maxLogs;
 
   /**
-   * Thread that handles optional sync'ing
+   * Thread that writes the appended entries out and syncs them
    */
   private final LogSyncer logSyncerThread;
 
+  /** Number of entries the LogSyncer ring holds, rounded up to a power of 2 */
+  static final String RING_BUFFER_SLOTS_KEY = "hbase.regionserver.hlog.ringbuffer.slots";
+  static final int DEFAULT_RING_BUFFER_SLOTS = 1024;
+  /** Number of syncs the LogSyncer keeps in flight, 1 to not pipeline them */
+  static final String SYNCS_IN_FLIGHT_KEY = "hbase.regionserver.hlog.syncs.inflight";
+  static final int DEFAULT_SYNCS_IN_FLIGHT = 1;
+
   /** Number of log close errors tolerated before we abort */
   private final int closeErrorsTolerated;
 
@@ -328,7 +362,9 @@ class FSHLog implements HLog, Syncable {
     this.closeErrorsTolerated = conf.getInt(
         "hbase.regionserver.logroll.errors.tolerated", 0);
     
-    this.logSyncerThread = new LogSyncer(this.optionalFlushInterval);
+    this.logSyncerThread = new LogSyncer(this.optionalFlushInterval,
+        conf.getInt(RING_BUFFER_SLOTS_KEY, DEFAULT_RING_BUFFER_SLOTS),
+        conf.getInt(SYNCS_IN_FLIGHT_KEY, DEFAULT_SYNCS_IN_FLIGHT));
     
     LOG.info("HLog configuration: blocksize=" +
       StringUtils.byteDesc(this.blocksize) +
@@ -515,6 +551,8 @@ class FSHLog implements HLog, Syncable {
         Path oldFile = cleanupCurrentWriter(currentFilenum);
         this.writer = nextWriter;
         this.hdfs_out = nextHdfsOut;
+        // A batch that failed on the old writer is written to the new one
+        this.logSyncerThread.wakeup();
 
         LOG.info((oldFile != null?
             "Roll " + FSUtils.getPath(oldFile) + ", entries=" +
@@ -658,20 +696,39 @@ class FSHLog implements HLog, Syncable {
     Path oldFile = null;
     if (this.writer != null) {
       // Close the current writer, get a new one.
+      // If the syncer failed on this writer, what it did not sync stays in
+      // the ring and is written to the new writer once it is set.
+      boolean failed = this.logSyncerThread.isFailed(this.writer);
       try {
         // Wait till all current transactions are written to the hlog.
         // No new transactions can occur because we have the updatelock.
-        if (this.unflushedEntries.get() != this.syncedTillHere) {
+        if (!failed && this.unflushedEntries.get() != this.syncedTillHere) {
           LOG.debug("cleanupCurrentWriter " +
                    " waiting for transactions to get synced " +
                    " total " + this.unflushedEntries.get() +
                    " synced till here " + syncedTillHere);
-          sync();
+          try {
+            this.logSyncerThread.sync(this.unflushedEntries.get(), true);
+          } catch (IOException e) {
+            if (!this.logSyncerThread.isFailed(this.writer)) {
+              throw e;
+            }
+            failed = true;
+          }
         }
         this.writer.close();
         this.writer = null;
         closeErrorCount.set(0);
       } catch (IOException e) {
+        if (failed) {
+          // Nothing is lost, the unsynced edits go to the next writer
+          LOG.warn("Failed close of HLog writer whose sync failed, " +
+            "rewriting the edits after txid " + this.syncedTillHere +
+            " to the next one", e);
+          this.writer = null;
+          closeErrorCount.set(0);
+          return rememberOldFile(currentfilenum);
+        }
         LOG.error("Failed close of HLog writer", e);
         int errors = closeErrorCount.incrementAndGet();
         if (errors <= closeErrorsTolerated && !hasDeferredEntries()) {
@@ -689,14 +746,20 @@ class FSHLog implements HLog, Syncable {
           throw flce;
         }
       }
-      if (currentfilenum >= 0) {
-        oldFile = computeFilename(currentfilenum);
-        this.outputfiles.put(Long.valueOf(this.logSeqNum.get()), oldFile);
-      }
+      oldFile = rememberOldFile(currentfilenum);
     }
     return oldFile;
   }
 
+  private Path rememberOldFile(final long currentfilenum) {
+    if (currentfilenum < 0) {
+      return null;
+    }
+    Path oldFile = computeFilename(currentfilenum);
+    this.outputfiles.put(Long.valueOf(this.logSeqNum.get()), oldFile);
+    return oldFile;
+  }
+
   private void archiveLogFile(final Path p, final Long seqno) throws IOException {
     Path newPath = getHLogArchivePath(this.oldLogDir, p);
     LOG.info("moving old hlog file " + FSUtils.getPath(p) +
@@ -822,6 +885,36 @@ class FSHLog implements HLog, Syncable {
     return new HLogKey(regionName, tableName, seqnum, now, clusterId);
   }
 
+  /*
+   * Record <code>seqNum</code> as the oldest edit of the families of
+   * <code>edits</code> that have no edit in the memstore yet.  Called inside
+   * the updateLock, next to the update of lastSeqWritten.
+   */
+  private void updateOldestFamilySeqNum(final byte [] encodedRegionName,
+      final WALEdit edits, final long seqNum) {
+    ConcurrentSkipListMap<byte [], Long> families =
+      this.oldestFamilySeqWritten.get(encodedRegionName);
+    if (families == null) {
+      families = new ConcurrentSkipListMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+      ConcurrentSkipListMap<byte [], Long> existing =
+        this.oldestFamilySeqWritten.putIfAbsent(encodedRegionName, families);
+      if (existing != null) {
+        families = existing;
+      }
+    }
+    KeyValue previous = null;
+    for (KeyValue kv : edits.getKeyValues()) {
+      // The KeyValues of an edit are mostly of one family; skip the copy
+      if (previous != null && Bytes.equals(
+          previous.getBuffer(), previous.getFamilyOffset(), previous.getFamilyLength(),
+          kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength())) {
+        continue;
+      }
+      families.putIfAbsent(kv.getFamily(), seqNum);
+      previous = kv;
+    }
+  }
+
   @Override
   public long append(HRegionInfo regionInfo, HLogKey logKey, WALEdit logEdit,
                      HTableDescriptor htd, boolean doSync)
@@ -830,22 +923,29 @@ class FSHLog implements HLog, Syncable {
       throw new IOException("Cannot append; log is closed");
     }
     long txid = 0;
-    synchronized (updateLock) {
-      long seqNum = obtainSeqNum();
-      logKey.setLogSeqNum(seqNum);
-      // The 'lastSeqWritten' map holds the sequence number of the oldest
-      // write for each region (i.e. the first edit added to the particular
-      // memstore). When the cache is flushed, the entry for the
-      // region being flushed is removed if the sequence number of the flush
-      // is greater than or equal to the value in lastSeqWritten.
-      this.lastSeqWritten.putIfAbsent(regionInfo.getEncodedNameAsBytes(),
-        Long.valueOf(seqNum));
-      doWrite(regionInfo, logKey, logEdit, htd);
-      txid = this.unflushedEntries.incrementAndGet();
-      this.numEntries.incrementAndGet();
-      if (htd.isDeferredLogFlush()) {
-        lastDeferredTxid = txid;
+    this.logSyncerThread.claimSlot(false);
+    try {
+      synchronized (updateLock) {
+        long seqNum = obtainSeqNum();
+        logKey.setLogSeqNum(seqNum);
+        // The 'lastSeqWritten' map holds the sequence number of the oldest
+        // write for each region (i.e. the first edit added to the particular
+        // memstore). When the cache is flushed, the entry for the
+        // region being flushed is removed if the sequence number of the flush
+        // is greater than or equal to the value in lastSeqWritten.
+        this.lastSeqWritten.putIfAbsent(regionInfo.getEncodedNameAsBytes(),
+          Long.valueOf(seqNum));
+        updateOldestFamilySeqNum(regionInfo.getEncodedNameAsBytes(), logEdit,
+          seqNum);
+        doWrite(regionInfo, logKey, logEdit, htd);
+        txid = this.unflushedEntries.incrementAndGet();
+        this.numEntries.incrementAndGet();
+        if (htd.isDeferredLogFlush()) {
+          lastDeferredTxid = txid;
+        }
       }
+    } finally {
+      if (txid == 0) this.logSyncerThread.releaseSlot();
     }
 
     // Sync if catalog region, and if not then check if that table supports
@@ -900,24 +1000,30 @@ class FSHLog implements HLog, Syncable {
         throw new IOException("Cannot append; log is closed");
       }
       long txid = 0;
-      synchronized (this.updateLock) {
-        long seqNum = obtainSeqNum();
-        // The 'lastSeqWritten' map holds the sequence number of the oldest
-        // write for each region (i.e. the first edit added to the particular
-        // memstore). . When the cache is flushed, the entry for the
-        // region being flushed is removed if the sequence number of the flush
-        // is greater than or equal to the value in lastSeqWritten.
-        // Use encoded name.  Its shorter, guaranteed unique and a subset of
-        // actual  name.
-        byte [] encodedRegionName = info.getEncodedNameAsBytes();
-        this.lastSeqWritten.putIfAbsent(encodedRegionName, seqNum);
-        HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterId);
-        doWrite(info, logKey, edits, htd);
-        this.numEntries.incrementAndGet();
-        txid = this.unflushedEntries.incrementAndGet();
-        if (htd.isDeferredLogFlush()) {
-          lastDeferredTxid = txid;
+      this.logSyncerThread.claimSlot(false);
+      try {
+        synchronized (this.updateLock) {
+          long seqNum = obtainSeqNum();
+          // The 'lastSeqWritten' map holds the sequence number of the oldest
+          // write for each region (i.e. the first edit added to the particular
+          // memstore). . When the cache is flushed, the entry for the
+          // region being flushed is removed if the sequence number of the flush
+          // is greater than or equal to the value in lastSeqWritten.
+          // Use encoded name.  Its shorter, guaranteed unique and a subset of
+          // actual  name.
+          byte [] encodedRegionName = info.getEncodedNameAsBytes();
+          this.lastSeqWritten.putIfAbsent(encodedRegionName, seqNum);
+          updateOldestFamilySeqNum(encodedRegionName, edits, seqNum);
+          HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterId);
+          doWrite(info, logKey, edits, htd);
+          this.numEntries.incrementAndGet();
+          txid = this.unflushedEntries.incrementAndGet();
+          if (htd.isDeferredLogFlush()) {
+            lastDeferredTxid = txid;
+          }
         }
+      } finally {
+        if (txid == 0) this.logSyncerThread.releaseSlot();
       }
       // Sync if catalog region, and if not then check if that table supports
       // deferred log flushing
@@ -945,12 +1051,31 @@ class FSHLog implements HLog, Syncable {
   }
 
   /**
-   * This class is responsible to hold the HLog's appended Entry list
-   * and to sync them according to a configurable interval.
+   * This class writes the HLog's appended entries out and syncs them.
+   *
+   * Appends claim a slot of a preallocated ring, the one of their txid, while
+   * they hold the updateLock: they put their entry in the slot and publish it
+   * by incrementing unflushedEntries.  This thread is the only consumer.  It
+   * takes everything published since its last pass, appends it to the writer
+   * and issues a single sync for the whole batch, so the handlers that come
+   * in while a sync is running are group committed by the next one.  Handlers
+   * never touch the writer; they wait on the future of the slot of their txid,
+   * so they do not contend on a shared monitor either.
+   *
+   * With <code>hbase.regionserver.hlog.syncs.inflight</code> above 1 the
+   * syncs are pipelined: this thread hands the sync of a batch to a sync
+   * runner and goes on writing the next batch while the first one waits for
+   * its ack, up to that many syncs at a time.  A sync covers everything
+   * written before it, so whichever completes completes all txids up to its
+   * batch, and callers are always completed in txid order.  This needs a
+   * writer that can sync while it is appended to, as HDFS does.
    *
-   * Deferred log flushing works first by piggy backing on this process by
-   * simply not sync'ing the appended Entry. It can also be sync'd by other
-   * non-deferred log flushed entries outside of this thread.
+   * Deferred log flushing works by simply not waiting for the sync: the
+   * entries go out with the next batch, or after the optional flush interval.
+   *
+   * If the writer fails, the entries that are not synced stay in the ring and
+   * a log roll is requested; they are written to the new writer once the roll
+   * is done.
    */
   class LogSyncer extends HasThread {
 
@@ -958,151 +1083,338 @@ class FSHLog implements HLog, Syncable {
 
     private final AtomicBoolean closeLogSyncer = new AtomicBoolean(false);
 
-    // List of pending writes to the HLog. There corresponds to transactions
-    // that have not yet returned to the client. We keep them cached here
-    // instead of writing them to HDFS piecemeal, because the HDFS write 
-    // method is pretty heavyweight as far as locking is concerned. The 
-    // goal is to increase the batchsize for writing-to-hdfs as well as
-    // sync-to-hdfs, so that we can get better system throughput.
-    private List<Entry> pendingWrites = new LinkedList<Entry>();
-
-    LogSyncer(long optionalFlushInterval) {
+    // The entries of the txids not synced yet, at txid & mask.  Null if
+    // the txid has no entry, e.g. a coprocessor bypassed it.
+    private final Entry [] entries;
+    private final SyncFuture [] futures;
+    private final int mask;
+    // A permit per free slot.  Taken before the updateLock, so an append that
+    // waits for room does not keep a log roll from getting the lock.
+    private final Semaphore freeSlots;
+    // Last txid appended to the writer, only updated by this thread
+    private volatile long writtenTill = 0;
+    // Bounds the syncs in flight, null if this thread syncs itself
+    private final Semaphore syncsInFlight;
+    private final int maxSyncsInFlight;
+    private final ExecutorService syncRunners;
+    // The writer the last batch failed on, until a log roll replaced it
+    private volatile Writer failedWriter = null;
+    // Set while this thread waits for work
+    private volatile boolean idle = false;
+    private volatile boolean exited = false;
+
+    LogSyncer(long optionalFlushInterval, int slots, int maxSyncsInFlight) {
       this.optionalFlushInterval = optionalFlushInterval;
+      this.maxSyncsInFlight = Math.max(1, maxSyncsInFlight);
+      if (this.maxSyncsInFlight > 1) {
+        this.syncsInFlight = new Semaphore(this.maxSyncsInFlight);
+        this.syncRunners = Executors.newFixedThreadPool(this.maxSyncsInFlight,
+          new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat(Thread.currentThread().getName() + ".logSyncRunner-%d")
+            .build());
+      } else {
+        this.syncsInFlight = null;
+        this.syncRunners = null;
+      }
+      int capacity = Integer.highestOneBit(Math.max(slots, 2) - 1) << 1;
+      this.entries = new Entry[capacity];
+      this.futures = new SyncFuture[capacity];
+      for (int i = 0; i < capacity; i++) {
+        this.futures[i] = new SyncFuture();
+      }
+      this.mask = capacity - 1;
+      this.freeSlots = new Semaphore(capacity);
     }
 
     @Override
     public void run() {
       try {
-        // awaiting with a timeout doesn't always
-        // throw exceptions on interrupt
-        while(!this.isInterrupted() && !closeLogSyncer.get()) {
-
-          try {
-            if (unflushedEntries.get() <= syncedTillHere) {
-              synchronized (closeLogSyncer) {
+        while (!this.isInterrupted() && !closeLogSyncer.get()) {
+          if (!hasWork()) {
+            synchronized (closeLogSyncer) {
+              this.idle = true;
+              // Re-check once idle is visible, handlers only notify then
+              if (!hasWork() && !closeLogSyncer.get()) {
                 closeLogSyncer.wait(this.optionalFlushInterval);
               }
+              this.idle = false;
             }
-            // Calling sync since we waited or had unflushed entries.
-            // Entries appended but not sync'd are taken care of here AKA
-            // deferred log flush
-            sync();
-          } catch (IOException e) {
-            LOG.error("Error while syncing, requesting close of hlog ", e);
-            requestLogRoll();
           }
+          syncBatch();
         }
       } catch (InterruptedException e) {
         LOG.debug(getName() + " interrupted while waiting for sync requests");
       } finally {
+        // Make sure we synced everything that was appended before the close
+        syncBatch();
+        if (this.syncRunners != null) {
+          awaitSyncsInFlight();
+          this.syncRunners.shutdown();
+        }
+        this.exited = true;
+        for (SyncFuture future : this.futures) {
+          future.wakeup();
+        }
         LOG.info(getName() + " exiting");
       }
     }
 
-    // appends new writes to the pendingWrites. It is better to keep it in
-    // our own queue rather than writing it to the HDFS output stream because
-    // HDFSOutputStream.writeChunk is not lightweight at all.
-    synchronized void append(Entry e) throws IOException {
-      pendingWrites.add(e);
-    }
-
-    // Returns all currently pending writes. New writes
-    // will accumulate in a new list.
-    synchronized List<Entry> getPendingWrites() {
-      List<Entry> save = this.pendingWrites;
-      this.pendingWrites = new LinkedList<Entry>();
-      return save;
-    }
-
-    // writes out pending entries to the HLog
-    void hlogFlush(Writer writer, List<Entry> pending) throws IOException {
-      if (pending == null) return;
-
-      // write out all accumulated Entries to hdfs.
-      for (Entry e : pending) {
-        writer.append(e);
+    private boolean hasWork() {
+      if (this.failedWriter != null) {
+        // Once a roll replaced the failed writer, rewrite what is not synced
+        return this.failedWriter != writer;
       }
+      return unflushedEntries.get() > this.writtenTill;
     }
 
-    void close() {
-      synchronized (closeLogSyncer) {
-        closeLogSyncer.set(true);
-        closeLogSyncer.notifyAll();
-      }
-    }
-  }
-
-  // sync all known transactions
-  private void syncer() throws IOException {
-    syncer(this.unflushedEntries.get()); // sync all pending items
-  }
-
-  // sync all transactions upto the specified txid
-  private void syncer(long txid) throws IOException {
-    Writer tempWriter;
-    synchronized (this.updateLock) {
-      if (this.closed) return;
-      tempWriter = this.writer; // guaranteed non-null
-    }
-    // if the transaction that we are interested in is already 
-    // synced, then return immediately.
-    if (txid <= this.syncedTillHere) {
-      return;
-    }
-    try {
-      long doneUpto;
-      long now = EnvironmentEdgeManager.currentTimeMillis();
-      // First flush all the pending writes to HDFS. Then 
-      // issue the sync to HDFS. If sync is successful, then update
-      // syncedTillHere to indicate that transactions till this
-      // number has been successfully synced.
-      synchronized (flushLock) {
-        if (txid <= this.syncedTillHere) {
+    /*
+     * Writes out all published entries, then syncs them or hands the sync to
+     * a sync runner.
+     */
+    private void syncBatch() {
+      if (this.failedWriter != null) {
+        if (this.failedWriter == writer) {
           return;
         }
-        doneUpto = this.unflushedEntries.get();
-        List<Entry> pending = logSyncerThread.getPendingWrites();
-        try {
-          logSyncerThread.hlogFlush(tempWriter, pending);
-        } catch(IOException io) {
-          synchronized (this.updateLock) {
-            // HBASE-4387, HBASE-5623, retry with updateLock held
-            tempWriter = this.writer;
-            logSyncerThread.hlogFlush(tempWriter, pending);
+        // The syncs still running on the failed writer have to finish before
+        // we know what is synced
+        awaitSyncsInFlight();
+        this.writtenTill = syncedTillHere;
+        this.failedWriter = null;
+      }
+      long from = this.writtenTill;
+      long to = unflushedEntries.get();
+      // Read after the txid: a log roll waits for all published txids to be
+      // synced before it closes the writer
+      final Writer tempWriter = writer;
+      if (tempWriter == null || to <= from) {
+        return;
+      }
+      final long now = EnvironmentEdgeManager.currentTimeMillis();
+      try {
+        for (long txid = from + 1; txid <= to; txid++) {
+          Entry e = this.entries[(int)(txid & this.mask)];
+          if (e != null) {
+            tempWriter.append(e);
           }
         }
+      } catch (IOException e) {
+        failed(tempWriter, to, e);
+        return;
       }
-      // another thread might have sync'ed avoid double-sync'ing
-      if (txid <= this.syncedTillHere) {
+      this.writtenTill = to;
+      if (this.syncRunners == null) {
+        syncWriter(tempWriter, to, now);
         return;
       }
+      final long syncTill = to;
+      this.syncsInFlight.acquireUninterruptibly();
       try {
-        tempWriter.sync();
-      } catch(IOException io) {
-        synchronized (this.updateLock) {
-          // HBASE-4387, HBASE-5623, retry with updateLock held
-          tempWriter = this.writer;
-          tempWriter.sync();
-        }
+        this.syncRunners.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              syncWriter(tempWriter, syncTill, now);
+            } finally {
+              syncsInFlight.release();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        this.syncsInFlight.release();
+        syncWriter(tempWriter, syncTill, now);
       }
-      this.syncedTillHere = Math.max(this.syncedTillHere, doneUpto);
+    }
 
-      this.metrics.finishSync(EnvironmentEdgeManager.currentTimeMillis() - now);
-      if (!this.logRollRunning) {
+    /*
+     * Syncs the writer, then completes the txids up to <code>to</code>.
+     */
+    private void syncWriter(final Writer tempWriter, final long to, final long start) {
+      try {
+        tempWriter.sync();
+      } catch (IOException e) {
+        failed(tempWriter, to, e);
+        return;
+      }
+      synced(to);
+      metrics.finishSync(EnvironmentEdgeManager.currentTimeMillis() - start);
+      if (!logRollRunning) {
         checkLowReplication();
         try {
-          if (tempWriter.getLength() > this.logrollsize) {
+          if (tempWriter.getLength() > logrollsize) {
             requestLogRoll();
           }
         } catch (IOException x) {
           LOG.debug("Log roll failed and will be retried. (This is not an error)");
         }
       }
-    } catch (IOException e) {
+    }
+
+    private void failed(final Writer tempWriter, final long to,
+        final IOException e) {
+      if (to <= syncedTillHere || tempWriter != writer) {
+        // A later sync covered it, e.g. the writer was closed by a roll
+        // while this one was still waiting
+        return;
+      }
       LOG.fatal("Could not sync. Requesting close of hlog", e);
+      this.failedWriter = tempWriter;
       requestLogRoll();
-      throw e;
     }
+
+    /*
+     * Frees the slots of the txids up to <code>to</code> and completes their
+     * futures.  Synchronized as the sync runners may finish in any order.
+     */
+    private synchronized void synced(final long to) {
+      long from = syncedTillHere;
+      if (to <= from) {
+        return;
+      }
+      for (long txid = from + 1; txid <= to; txid++) {
+        this.entries[(int)(txid & this.mask)] = null;
+      }
+      syncedTillHere = to;
+      this.freeSlots.release((int)(to - from));
+      for (long txid = from + 1; txid <= to; txid++) {
+        this.futures[(int)(txid & this.mask)].done(txid);
+      }
+    }
+
+    private void awaitSyncsInFlight() {
+      if (this.syncsInFlight != null) {
+        this.syncsInFlight.acquireUninterruptibly(this.maxSyncsInFlight);
+        this.syncsInFlight.release(this.maxSyncsInFlight);
+      }
+    }
+
+    /**
+     * Take the slot of the next append, waiting for one to be written out if
+     * the ring is full.  Called before taking the updateLock.
+     * @param failFast throw if the current writer failed instead of waiting
+     * for a log roll to replace it
+     */
+    void claimSlot(final boolean failFast) throws IOException {
+      try {
+        while (!this.freeSlots.tryAcquire(this.optionalFlushInterval,
+            TimeUnit.MILLISECONDS)) {
+          if (this.exited) {
+            throw new IOException("Cannot append; log syncer has exited");
+          }
+          if (failFast && isFailed(writer)) {
+            throw new IOException("Cannot append; sync failed, waiting on a log roll");
+          }
+          wakeup();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for a free slot");
+      }
+    }
+
+    /**
+     * @return true if a sync on <code>w</code> failed and it was not replaced
+     * by a log roll yet
+     */
+    boolean isFailed(final Writer w) {
+      Writer failed = this.failedWriter;
+      return failed != null && failed == w;
+    }
+
+    /**
+     * Give back a slot claimed by an append that did not publish an entry.
+     */
+    void releaseSlot() {
+      this.freeSlots.release();
+    }
+
+    /**
+     * Put the entry of the next txid in its slot.  Called inside the
+     * updateLock, right before unflushedEntries is incremented to publish it.
+     */
+    void append(Entry e) {
+      this.entries[(int)((unflushedEntries.get() + 1) & this.mask)] = e;
+    }
+
+    /**
+     * Wait until <code>txid</code> is synced.
+     * @param failFast throw if the current writer failed instead of waiting
+     * for the batch to be written to the next one
+     */
+    void sync(long txid, boolean failFast) throws IOException {
+      if (txid <= syncedTillHere) {
+        return;
+      }
+      wakeup();
+      SyncFuture future = this.futures[(int)(txid & this.mask)];
+      try {
+        while (txid > syncedTillHere) {
+          if (failFast && isFailed(writer)) {
+            throw new IOException("Sync failed, waiting on a log roll");
+          }
+          if (this.exited) {
+            throw new IOException("Log syncer exited before txid " + txid +
+              " was synced");
+          }
+          future.await(txid, this.optionalFlushInterval);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for txid " +
+          txid + " to be synced");
+      }
+    }
+
+    void wakeup() {
+      if (this.idle || this.failedWriter != null) {
+        synchronized (closeLogSyncer) {
+          closeLogSyncer.notifyAll();
+        }
+      }
+    }
+
+    void close() {
+      synchronized (closeLogSyncer) {
+        closeLogSyncer.set(true);
+        closeLogSyncer.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * What the handlers wait on until their txid is synced.  One per slot of
+   * the LogSyncer ring, reused by the txids that map to the slot.
+   */
+  static class SyncFuture {
+    // Last txid of this slot that was synced
+    private long txid = 0;
+
+    synchronized void done(final long txid) {
+      this.txid = txid;
+      notifyAll();
+    }
+
+    synchronized void wakeup() {
+      notifyAll();
+    }
+
+    synchronized void await(final long txid, final long timeout)
+    throws InterruptedException {
+      if (this.txid < txid) {
+        wait(timeout);
+      }
+    }
+  }
+
+  // sync all known transactions
+  private void syncer() throws IOException {
+    syncer(this.unflushedEntries.get()); // sync all pending items
+  }
+
+  // sync all transactions upto the specified txid
+  private void syncer(long txid) throws IOException {
+    if (this.closed) return;
+    this.logSyncerThread.sync(txid, false);
   }
 
   private void checkLowReplication() {
@@ -1225,7 +1537,10 @@ class FSHLog implements HLog, Syncable {
       //we add the WALDetection after we really write the WAL already to avoid
       //the situation that retry.
 //      long before = EnvironmentEdgeManager.currentTimeMillis();
-      WALDetection.checkDispatch(info, htd.getName(), logEdit);
+      // Replayed edits fired their triggers on the server that died
+      if (!logEdit.isLogReplay()) {
+        WALDetection.checkDispatch(info, htd.getName(), logEdit);
+      }
 //      long after = EnvironmentEdgeManager.currentTimeMillis();
 //      System.out.println(""+(after-before)+"\t:WALDetection.checkDispatch()" );
       
@@ -1271,8 +1586,45 @@ class FSHLog implements HLog, Syncable {
 
   @Override
   public long startCacheFlush(final byte[] encodedRegionName) {
+    return startCacheFlush(encodedRegionName, null);
+  }
+
+  @Override
+  public long startCacheFlush(final byte[] encodedRegionName,
+      final Set<byte []> families) {
     this.cacheFlushLock.lock();
     Long seq = this.lastSeqWritten.remove(encodedRegionName);
+    if (families == null) {
+      Map<byte [], Long> flushed = this.oldestFamilySeqWritten.remove(encodedRegionName);
+      if (flushed != null) {
+        this.snapshotFamilySeqWritten.put(encodedRegionName, flushed);
+      }
+    } else if (seq != null) {
+      // Only the stores of the given families are flushed.  The region stays in
+      // lastSeqWritten with the oldest edit of the other stores, and the
+      // snapshot entry holds the oldest edit of the flushed ones.
+      Map<byte [], Long> flushed = new TreeMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+      Long oldestUnflushed = null;
+      Map<byte [], Long> current = this.oldestFamilySeqWritten.get(encodedRegionName);
+      if (current != null) {
+        for (byte [] family : families) {
+          Long familySeq = current.remove(family);
+          if (familySeq != null) {
+            flushed.put(family, familySeq);
+          }
+        }
+        for (Long familySeq : current.values()) {
+          if (oldestUnflushed == null || familySeq < oldestUnflushed) {
+            oldestUnflushed = familySeq;
+          }
+        }
+      }
+      if (oldestUnflushed != null) {
+        this.lastSeqWritten.put(encodedRegionName, oldestUnflushed);
+      }
+      this.snapshotFamilySeqWritten.put(encodedRegionName, flushed);
+      seq = flushed.isEmpty() ? null : Collections.min(flushed.values());
+    }
     // seq is the lsn of the oldest edit associated with this region. If a
     // snapshot already exists - because the last flush failed - then seq will
     // be the lsn of the oldest edit in the snapshot
@@ -1293,6 +1645,12 @@ class FSHLog implements HLog, Syncable {
     return obtainSeqNum();
   }
 
+  @Override
+  public long getOldestUnflushedSeqNum(final byte[] encodedRegionName) {
+    Long seq = this.lastSeqWritten.get(encodedRegionName);
+    return seq == null ? -1 : seq.longValue();
+  }
+
   @Override
   public void completeCacheFlush(final byte [] encodedRegionName,
       final byte [] tableName, final long logSeqId, final boolean isMetaRegion)
@@ -1302,29 +1660,37 @@ class FSHLog implements HLog, Syncable {
         return;
       }
       long txid = 0;
-      synchronized (updateLock) {
-        long now = EnvironmentEdgeManager.currentTimeMillis();
-        WALEdit edit = completeCacheFlushLogEdit();
-        HLogKey key = makeKey(encodedRegionName, tableName, logSeqId,
-            System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID);
-        logSyncerThread.append(new Entry(key, edit));
-        txid = this.unflushedEntries.incrementAndGet();
-        long took = EnvironmentEdgeManager.currentTimeMillis() - now;
-        long len = 0;
-        for (KeyValue kv : edit.getKeyValues()) {
-          len += kv.getLength();
+      // The cacheFlushLock is held, so a log roll cannot replace a failed
+      // writer until we are done; fail instead of waiting for one.
+      this.logSyncerThread.claimSlot(true);
+      try {
+        synchronized (updateLock) {
+          long now = EnvironmentEdgeManager.currentTimeMillis();
+          WALEdit edit = completeCacheFlushLogEdit();
+          HLogKey key = makeKey(encodedRegionName, tableName, logSeqId,
+              System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID);
+          logSyncerThread.append(new Entry(key, edit));
+          txid = this.unflushedEntries.incrementAndGet();
+          long took = EnvironmentEdgeManager.currentTimeMillis() - now;
+          long len = 0;
+          for (KeyValue kv : edit.getKeyValues()) {
+            len += kv.getLength();
+          }
+          this.metrics.finishAppend(took, len);
+          this.numEntries.incrementAndGet();
         }
-        this.metrics.finishAppend(took, len);
-        this.numEntries.incrementAndGet();
+      } finally {
+        if (txid == 0) this.logSyncerThread.releaseSlot();
       }
       // sync txn to file system
-      this.sync(txid);
+      this.logSyncerThread.sync(txid, true);
 
     } finally {
       // updateLock not needed for removing snapshot's entry
       // Cleaning up of lastSeqWritten is in the finally clause because we
       // don't want to confuse getOldestOutstandingSeqNum()
       this.lastSeqWritten.remove(getSnapshotName(encodedRegionName));
+      this.snapshotFamilySeqWritten.remove(encodedRegionName);
       this.cacheFlushLock.unlock();
     }
   }
@@ -1351,11 +1717,29 @@ class FSHLog implements HLog, Syncable {
       if (current_memstore_earliest_seq != null &&
           (current_memstore_earliest_seq.longValue() <=
             snapshot_seq.longValue())) {
-        LOG.error("Logic Error region " + Bytes.toString(encodedRegionName) +
-            "acquired edits out of order current memstore seq=" +
-            current_memstore_earliest_seq + " snapshot seq=" + snapshot_seq);
-        Runtime.getRuntime().halt(1);
+        Map<byte [], Long> unflushed = this.oldestFamilySeqWritten.get(encodedRegionName);
+        if (unflushed != null && unflushed.containsValue(current_memstore_earliest_seq)) {
+          // Only some stores were flushed and the others hold older edits
+          this.lastSeqWritten.put(encodedRegionName, current_memstore_earliest_seq);
+        } else {
+          LOG.error("Logic Error region " + Bytes.toString(encodedRegionName) +
+              "acquired edits out of order current memstore seq=" +
+              current_memstore_earliest_seq + " snapshot seq=" + snapshot_seq);
+          Runtime.getRuntime().halt(1);
+        }
+      }
+    }
+    Map<byte [], Long> flushed = this.snapshotFamilySeqWritten.remove(encodedRegionName);
+    if (flushed != null && !flushed.isEmpty()) {
+      ConcurrentSkipListMap<byte [], Long> families =
+        new ConcurrentSkipListMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+      ConcurrentSkipListMap<byte [], Long> existing =
+        this.oldestFamilySeqWritten.putIfAbsent(encodedRegionName, families);
+      if (existing != null) {
+        families = existing;
       }
+      // The snapshot's edits are older than any appended since the flush began
+      families.putAll(flushed);
     }
     this.cacheFlushLock.unlock();
   }
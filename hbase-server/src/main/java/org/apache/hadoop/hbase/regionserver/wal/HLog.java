@@ -24,6 +24,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.NavigableSet;
+import java.util.Set;
 import java.util.UUID;
 import java.util.regex.Pattern;
 
@@ -366,6 +367,27 @@ public interface HLog {
    */
   public long startCacheFlush(final byte[] encodedRegionName);
 
+  /**
+   * Like {@link #startCacheFlush(byte[])} for a flush of only the stores of
+   * <code>families</code>.  The region keeps the oldest edit of its other
+   * stores in lastSeqWritten, so logs holding only flushed edits can still be
+   * archived.
+   *
+   * @param encodedRegionName
+   * @param families Families of the stores being flushed, null if all are.
+   * @return sequence ID to pass
+   *         {@link #completeCacheFlush(byte[], byte[], long, boolean)}
+   */
+  public long startCacheFlush(final byte[] encodedRegionName,
+      final Set<byte[]> families);
+
+  /**
+   * @param encodedRegionName
+   * @return sequence ID of the oldest edit of the region that is in a memstore
+   *         and not being flushed, or -1 if there is none.
+   */
+  public long getOldestUnflushedSeqNum(final byte[] encodedRegionName);
+
   /**
    * Complete the cache flush
    * 
@@ -51,6 +51,18 @@ public class HLogFactory {
       return new FSHLog(fs, root, logName, conf, listeners, prefix);
     }
 
+    /**
+     * Create one of several HLogs sharing the region server's log directory,
+     * see {@link RegionGroupingStrategy}.  The directory may already exist.
+     */
+    public static HLog createGroupHLog(final FileSystem fs, final Path root,
+        final String logName, final Configuration conf,
+        final List<WALActionsListener> listeners, final String prefix)
+        throws IOException {
+      return new FSHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME,
+            conf, listeners, false, prefix, false);
+    }
+
     public static HLog createMetaHLog(final FileSystem fs, final Path root, final String logName,
         final Configuration conf, final List<WALActionsListener> listeners,
         final String prefix) throws IOException {
@@ -36,10 +36,14 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
@@ -52,7 +56,15 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.master.SplitLogManager;
 import org.apache.hadoop.hbase.monitoring.MonitoredTask;
@@ -69,7 +81,9 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.FSUtils;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.io.MultipleIOException;
+import org.apache.zookeeper.KeeperException;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
@@ -78,6 +92,11 @@ import com.google.common.collect.Lists;
  * This class is responsible for splitting up a bunch of regionserver commit log
  * files that are no longer being written to, into new files, one per region for
  * region to replay on startup. Delete the old log files when finished.
+ * <p>
+ * In distributed log splitting, the edits of regions the master has marked as
+ * recovering (see {@link ZKSplitLog#markRegionRecovering}) are not written out
+ * but replayed as batches of mutations straight into the region, which is
+ * already open elsewhere.
  */
 @InterfaceAudience.Private
 public class HLogSplitter {
@@ -89,6 +108,10 @@ public class HLogSplitter {
    */
   public static final String RECOVERED_EDITS = "recovered.edits";
 
+  /** Number of edits replayed into a recovering region per batch */
+  static final String REPLAY_BATCH_SIZE_KEY = "hbase.splitlog.replay.batch.size";
+  static final int REPLAY_BATCH_SIZE_DEFAULT = 100;
+
 
   static final Log LOG = LogFactory.getLog(HLogSplitter.class);
 
@@ -122,6 +145,9 @@ public class HLogSplitter {
   // Used in distributed log splitting
   private DistributedLogSplittingHelper distributedLogSplittingHelper = null;
 
+  // Replays the edits of recovering regions, null if not distributed
+  LogReplaySink replaySink = null;
+
   // For checking the latest flushed sequence id
   protected final LastSequenceId sequenceIdChecker;
 
@@ -374,7 +400,32 @@ public class HLogSplitter {
       FileSystem fs, Configuration conf, CancelableProgressable reporter,
       LastSequenceId idChecker)
       throws IOException {
+    return splitLogFile(rootDir, logfile, fs, conf, reporter, idChecker, null);
+  }
+
+  /**
+   * Splits a HLog file into region's recovered-edits directory, except for
+   * the edits of recovering regions which are replayed into the regions.
+   * <p>
+   * @param rootDir
+   * @param logfile
+   * @param fs
+   * @param conf
+   * @param reporter
+   * @param idChecker
+   * @param watcher to find the recovering regions, null to write out all
+   * edits
+   * @return false if it is interrupted by the progress-able.
+   * @throws IOException
+   */
+  static public boolean splitLogFile(Path rootDir, FileStatus logfile,
+      FileSystem fs, Configuration conf, CancelableProgressable reporter,
+      LastSequenceId idChecker, ZooKeeperWatcher watcher)
+      throws IOException {
     HLogSplitter s = new HLogSplitter(conf, rootDir, null, null /* oldLogDir */, fs, idChecker);
+    if (watcher != null) {
+      s.replaySink = s.new LogReplaySink(watcher);
+    }
     return s.splitLogFile(logfile, reporter);
   }
 
@@ -482,11 +533,19 @@ public class HLogSplitter {
       throw e;
     } finally {
       LOG.info("Finishing writing output logs and closing down.");
-      progress_failed = outputSink.finishWritingAndClose() == null;
+      try {
+        progress_failed = outputSink.finishWritingAndClose() == null;
+      } finally {
+        if (replaySink != null) {
+          replaySink.close();
+        }
+      }
       String msg = "Processed " + editsCount + " edits across "
-          + outputSink.getOutputCounts().size() + " regions; log file="
-          + logPath + " is corrupted = " + isCorrupted + " progress failed = "
-          + progress_failed;
+          + outputSink.getOutputCounts().size() + " regions" +
+          (replaySink == null ? "" : ", replayed " + replaySink.getEditsReplayed() +
+              " edits into " + replaySink.getRegionsReplayed() + " recovering regions") +
+          "; log file=" + logPath + " is corrupted = " + isCorrupted +
+          " progress failed = " + progress_failed;
       ;
       LOG.info(msg);
       status.markComplete(msg);
@@ -995,6 +1054,11 @@ public class HLogSplitter {
         return;
       }
 
+      if (replaySink != null && replaySink.isRecovering(buffer.encodedRegionName)) {
+        replaySink.replay(buffer);
+        return;
+      }
+
       WriterAndPath wap = null;
 
       long startTime = System.nanoTime();
@@ -1416,6 +1480,149 @@ public class HLogSplitter {
 
 
 
+  /**
+   * Replays edits into recovering regions through the client, the way
+   * {@link org.apache.hadoop.hbase.replication.regionserver.ReplicationSink}
+   * applies edits shipped from another cluster.  The cells keep their
+   * timestamps and types, so replaying an edit twice, for instance after the
+   * task is resubmitted, does no harm.
+   * <p>
+   * The mutations carry {@link HRegion#LOG_REPLAY_ATTRIBUTE} with the
+   * sequence number of their edit.  The region applies them in the order of
+   * the log they come from, not the order they arrive in from the workers
+   * replaying the other logs, and below any write it takes while recovering.
+   * They fire no triggers and are not replicated a second time.
+   */
+  class LogReplaySink {
+    private final ZooKeeperWatcher watcher;
+    private final int batchSize;
+    // Encoded region name => whether it is recovering
+    private final Map<byte[], Boolean> recovering = Collections.synchronizedMap(
+        new TreeMap<byte[], Boolean>(Bytes.BYTES_COMPARATOR));
+    private final AtomicLong editsReplayed = new AtomicLong();
+    private final AtomicInteger regionsReplayed = new AtomicInteger();
+    private HConnection connection;
+    private ExecutorService pool;
+
+    LogReplaySink(ZooKeeperWatcher watcher) {
+      this.watcher = watcher;
+      this.batchSize = conf.getInt(REPLAY_BATCH_SIZE_KEY, REPLAY_BATCH_SIZE_DEFAULT);
+    }
+
+    /**
+     * @return true if the edits of the region are to be replayed into it
+     */
+    boolean isRecovering(byte[] encodedRegionName) throws IOException {
+      Boolean b = recovering.get(encodedRegionName);
+      if (b == null) {
+        try {
+          b = ZKSplitLog.isRegionRecovering(watcher,
+              Bytes.toString(encodedRegionName), false);
+        } catch (KeeperException e) {
+          throw new IOException("Failed checking whether region " +
+              Bytes.toString(encodedRegionName) + " is recovering", e);
+        }
+        if (b) {
+          regionsReplayed.incrementAndGet();
+        }
+        recovering.put(encodedRegionName, b);
+      }
+      return b;
+    }
+
+    /**
+     * Replay the edits of the buffer into their region, wherever it is.
+     */
+    void replay(RegionEntryBuffer buffer) throws IOException {
+      List<Row> actions = new ArrayList<Row>();
+      for (Entry entry : buffer.entryBuffer) {
+        byte[] seqNum = Bytes.toBytes(entry.getKey().getLogSeqNum());
+        Put put = null;
+        Delete del = null;
+        KeyValue lastKV = null;
+        for (KeyValue kv : entry.getEdit().getKeyValues()) {
+          // Skip the HBASE::CACHEFLUSH like markers
+          if (kv.matchingFamily(HLog.METAFAMILY)) {
+            continue;
+          }
+          if (lastKV == null || lastKV.getType() != kv.getType() || !lastKV.matchingRow(kv)) {
+            if (kv.isDelete()) {
+              del = new Delete(kv.getRow());
+              del.setClusterId(entry.getKey().getClusterId());
+              del.setAttribute(HRegion.LOG_REPLAY_ATTRIBUTE, seqNum);
+              actions.add(del);
+            } else {
+              put = new Put(kv.getRow());
+              put.setClusterId(entry.getKey().getClusterId());
+              put.setAttribute(HRegion.LOG_REPLAY_ATTRIBUTE, seqNum);
+              actions.add(put);
+            }
+          }
+          if (kv.isDelete()) {
+            del.addDeleteMarker(kv);
+          } else {
+            put.add(kv);
+          }
+          lastKV = kv;
+        }
+        if (actions.size() >= batchSize) {
+          batch(buffer.tableName, actions);
+          actions.clear();
+        }
+        editsReplayed.incrementAndGet();
+      }
+      batch(buffer.tableName, actions);
+    }
+
+    void batch(byte[] tableName, List<Row> actions) throws IOException {
+      if (actions.isEmpty()) {
+        return;
+      }
+      HTableInterface table = null;
+      try {
+        table = new HTable(tableName, getConnection(), this.pool);
+        table.batch(actions);
+      } catch (InterruptedException ie) {
+        IOException iie = new InterruptedIOException();
+        iie.initCause(ie);
+        throw iie;
+      } finally {
+        if (table != null) {
+          table.close();
+        }
+      }
+    }
+
+    private synchronized HConnection getConnection() throws IOException {
+      if (this.connection == null) {
+        this.connection = HConnectionManager.createConnection(conf);
+        this.pool = new ThreadPoolExecutor(1,
+            conf.getInt("hbase.htable.threads.max", Integer.MAX_VALUE),
+            conf.getLong("hbase.htable.threads.keepalivetime", 60), TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), Threads.newDaemonThreadFactory("split-log-replay"));
+      }
+      return this.connection;
+    }
+
+    long getEditsReplayed() {
+      return editsReplayed.get();
+    }
+
+    int getRegionsReplayed() {
+      return regionsReplayed.get();
+    }
+
+    synchronized void close() throws IOException {
+      if (this.pool != null) {
+        this.pool.shutdown();
+      }
+      if (this.connection != null) {
+        this.connection.close();
+        this.connection = null;
+      }
+    }
+  }
+
   /**
    *  Private data structure that wraps a Writer and its Path,
    *  also collecting statistics about the data written to this
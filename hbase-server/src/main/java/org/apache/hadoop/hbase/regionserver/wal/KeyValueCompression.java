@@ -18,20 +18,29 @@
 
 package org.apache.hadoop.hbase.regionserver.wal;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.Compressor;
 
 /**
  * Compression class for {@link KeyValue}s written to the WAL. This is not
  * synchronized, so synchronization should be handled outside.
  * 
- * Class only compresses and uncompresses row keys, family names, and the
- * qualifier. More may be added depending on use patterns.
+ * Class compresses and uncompresses row keys, family names, and the
+ * qualifier through the dictionaries of the {@link CompressionContext}.  If
+ * the context has a value compression algorithm, each value is compressed on
+ * its own with it and written after a vint of its compressed length, or -1
+ * if the value is written raw because it is short or does not compress.
+ * Values stay independent of each other so a reader can start at any entry.
  */
 class KeyValueCompression {
   /**
@@ -74,11 +83,33 @@ class KeyValueCompression {
     pos += elemLen;
 
     // the rest
-    in.readFully(backingArray, pos, length - pos);
+    if (readContext.valueCompression == null) {
+      in.readFully(backingArray, pos, length - pos);
+    } else {
+      // timestamp and type, then the value
+      int valuePos = length - vlength;
+      in.readFully(backingArray, pos, valuePos - pos);
+      readValue(in, backingArray, valuePos, vlength,
+          readContext.valueCompression);
+    }
 
     return new KeyValue(backingArray);
   }
 
+  private static void readValue(DataInput in, byte[] dest, int offset,
+      int vlength, Compression.Algorithm algorithm) throws IOException {
+    int compressedLength = WritableUtils.readVInt(in);
+    if (compressedLength < 0) {
+      in.readFully(dest, offset, vlength);
+      return;
+    }
+    byte[] compressed = new byte[compressedLength];
+    in.readFully(compressed);
+    Compression.decompress(dest, offset,
+        new ByteArrayInputStream(compressed), compressedLength, vlength,
+        algorithm);
+  }
+
   private static void checkLength(int len, int max) throws IOException {
     if (len < 0 || len > max) {
       throw new IOException(
@@ -120,7 +151,40 @@ class KeyValueCompression {
 
     // now we write the rest uncompressed
     int pos = keyVal.getTimestampOffset();
-    int remainingLength = keyVal.getLength() + offset - (pos);
-    out.write(backingArray, pos, remainingLength);
+    if (writeContext.valueCompression == null) {
+      int remainingLength = keyVal.getLength() + offset - (pos);
+      out.write(backingArray, pos, remainingLength);
+    } else {
+      // timestamp and type, then the value
+      out.write(backingArray, pos, keyVal.getValueOffset() - pos);
+      writeValue(out, keyVal, writeContext);
+    }
+  }
+
+  private static void writeValue(final DataOutput out, KeyValue keyVal,
+      CompressionContext writeContext) throws IOException {
+    int vlength = keyVal.getValueLength();
+    if (vlength >= writeContext.valueCompressionMinSize && vlength > 0) {
+      Compression.Algorithm algorithm = writeContext.valueCompression;
+      DataOutputBuffer compressed = writeContext.valueBuffer;
+      compressed.reset();
+      Compressor compressor = algorithm.getCompressor();
+      try {
+        OutputStream os =
+          algorithm.createCompressionStream(compressed, compressor, 0);
+        os.write(keyVal.getBuffer(), keyVal.getValueOffset(), vlength);
+        // Flushing finishes the compressed stream
+        os.flush();
+      } finally {
+        algorithm.returnCompressor(compressor);
+      }
+      if (compressed.getLength() < vlength) {
+        WritableUtils.writeVInt(out, compressed.getLength());
+        out.write(compressed.getData(), 0, compressed.getLength());
+        return;
+      }
+    }
+    WritableUtils.writeVInt(out, -1);
+    out.write(keyVal.getBuffer(), keyVal.getValueOffset(), vlength);
   }
 }
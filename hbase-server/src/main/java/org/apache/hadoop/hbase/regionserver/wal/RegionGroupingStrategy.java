@@ -0,0 +1,114 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Maps the regions of a region server to one of its HLogs when it writes to
+ * more than one, <code>hbase.regionserver.hlog.count</code>.  Every HLog has
+ * its own syncer and HDFS pipeline, so the write throughput of the server is
+ * no longer capped by a single pipeline.
+ * <p>
+ * All HLogs of a server live in its log directory; the HLog of group
+ * <code>i</code> &gt; 0 has <code>.i</code> appended to the file name prefix.
+ * The mapping must not change while the server runs: the sequence ids of a
+ * region come from its HLog, so all edits of a region must go to the same one.
+ * <p>
+ * <code>hbase.regionserver.hlog.grouping.strategy</code> is <code>hash</code>
+ * (by region, the default), <code>table</code> (all regions of a table share an
+ * HLog), or the name of a subclass.
+ */
+@InterfaceAudience.Private
+public abstract class RegionGroupingStrategy {
+  public static final String HLOG_COUNT_KEY = "hbase.regionserver.hlog.count";
+  public static final int DEFAULT_HLOG_COUNT = 1;
+  public static final String GROUPING_STRATEGY_KEY =
+      "hbase.regionserver.hlog.grouping.strategy";
+  public static final String DEFAULT_GROUPING_STRATEGY = "hash";
+
+  /**
+   * @param region
+   * @param numGroups number of HLogs, at least 1
+   * @return index, from 0 to <code>numGroups - 1</code>, of the HLog the edits
+   * of <code>region</code> go to.  Must always be the same for a region.
+   */
+  public abstract int group(HRegionInfo region, int numGroups);
+
+  /**
+   * @param serverPrefix the file name prefix of the first HLog of the server
+   * @param group
+   * @return the file name prefix of the HLog of <code>group</code>
+   */
+  public static String getPrefix(final String serverPrefix, final int group) {
+    return group == 0 ? serverPrefix : serverPrefix + "." + group;
+  }
+
+  /**
+   * Create the RegionGroupingStrategy configured in <code>conf</code>.
+   * @throws IOException if the configured class can not be loaded
+   */
+  public static RegionGroupingStrategy create(final Configuration conf)
+      throws IOException {
+    String name = conf.get(GROUPING_STRATEGY_KEY, DEFAULT_GROUPING_STRATEGY);
+    if ("hash".equals(name)) {
+      return new ByRegion();
+    }
+    if ("table".equals(name)) {
+      return new ByTable();
+    }
+    try {
+      return Class.forName(name).asSubclass(RegionGroupingStrategy.class)
+          .newInstance();
+    } catch (Exception e) {
+      throw new IOException("Unable to load configured region grouping " +
+          "strategy '" + name + "'", e);
+    }
+  }
+
+  static int bucket(final byte [] key, final int numGroups) {
+    return (Bytes.hashCode(key) & Integer.MAX_VALUE) % numGroups;
+  }
+
+  /**
+   * Spreads the regions evenly over the HLogs.
+   */
+  static class ByRegion extends RegionGroupingStrategy {
+    @Override
+    public int group(HRegionInfo region, int numGroups) {
+      return bucket(region.getEncodedNameAsBytes(), numGroups);
+    }
+  }
+
+  /**
+   * Puts all regions of a table in the same HLog, so a busy table does not
+   * slow down the syncs of the others as long as they hash elsewhere.
+   */
+  static class ByTable extends RegionGroupingStrategy {
+    @Override
+    public int group(HRegionInfo region, int numGroups) {
+      return bucket(region.getTableName(), numGroups);
+    }
+  }
+}
@@ -190,6 +190,10 @@ public class SequenceFileLogReader implements HLog.Reader {
       } catch (Exception e) {
         throw new IOException("Failed to initialize CompressionContext", e);
       }
+      // Values are decompressed with whatever the writer used, whatever the
+      // configuration of this reader says
+      compressionContext.setValueCompression(
+          SequenceFileLogWriter.getValueCompression(reader.getMetadata()), 0);
     }
   }
 
@@ -32,6 +32,7 @@ import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
@@ -54,6 +55,10 @@ public class SequenceFileLogWriter implements HLog.Writer {
   static final Text WAL_VERSION = new Text("" + VERSION);
   static final Text WAL_COMPRESSION_TYPE_KEY = new Text("compression.type");
   static final Text DICTIONARY_COMPRESSION_TYPE = new Text("dictionary");
+  // Name of the algorithm values are compressed with, on top of the
+  // dictionaries.  Absent if values are written raw.
+  static final Text WAL_VALUE_COMPRESSION_KEY = new Text("compression.value");
+  static final int DEFAULT_VALUE_COMPRESSION_MIN_SIZE = 64;
 
   private final Log LOG = LogFactory.getLog(this.getClass());
   // The sequence file we delegate to.
@@ -93,19 +98,56 @@ public class SequenceFileLogWriter implements HLog.Writer {
    * type (if any).
    * @param conf
    * @param compress
+   * @param valueCompression algorithm for the values, null if none
    * @return Metadata instance.
    */
   private static Metadata createMetadata(final Configuration conf,
-      final boolean compress) {
+      final boolean compress, final Compression.Algorithm valueCompression) {
     TreeMap<Text, Text> metaMap = new TreeMap<Text, Text>();
     metaMap.put(WAL_VERSION_KEY, WAL_VERSION);
     if (compress) {
       // Currently we only do one compression type.
       metaMap.put(WAL_COMPRESSION_TYPE_KEY, DICTIONARY_COMPRESSION_TYPE);
+      if (valueCompression != null) {
+        metaMap.put(WAL_VALUE_COMPRESSION_KEY,
+            new Text(valueCompression.getName()));
+      }
     }
     return new Metadata(metaMap);
   }
 
+  /**
+   * @return the algorithm the values of the WAL file are compressed with, null
+   * if they are written raw
+   * @throws IOException if the algorithm is unknown
+   */
+  static Compression.Algorithm getValueCompression(final Metadata metadata)
+  throws IOException {
+    Text txt = metadata.get(WAL_VALUE_COMPRESSION_KEY);
+    if (txt == null) {
+      return null;
+    }
+    try {
+      return Compression.getCompressionAlgorithmByName(txt.toString());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown WAL value compression " + txt, e);
+    }
+  }
+
+  /**
+   * @return the algorithm new WAL files compress their values with, null if
+   * values are to be written raw
+   */
+  static Compression.Algorithm getValueCompression(final Configuration conf) {
+    String name = conf.get(HConstants.WAL_VALUE_COMPRESSION_TYPE);
+    if (name == null) {
+      return null;
+    }
+    Compression.Algorithm algorithm =
+      Compression.getCompressionAlgorithmByName(name.toLowerCase());
+    return algorithm == Compression.Algorithm.NONE ? null : algorithm;
+  }
+
   /**
    * Call this method after init() has been executed
    * 
@@ -127,6 +169,7 @@ public class SequenceFileLogWriter implements HLog.Writer {
   throws IOException {
     // Should we do our custom WAL compression?
     boolean compress = conf.getBoolean(HConstants.ENABLE_WAL_COMPRESSION, false);
+    Compression.Algorithm valueCompression = null;
     if (compress) {
       try {
         if (this.compressionContext == null) {
@@ -137,6 +180,10 @@ public class SequenceFileLogWriter implements HLog.Writer {
       } catch (Exception e) {
         throw new IOException("Failed to initiate CompressionContext", e);
       }
+      valueCompression = getValueCompression(conf);
+      this.compressionContext.setValueCompression(valueCompression,
+          conf.getInt(HConstants.WAL_VALUE_COMPRESSION_MIN_SIZE,
+              DEFAULT_VALUE_COMPRESSION_MIN_SIZE));
     }
 
     if (null == keyClass) {
@@ -162,7 +209,7 @@ public class SequenceFileLogWriter implements HLog.Writer {
                 fs.getDefaultBlockSize())),
             Boolean.valueOf(false) /*createParent*/,
             SequenceFile.CompressionType.NONE, new DefaultCodec(),
-            createMetadata(conf, compress)
+            createMetadata(conf, compress, valueCompression)
             });
     } catch (InvocationTargetException ite) {
       // function was properly called, but threw it's own exception
@@ -184,13 +231,14 @@ public class SequenceFileLogWriter implements HLog.Writer {
         SequenceFile.CompressionType.NONE,
         new DefaultCodec(),
         null,
-        createMetadata(conf, compress));
+        createMetadata(conf, compress, valueCompression));
     } else {
       LOG.debug("using new createWriter -- HADOOP-6840");
     }
     
     this.writer_out = getSequenceFilePrivateFSDataOutputStreamAccessible();
-    LOG.debug("Path=" + path + ", compression=" + compress);
+    LOG.debug("Path=" + path + ", compression=" + compress +
+        (valueCompression == null ? "" : ", valueCompression=" + valueCompression));
   }
 
   // Get at the private FSDataOutputStream inside in SequenceFile so we can
@@ -242,6 +290,13 @@ public class SequenceFileLogWriter implements HLog.Writer {
     }
   }
 
+  /**
+   * Syncs everything appended so far.  With pipelined syncs this runs while
+   * another thread appends: SequenceFile.Writer synchronizes append but not
+   * syncFs, so a sync may flush part of an entry that is still being written.
+   * The rest follows in a later packet.  TestHLog#testConcurrentAppendAndSync
+   * checks that such a log reads back whole on HDFS.
+   */
   @Override
   public void sync() throws IOException {
     this.writer.syncFs();
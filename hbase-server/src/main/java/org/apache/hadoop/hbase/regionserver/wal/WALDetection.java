@@ -25,10 +25,12 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.trigger.HTrigger;
 import org.apache.hadoop.hbase.trigger.HTriggerEvent;
 import org.apache.hadoop.hbase.trigger.HTriggerKey;
 import org.apache.hadoop.hbase.trigger.LocalTriggerManage;
 import org.apache.hadoop.hbase.trigger.HTriggerEventQueue;
+import org.apache.hadoop.hbase.trigger.TriggerStats;
 import org.apache.hadoop.hbase.trigger.WritePrepared;
 import org.apache.hadoop.hbase.util.Bytes;
 
@@ -49,8 +51,25 @@ public class WALDetection {
   private static final Log LOG = LogFactory.getLog(WALDetection.class);
   
   public static boolean checkDispatch(HRegionInfo info, byte[] tableName, WALEdit currWal) {
+    if (!TriggerStats.isStagesEnabled())
+      return dispatch(info, tableName, currWal);
+    long start = System.nanoTime();
+    boolean rtn = dispatch(info, tableName, currWal);
+    TriggerStats.DETECT.record(System.nanoTime() - start);
+    if (!info.isMetaTable()){
+      long bytes = 0L;
+      for (KeyValue kv : currWal.getKeyValues()){
+        bytes += kv.getLength();
+      }
+      TriggerStats.walWritten(currWal.size(), bytes);
+    }
+    return rtn;
+  }
+
+  private static boolean dispatch(HRegionInfo info, byte[] tableName, WALEdit currWal) {
     //System.out.println("in checkDispatch, tableName: " + new String(tableName));
     List<KeyValue> syncPairs = currWal.getKeyValues();
+    List<RowCells> rows = null;
     for (KeyValue kv : syncPairs) {
       byte[] rowKey = kv.getRow();
       byte[] columnFamily = kv.getFamily();
@@ -72,6 +91,24 @@ public class WALDetection {
       if (
           ("_partial_result_".compareTo(new String(column)) != 0)
           && LocalTriggerManage.containsTrigger(triggerMeta)) {
+
+        /**
+         * Row mode triggers only collect the cell here, they get one event per row
+         * once the whole edit has been seen.
+         */
+        boolean cellTriggers = false;
+        boolean rowTriggers = false;
+        for (HTrigger ht : LocalTriggerManage.getTriggerByMeta(triggerMeta)) {
+          if (!ht.isRowEvents()) {
+            cellTriggers = true;
+          } else if (!rowTriggers) {
+            //all triggers of this list share one key, the event is dispatched to all of them.
+            rows = addRowCell(rows, rowKey, ht.getHTriggerKey(), kv);
+            rowTriggers = true;
+          }
+        }
+        if (!cellTriggers)
+          continue;
         
         /*
         System.out.println("_partial_result_ Compare result is: " 
@@ -81,10 +118,11 @@ public class WALDetection {
                             + " column family: " + new String(columnFamily) + 
                             " column: " + new String(column));
         */
+        /**
+         * The new value is not copied out of the KeyValue, HTriggerEvent reads it in place.
+         * oldValues stays null (meaning 'same as new value') unless we really fetch it.
+         */
         byte[] oldValues = null;
-        byte[] values = null;
-        values = kv.getValue();
-        oldValues = values;
         
         try {
           /**
@@ -144,9 +182,9 @@ public class WALDetection {
             //    + "old values: " + new String(oldValues, "utf-8"));
           }
           HTriggerKey key = new HTriggerKey(tableName, columnFamily, column);
-          HTriggerEvent firedEvent = new HTriggerEvent(key, rowKey, values, oldValues, curVersion, r);
-          System.out.println("event calls");
+          HTriggerEvent firedEvent = new HTriggerEvent(key, rowKey, kv, oldValues, curVersion, r);
           HTriggerEventQueue.append(firedEvent);
+          TriggerStats.fired();
         } catch (UnsupportedEncodingException e) {
           // TODO Auto-generated catch block
           e.printStackTrace();
@@ -156,6 +194,47 @@ public class WALDetection {
         }
       }
     }
+    if (rows != null) {
+      for (RowCells rc : rows) {
+        HTriggerEventQueue.append(new HTriggerEvent(rc.key, rc.row, rc.cells, rc.version, info.theRegion));
+        TriggerStats.fired();
+      }
+    }
     return true;
   }
+
+  private static List<RowCells> addRowCell(List<RowCells> rows, byte[] rowKey, HTriggerKey key, KeyValue kv) {
+    if (rows == null)
+      rows = new ArrayList<RowCells>(1);
+    for (RowCells rc : rows) {
+      if (rc.key == key && Bytes.equals(rc.row, rowKey)) {
+        rc.add(kv);
+        return rows;
+      }
+    }
+    RowCells rc = new RowCells(rowKey, key);
+    rc.add(kv);
+    rows.add(rc);
+    return rows;
+  }
+
+  /**
+   * The cells of one row in one WALEdit watched by the same row mode trigger key.
+   */
+  private static class RowCells {
+    final byte[] row;
+    final HTriggerKey key;
+    final List<KeyValue> cells = new ArrayList<KeyValue>();
+    long version = Long.MIN_VALUE;
+
+    RowCells(byte[] row, HTriggerKey key) {
+      this.row = row;
+      this.key = key;
+    }
+
+    void add(KeyValue kv) {
+      cells.add(kv);
+      version = Math.max(version, kv.getTimestamp());
+    }
+  }
 }
@@ -77,6 +77,9 @@ public class WALEdit implements Writable, HeapSize {
 
   private CompressionContext compressionContext;
 
+  // Replays edits of a dead region server, not written out
+  private boolean logReplay = false;
+
   public WALEdit() {
   }
 
@@ -111,6 +114,19 @@ public class WALEdit implements Writable, HeapSize {
     this.scopes = scopes;
   }
 
+  /**
+   * @return true if the edit replays edits of a dead region server into a
+   * recovering region, in which case it fires no triggers and is not
+   * replicated
+   */
+  public boolean isLogReplay() {
+    return logReplay;
+  }
+
+  public void setLogReplay(boolean logReplay) {
+    this.logReplay = logReplay;
+  }
+
   public void readFields(DataInput in) throws IOException {
     kvs.clear();
     if (scopes != null) {
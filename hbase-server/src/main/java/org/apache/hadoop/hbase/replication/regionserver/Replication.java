@@ -193,6 +193,11 @@ public class Replication implements WALActionsListener,
   @Override
   public void visitLogEntryBeforeWrite(HTableDescriptor htd, HLogKey logKey,
                                        WALEdit logEdit) {
+    if (logEdit.isLogReplay()) {
+      // Shipped from the log of the server that died, by whoever took over
+      // its replication queues
+      return;
+    }
     NavigableMap<byte[], Integer> scopes =
         new TreeMap<byte[], Integer>(Bytes.BYTES_COMPARATOR);
     byte[] family;
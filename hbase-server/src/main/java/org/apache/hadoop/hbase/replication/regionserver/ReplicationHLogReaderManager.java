@@ -87,7 +87,8 @@ public class ReplicationHLogReaderManager {
     // exception, the position won't be changed and retry will happen
     // from the last known good position
     this.position = this.reader.getPosition();
-    // We need to set the CC to null else it will be compressed when sent to the sink
+    // We need to set the CC to null else it will be compressed when sent to the sink.
+    // The sink gets the values decompressed, whatever the WAL value compression.
     if (entry != null) {
       entry.setCompressionContext(null);
     }
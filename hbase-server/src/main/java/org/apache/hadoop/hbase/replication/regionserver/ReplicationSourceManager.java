@@ -23,8 +23,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -41,6 +44,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.replication.ReplicationZookeeper;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperListener;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
@@ -51,7 +55,8 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 /**
  * This class is responsible to manage all the replication
  * sources. There are two classes of sources:
- * <li> Normal sources are persistent and one per peer cluster</li>
+ * <li> Normal sources are persistent and one per peer cluster, or one per
+ * peer cluster and log group if the region server writes several hlogs</li>
  * <li> Old sources are recovered from a failed region server and our
  * only goal is to finish replicating the HLog queue it had up in ZK</li>
  *
@@ -77,8 +82,14 @@ public class ReplicationSourceManager {
   private final Map<String, SortedSet<String>> hlogsById;
   private final Configuration conf;
   private final FileSystem fs;
-  // The path to the latest log we saw, for new coming sources
-  private Path latestPath;
+  // The path to the latest log of each log group we saw, for new coming
+  // sources.  A region server writing to several hlogs has one log group per
+  // hlog, see RegionGroupingStrategy.
+  private final Map<String, Path> latestPaths = new HashMap<String, Path>();
+  // The log group each normal source reads, a source gets the group of the
+  // first log it is given.  Each group has its own source per peer cluster.
+  private final Map<ReplicationSourceInterface, String> sourceGroups =
+      new HashMap<ReplicationSourceInterface, String>();
   // List of all the other region servers in this cluster
   private final List<String> otherRegionServers = new ArrayList<String>();
   // Path to the hlogs directories
@@ -158,11 +169,17 @@ public class ReplicationSourceManager {
     synchronized (this.hlogsById) {
       SortedSet<String> hlogs = this.hlogsById.get(id);
       if (!queueRecovered && hlogs.first() != key) {
-        SortedSet<String> hlogSet = hlogs.headSet(key);
-        for (String hlog : hlogSet) {
-          this.zkHelper.removeLogFromList(hlog, id);
+        // Only the older logs of the same group are done with, the sources
+        // of the other groups may still be reading theirs
+        String group = getLogGroup(key);
+        Iterator<String> it = hlogs.headSet(key).iterator();
+        while (it.hasNext()) {
+          String hlog = it.next();
+          if (group.equals(getLogGroup(hlog))) {
+            this.zkHelper.removeLogFromList(hlog, id);
+            it.remove();
+          }
         }
-        hlogSet.clear();
       }
     }
   }
@@ -195,36 +212,75 @@ public class ReplicationSourceManager {
   }
 
   /**
-   * Add a new normal source to this region server
+   * Add a new normal source to this region server, one per log group if the
+   * region server writes to several hlogs
    * @param id the id of the peer cluster
-   * @return the source that was created
+   * @return the source that was created, the first one if there are several
    * @throws IOException
    */
   public ReplicationSourceInterface addSource(String id) throws IOException {
-    ReplicationSourceInterface src =
-        getReplicationSource(this.conf, this.fs, this, stopper, replicating, id);
+    List<ReplicationSourceInterface> created =
+        new ArrayList<ReplicationSourceInterface>();
     synchronized (this.hlogsById) {
-      this.sources.add(src);
       this.hlogsById.put(id, new TreeSet<String>());
-      // Add the latest hlog to that source's queue
-      if (this.latestPath != null) {
-        String name = this.latestPath.getName();
-        this.hlogsById.get(id).add(name);
-        try {
-          this.zkHelper.addLogToList(name, src.getPeerClusterZnode());
-        } catch (KeeperException ke) {
-          String message = "Cannot add log to zk for" +
-            " replication when creating a new source";
-          stopper.stop(message);
-          throw new IOException(message, ke);
-        }
-        src.enqueueLog(this.latestPath);
+      if (this.latestPaths.isEmpty()) {
+        created.add(newSource(id, null, null));
+      }
+      // Add the latest hlog of each group to the queue of its source
+      for (Map.Entry<String, Path> e : this.latestPaths.entrySet()) {
+        created.add(newSource(id, e.getKey(), e.getValue()));
+      }
+    }
+    for (ReplicationSourceInterface src : created) {
+      src.startup();
+    }
+    return created.get(0);
+  }
+
+  /**
+   * Create and register a normal source, the caller holds the hlogsById lock
+   * and starts it.
+   * @param id the id of the peer cluster
+   * @param group the log group the source reads, null if not known yet
+   * @param latest log to add to the queue of the source, may be null
+   */
+  private ReplicationSourceInterface newSource(String id, String group,
+      Path latest) throws IOException {
+    ReplicationSourceInterface src =
+        getReplicationSource(this.conf, this.fs, this, stopper, replicating, id);
+    this.sources.add(src);
+    this.sourceGroups.put(src, group);
+    if (latest != null) {
+      String name = latest.getName();
+      this.hlogsById.get(id).add(name);
+      try {
+        this.zkHelper.addLogToList(name, src.getPeerClusterZnode());
+      } catch (KeeperException ke) {
+        String message = "Cannot add log to zk for" +
+          " replication when creating a new source";
+        stopper.stop(message);
+        throw new IOException(message, ke);
       }
+      src.enqueueLog(latest);
     }
-    src.startup();
     return src;
   }
 
+  /**
+   * @param logName file name of an hlog
+   * @return the log group of the hlog: its file name without the file number
+   * and the meta extension.  All hlogs written by one HLog instance are in the
+   * same group.
+   */
+  static String getLogGroup(String logName) {
+    String name = logName;
+    if (name.endsWith(HLog.META_HLOG_FILE_EXTN)) {
+      name = name.substring(0, name.length() - HLog.META_HLOG_FILE_EXTN.length());
+    }
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? name : name.substring(0, dot);
+  }
+
   /**
    * Terminate the replication on this region server
    */
@@ -262,7 +318,12 @@ public class ReplicationSourceManager {
 
     synchronized (this.hlogsById) {
       String name = newLog.getName();
+      // Several sources of a peer share its queue in zk, one per log group
+      Set<String> znodes = new HashSet<String>();
       for (ReplicationSourceInterface source : this.sources) {
+        if (!znodes.add(source.getPeerClusterZnode())) {
+          continue;
+        }
         try {
           this.zkHelper.addLogToList(name, source.getPeerClusterZnode());
         } catch (KeeperException ke) {
@@ -277,9 +338,8 @@ public class ReplicationSourceManager {
         }
         hlogs.add(name);
       }
+      this.latestPaths.put(getLogGroup(name), newLog);
     }
-
-    this.latestPath = newLog;
   }
 
   void postLogRoll(Path newLog) throws IOException {
@@ -288,9 +348,35 @@ public class ReplicationSourceManager {
       return;
     }
 
+    String group = getLogGroup(newLog.getName());
+    List<ReplicationSourceInterface> created =
+        new ArrayList<ReplicationSourceInterface>();
     // This only updates the sources we own, not the recovered ones
-    for (ReplicationSourceInterface source : this.sources) {
-      source.enqueueLog(newLog);    
+    synchronized (this.hlogsById) {
+      Set<String> peers = new HashSet<String>();
+      Set<String> served = new HashSet<String>();
+      for (ReplicationSourceInterface source : this.sources) {
+        peers.add(source.getPeerClusterId());
+        String sourceGroup = this.sourceGroups.get(source);
+        if (sourceGroup == null) {
+          sourceGroup = group;
+          this.sourceGroups.put(source, group);
+        }
+        if (group.equals(sourceGroup)) {
+          source.enqueueLog(newLog);
+          served.add(source.getPeerClusterId());
+        }
+      }
+      // First log of a group, preLogRoll already added it to zk
+      peers.removeAll(served);
+      for (String id : peers) {
+        ReplicationSourceInterface source = newSource(id, group, null);
+        source.enqueueLog(newLog);
+        created.add(source);
+      }
+    }
+    for (ReplicationSourceInterface source : created) {
+      source.startup();
     }
   }
 
@@ -374,7 +460,6 @@ public class ReplicationSourceManager {
         + sources.size() + " and another "
         + oldsources.size() + " that were recovered");
     String terminateMessage = "Replication stream was removed by a user";
-    ReplicationSourceInterface srcToRemove = null;
     List<ReplicationSourceInterface> oldSourcesToDelete =
         new ArrayList<ReplicationSourceInterface>();
     // First close all the recovered sources for this peer
@@ -389,19 +474,27 @@ public class ReplicationSourceManager {
     }
     LOG.info("Number of deleted recovered sources for " + id + ": "
         + oldSourcesToDelete.size());
-    // Now look for the one on this cluster
-    for (ReplicationSourceInterface src : this.sources) {
-      if (id.equals(src.getPeerClusterId())) {
-        srcToRemove = src;
-        break;
+    // Now look for the ones on this cluster, one per log group
+    List<ReplicationSourceInterface> srcsToRemove =
+        new ArrayList<ReplicationSourceInterface>();
+    synchronized (this.hlogsById) {
+      for (ReplicationSourceInterface src : this.sources) {
+        if (id.equals(src.getPeerClusterId())) {
+          srcsToRemove.add(src);
+        }
+      }
+      this.sources.removeAll(srcsToRemove);
+      for (ReplicationSourceInterface src : srcsToRemove) {
+        this.sourceGroups.remove(src);
       }
     }
-    if (srcToRemove == null) {
+    if (srcsToRemove.isEmpty()) {
       LOG.error("The queue we wanted to close is missing " + id);
       return;
     }
-    srcToRemove.terminate(terminateMessage);
-    this.sources.remove(srcToRemove);
+    for (ReplicationSourceInterface src : srcsToRemove) {
+      src.terminate(terminateMessage);
+    }
     this.zkHelper.deleteSource(id, true);
   }
 
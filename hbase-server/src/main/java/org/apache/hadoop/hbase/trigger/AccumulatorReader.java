@@ -19,6 +19,7 @@ package org.apache.hadoop.hbase.trigger;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,6 +27,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  *  @author daidong
@@ -43,10 +45,13 @@ import org.apache.hadoop.hbase.regionserver.HRegion;
 public class AccumulatorReader {
   
   private static final Log LOG = LogFactory.getLog(AccumulatorReader.class);
+  private static final byte[] PARTIAL_RESULT = "_partial_result_".getBytes();
   private Result result = null;
   private Map<byte[], byte[]> values = null;
+  private byte[] columnFamily = null;
   
   public AccumulatorReader(byte[] tableName, byte[] columnFamily, byte[] rowKey, long version, HRegion r) throws IOException{
+    this.columnFamily = columnFamily;
     Get get = new Get(rowKey);
     //Get all elements that has version number less than 'version'. setTimeRange is Exclusive API
     get.setTimeRange(0, version).setMaxVersions(1).addFamily(columnFamily);
@@ -54,8 +59,10 @@ public class AccumulatorReader {
         
     //LOG.info("After Get Result");
     
-    values  = this.result.getFamilyMap("nodes".getBytes());
-    values.remove("_partial_result_".getBytes());
+    values  = this.result.getFamilyMap(columnFamily);
+    if (values == null)
+      values = new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
+    values.remove(PARTIAL_RESULT);
     
     //LOG.info("After Remove Partial");
   }
@@ -67,4 +74,47 @@ public class AccumulatorReader {
   public Map<byte[], byte[]> GetMapValues(){
     return this.values;
   }
+  
+  /**
+   * Accumulated values decoded as Bytes.toLong()/toInt(), read in place from the KeyValues
+   * without building a Map<byte[], byte[]>. Values of 4 bytes are treated as int.
+   */
+  public BytesPrimitiveMap GetLongValues(){
+    KeyValue[] kvs = this.result.raw();
+    BytesPrimitiveMap m = new BytesPrimitiveMap(kvs == null ? 0 : kvs.length);
+    if (kvs == null)
+      return m;
+    for (KeyValue kv : kvs){
+      if (!accept(kv))
+        continue;
+      int len = kv.getValueLength();
+      long v = (len == Bytes.SIZEOF_INT) ? Bytes.toInt(kv.getBuffer(), kv.getValueOffset(), len)
+          : Bytes.toLong(kv.getBuffer(), kv.getValueOffset(), len);
+      m.putLong(kv.getQualifier(), v);
+    }
+    return m;
+  }
+  
+  /**
+   * Accumulated values decoded as Bytes.toDouble()/toFloat(). Values of 4 bytes are treated as float.
+   */
+  public BytesPrimitiveMap GetDoubleValues(){
+    KeyValue[] kvs = this.result.raw();
+    BytesPrimitiveMap m = new BytesPrimitiveMap(kvs == null ? 0 : kvs.length);
+    if (kvs == null)
+      return m;
+    for (KeyValue kv : kvs){
+      if (!accept(kv))
+        continue;
+      int len = kv.getValueLength();
+      double v = (len == Bytes.SIZEOF_FLOAT) ? Bytes.toFloat(kv.getBuffer(), kv.getValueOffset())
+          : ValueCodec.DOUBLE.decode(kv.getBuffer(), kv.getValueOffset(), len);
+      m.putDouble(kv.getQualifier(), v);
+    }
+    return m;
+  }
+  
+  private boolean accept(KeyValue kv){
+    return kv.matchingFamily(this.columnFamily) && !kv.matchingQualifier(PARTIAL_RESULT);
+  }
 }
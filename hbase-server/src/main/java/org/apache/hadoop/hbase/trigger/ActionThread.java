@@ -16,7 +16,7 @@
  */
 package org.apache.hadoop.hbase.trigger;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,13 +29,28 @@ public class ActionThread implements Runnable {
 
   private static final Log LOG = LogFactory.getLog(ActionThread.class);
 
-  private LinkedBlockingQueue<HTriggerEvent> inputDS = null;
+  private HTriggerEventBacklog inputDS = null;
   private HTriggerAction action = null;
   private HTrigger ht = null;
+  private TriggerDebouncer debouncer = null;
+  private volatile boolean stopped = false;
 
+  /**
+   * Pending events are kept serialized in an off-heap backlog which spills to local disk
+   * once it is full, see {@link HTriggerEventBacklog}.
+   */
   public ActionThread(HTriggerAction action) {
-    inputDS = new LinkedBlockingQueue<HTriggerEvent>();
     this.action = action;
+    this.ht = action.getHTrigger();
+    TriggerConf conf = (ht != null && ht.getConf() != null) ? ht.getConf() : new TriggerConf();
+    String name = "trigger-" + (ht != null ? ht.getTriggerId() : System.identityHashCode(this));
+    inputDS = new HTriggerEventBacklog(name, conf);
+    debouncer = TriggerDebouncer.create(conf, new TriggerDebouncer.Sink(){
+      @Override
+      public void release(HTriggerEvent hte){
+        append(hte);
+      }
+    });
   }
 
   /**
@@ -44,38 +59,82 @@ public class ActionThread implements Runnable {
    */
   @Override
   public void run() {    
-    while (true){
+    while (!stopped){
       HTriggerEvent currEvent;
       try {
         currEvent = inputDS.take();
-        if (action.filterWrapper(currEvent)){
+        if (TriggerStats.isStagesEnabled()){
+          runWithStats(currEvent);
+        } else if (action.filterWrapper(currEvent)){
           action.actionWrapper(currEvent);
         }
+        TriggerStats.completed();
       } catch (InterruptedException e) {
+        if (stopped)
+          break;
         System.out.println("ERROR IN ActionThread run()");
+      } catch (IOException e) {
+        LOG.error("Failed to read event from backlog", e);
       }
     }
   }
   
-  public void PrintQueue(){
-    String out = this + ":";
-    for (HTriggerEvent e:inputDS){
-      out = out + e +"-->";
+  /**
+   * Stop this thread once its trigger is gone, the event being processed is finished first.
+   * The debouncer is closed, so its timer task does not outlive the thread, and so is the
+   * backlog, which drops the pending events with its spill file and off-heap ring and wakes
+   * the thread if it waits for events. The action is stopped last, see
+   * {@link HTriggerAction#stop()}.
+   */
+  public void stop() {
+    stopped = true;
+    if (debouncer != null){
+      debouncer.close();
+    }
+    inputDS.close();
+    action.stop();
+  }
+
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  private void runWithStats(HTriggerEvent currEvent){
+    TriggerStats.QUEUE.record((System.currentTimeMillis() - currEvent.getTimeStamp()) * 1000000L);
+    long start = System.nanoTime();
+    boolean pass = action.filterWrapper(currEvent);
+    long filtered = System.nanoTime();
+    TriggerStats.FILTER.record(filtered - start);
+    if (pass){
+      action.actionWrapper(currEvent);
+      TriggerStats.ACTION.record(System.nanoTime() - filtered);
     }
-    LOG.info(out);
   }
 
+  public void PrintQueue(){
+    LOG.info(this + ": " + inputDS.size() + " pending events, " + inputDS.spilledSize() + " spilled");
+  }
+
+  /**
+   * Redundant events (same row and version) are dropped by the backlog itself when they
+   * are taken, so feed() does not need to scan the queue any more. If the trigger has a
+   * debounce window, events wait in the {@link TriggerDebouncer} first.
+   */
   public void feed(HTriggerEvent hte) {
+    TriggerStats.fed();
+    if (debouncer != null){
+      debouncer.offer(hte);
+    } else {
+      append(hte);
+    }
+  }
+
+  private void append(HTriggerEvent hte) {
     try {
-      //if (hte.isAccEvent() && inputDS.contains(hte)){
-      if (inputDS.contains(hte)){
-        inputDS.remove(hte);
-        System.out.println("remove redundant");
-      }
-      inputDS.put(hte);
+      inputDS.append(hte);
       //PrintQueue();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+    } catch (IOException e) {
+      LOG.error("Failed to append event into backlog", e);
     }
   }
   
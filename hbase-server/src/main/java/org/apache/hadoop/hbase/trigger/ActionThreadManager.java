@@ -16,8 +16,8 @@
  */
 package org.apache.hadoop.hbase.trigger;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -34,6 +34,7 @@ public class ActionThreadManager implements Runnable{
   public ActionThreadManager(){
     actionThreads = new ConcurrentHashMap<HTrigger, ActionThread>();
     HTriggerEventQueue.register(this);
+    LocalTriggerManage.setActionThreadManager(this);
   }
   
   /**
@@ -54,9 +55,12 @@ public class ActionThreadManager implements Runnable{
       }
       
       HTriggerKey currentFiredKey = hte.getEventTriggerKey();
-      ArrayList<HTrigger> waitOnTriggers = LocalTriggerManage.getTriggerByMeta(currentFiredKey);
+      List<HTrigger> waitOnTriggers = LocalTriggerManage.getTriggerByMeta(currentFiredKey);
       
       for (HTrigger ht : waitOnTriggers){
+        //row events only go to row mode triggers and vice versa.
+        if (ht.isRowEvents() != hte.isRowEvent())
+          continue;
         if (actionThreads.containsKey(ht)){
           actionThreads.get(ht).feed(hte);
         } else {
@@ -66,13 +70,24 @@ public class ActionThreadManager implements Runnable{
           
           actionThreads.put(ht, curThread);
           curThread.feed(hte);
+          //the trigger may have been unregistered since we looked it up.
+          if (!LocalTriggerManage.isRegistered(ht.getTriggerId()))
+            kill(ht);
         }
       }
+      TriggerStats.dispatched();
     }
   }
 
   public void restart(HTrigger t){
   }
+
+  /**
+   * Stop the ActionThread of trigger t, if it has one.
+   */
   public void kill(HTrigger t){
+    ActionThread at = actionThreads.remove(t);
+    if (at != null)
+      at.stop();
   }
 }
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.Arrays;
+
+/**
+ * @author daidong
+ * An open addressing map from byte[] keys to primitive values, used to hold accumulator
+ * aggregates without boxing every value into a byte[] or a Long. Values are stored as raw
+ * long bits, so the same map serves long and double values (do not mix them in one map).
+ *
+ * Not thread safe. Removal is not supported, accumulators only grow within one round.
+ */
+public class BytesPrimitiveMap {
+
+  private byte[][] keys;
+  private long[] values;
+  private int size = 0;
+
+  public BytesPrimitiveMap(){
+    this(16);
+  }
+
+  public BytesPrimitiveMap(int expected){
+    int cap = 16;
+    while (cap < expected * 2)
+      cap <<= 1;
+    keys = new byte[cap][];
+    values = new long[cap];
+  }
+
+  public int size(){
+    return size;
+  }
+
+  /** number of slots, use with {@link #keyAt(int)} to iterate */
+  public int capacity(){
+    return keys.length;
+  }
+
+  /** key stored in slot i, or null if the slot is empty */
+  public byte[] keyAt(int i){
+    return keys[i];
+  }
+
+  public long longAt(int i){
+    return values[i];
+  }
+
+  public double doubleAt(int i){
+    return Double.longBitsToDouble(values[i]);
+  }
+
+  public boolean containsKey(byte[] key){
+    return keys[slot(key)] != null;
+  }
+
+  public long getLong(byte[] key, long defaultValue){
+    int i = slot(key);
+    return keys[i] == null ? defaultValue : values[i];
+  }
+
+  public double getDouble(byte[] key, double defaultValue){
+    int i = slot(key);
+    return keys[i] == null ? defaultValue : Double.longBitsToDouble(values[i]);
+  }
+
+  public void putLong(byte[] key, long value){
+    values[insert(key)] = value;
+  }
+
+  public void putDouble(byte[] key, double value){
+    values[insert(key)] = Double.doubleToRawLongBits(value);
+  }
+
+  public long addLong(byte[] key, long delta){
+    int i = insert(key);
+    values[i] += delta;
+    return values[i];
+  }
+
+  public double addDouble(byte[] key, double delta){
+    int i = insert(key);
+    double v = Double.longBitsToDouble(values[i]) + delta;
+    values[i] = Double.doubleToRawLongBits(v);
+    return v;
+  }
+
+  public long sumLong(){
+    long sum = 0L;
+    for (int i = 0; i < keys.length; i++){
+      if (keys[i] != null) sum += values[i];
+    }
+    return sum;
+  }
+
+  public double sumDouble(){
+    double sum = 0D;
+    for (int i = 0; i < keys.length; i++){
+      if (keys[i] != null) sum += Double.longBitsToDouble(values[i]);
+    }
+    return sum;
+  }
+
+  private int slot(byte[] key){
+    int mask = keys.length - 1;
+    int i = mix(Arrays.hashCode(key)) & mask;
+    while (keys[i] != null && !Arrays.equals(keys[i], key)){
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private int insert(byte[] key){
+    int i = slot(key);
+    if (keys[i] == null){
+      if ((size + 1) * 2 > keys.length){
+        rehash();
+        i = slot(key);
+      }
+      keys[i] = key;
+      values[i] = 0L;
+      size++;
+    }
+    return i;
+  }
+
+  private void rehash(){
+    byte[][] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new byte[oldKeys.length * 2][];
+    values = new long[oldKeys.length * 2];
+    for (int j = 0; j < oldKeys.length; j++){
+      if (oldKeys[j] != null){
+        int i = slot(oldKeys[j]);
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  private static int mix(int h){
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    return h;
+  }
+}
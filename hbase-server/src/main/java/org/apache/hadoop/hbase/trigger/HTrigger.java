@@ -43,6 +43,7 @@ public class HTrigger {
     private HTriggerKey htk;
     private TriggerConf conf;
     private HTriggerAction action;
+    private boolean rowEvents = false;
     
     public HTrigger(int triggerId){
       this.triggerId = triggerId;
@@ -52,13 +53,34 @@ public class HTrigger {
       this.triggerId = triggerId;
       this.htk = htk;
       this.conf = conf;
+      this.rowEvents = conf.isRowEvents();
       initClass();
     }
 
+    /**
+     * Build a trigger around an action instance that is already loaded, without unpacking
+     * any trigger jar. Used by local tools such as TriggerWALReplay.
+     */
+    public HTrigger(int triggerId, HTriggerKey htk, TriggerConf conf, HTriggerAction action){
+      this.triggerId = triggerId;
+      this.htk = htk;
+      this.conf = conf;
+      this.rowEvents = conf != null && conf.isRowEvents();
+      this.action = action;
+      this.action.setHTrigger(this);
+    }
+
     public TriggerConf getConf(){
       return this.conf;
     }
     
+    /**
+     * Whether this trigger wants one event per changed row instead of one per changed cell.
+     */
+    public boolean isRowEvents(){
+      return this.rowEvents;
+    }
+
     public HTriggerKey getHTriggerKey(){
       return this.htk;
     }
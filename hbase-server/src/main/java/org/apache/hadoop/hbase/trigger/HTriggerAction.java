@@ -41,6 +41,7 @@ public abstract class HTriggerAction{
     HTrigger belongToInst = null;
     long round = 0L;
     WritePreparedInst wpi = null;
+    TriggerContext context = null;
     
     public abstract void action(HTriggerEvent hte);
     public abstract boolean filter(HTriggerEvent hte);
@@ -62,6 +63,17 @@ public abstract class HTriggerAction{
     public void setHTrigger(HTrigger hTrigger) {
       this.belongToInst = hTrigger;
     }
+
+    /**
+     * Asynchronous I/O for action functions, see {@link TriggerContext}.
+     */
+    public synchronized TriggerContext getContext(){
+      if (this.context == null){
+        TriggerConf conf = this.belongToInst == null ? null : this.belongToInst.getConf();
+        this.context = new TriggerContext(conf);
+      }
+      return this.context;
+    }
     
     public Method getIncr(){
       Class<?> currentClass = this.getClass();
@@ -79,6 +91,13 @@ public abstract class HTriggerAction{
       return m;
     }
     
+    /**
+     * Called once the trigger is unregistered or its ActionThread stopped, may be called
+     * more than once. Actions holding timers or other resources release them here.
+     */
+    public void stop(){
+    }
+
     public boolean filterWrapper(HTriggerEvent hte){
       //initial vesion must pass the check
       if (hte.isInitEvent())
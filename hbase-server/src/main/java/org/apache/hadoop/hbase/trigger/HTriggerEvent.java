@@ -19,7 +19,11 @@ package org.apache.hadoop.hbase.trigger;
 
 import java.util.Comparator;
 import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * Created with IntelliJ IDEA.
@@ -43,6 +47,19 @@ public class HTriggerEvent{
     private boolean initEvent = false;
     private boolean isAcc = false;
     private long timestamp = 0L;
+    /**
+     * When the event is built from a KeyValue, the new value is a view over the KeyValue
+     * backing array and only gets copied if someone calls getNewValue().
+     */
+    private byte[] valueBuf = null;
+    private int valueOffset = 0;
+    private int valueLength = 0;
+    private boolean oldSameAsNew = false;
+    /**
+     * Row-granularity events carry every changed cell of the row in one WALEdit. The list
+     * only references the KeyValues of the edit, nothing is copied.
+     */
+    private List<KeyValue> cells = null;
     
     public boolean isInitEvent(){
       return this.initEvent;
@@ -79,7 +96,65 @@ public class HTriggerEvent{
       this(htk, rowKey, vn, vo, ver, region);
       this.initEvent = init;
     }
+
+    /**
+     * Rebuild an event that has been serialized by {@link HTriggerEventBacklog}. All fields
+     * are restored as they were, so we do not ask LocalTriggerManage again.
+     */
+    HTriggerEvent(HTriggerKey htk, byte[] rowKey, byte[] vn, byte[] vo, long ver, HRegion region,
+        boolean init, boolean acc, long ts){
+      this.htk = htk;
+      this.rowKey = rowKey;
+      this.newValue = vn;
+      this.oldValue = vo;
+      this.version = ver;
+      this.r = region;
+      this.initEvent = init;
+      this.isAcc = acc;
+      this.timestamp = ts;
+    }
+
+    /**
+     * Build an event whose new value points into kv's backing array.
+     * @param vo the old value, or null if it is the same as the new value
+     */
+    public HTriggerEvent(HTriggerKey htk, byte[] rowKey, KeyValue kv, byte[] vo, long ver, HRegion region){
+      this(htk, rowKey, (byte[]) null, vo, ver, region);
+      this.valueBuf = kv.getBuffer();
+      this.valueOffset = kv.getValueOffset();
+      this.valueLength = kv.getValueLength();
+      this.oldSameAsNew = (vo == null);
+    }
     
+    /**
+     * Build a row-granularity event over the given cells of one row. The new value of the
+     * event is the value of the first cell, there is no old value.
+     */
+    public HTriggerEvent(HTriggerKey htk, byte[] rowKey, List<KeyValue> cells, long ver, HRegion region){
+      this(htk, rowKey, (byte[]) null, (byte[]) null, ver, region);
+      setCells(cells);
+    }
+
+    void setCells(List<KeyValue> cells){
+      this.cells = cells;
+      KeyValue first = cells.get(0);
+      this.valueBuf = first.getBuffer();
+      this.valueOffset = first.getValueOffset();
+      this.valueLength = first.getValueLength();
+      this.newValue = null;
+    }
+
+    public boolean isRowEvent(){
+      return this.cells != null;
+    }
+
+    /**
+     * @return the changed cells of a row event, or null for a cell event.
+     */
+    public List<KeyValue> getCells(){
+      return this.cells;
+    }
+
     public HRegion getRegion(){
       return this.r;
     }
@@ -96,11 +171,110 @@ public class HTriggerEvent{
     }
     
     public byte[] getNewValue(){
+      if (this.newValue == null && this.valueBuf != null){
+        this.newValue = Arrays.copyOfRange(valueBuf, valueOffset, valueOffset + valueLength);
+      }
       return this.newValue;
     }
     public byte[] getOldValue(){
+      if (this.oldSameAsNew)
+        return getNewValue();
       return this.oldValue;
     }
+
+    /**
+     * @return the array holding the new value, the KeyValue backing array if the event was
+     * built from one, or null if there is no new value. Nothing is copied.
+     */
+    byte[] getNewValueArray(){
+      return this.valueBuf != null ? this.valueBuf : this.newValue;
+    }
+
+    int getNewValueOffset(){
+      return this.valueBuf != null ? this.valueOffset : 0;
+    }
+
+    int getNewValueLength(){
+      if (this.valueBuf != null)
+        return this.valueLength;
+      return this.newValue == null ? 0 : this.newValue.length;
+    }
+
+    /**
+     * @return true if the old value is the new one, see {@link #getOldValue()}
+     */
+    boolean isOldSameAsNew(){
+      return this.oldSameAsNew;
+    }
+
+    /**
+     * Decode the new value with the given codec, reading the KeyValue backing array directly
+     * if possible.
+     * @return null if there is no new value, like {@link #getNewValue()}
+     */
+    public <T> T getNewValue(ValueCodec<T> codec){
+      if (this.valueBuf != null)
+        return codec.decode(valueBuf, valueOffset, valueLength);
+      if (newValue == null)
+        return null;
+      return codec.decode(newValue, 0, newValue.length);
+    }
+
+    /**
+     * @return null if there is no old value, like {@link #getOldValue()}
+     */
+    public <T> T getOldValue(ValueCodec<T> codec){
+      if (this.oldSameAsNew)
+        return getNewValue(codec);
+      if (oldValue == null)
+        return null;
+      return codec.decode(oldValue, 0, oldValue.length);
+    }
+
+    public int getNewInt(){
+      if (this.valueBuf != null)
+        return Bytes.toInt(valueBuf, valueOffset, valueLength);
+      return Bytes.toInt(newValue);
+    }
+
+    public long getNewLong(){
+      if (this.valueBuf != null)
+        return Bytes.toLong(valueBuf, valueOffset, valueLength);
+      return Bytes.toLong(newValue);
+    }
+
+    public float getNewFloat(){
+      if (this.valueBuf != null){
+        checkValueLength(Bytes.SIZEOF_FLOAT);
+        return Bytes.toFloat(valueBuf, valueOffset);
+      }
+      return Bytes.toFloat(newValue);
+    }
+
+    public double getNewDouble(){
+      if (this.valueBuf != null){
+        checkValueLength(Bytes.SIZEOF_DOUBLE);
+        return Bytes.toDouble(valueBuf, valueOffset);
+      }
+      return Bytes.toDouble(newValue);
+    }
+
+    /**
+     * Bytes.toInt/toLong check the length of the value, toFloat/toDouble do not and would
+     * read into the next cell of the backing array.
+     */
+    private void checkValueLength(int expected){
+      if (valueLength != expected)
+        throw new IllegalArgumentException("Wrong length: " + valueLength + ", expected " + expected);
+    }
+
+    public long getOldLong(){
+      return this.oldSameAsNew ? getNewLong() : Bytes.toLong(oldValue);
+    }
+
+    public double getOldDouble(){
+      return this.oldSameAsNew ? getNewDouble() : Bytes.toDouble(oldValue);
+    }
  
     @Override
     public int hashCode() {
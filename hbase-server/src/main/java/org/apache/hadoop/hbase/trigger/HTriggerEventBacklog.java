@@ -0,0 +1,478 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.ByteBufferArray;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * @author daidong
+ * The pending event queue of one trigger. Instead of keeping HTriggerEvent objects on the heap,
+ * every event is serialized into a compact record and appended into an off-heap ring built on
+ * {@link ByteBufferArray}. Once the ring is full, new records go to a local append-only spill file
+ * and are read back sequentially after the ring has been drained, so the heap footprint does not
+ * depend on how large the backlog grows.
+ *
+ * Records are consumed strictly in FIFO order: as soon as something has been spilled, all
+ * following appends go to the spill file too, until the file is fully read back.
+ *
+ * The spill file is created under 'trigger.backlog.spill.dir' with a unique name starting
+ * with the name of the backlog, so backlogs of region servers sharing a host, or of an earlier
+ * run of this one, never use the same file. A backlog only ever deletes the file it created,
+ * once it is read back or the backlog is closed.
+ *
+ * Record layout: [int length][long seq][long version][long timestamp][byte flags][int region]
+ * followed by tableName, columnFamily, column, rowKey, newValue and oldValue, each one written
+ * as [int length (-1 for null)][bytes]. An oldValue that is the newValue is only written as
+ * [int -2]. Values are copied straight from the KeyValue the event points into, like the cells
+ * of row events, which append [int cells] and every cell as [int length][KeyValue bytes].
+ *
+ * HRegion can not be serialized, so we keep a tiny table of the regions of pending events and
+ * only write their index. Every entry counts the records referring to it and is dropped when
+ * the last of them is taken, so a closed region is not kept alive once its events are gone.
+ *
+ * Deduplication: ActionThread used to remove an equal event (same row and version) from the
+ * queue before appending, which costs O(n). Here we remember the sequence id of the newest
+ * record for every (row, version) pending in the ring, and skip older records on poll. A copy
+ * spilled while an older one is still in the ring supersedes it the same way. Copies sitting in
+ * the spill file are not deduplicated against each other, so the table stays bounded by the
+ * ring.
+ */
+public class HTriggerEventBacklog {
+
+  private static final Log LOG = LogFactory.getLog(HTriggerEventBacklog.class);
+
+  public static final String OFFHEAP_SIZE_KEY = "trigger.backlog.offheap.size";
+  public static final long DEFAULT_OFFHEAP_SIZE = 16 * 1024 * 1024;
+  public static final String DIRECT_KEY = "trigger.backlog.offheap.direct";
+  public static final String SPILL_DIR_KEY = "trigger.backlog.spill.dir";
+  public static final String DEFAULT_SPILL_DIR = "/tmp/trigger/spill";
+
+  private static final int HEADER_SIZE = Bytes.SIZEOF_INT;
+  private static final byte FLAG_INIT = 0x01;
+  private static final byte FLAG_ACC = 0x02;
+  private static final byte FLAG_ROW = 0x04;
+  private static final int NULL_PART = -1;
+  private static final int SAME_AS_NEW = -2;
+
+  /** off-heap ring, released on close */
+  private ByteBufferArray ring;
+  private final long capacity;
+  private long head = 0L;
+  private long tail = 0L;
+  private int ringCount = 0;
+  private final byte[] header = new byte[HEADER_SIZE];
+
+  private final String name;
+
+  /** spill file, null while nothing is spilled */
+  private final File spillDir;
+  private File spillFile = null;
+  private DataOutputStream spillOut = null;
+  private DataInputStream spillIn = null;
+  private long spilled = 0L;
+  private long spillRead = 0L;
+  private boolean spillDirty = false;
+
+  private long nextSeq = 0L;
+  private final HashMap<EventKey, Long> newest = new HashMap<EventKey, Long>();
+
+  private final ArrayList<RegionRef> regions = new ArrayList<RegionRef>();
+  private final IdentityHashMap<HRegion, Integer> regionIds = new IdentityHashMap<HRegion, Integer>();
+  private final ArrayDeque<Integer> freeRegionIds = new ArrayDeque<Integer>();
+  private boolean closed = false;
+
+  public HTriggerEventBacklog(String name, Configuration conf){
+    this(name, conf.getLong(OFFHEAP_SIZE_KEY, DEFAULT_OFFHEAP_SIZE),
+        conf.getBoolean(DIRECT_KEY, true), conf.get(SPILL_DIR_KEY, DEFAULT_SPILL_DIR));
+  }
+
+  public HTriggerEventBacklog(String name, long capacity, boolean direct, String spillDir){
+    this.capacity = capacity;
+    this.ring = new ByteBufferArray(capacity, direct);
+    this.name = name;
+    this.spillDir = new File(spillDir);
+  }
+
+  /**
+   * Append one event at the tail of the backlog. Never blocks. Events appended after
+   * {@link #close()} are dropped.
+   */
+  public synchronized void append(HTriggerEvent hte) throws IOException {
+    if (closed){
+      TriggerStats.dropped();
+      return;
+    }
+    long seq = nextSeq++;
+    byte[] record = encode(seq, hte);
+    EventKey key = new EventKey(hte.getRowKey(), hte.getVersion());
+    if (spilled == spillRead && fitsInRing(record.length)){
+      writeRing(record);
+      newest.put(key, seq);
+    } else {
+      writeSpill(record);
+      if (newest.containsKey(key))
+        newest.put(key, seq);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Retrieves and removes the head of the backlog, waiting if necessary until an
+   * event becomes available.
+   * @throws InterruptedException if the backlog is or gets closed
+   */
+  public synchronized HTriggerEvent take() throws InterruptedException, IOException {
+    while (true){
+      while (ringCount == 0 && spilled == spillRead){
+        if (closed)
+          throw new InterruptedException("Backlog " + name + " is closed");
+        wait();
+      }
+      boolean fromRing = ringCount != 0;
+      byte[] record = fromRing ? readRing() : readSpill();
+      HTriggerEvent hte = decode(record);
+      EventKey key = new EventKey(hte.getRowKey(), hte.getVersion());
+      long seq = Bytes.toLong(record, 0);
+      Long latest = newest.get(key);
+      if (fromRing && latest != null && latest.longValue() != seq){
+        //a newer copy of the same event is still pending, skip this one.
+        TriggerStats.dropped();
+        continue;
+      }
+      if (latest != null && latest.longValue() == seq)
+        newest.remove(key);
+      return hte;
+    }
+  }
+
+  public synchronized long size(){
+    return ringCount + (spilled - spillRead);
+  }
+
+  public synchronized long spilledSize(){
+    return spilled - spillRead;
+  }
+
+  /**
+   * @return the file events are spilled to, null if there are none
+   */
+  synchronized File getSpillFile(){
+    return spillFile;
+  }
+
+  /**
+   * Drop everything, remove the spill file and release the ring. The backlog can not be
+   * used any more afterwards.
+   */
+  public synchronized void close(){
+    closed = true;
+    resetSpill();
+    head = tail = 0L;
+    ringCount = 0;
+    ring = null;
+    newest.clear();
+    regions.clear();
+    regionIds.clear();
+    freeRegionIds.clear();
+    notifyAll();
+  }
+
+  /**
+   * @return number of regions referred to by pending events
+   */
+  synchronized int regionCount(){
+    return regionIds.size();
+  }
+
+  private boolean fitsInRing(int len){
+    return (tail - head) + HEADER_SIZE + len <= capacity;
+  }
+
+  private void writeRing(byte[] record){
+    Bytes.putInt(header, 0, record.length);
+    ringPut(tail, header);
+    ringPut(tail + HEADER_SIZE, record);
+    tail += HEADER_SIZE + record.length;
+    ringCount++;
+  }
+
+  private byte[] readRing(){
+    ringGet(head, header);
+    byte[] record = new byte[Bytes.toInt(header)];
+    ringGet(head + HEADER_SIZE, record);
+    head += HEADER_SIZE + record.length;
+    ringCount--;
+    if (ringCount == 0){
+      head = tail = 0L;
+    }
+    return record;
+  }
+
+  private void ringPut(long pos, byte[] src){
+    int offset = (int) (pos % capacity);
+    int first = (int) Math.min(src.length, capacity - offset);
+    if (first > 0) ring.putMultiple(offset, first, src, 0);
+    if (first < src.length) ring.putMultiple(0, src.length - first, src, first);
+  }
+
+  private void ringGet(long pos, byte[] dst){
+    int offset = (int) (pos % capacity);
+    int first = (int) Math.min(dst.length, capacity - offset);
+    if (first > 0) ring.getMultiple(offset, first, dst, 0);
+    if (first < dst.length) ring.getMultiple(0, dst.length - first, dst, first);
+  }
+
+  private void writeSpill(byte[] record) throws IOException {
+    if (spillOut == null){
+      spillDir.mkdirs();
+      spillFile = File.createTempFile(name + "-", ".spill", spillDir);
+      LOG.info("Backlog exceeds " + capacity + " bytes, spill to " + spillFile);
+      spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+    }
+    spillOut.writeInt(record.length);
+    spillOut.write(record);
+    spilled++;
+    spillDirty = true;
+  }
+
+  private byte[] readSpill() throws IOException {
+    if (spillDirty){
+      spillOut.flush();
+      spillDirty = false;
+    }
+    if (spillIn == null){
+      spillIn = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+    }
+    byte[] record = new byte[spillIn.readInt()];
+    spillIn.readFully(record);
+    spillRead++;
+    if (spillRead == spilled){
+      //everything has been read back, new events can go to the ring again.
+      resetSpill();
+    }
+    return record;
+  }
+
+  private void resetSpill(){
+    try {
+      if (spillOut != null) spillOut.close();
+      if (spillIn != null) spillIn.close();
+    } catch (IOException e){
+      LOG.warn("Failed to close spill file " + spillFile, e);
+    }
+    spillOut = null;
+    spillIn = null;
+    spilled = spillRead = 0L;
+    spillDirty = false;
+    if (spillFile != null){
+      if (!spillFile.delete())
+        LOG.warn("Failed to delete spill file " + spillFile);
+      spillFile = null;
+    }
+  }
+
+  /**
+   * @return the index of r, counting one more record referring to it
+   */
+  private int acquireRegion(HRegion r){
+    if (r == null)
+      return -1;
+    Integer id = regionIds.get(r);
+    if (id == null){
+      RegionRef ref = new RegionRef(r);
+      id = freeRegionIds.poll();
+      if (id == null){
+        id = regions.size();
+        regions.add(ref);
+      } else {
+        regions.set(id, ref);
+      }
+      regionIds.put(r, id);
+    }
+    regions.get(id).refs++;
+    return id;
+  }
+
+  /**
+   * A record referring to region rid was taken, drop the region once no record is left.
+   */
+  private HRegion releaseRegion(int rid){
+    if (rid < 0)
+      return null;
+    RegionRef ref = regions.get(rid);
+    if (--ref.refs == 0){
+      regions.set(rid, null);
+      regionIds.remove(ref.region);
+      freeRegionIds.add(rid);
+    }
+    return ref.region;
+  }
+
+  private byte[] encode(long seq, HTriggerEvent hte){
+    HTriggerKey htk = hte.getEventTriggerKey();
+    byte[][] parts = new byte[][]{htk.getTableName(), htk.getColumnFamily(), htk.getColumn(),
+        hte.getRowKey()};
+    byte[] newValue = hte.getNewValueArray();
+    boolean oldSameAsNew = hte.isOldSameAsNew();
+    byte[] oldValue = oldSameAsNew ? null : hte.getOldValue();
+    int len = 3 * Bytes.SIZEOF_LONG + Bytes.SIZEOF_BYTE + Bytes.SIZEOF_INT;
+    for (byte[] p : parts){
+      len += Bytes.SIZEOF_INT + (p == null ? 0 : p.length);
+    }
+    len += Bytes.SIZEOF_INT + (newValue == null ? 0 : hte.getNewValueLength());
+    len += Bytes.SIZEOF_INT + (oldValue == null ? 0 : oldValue.length);
+    List<KeyValue> cells = hte.getCells();
+    if (cells != null){
+      len += Bytes.SIZEOF_INT;
+      for (KeyValue kv : cells){
+        len += Bytes.SIZEOF_INT + kv.getLength();
+      }
+    }
+    byte flags = 0;
+    if (hte.isInitEvent()) flags |= FLAG_INIT;
+    if (hte.isAccEvent()) flags |= FLAG_ACC;
+    if (cells != null) flags |= FLAG_ROW;
+
+    byte[] record = new byte[len];
+    int pos = Bytes.putLong(record, 0, seq);
+    pos = Bytes.putLong(record, pos, hte.getVersion());
+    pos = Bytes.putLong(record, pos, hte.getTimeStamp());
+    pos = Bytes.putByte(record, pos, flags);
+    pos = Bytes.putInt(record, pos, acquireRegion(hte.getRegion()));
+    for (byte[] p : parts){
+      pos = putPart(record, pos, p, 0, p == null ? 0 : p.length);
+    }
+    pos = putPart(record, pos, newValue, hte.getNewValueOffset(), hte.getNewValueLength());
+    if (oldSameAsNew){
+      pos = Bytes.putInt(record, pos, SAME_AS_NEW);
+    } else {
+      pos = putPart(record, pos, oldValue, 0, oldValue == null ? 0 : oldValue.length);
+    }
+    if (cells != null){
+      pos = Bytes.putInt(record, pos, cells.size());
+      for (KeyValue kv : cells){
+        pos = Bytes.putInt(record, pos, kv.getLength());
+        pos = Bytes.putBytes(record, pos, kv.getBuffer(), kv.getOffset(), kv.getLength());
+      }
+    }
+    return record;
+  }
+
+  private static int putPart(byte[] record, int pos, byte[] src, int offset, int length){
+    if (src == null)
+      return Bytes.putInt(record, pos, NULL_PART);
+    pos = Bytes.putInt(record, pos, length);
+    return Bytes.putBytes(record, pos, src, offset, length);
+  }
+
+  private HTriggerEvent decode(byte[] record){
+    int pos = Bytes.SIZEOF_LONG;
+    long version = Bytes.toLong(record, pos);
+    pos += Bytes.SIZEOF_LONG;
+    long ts = Bytes.toLong(record, pos);
+    pos += Bytes.SIZEOF_LONG;
+    byte flags = record[pos];
+    pos += Bytes.SIZEOF_BYTE;
+    int rid = Bytes.toInt(record, pos);
+    pos += Bytes.SIZEOF_INT;
+    byte[][] parts = new byte[6][];
+    for (int i = 0; i < parts.length; i++){
+      int l = Bytes.toInt(record, pos);
+      pos += Bytes.SIZEOF_INT;
+      if (l >= 0){
+        parts[i] = Arrays.copyOfRange(record, pos, pos + l);
+        pos += l;
+      } else if (l == SAME_AS_NEW){
+        parts[i] = parts[4];
+      }
+    }
+    HTriggerKey htk = new HTriggerKey(parts[0], parts[1], parts[2]);
+    HRegion r = releaseRegion(rid);
+    HTriggerEvent hte = new HTriggerEvent(htk, parts[3], parts[4], parts[5], version, r,
+        (flags & FLAG_INIT) != 0, (flags & FLAG_ACC) != 0, ts);
+    if ((flags & FLAG_ROW) != 0){
+      int n = Bytes.toInt(record, pos);
+      pos += Bytes.SIZEOF_INT;
+      List<KeyValue> cells = new ArrayList<KeyValue>(n);
+      for (int i = 0; i < n; i++){
+        int l = Bytes.toInt(record, pos);
+        pos += Bytes.SIZEOF_INT;
+        //the record is a private copy, the cells can point into it.
+        cells.add(new KeyValue(record, pos, l));
+        pos += l;
+      }
+      hte.setCells(cells);
+    }
+    return hte;
+  }
+
+  private static class RegionRef {
+    private final HRegion region;
+    private int refs = 0;
+
+    RegionRef(HRegion region){
+      this.region = region;
+    }
+  }
+
+  /**
+   * Same identity as HTriggerEvent.equals(): row key plus version.
+   */
+  private static class EventKey {
+    private final byte[] row;
+    private final long version;
+
+    EventKey(byte[] row, long version){
+      this.row = row;
+      this.version = version;
+    }
+
+    @Override
+    public int hashCode(){
+      return 31 * Arrays.hashCode(row) + (int) (version ^ (version >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o){
+      if (!(o instanceof EventKey))
+        return false;
+      EventKey that = (EventKey) o;
+      return this.version == that.version && Arrays.equals(this.row, that.row);
+    }
+  }
+}
@@ -73,4 +73,15 @@ public class HTriggerEventQueue {
 	public static HTriggerEvent poll() throws InterruptedException {
 		return EventQueue.take();
 	}
+
+	/**
+	 * Non-blocking version of poll(), returns null if the queue is empty.
+	 */
+	public static HTriggerEvent tryPoll() {
+		return EventQueue.poll();
+	}
+
+	public static int size() {
+		return EventQueue.size();
+	}
 }
@@ -17,10 +17,11 @@
 
 package org.apache.hadoop.hbase.trigger;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created with IntelliJ IDEA.
@@ -28,6 +29,11 @@ import java.util.Set;
  * Date: 13-3-2
  * Time: 下午6:56
  * To change this template use File | Settings | File Templates.
+ *
+ * The TriggerRegistry activator thread registers and unregisters triggers while the
+ * WAL handlers look them up on every write. Readers take no lock: both maps are
+ * concurrent and the trigger lists are copy-on-write. Writers synchronize on the class
+ * so a list emptied by one of them is never removed under another one adding to it.
  */
 public class LocalTriggerManage {
      
@@ -39,11 +45,21 @@ public class LocalTriggerManage {
       return sb.toString();
     }
     
-    private static HashMap<HTriggerKey, ArrayList<HTrigger>> activeTriggers = new HashMap<HTriggerKey, ArrayList<HTrigger>>();
-    private static HashMap<Integer, HTriggerKey> registeredTriggers = new HashMap<Integer, HTriggerKey>();
+    private static final Map<HTriggerKey, List<HTrigger>> activeTriggers =
+        new ConcurrentHashMap<HTriggerKey, List<HTrigger>>();
+    private static final Map<Integer, HTriggerKey> registeredTriggers =
+        new ConcurrentHashMap<Integer, HTriggerKey>();
+    private static volatile ActionThreadManager actionThreadManager = null;
+
+    /**
+     * The manager whose ActionThreads are stopped when their trigger is unregistered.
+     */
+    static void setActionThreadManager(ActionThreadManager atm){
+      actionThreadManager = atm;
+    }
 
-    public static boolean register(HTrigger trigger){
-      ArrayList<HTrigger> currTriggers = activeTriggers.get(trigger.getHTriggerKey());
+    public static synchronized boolean register(HTrigger trigger){
+      List<HTrigger> currTriggers = activeTriggers.get(trigger.getHTriggerKey());
       /**
        * As we only use HTriggerKey when we want to distinguish different triggers.
        * For future operations, we need to record all the id->HTriggerKey map.
@@ -51,7 +67,7 @@ public class LocalTriggerManage {
       registeredTriggers.put(trigger.getTriggerId(), trigger.getHTriggerKey());
       
       if (currTriggers == null){
-        currTriggers = new ArrayList<HTrigger>();
+        currTriggers = new CopyOnWriteArrayList<HTrigger>();
       }
       currTriggers.add(trigger);
       activeTriggers.put(trigger.getHTriggerKey(), currTriggers);
@@ -67,47 +83,59 @@ public class LocalTriggerManage {
      * Here, we query currentTriggers which monitors on the same trigger key, and move
      * the relevant trigger. The HTrigger instances are equal if their ids are equal. 
      */
-    public static boolean unregister(HTrigger t){
+    public static synchronized boolean unregister(HTrigger t){
       System.out.println("inside unregister");
-      HTriggerKey currentTriggerKey = registeredTriggers.get(t.getTriggerId());
+      HTriggerKey currentTriggerKey = registeredTriggers.remove(t.getTriggerId());
       if (currentTriggerKey != null){
         //System.out.println("find currentTriggerKey responding to trigger id: " + t.getTriggerId() + " is " + currentTriggerKey);
-        ArrayList<HTrigger> currTriggers = activeTriggers.get(currentTriggerKey);
+        List<HTrigger> currTriggers = activeTriggers.get(currentTriggerKey);
         if (currTriggers == null)
           return true;
         //System.out.println("find current trigger: " + currTriggers.get(0) + " for trigger id: " + t.getTriggerId());
-        currTriggers.remove(t);
+        int index = currTriggers.indexOf(t);
+        HTrigger registered = index < 0 ? null : currTriggers.remove(index);
         if (currTriggers.size() == 0){
           activeTriggers.remove(currentTriggerKey);
-        } else {
-          activeTriggers.put(currentTriggerKey, currTriggers);
         }
+        ActionThreadManager atm = actionThreadManager;
+        if (atm != null)
+          atm.kill(t);
+        //also when it never had an ActionThread
+        if (registered != null && registered.getActionClass() != null)
+          registered.getActionClass().stop();
         return true;
       } else {
         return true;
       }
     }
     
-    public static boolean cancel(HTrigger t){
-        for (Map.Entry trigger: activeTriggers.entrySet()){
-            ArrayList<HTrigger> triggerSet = (ArrayList <HTrigger>) trigger.getValue();
-            if (triggerSet.contains(t)){
-                triggerSet.remove(t);
-                activeTriggers.put((HTriggerKey)trigger.getKey(), triggerSet);
-            }
+    public static synchronized boolean cancel(HTrigger t){
+        for (List<HTrigger> triggerSet: activeTriggers.values()){
+            triggerSet.remove(t);
         }
         return true;
     }
 
-    public static ArrayList<HTrigger> getTriggerByMeta(HTriggerKey tk){
-        return activeTriggers.get(tk);
+    public static boolean isRegistered(int triggerId){
+      return registeredTriggers.containsKey(triggerId);
+    }
+
+    /**
+     * @return the triggers on tk, empty if there are none. The list may be iterated while
+     * triggers are registered and unregistered.
+     */
+    public static List<HTrigger> getTriggerByMeta(HTriggerKey tk){
+        List<HTrigger> triggers = activeTriggers.get(tk);
+        if (triggers == null)
+          return Collections.emptyList();
+        return triggers;
     }
     public static boolean containsTrigger(HTriggerKey tk){
         return activeTriggers.containsKey(tk);
     }
     
     public static boolean containsAccumulator(HTriggerKey tk){
-      for (HTrigger ht:activeTriggers.get(tk)){
+      for (HTrigger ht:getTriggerByMeta(tk)){
         TRIGGERTYPE curr = TRIGGERTYPE.fromString(ht.getConf().getTriggerType());
         if (curr == TRIGGERTYPE.ACCUMULATOR ||
             curr == TRIGGERTYPE.ACCUMULATORWITHCONVERGE)
@@ -117,7 +145,7 @@ public class LocalTriggerManage {
     }
     
     public static boolean containsConvergeOrIncr(HTriggerKey tk){
-        for (HTrigger ht:activeTriggers.get(tk)){
+        for (HTrigger ht:getTriggerByMeta(tk)){
           TRIGGERTYPE curr = TRIGGERTYPE.fromString(ht.getConf().getTriggerType());
           
           if (ht.getActionClass().getIncr() != null)
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * @author daidong
+ * Count, total time and latency percentiles of one stage of the trigger pipeline (WAL read,
+ * detection, filter, action ...). Latencies are kept in a fixed size reservoir, so recording
+ * is O(1) and memory does not grow with the number of samples.
+ */
+public class StageStats {
+
+  private static final int RESERVOIR_SIZE = 65536;
+
+  private final String name;
+  private final long[] reservoir;
+  private final Random random = new Random(0);
+  private long count = 0L;
+  private long totalNanos = 0L;
+  private long maxNanos = 0L;
+
+  public StageStats(String name){
+    this(name, RESERVOIR_SIZE);
+  }
+
+  public StageStats(String name, int reservoirSize){
+    this.name = name;
+    this.reservoir = new long[reservoirSize];
+  }
+
+  public synchronized void record(long nanos){
+    if (count < reservoir.length){
+      reservoir[(int) count] = nanos;
+    } else {
+      long r = (long) (random.nextDouble() * (count + 1));
+      if (r < reservoir.length)
+        reservoir[(int) r] = nanos;
+    }
+    count++;
+    totalNanos += nanos;
+    if (nanos > maxNanos)
+      maxNanos = nanos;
+  }
+
+  public synchronized void reset(){
+    count = 0L;
+    totalNanos = 0L;
+    maxNanos = 0L;
+  }
+
+  public String getName(){
+    return name;
+  }
+
+  public synchronized long getCount(){
+    return count;
+  }
+
+  public synchronized long getTotalNanos(){
+    return totalNanos;
+  }
+
+  /** operations per second, counting only the time spent inside this stage */
+  public synchronized double getThroughput(){
+    return totalNanos == 0 ? 0D : count * 1e9 / totalNanos;
+  }
+
+  public synchronized double getMeanMicros(){
+    return count == 0 ? 0D : totalNanos / 1e3 / count;
+  }
+
+  public synchronized double getMaxMicros(){
+    return maxNanos / 1e3;
+  }
+
+  /**
+   * @param p percentile between 0 and 100
+   */
+  public synchronized double getPercentileMicros(double p){
+    int n = (int) Math.min(count, reservoir.length);
+    if (n == 0)
+      return 0D;
+    long[] sorted = Arrays.copyOf(reservoir, n);
+    Arrays.sort(sorted);
+    int idx = (int) Math.ceil(p / 100 * n) - 1;
+    idx = Math.max(0, Math.min(n - 1, idx));
+    return sorted[idx] / 1e3;
+  }
+
+  /**
+   * One line JSON object, easy to collect and diff between runs.
+   */
+  public synchronized String toJson(){
+    return String.format(Locale.ROOT, "{\"stage\":\"%s\",\"count\":%d,\"totalMs\":%.3f,\"opsPerSec\":%.1f,"
+        + "\"meanUs\":%.2f,\"p50Us\":%.2f,\"p95Us\":%.2f,\"p99Us\":%.2f,\"maxUs\":%.2f}",
+        name, count, totalNanos / 1e6, getThroughput(), getMeanMicros(),
+        getPercentileMicros(50), getPercentileMicros(95), getPercentileMicros(99), getMaxMicros());
+  }
+
+  @Override
+  public String toString(){
+    return toJson();
+  }
+}
@@ -24,6 +24,7 @@ package org.apache.hadoop.hbase.trigger;
  * 2) CONVERGE: current trigger need to check the convergence of whole program. 
  * 3) ACCUMULATOR: current trigger is an accumulate trigger
  * 4) ORDINARY: default type
+ * 5) WINDOWED: tumbling or sliding window aggregation per row, see WindowedHTriggerAction
  */
 
 public enum TRIGGERTYPE {
@@ -32,6 +33,7 @@ public enum TRIGGERTYPE {
   INITIAL ("INITIAL"),  //automatically run first round when submitted
   CONVERGE ("CONVERGE"), //need old value
   ACCUMULATOR ("ACCUMULATOR"),  //accmulate trigger
+  WINDOWED ("WINDOWED"),  //windowed accumulate trigger
   
   INITIALWITHCONVERGE ("INITIALWITHCONVERGE"),
   ACCUMULATORWITHCONVERGE ("ACCUMULATORWITHCONVERGE");
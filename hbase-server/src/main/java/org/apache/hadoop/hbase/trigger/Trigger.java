@@ -91,6 +91,31 @@ public class Trigger {
   }
   
   
+  public void setRowEvents(boolean rowEvents){
+    conf.setRowEvents(rowEvents);
+  }
+  public boolean isRowEvents(){
+    return conf.isRowEvents();
+  }
+  
+  /**
+   * Hold the latest event of a row for up to windowMs, or until maxUpdates events of that
+   * row arrived (0 for no limit), before running the action. See {@link TriggerDebouncer}.
+   */
+  public void setDebounce(long windowMs, int maxUpdates){
+    conf.setLong(TriggerDebouncer.WINDOW_MS_KEY, windowMs);
+    conf.setInt(TriggerDebouncer.MAX_UPDATES_KEY, maxUpdates);
+  }
+  
+  /**
+   * Window of a WINDOWED trigger: sizeMs long, a new one every slideMs (slideMs == sizeMs
+   * for tumbling windows). See {@link WindowedHTriggerAction}.
+   */
+  public void setWindow(long sizeMs, long slideMs){
+    conf.setLong(WindowedHTriggerAction.SIZE_MS_KEY, sizeMs);
+    conf.setLong(WindowedHTriggerAction.SLIDE_MS_KEY, slideMs);
+  }
+  
   public void setTriggerName(String tn){
     conf.set("trigger.name", tn);
   }
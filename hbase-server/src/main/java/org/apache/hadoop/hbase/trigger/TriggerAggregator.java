@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * @author daidong
+ * Combine function of a cluster wide aggregate, see {@link TriggerAggregators}. It is called
+ * on the region servers to combine local contributions and on the master to reduce the
+ * partial results of all region servers, so it must be associative and commutative.
+ *
+ * The master loads it by class name, so custom aggregators have to be on the master
+ * classpath too; the ones below always are.
+ */
+public interface TriggerAggregator {
+
+  byte[] combine(byte[] left, byte[] right);
+
+  public static class LongSum implements TriggerAggregator {
+    public byte[] combine(byte[] left, byte[] right) {
+      return Bytes.toBytes(Bytes.toLong(left) + Bytes.toLong(right));
+    }
+  }
+
+  public static class DoubleSum implements TriggerAggregator {
+    public byte[] combine(byte[] left, byte[] right) {
+      return Bytes.toBytes(Bytes.toDouble(left) + Bytes.toDouble(right));
+    }
+  }
+
+  public static class DoubleMax implements TriggerAggregator {
+    public byte[] combine(byte[] left, byte[] right) {
+      return Bytes.toDouble(left) >= Bytes.toDouble(right) ? left : right;
+    }
+  }
+
+  public static class DoubleMin implements TriggerAggregator {
+    public byte[] combine(byte[] left, byte[] right) {
+      return Bytes.toDouble(left) <= Bytes.toDouble(right) ? left : right;
+    }
+  }
+
+  /**
+   * Element-wise sum of double vectors, e.g. the coordinate sums and the point count of a
+   * KMeans centroid. The shorter vector is padded with zeros.
+   */
+  public static class DoubleArraySum implements TriggerAggregator {
+    public byte[] combine(byte[] left, byte[] right) {
+      byte[] longer = left.length >= right.length ? left : right;
+      byte[] shorter = longer == left ? right : left;
+      byte[] sum = new byte[longer.length];
+      for (int off = 0; off + Bytes.SIZEOF_DOUBLE <= longer.length; off += Bytes.SIZEOF_DOUBLE){
+        double v = Bytes.toDouble(longer, off);
+        if (off + Bytes.SIZEOF_DOUBLE <= shorter.length)
+          v += Bytes.toDouble(shorter, off);
+        Bytes.putDouble(sum, off, v);
+      }
+      return sum;
+    }
+  }
+}
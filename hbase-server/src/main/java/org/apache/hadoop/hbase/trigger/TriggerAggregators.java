@@ -0,0 +1,405 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.zookeeper.ZKUtil;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * @author daidong
+ * Cluster wide aggregates of iterative trigger jobs, like the centroids of KMeans or a
+ * global residual, without a hot row every region server reads and writes each round.
+ *
+ * Actions contribute values to an aggregate 'name' of a round. Every region server combines
+ * its contributions locally and publishes one partial result per round in ZooKeeper:
+ *   /hbase/trigger-agg/name                   aggregator class name
+ *   /hbase/trigger-agg/name/round             global result, written by the master
+ *   /hbase/trigger-agg/name/round/server      partial result of one region server
+ * The master reduces the partial results on every period of its {@link Reducer} chore, and
+ * every region server reads the results back into a local cache on every period of its
+ * {@link Syncer} chore, so reads never leave the region server.
+ *
+ * The master writes the global result of a round once, when the round is sealed, and
+ * {@link #get} only ever returns sealed results. A round is sealed when
+ *   - the contributions counted by the partial results reach the expected count given
+ *     by the contributors, if they gave one, or else
+ *   - every live region server that published a partial result of the aggregate has
+ *     published one of this round or a later one.
+ * Jobs that know how many contributions a round takes, like one per vector, should give
+ * the count: without it a region server that has not contributed to the aggregate yet
+ * does not hold a round back. Jobs read the result of the previous round.
+ *
+ * Without ZooKeeper (e.g. TriggerWALReplay) the local partial result is the global one,
+ * visible once it reaches the expected count, if any.
+ */
+public class TriggerAggregators {
+
+  private static final Log LOG = LogFactory.getLog(TriggerAggregators.class);
+
+  public static final String PERIOD_MS_KEY = "trigger.aggregator.period.ms";
+  public static final String RETAINED_ROUNDS_KEY = "trigger.aggregator.retained.rounds";
+
+  private static final HashMap<String, Aggregate> aggregates = new HashMap<String, Aggregate>();
+  private static ZooKeeperWatcher zkw = null;
+  private static String serverName = null;
+  private static int retainedRounds = 3;
+
+  /** Contribution count and expected count ahead of the value of a partial result in ZK. */
+  static final int PARTIAL_HEADER = 2 * Bytes.SIZEOF_LONG;
+
+  /** This region server's part of one round of an aggregate. */
+  private static class Partial {
+    byte[] value;
+    // Contributions combined into value
+    long count;
+    // Contributions the round takes cluster wide, 0 if unknown
+    long expected;
+  }
+
+  private static class Aggregate {
+    final String name;
+    final TriggerAggregator agg;
+    final TreeMap<Long, Partial> partials = new TreeMap<Long, Partial>();
+    final HashSet<Long> dirty = new HashSet<Long>();
+    final TreeMap<Long, byte[]> results = new TreeMap<Long, byte[]>();
+
+    Aggregate(String name, TriggerAggregator agg){
+      this.name = name;
+      this.agg = agg;
+    }
+  }
+
+  /**
+   * Add value into this region server's part of aggregate 'name' of the given round.
+   */
+  public static void contribute(String name, Class<? extends TriggerAggregator> agg, long round,
+      byte[] value){
+    contribute(name, agg, round, value, 0L);
+  }
+
+  /**
+   * Like {@link #contribute(String, Class, long, byte[])}, where the round takes 'expected'
+   * contributions cluster wide, or an unknown number if 0.
+   */
+  public static void contribute(String name, Class<? extends TriggerAggregator> agg, long round,
+      byte[] value, long expected){
+    synchronized (aggregates) {
+      Aggregate a = aggregates.get(name);
+      if (a == null){
+        a = new Aggregate(name, newAggregator(agg.getName()));
+        aggregates.put(name, a);
+      }
+      Partial p = a.partials.get(round);
+      if (p == null){
+        p = new Partial();
+        p.value = value;
+        a.partials.put(round, p);
+      } else {
+        p.value = a.agg.combine(p.value, value);
+      }
+      p.count++;
+      p.expected = Math.max(p.expected, expected);
+      a.dirty.add(round);
+      if (zkw == null && (p.expected == 0 || p.count >= p.expected)){
+        a.results.put(round, p.value);
+        aggregates.notifyAll();
+      }
+      expire(a.partials);
+    }
+  }
+
+  /**
+   * @return the global result of aggregate 'name' of the given round, or null if the round
+   * is not sealed or its result has not reached this region server yet.
+   */
+  public static byte[] get(String name, long round){
+    synchronized (aggregates) {
+      Aggregate a = aggregates.get(name);
+      return a == null ? null : a.results.get(round);
+    }
+  }
+
+  /**
+   * Like {@link #get(String, long)}, but wait up to timeoutMs for the round to be sealed.
+   */
+  public static byte[] get(String name, long round, long timeoutMs) throws InterruptedException{
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    synchronized (aggregates) {
+      byte[] r = get(name, round);
+      long left = timeoutMs;
+      while (r == null && left > 0){
+        aggregates.wait(left);
+        r = get(name, round);
+        left = deadline - System.currentTimeMillis();
+      }
+      return r;
+    }
+  }
+
+  /**
+   * Connect the aggregates of this region server to ZooKeeper.
+   * @return the chore publishing partial results and fetching global ones, not started yet.
+   */
+  public static Chore start(ZooKeeperWatcher watcher, ServerName sn, Configuration conf,
+      Stoppable stopper){
+    synchronized (aggregates) {
+      zkw = watcher;
+      serverName = sn.toString();
+      retainedRounds = conf.getInt(RETAINED_ROUNDS_KEY, 3);
+    }
+    return new Syncer(conf.getInt(PERIOD_MS_KEY, 1000), stopper);
+  }
+
+  static String getBaseZNode(ZooKeeperWatcher watcher){
+    return ZKUtil.joinZNode(watcher.baseZNode, "trigger-agg");
+  }
+
+  /** Round nodes are zero padded, so they list in round order. */
+  static String roundNode(long round){
+    return String.format(Locale.ROOT, "%019d", round);
+  }
+
+  static TriggerAggregator newAggregator(String className){
+    try {
+      return (TriggerAggregator) Class.forName(className).newInstance();
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Can not load aggregator " + className, e);
+    }
+  }
+
+  static byte[] toPartial(long count, long expected, byte[] value){
+    return Bytes.add(Bytes.toBytes(count), Bytes.toBytes(expected), value);
+  }
+
+  private static void expire(TreeMap<Long, ?> rounds){
+    while (rounds.size() > retainedRounds){
+      rounds.remove(rounds.firstKey());
+    }
+  }
+
+  /**
+   * Publish the dirty partial results and fetch the global results of all known aggregates.
+   * A round stays dirty until its partial result is written, so one that failed to be written
+   * is published again by the next sync.
+   */
+  static void sync() throws KeeperException{
+    List<Aggregate> all;
+    Map<Aggregate, Map<Long, Long>> counts = new HashMap<Aggregate, Map<Long, Long>>();
+    Map<Aggregate, Map<Long, byte[]>> publish = new HashMap<Aggregate, Map<Long, byte[]>>();
+    synchronized (aggregates) {
+      if (zkw == null)
+        return;
+      all = new ArrayList<Aggregate>(aggregates.values());
+      for (Aggregate a : all){
+        Map<Long, Long> c = new HashMap<Long, Long>();
+        Map<Long, byte[]> rounds = new TreeMap<Long, byte[]>();
+        for (Iterator<Long> it = a.dirty.iterator(); it.hasNext();){
+          Long round = it.next();
+          Partial p = a.partials.get(round);
+          if (p != null){
+            c.put(round, p.count);
+            rounds.put(round, toPartial(p.count, p.expected, p.value));
+          } else {
+            it.remove(); //expired, nothing left to publish.
+          }
+        }
+        counts.put(a, c);
+        publish.put(a, rounds);
+      }
+    }
+    String base = getBaseZNode(zkw);
+    for (Aggregate a : all){
+      String node = ZKUtil.joinZNode(base, a.name);
+      if (ZKUtil.checkExists(zkw, node) == -1){
+        ZKUtil.createSetData(zkw, node, Bytes.toBytes(a.agg.getClass().getName()));
+      }
+      for (Map.Entry<Long, byte[]> e : publish.get(a).entrySet()){
+        String part = ZKUtil.joinZNode(ZKUtil.joinZNode(node, roundNode(e.getKey())), serverName);
+        ZKUtil.createSetData(zkw, part, e.getValue());
+        synchronized (aggregates) {
+          //unless it was contributed to since, in which case the next sync writes it again.
+          Partial p = a.partials.get(e.getKey());
+          if (p != null && p.count == counts.get(a).get(e.getKey()))
+            a.dirty.remove(e.getKey());
+        }
+      }
+      List<String> rounds = ZKUtil.listChildrenNoWatch(zkw, node);
+      if (rounds == null)
+        continue;
+      for (String r : rounds){
+        byte[] result = ZKUtil.getDataNoWatch(zkw, ZKUtil.joinZNode(node, r), null);
+        if (result == null || result.length == 0)
+          continue;
+        synchronized (aggregates) {
+          a.results.put(Long.parseLong(r), result);
+          expire(a.results);
+          aggregates.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Region server side chore, see {@link #start}.
+   */
+  static class Syncer extends Chore {
+    Syncer(int period, Stoppable stopper){
+      super("TriggerAggregatorSyncer", period, stopper);
+    }
+
+    @Override
+    protected void chore() {
+      try {
+        sync();
+      } catch (KeeperException e) {
+        LOG.warn("Failed to sync trigger aggregates", e);
+      }
+    }
+  }
+
+  /**
+   * Master side chore: seal every round whose partial results are all in by writing its
+   * global result, see {@link TriggerAggregators}, and delete the sealed rounds but the last
+   * 'trigger.aggregator.retained.rounds'. Rounds that are not sealed are never deleted.
+   */
+  public static class Reducer extends Chore {
+    private final ZooKeeperWatcher watcher;
+    private final int retained;
+    private final HashMap<String, TriggerAggregator> loaded = new HashMap<String, TriggerAggregator>();
+
+    public Reducer(ZooKeeperWatcher watcher, Configuration conf, Stoppable stopper){
+      super("TriggerAggregatorReducer", conf.getInt(PERIOD_MS_KEY, 1000), stopper);
+      this.watcher = watcher;
+      this.retained = conf.getInt(RETAINED_ROUNDS_KEY, 3);
+    }
+
+    @Override
+    protected void chore() {
+      try {
+        reduce();
+      } catch (KeeperException e) {
+        LOG.warn("Failed to reduce trigger aggregates", e);
+      }
+    }
+
+    void reduce() throws KeeperException{
+      String base = getBaseZNode(watcher);
+      List<String> names = ZKUtil.listChildrenNoWatch(watcher, base);
+      if (names == null)
+        return;
+      List<String> servers = ZKUtil.listChildrenNoWatch(watcher, watcher.rsZNode);
+      Set<String> live = servers == null ? Collections.<String>emptySet() :
+        new HashSet<String>(servers);
+      for (String name : names){
+        String node = ZKUtil.joinZNode(base, name);
+        byte[] className = ZKUtil.getDataNoWatch(watcher, node, null);
+        if (className == null || className.length == 0)
+          continue;
+        TriggerAggregator agg = loaded.get(Bytes.toString(className));
+        if (agg == null){
+          try {
+            agg = newAggregator(Bytes.toString(className));
+          } catch (IllegalArgumentException e) {
+            LOG.warn("Skip aggregate " + name, e);
+            continue;
+          }
+          loaded.put(Bytes.toString(className), agg);
+        }
+        List<String> rounds = ZKUtil.listChildrenNoWatch(watcher, node);
+        if (rounds == null)
+          continue;
+        Collections.sort(rounds);
+        // The servers that published a partial result, and the last round they published
+        Map<String, Long> latest = new HashMap<String, Long>();
+        List<List<String>> parts = new ArrayList<List<String>>(rounds.size());
+        for (String r : rounds){
+          List<String> p = ZKUtil.listChildrenNoWatch(watcher, ZKUtil.joinZNode(node, r));
+          if (p == null)
+            p = Collections.emptyList();
+          parts.add(p);
+          for (String server : p){
+            latest.put(server, Long.parseLong(r));
+          }
+        }
+        for (int i = 0; i < rounds.size(); i++){
+          String roundNode = ZKUtil.joinZNode(node, rounds.get(i));
+          byte[] result = ZKUtil.getDataNoWatch(watcher, roundNode, null);
+          if (result != null && result.length > 0){
+            // Sealed for at least one period, so region servers had the time to fetch it
+            if (i < rounds.size() - retained)
+              ZKUtil.deleteNodeRecursively(watcher, roundNode);
+            continue;
+          }
+          seal(agg, roundNode, Long.parseLong(rounds.get(i)), parts.get(i), latest, live);
+        }
+      }
+    }
+
+    /**
+     * Write the global result of the round if all of its partial results are in.
+     */
+    private void seal(TriggerAggregator agg, String roundNode, long round, List<String> parts,
+        Map<String, Long> latest, Set<String> live) throws KeeperException{
+      byte[] result = null;
+      long count = 0;
+      long expected = 0;
+      for (String part : parts){
+        byte[] v = ZKUtil.getDataNoWatch(watcher, ZKUtil.joinZNode(roundNode, part), null);
+        if (v == null || v.length <= PARTIAL_HEADER)
+          continue;
+        count += Bytes.toLong(v, 0);
+        expected = Math.max(expected, Bytes.toLong(v, Bytes.SIZEOF_LONG));
+        byte[] value = Arrays.copyOfRange(v, PARTIAL_HEADER, v.length);
+        result = result == null ? value : agg.combine(result, value);
+      }
+      if (result == null)
+        return;
+      if (expected > 0){
+        if (count < expected)
+          return;
+      } else {
+        for (Map.Entry<String, Long> e : latest.entrySet()){
+          if (e.getValue() < round && live.contains(e.getKey()))
+            return;
+        }
+      }
+      ZKUtil.setData(watcher, roundNode, result);
+      if (LOG.isDebugEnabled())
+        LOG.debug("Sealed " + roundNode + " with " + count + " contributions");
+    }
+  }
+}
@@ -98,10 +98,9 @@ public class TriggerClient {
       this.connection.submitTrigger(triggerId);
       
       /**
-       * really submit the trigger to all the relevant region servers
+       * no push to the region servers: the master persists the trigger and every region
+       * server hosting the table activates it through its TriggerRegistry.
        */
-      System.out.println("Submit Trigger To RS!");
-      this.connection.submitTriggerToRS(conf.getTriggerOnTable(), triggerId);
       
     } finally {
       /*
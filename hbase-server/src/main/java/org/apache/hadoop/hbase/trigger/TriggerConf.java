@@ -116,6 +116,17 @@ public class TriggerConf extends Configuration{
   public String getActionClassName() {
     return get("trigger.action.class.name");
   }
+
+  /**
+   * In row event mode, all the cells of one row changed by a single WALEdit fire only
+   * one event, see {@link HTriggerEvent#getCells()}.
+   */
+  public boolean isRowEvents(){
+    return getBoolean("trigger.event.row", false);
+  }
+  public void setRowEvents(boolean rowEvents){
+    setBoolean("trigger.event.row", rowEvents);
+  }
   
 
 }
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * @author daidong
+ * Asynchronous client facade for trigger actions. Action functions run on their own
+ * ActionThread, and blocking HTable.get()/put() calls serialize all remote I/O of an action.
+ * With TriggerContext an action issues getAsync()/putAsync(), gets a ListenableFuture back
+ * immediately and can either register a callback or wait for a group of futures at once.
+ *
+ * Requests are queued per table and drained by a region server wide I/O pool. Every drain
+ * takes up to 'trigger.async.batch.size' pending operations and sends them with one
+ * HTable.batch() call, which groups them into one multi request per region server.
+ * At most 'trigger.async.max.inflight' batches of one table are in flight at the same time.
+ */
+public class TriggerContext {
+
+  private static final Log LOG = LogFactory.getLog(TriggerContext.class);
+
+  public static final String IO_THREADS_KEY = "trigger.async.io.threads";
+  public static final String BATCH_SIZE_KEY = "trigger.async.batch.size";
+  public static final String MAX_INFLIGHT_KEY = "trigger.async.max.inflight";
+
+  private static ExecutorService ioPool = null;
+
+  private final Configuration conf;
+  private final int batchSize;
+  private final int maxInflight;
+  private final ConcurrentHashMap<String, TableBatcher> batchers =
+      new ConcurrentHashMap<String, TableBatcher>();
+
+  public TriggerContext(Configuration conf){
+    this.conf = conf == null ? HBaseConfiguration.create() : HBaseConfiguration.create(conf);
+    this.batchSize = this.conf.getInt(BATCH_SIZE_KEY, 256);
+    this.maxInflight = this.conf.getInt(MAX_INFLIGHT_KEY, 4);
+    getIOPool(this.conf);
+  }
+
+  private static synchronized ExecutorService getIOPool(Configuration conf){
+    if (ioPool == null){
+      ThreadFactoryBuilder builder = new ThreadFactoryBuilder();
+      builder.setDaemon(true);
+      builder.setNameFormat("trigger-async-io-%1$d");
+      ioPool = Executors.newFixedThreadPool(conf.getInt(IO_THREADS_KEY, 8), builder.build());
+    }
+    return ioPool;
+  }
+
+  public ListenableFuture<Result> getAsync(byte[] tableName, Get get){
+    SettableFuture<Result> f = SettableFuture.create();
+    getBatcher(tableName).submit(get, f);
+    return f;
+  }
+
+  public ListenableFuture<Result> getAsync(byte[] tableName, Get get, FutureCallback<Result> callback){
+    ListenableFuture<Result> f = getAsync(tableName, get);
+    Futures.addCallback(f, callback);
+    return f;
+  }
+
+  public ListenableFuture<Result> putAsync(byte[] tableName, Put put){
+    SettableFuture<Result> f = SettableFuture.create();
+    getBatcher(tableName).submit(put, f);
+    return f;
+  }
+
+  public ListenableFuture<Result> putAsync(byte[] tableName, Put put, FutureCallback<Result> callback){
+    ListenableFuture<Result> f = putAsync(tableName, put);
+    Futures.addCallback(f, callback);
+    return f;
+  }
+
+  /**
+   * Wait until all the given futures finish and return their results in order.
+   */
+  public static List<Result> waitAll(List<ListenableFuture<Result>> futures) throws IOException{
+    try {
+      return Futures.allAsList(futures).get();
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Add value into the cluster wide aggregate 'name' of the given round, usually
+   * getCurrentRound() of the action. See {@link TriggerAggregators}.
+   */
+  public void aggregate(String name, Class<? extends TriggerAggregator> agg, long round, byte[] value){
+    TriggerAggregators.contribute(name, agg, round, value);
+  }
+
+  /**
+   * Like {@link #aggregate(String, Class, long, byte[])} for a round that takes 'expected'
+   * contributions cluster wide, so its result is sealed as soon as they are all in.
+   */
+  public void aggregate(String name, Class<? extends TriggerAggregator> agg, long round, byte[] value,
+      long expected){
+    TriggerAggregators.contribute(name, agg, round, value, expected);
+  }
+
+  /**
+   * @return the cached global result of aggregate 'name' of the given round, or null if the
+   * round is not sealed or its result has not reached this region server yet.
+   */
+  public byte[] getAggregate(String name, long round){
+    return TriggerAggregators.get(name, round);
+  }
+
+  public byte[] getAggregate(String name, long round, long timeoutMs) throws IOException{
+    try {
+      return TriggerAggregators.get(name, round, timeoutMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  private TableBatcher getBatcher(byte[] tableName){
+    String name = Bytes.toString(tableName);
+    TableBatcher b = batchers.get(name);
+    if (b == null){
+      b = new TableBatcher(tableName);
+      TableBatcher exist = batchers.putIfAbsent(name, b);
+      if (exist != null)
+        b = exist;
+    }
+    return b;
+  }
+
+  private static class Pending {
+    final Row op;
+    final SettableFuture<Result> future;
+    Pending(Row op, SettableFuture<Result> future){
+      this.op = op;
+      this.future = future;
+    }
+  }
+
+  /**
+   * Queue of pending operations on one table. HTable is not thread safe, so every running
+   * drain borrows its own table instance from 'tables'.
+   */
+  private class TableBatcher implements Runnable {
+    private final byte[] tableName;
+    private final ConcurrentLinkedQueue<Pending> pendings = new ConcurrentLinkedQueue<Pending>();
+    private final ConcurrentLinkedQueue<HTableInterface> tables = new ConcurrentLinkedQueue<HTableInterface>();
+    private final AtomicInteger inflight = new AtomicInteger(0);
+
+    TableBatcher(byte[] tableName){
+      this.tableName = tableName;
+    }
+
+    void submit(Row op, SettableFuture<Result> f){
+      pendings.add(new Pending(op, f));
+      schedule();
+    }
+
+    private void schedule(){
+      while (!pendings.isEmpty()){
+        int cur = inflight.get();
+        if (cur >= maxInflight)
+          return;
+        if (inflight.compareAndSet(cur, cur + 1)){
+          ioPool.execute(this);
+          return;
+        }
+      }
+    }
+
+    @Override
+    public void run(){
+      try {
+        List<Pending> batch = new ArrayList<Pending>();
+        Pending p = pendings.poll();
+        while (p != null){
+          batch.add(p);
+          if (batch.size() >= batchSize){
+            process(batch);
+            batch.clear();
+          }
+          p = pendings.poll();
+        }
+        if (!batch.isEmpty())
+          process(batch);
+      } finally {
+        inflight.decrementAndGet();
+        //something may have been queued after our last poll.
+        schedule();
+      }
+    }
+
+    private void process(List<Pending> batch){
+      List<Row> actions = new ArrayList<Row>(batch.size());
+      for (Pending p : batch){
+        actions.add(p.op);
+      }
+      Object[] results = new Object[actions.size()];
+      Throwable error = null;
+      HTableInterface table = tables.poll();
+      try {
+        if (table == null)
+          table = TriggerTables.getTable(conf, tableName);
+        table.batch(actions, results);
+      } catch (Throwable t) {
+        LOG.warn("Async batch on " + Bytes.toString(tableName) + " failed", t);
+        error = t;
+      } finally {
+        if (table != null)
+          tables.add(table);
+      }
+      for (int i = 0; i < results.length; i++){
+        SettableFuture<Result> f = batch.get(i).future;
+        Object r = results[i];
+        if (r instanceof Throwable){
+          f.setException((Throwable) r);
+        } else if (r == null && error != null){
+          f.setException(error);
+        } else {
+          f.set(r instanceof Result ? (Result) r : null);
+        }
+      }
+    }
+  }
+}
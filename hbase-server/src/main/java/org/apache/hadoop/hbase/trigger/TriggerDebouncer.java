@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * @author daidong
+ * Debounces the events of one trigger per cell, or per row for a trigger with row events.
+ * The first event of a cell opens a window of 'trigger.debounce.window.ms'; later events of
+ * the same cell only replace the held one, events of other columns of the row are held on
+ * their own. The latest event is released to the action when the window closes, or as soon
+ * as 'trigger.debounce.max.updates' events of the cell have arrived.
+ *
+ * Windows are kept in a hashed timer wheel: one slot per tick, every slot holds the cells
+ * whose window closes in that tick. A single region server wide thread advances the wheel
+ * of every debouncer, so there is no timer per row. Releases are late by at most one tick.
+ *
+ * The ActionThread owning a debouncer closes it when it stops, which takes the debouncer off
+ * the timer thread and drops the events it still holds.
+ */
+public class TriggerDebouncer {
+
+  private static final Log LOG = LogFactory.getLog(TriggerDebouncer.class);
+
+  public static final String WINDOW_MS_KEY = "trigger.debounce.window.ms";
+  public static final String MAX_UPDATES_KEY = "trigger.debounce.max.updates";
+  public static final String TICK_MS_KEY = "trigger.debounce.tick.ms";
+
+  private static ScheduledExecutorService ticker = null;
+
+  /**
+   * Where released events go, usually the backlog of an ActionThread.
+   */
+  public interface Sink {
+    void release(HTriggerEvent hte);
+  }
+
+  private final Sink sink;
+  private final long tickMs;
+  private final long windowTicks;
+  private final int maxUpdates;
+  private final List<Pending>[] wheel;
+  private final HashMap<EventKey, Pending> pending = new HashMap<EventKey, Pending>();
+  private long currentTick;
+  private ScheduledFuture<?> tick = null;
+  private boolean closed = false;
+
+  /**
+   * @return a debouncer for the given trigger configuration, or null if debouncing is off.
+   */
+  public static TriggerDebouncer create(Configuration conf, Sink sink){
+    long window = conf.getLong(WINDOW_MS_KEY, 0L);
+    if (window <= 0)
+      return null;
+    TriggerDebouncer d = new TriggerDebouncer(window, conf.getInt(MAX_UPDATES_KEY, 0),
+        conf.getLong(TICK_MS_KEY, 10L), sink);
+    d.start();
+    return d;
+  }
+
+  @SuppressWarnings("unchecked")
+  public TriggerDebouncer(long windowMs, int maxUpdates, long tickMs, Sink sink){
+    this.sink = sink;
+    this.tickMs = Math.max(1L, tickMs);
+    this.windowTicks = Math.max(1L, (windowMs + this.tickMs - 1) / this.tickMs);
+    this.maxUpdates = maxUpdates;
+    //one more slot than the window, so a slot only ever holds cells due in the same tick.
+    this.wheel = new List[(int) windowTicks + 1];
+    for (int i = 0; i < wheel.length; i++){
+      wheel[i] = new ArrayList<Pending>();
+    }
+    this.currentTick = System.currentTimeMillis() / this.tickMs;
+  }
+
+  private synchronized void start(){
+    tick = getTicker().scheduleAtFixedRate(new Runnable(){
+      @Override
+      public void run(){
+        try {
+          advance(System.currentTimeMillis());
+        } catch (Throwable t) {
+          LOG.error("Failed to advance debounce wheel", t);
+        }
+      }
+    }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * The region server wide timer thread of the trigger engine, also used by windowed
+   * actions to close their windows. Tasks on it must not block.
+   */
+  static synchronized ScheduledExecutorService getTicker(){
+    if (ticker == null){
+      ThreadFactoryBuilder builder = new ThreadFactoryBuilder();
+      builder.setDaemon(true);
+      builder.setNameFormat("trigger-timer");
+      ticker = Executors.newSingleThreadScheduledExecutor(builder.build());
+    }
+    return ticker;
+  }
+
+  public void offer(HTriggerEvent hte){
+    HTriggerEvent released = null;
+    synchronized (this) {
+      if (closed){
+        TriggerStats.dropped();
+        return;
+      }
+      EventKey key = new EventKey(hte);
+      Pending p = pending.get(key);
+      if (p == null){
+        p = new Pending(key, currentTick + windowTicks);
+        pending.put(key, p);
+        wheel[(int) (p.deadline % wheel.length)].add(p);
+      } else {
+        //the held event is superseded, it will never reach the action.
+        TriggerStats.dropped();
+      }
+      p.event = hte;
+      p.updates++;
+      if (maxUpdates > 0 && p.updates >= maxUpdates){
+        pending.remove(key);
+        p.done = true;
+        released = p.event;
+      }
+    }
+    if (released != null)
+      sink.release(released);
+  }
+
+  /**
+   * Release the cells whose window closed before 'now'.
+   */
+  void advance(long now){
+    List<HTriggerEvent> released = new ArrayList<HTriggerEvent>();
+    synchronized (this) {
+      long target = now / tickMs;
+      while (currentTick < target){
+        currentTick++;
+        List<Pending> slot = wheel[(int) (currentTick % wheel.length)];
+        if (slot.isEmpty())
+          continue;
+        for (Pending p : slot){
+          if (!p.done){
+            pending.remove(p.key);
+            released.add(p.event);
+          }
+        }
+        slot.clear();
+      }
+    }
+    for (HTriggerEvent hte : released){
+      sink.release(hte);
+    }
+  }
+
+  public synchronized int size(){
+    return pending.size();
+  }
+
+  /**
+   * Cancel the timer task and drop the held events, their action will not run any more.
+   * Events offered afterwards are dropped too.
+   */
+  public synchronized void close(){
+    if (closed)
+      return;
+    closed = true;
+    if (tick != null){
+      tick.cancel(false);
+      tick = null;
+    }
+    for (int i = 0; i < pending.size(); i++){
+      TriggerStats.dropped();
+    }
+    pending.clear();
+    for (List<Pending> slot : wheel){
+      slot.clear();
+    }
+  }
+
+  synchronized boolean isScheduled(){
+    return tick != null && !tick.isDone();
+  }
+
+  private static class Pending {
+    final EventKey key;
+    final long deadline;
+    HTriggerEvent event;
+    int updates = 0;
+    boolean done = false;
+
+    Pending(EventKey key, long deadline){
+      this.key = key;
+      this.deadline = deadline;
+    }
+  }
+
+  /**
+   * Row, family and qualifier of a cell event. Not HTriggerKey, whose equals() takes a
+   * wildcard column to match any other. Row events are keyed by their row only.
+   */
+  private static class EventKey {
+    private final byte[] row;
+    private final byte[] family;
+    private final byte[] qualifier;
+    private final int hash;
+
+    EventKey(HTriggerEvent hte){
+      HTriggerKey htk = hte.getEventTriggerKey();
+      this.row = hte.getRowKey();
+      if (hte.isRowEvent() || htk == null){
+        this.family = null;
+        this.qualifier = null;
+      } else {
+        this.family = htk.columnFamily;
+        this.qualifier = htk.column;
+      }
+      int h = Bytes.hashCode(row);
+      h = 31 * h + (family == null ? 0 : Bytes.hashCode(family));
+      h = 31 * h + (qualifier == null ? 0 : Bytes.hashCode(qualifier));
+      this.hash = h;
+    }
+
+    @Override
+    public int hashCode(){
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o){
+      if (!(o instanceof EventKey))
+        return false;
+      EventKey other = (EventKey) o;
+      return Bytes.equals(row, other.row) && Bytes.equals(family, other.family)
+          && Bytes.equals(qualifier, other.qualifier);
+    }
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.zookeeper.ZKUtil;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperListener;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * @author daidong
+ * Persistent trigger registry. The master records every submitted trigger in ZooKeeper:
+ *   /hbase/triggers                 next trigger id
+ *   /hbase/triggers/table/id        one node per trigger watching 'table'
+ * while its trigger.xml and jars stay in the HDFS staging dir of TriggerClient.
+ *
+ * A region server only looks at the tables it hosts: when the first region of a table opens
+ * it lists and watches /hbase/triggers/table and activates those triggers, when the last one
+ * closes it deactivates them again. Restarting or new region servers therefore pick up their
+ * triggers by themselves, and startup cost depends on the hosted tables only. Jars are
+ * cached under /tmp/trigger/triggerJar/id and only fetched again if their size changed.
+ *
+ * Triggers submitted while a region server hosts their table are activated through the
+ * watch; only these run their INITIAL round, reopened regions are not recomputed.
+ * Activation runs on its own thread so it never delays a region open.
+ */
+public class TriggerRegistry extends ZooKeeperListener {
+
+  private static final Log LOG = LogFactory.getLog(TriggerRegistry.class);
+
+  private static final String LOCAL_JAR_DIR = "/tmp/trigger/triggerJar/";
+  private static final String LOCAL_CONF_DIR = "/tmp/trigger/staging/";
+
+  private final HRegionServer server;
+  private final Configuration conf;
+  private final String baseZNode;
+  /** number of online regions per table */
+  private final HashMap<String, Integer> hosted = new HashMap<String, Integer>();
+  /** active trigger ids per table, only touched by the activator thread */
+  private final HashMap<String, Set<Integer>> active = new HashMap<String, Set<Integer>>();
+  private final ExecutorService activator;
+
+  public TriggerRegistry(ZooKeeperWatcher watcher, HRegionServer server, Configuration conf){
+    super(watcher);
+    this.server = server;
+    this.conf = conf;
+    this.baseZNode = getBaseZNode(watcher);
+    ThreadFactoryBuilder builder = new ThreadFactoryBuilder();
+    builder.setDaemon(true);
+    builder.setNameFormat("trigger-registry");
+    this.activator = Executors.newSingleThreadExecutor(builder.build());
+    watcher.registerListener(this);
+  }
+
+  public static String getBaseZNode(ZooKeeperWatcher watcher){
+    return ZKUtil.joinZNode(watcher.baseZNode, "triggers");
+  }
+
+  public void regionOpened(HRegionInfo hri){
+    if (hri.isMetaTable())
+      return;
+    final String table = hri.getTableNameAsString();
+    synchronized (hosted) {
+      Integer n = hosted.get(table);
+      hosted.put(table, n == null ? 1 : n + 1);
+      if (n != null)
+        return;
+    }
+    activator.execute(new Runnable(){
+      public void run(){
+        refresh(table, false);
+      }
+    });
+  }
+
+  public void regionClosed(HRegionInfo hri){
+    if (hri.isMetaTable())
+      return;
+    final String table = hri.getTableNameAsString();
+    synchronized (hosted) {
+      Integer n = hosted.get(table);
+      if (n == null)
+        return;
+      if (n > 1){
+        hosted.put(table, n - 1);
+        return;
+      }
+      hosted.remove(table);
+    }
+    activator.execute(new Runnable(){
+      public void run(){
+        refresh(table, false);
+      }
+    });
+  }
+
+  private boolean isHosted(String table){
+    synchronized (hosted) {
+      return hosted.containsKey(table);
+    }
+  }
+
+  @Override
+  public void nodeCreated(String path){
+    nodeChildrenChanged(path);
+  }
+
+  @Override
+  public void nodeChildrenChanged(String path){
+    if (!baseZNode.equals(ZKUtil.getParent(path)))
+      return;
+    final String table = ZKUtil.getNodeName(path);
+    activator.execute(new Runnable(){
+      public void run(){
+        refresh(table, true);
+      }
+    });
+  }
+
+  /**
+   * Bring the active triggers of table in line with the registry, runs on the activator.
+   */
+  private void refresh(String table, boolean submitted){
+    Set<Integer> current = active.get(table);
+    if (current == null)
+      current = new HashSet<Integer>();
+    Set<Integer> wanted = new HashSet<Integer>();
+    if (isHosted(table)){
+      try {
+        String node = ZKUtil.joinZNode(baseZNode, table);
+        //watch the table node itself as well, so we hear about its first trigger.
+        if (ZKUtil.watchAndCheckExists(watcher, node)){
+          List<String> ids = ZKUtil.listChildrenAndWatchForNewChildren(watcher, node);
+          if (ids != null){
+            for (String id : ids){
+              wanted.add(Integer.parseInt(id));
+            }
+          }
+        }
+      } catch (KeeperException e) {
+        LOG.warn("Failed to read triggers of " + table, e);
+        return;
+      }
+    }
+    for (Integer id : current){
+      if (!wanted.contains(id)){
+        LocalTriggerManage.unregister(new HTrigger(id));
+        LOG.info("Deactivated trigger " + id + " on " + table);
+      }
+    }
+    Set<Integer> now = new HashSet<Integer>();
+    for (Integer id : wanted){
+      if (current.contains(id) || LocalTriggerManage.isRegistered(id)){
+        now.add(id);
+      } else if (activate(id, submitted)){
+        now.add(id);
+      }
+    }
+    if (now.isEmpty())
+      active.remove(table);
+    else
+      active.put(table, now);
+  }
+
+  /**
+   * Load trigger id from the staging dir, using the local jar cache, and register it.
+   * @param runInitial whether INITIAL triggers run their first round on the local data
+   */
+  public synchronized boolean activate(int triggerId, boolean runInitial){
+    if (LocalTriggerManage.isRegistered(triggerId))
+      return true;
+    TriggerConf trigger = new TriggerConf(conf);
+    try {
+      Path submitTriggerDir = new Path(TriggerSubmissionFiles.getHDFSStagingDir(trigger),
+          String.valueOf(triggerId));
+      Path submitTriggerFile = TriggerSubmissionFiles.getJobConfPath(submitTriggerDir);
+      Path submitTriggerLibDir = TriggerSubmissionFiles.getTriggerLibJars(submitTriggerDir);
+      FileSystem fs = submitTriggerFile.getFileSystem(trigger);
+
+      File localDir = new File(LOCAL_JAR_DIR + triggerId);
+      fetch(fs, TriggerSubmissionFiles.getTriggerJar(submitTriggerDir), new File(localDir, "trigger.jar"));
+      if (fs.exists(submitTriggerLibDir)){
+        for (FileStatus lib : fs.listStatus(submitTriggerLibDir)){
+          fetch(fs, lib.getPath(), new File(new File(localDir, "lib"), lib.getPath().getName()));
+        }
+      }
+      File localTriggerXMLFile = new File(LOCAL_CONF_DIR + triggerId, "trigger.xml");
+      fetch(fs, submitTriggerFile, localTriggerXMLFile);
+      trigger.addResource(new Path(localTriggerXMLFile.getPath()));
+
+      HTriggerKey htk = new HTriggerKey(trigger.getTriggerOnTable().getBytes(),
+          trigger.getTriggerOnColumnFamily().getBytes(), trigger.getTriggerOnColumn().getBytes());
+      HTrigger newTrigger = new HTrigger(triggerId, htk, trigger);
+      LocalTriggerManage.register(newTrigger);
+      LOG.info("Activated trigger " + triggerId + " on " + htk);
+
+      TRIGGERTYPE type = TRIGGERTYPE.fromString(trigger.getTriggerType());
+      if (runInitial && (type == TRIGGERTYPE.INITIAL || type == TRIGGERTYPE.INITIALWITHCONVERGE)){
+        Thread irthread = new Thread(new InitialLocalRunner(newTrigger, server));
+        irthread.start();
+      }
+      return true;
+    } catch (Exception e) {
+      LOG.warn("Failed to activate trigger " + triggerId, e);
+      return false;
+    }
+  }
+
+  /**
+   * Copy remote to local unless the local copy already has the same size.
+   */
+  private static void fetch(FileSystem fs, Path remote, File local) throws IOException{
+    FileStatus status = fs.getFileStatus(remote);
+    if (local.exists() && local.length() == status.getLen())
+      return;
+    local.getParentFile().mkdirs();
+    fs.copyToLocalFile(remote, new Path(local.getPath()));
+  }
+
+  public void close(){
+    activator.shutdownNow();
+  }
+
+  //
+  // Master side
+  //
+
+  /**
+   * @return a new trigger id, unique across master restarts.
+   */
+  public static int nextTriggerId(ZooKeeperWatcher zkw) throws KeeperException{
+    String base = getBaseZNode(zkw);
+    ZKUtil.createWithParents(zkw, base);
+    while (true){
+      Stat stat = new Stat();
+      byte[] data = ZKUtil.getDataNoWatch(zkw, base, stat);
+      int id = data == null || data.length != Bytes.SIZEOF_INT ? 0 : Bytes.toInt(data);
+      try {
+        if (ZKUtil.setData(zkw, base, Bytes.toBytes(id + 1), stat.getVersion()))
+          return id;
+      } catch (KeeperException.BadVersionException e) {
+        //someone else took this id, try the next one.
+      }
+    }
+  }
+
+  public static void persist(ZooKeeperWatcher zkw, String table, int triggerId)
+      throws KeeperException{
+    String node = ZKUtil.joinZNode(ZKUtil.joinZNode(getBaseZNode(zkw), table),
+        String.valueOf(triggerId));
+    ZKUtil.createWithParents(zkw, node);
+  }
+
+  public static void remove(ZooKeeperWatcher zkw, int triggerId) throws KeeperException{
+    String base = getBaseZNode(zkw);
+    List<String> tables = ZKUtil.listChildrenNoWatch(zkw, base);
+    if (tables == null)
+      return;
+    for (String table : tables){
+      ZKUtil.deleteNodeFailSilent(zkw, ZKUtil.joinZNode(ZKUtil.joinZNode(base, table),
+          String.valueOf(triggerId)));
+    }
+  }
+
+  /**
+   * @return the table trigger triggerId watches, read from its staging dir.
+   */
+  public static String readTriggerTable(Configuration conf, int triggerId) throws IOException{
+    TriggerConf trigger = new TriggerConf(conf);
+    Path submitTriggerDir = new Path(TriggerSubmissionFiles.getHDFSStagingDir(trigger),
+        String.valueOf(triggerId));
+    Path submitTriggerFile = TriggerSubmissionFiles.getJobConfPath(submitTriggerDir);
+    FileSystem fs = submitTriggerFile.getFileSystem(trigger);
+    trigger.addResource(fs.open(submitTriggerFile));
+    return trigger.getTriggerOnTable();
+  }
+}
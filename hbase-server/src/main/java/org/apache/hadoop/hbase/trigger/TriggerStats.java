@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author daidong
+ * Region server wide counters of the trigger pipeline. An event is 'fired' by WALDetection,
+ * 'dispatched' by ActionThreadManager, 'fed' once into every ActionThread watching its key and
+ * finally either 'completed' by the ActionThread or 'dropped' by the backlog as redundant.
+ * The pipeline is quiescent when every fired event has been dispatched and every fed event
+ * has been completed or dropped.
+ *
+ * The counters are always maintained. Per-stage latencies (detect, queue, filter, action) and
+ * the WAL volume are only recorded after {@link #setStagesEnabled(boolean)}, as they cost a
+ * System.nanoTime() pair and a synchronized record() per event.
+ */
+public class TriggerStats {
+
+  private static volatile boolean stagesEnabled = false;
+
+  public static final StageStats DETECT = new StageStats("detect");
+  public static final StageStats QUEUE = new StageStats("queue");
+  public static final StageStats FILTER = new StageStats("filter");
+  public static final StageStats ACTION = new StageStats("action");
+
+  private static final AtomicLong fired = new AtomicLong(0L);
+  private static final AtomicLong dispatched = new AtomicLong(0L);
+  private static final AtomicLong fed = new AtomicLong(0L);
+  private static final AtomicLong completed = new AtomicLong(0L);
+  private static final AtomicLong dropped = new AtomicLong(0L);
+  private static final AtomicLong walKVs = new AtomicLong(0L);
+  private static final AtomicLong walBytes = new AtomicLong(0L);
+
+  public static void setStagesEnabled(boolean enabled){
+    stagesEnabled = enabled;
+  }
+
+  public static boolean isStagesEnabled(){
+    return stagesEnabled;
+  }
+
+  public static void fired(){
+    fired.incrementAndGet();
+  }
+
+  public static void dispatched(){
+    dispatched.incrementAndGet();
+  }
+
+  public static void fed(){
+    fed.incrementAndGet();
+  }
+
+  public static void completed(){
+    completed.incrementAndGet();
+  }
+
+  public static void dropped(){
+    dropped.incrementAndGet();
+  }
+
+  /** WAL volume of user tables, only counted when stages are enabled. */
+  public static void walWritten(long kvs, long bytes){
+    walKVs.addAndGet(kvs);
+    walBytes.addAndGet(bytes);
+  }
+
+  public static long getFired(){
+    return fired.get();
+  }
+
+  public static long getCompleted(){
+    return completed.get();
+  }
+
+  public static long getDropped(){
+    return dropped.get();
+  }
+
+  public static long getWalKVs(){
+    return walKVs.get();
+  }
+
+  public static long getWalBytes(){
+    return walBytes.get();
+  }
+
+  public static boolean isQuiescent(){
+    //read the downstream counters first, so a racing event can only make us say 'busy'.
+    long c = completed.get() + dropped.get();
+    long f = fed.get();
+    long d = dispatched.get();
+    return HTriggerEventQueue.size() == 0 && fired.get() == d && f == c;
+  }
+
+  /**
+   * Reset all counters and stages. Only meaningful while nothing is in flight.
+   */
+  public static void reset(){
+    fired.set(0L);
+    dispatched.set(0L);
+    fed.set(0L);
+    completed.set(0L);
+    dropped.set(0L);
+    walKVs.set(0L);
+    walBytes.set(0L);
+    DETECT.reset();
+    QUEUE.reset();
+    FILTER.reset();
+    ACTION.reset();
+  }
+
+  public static String toJson(){
+    return String.format(Locale.ROOT, "{\"fired\":%d,\"dispatched\":%d,\"fed\":%d,\"completed\":%d,"
+        + "\"dropped\":%d,\"walKVs\":%d,\"walBytes\":%d,\"stages\":[%s,%s,%s,%s]}",
+        fired.get(), dispatched.get(), fed.get(), completed.get(), dropped.get(),
+        walKVs.get(), walBytes.get(),
+        DETECT.toJson(), QUEUE.toJson(), FILTER.toJson(), ACTION.toJson());
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+
+/**
+ * @author daidong
+ * Every table the trigger engine opens on behalf of an action (WritePrepared, WritePreparedInst,
+ * TriggerContext) is created here. By default these are plain HTables; tools like
+ * {@link TriggerWALReplay} install their own factory to serve the action's I/O locally.
+ */
+public class TriggerTables {
+
+  private static volatile HTableInterfaceFactory factory = new HTableFactory();
+
+  public static void setFactory(HTableInterfaceFactory f){
+    factory = f;
+  }
+
+  public static HTableInterfaceFactory getFactory(){
+    return factory;
+  }
+
+  public static HTableInterface getTable(Configuration conf, byte[] tableName){
+    return factory.createHTableInterface(conf, tableName);
+  }
+}
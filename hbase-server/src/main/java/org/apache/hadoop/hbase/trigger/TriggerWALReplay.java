@@ -0,0 +1,508 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.AbstractClientScanner;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
+import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
+import org.apache.hadoop.hbase.regionserver.wal.WALDetection;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * @author daidong
+ * Offline harness to measure a trigger action without a live cluster.
+ *
+ * It reads existing HLog files (HLogFactory.createReader, the same way WALPlayer does), applies
+ * every WALEdit to a local HRegion, runs WALDetection.checkDispatch() on it and then runs the
+ * target HTriggerAction in-process on every fired event. Tables the action reads or writes
+ * through the engine (lazyOutput/lazyCommit, WritePrepared, getContext()) are served by local
+ * HRegions as well: gets, scans, puts, deletes and increments. Other HTableInterface calls fail
+ * with an UnsupportedOperationException naming the call. Actions that open their own HTable
+ * still talk to the real cluster. The local regions are removed once the replay is over.
+ *
+ * Per-stage count, throughput and latency percentiles are printed as JSON lines at the end.
+ *
+ * Usage: TriggerWALReplay -table t -family cf [-column c] -action class [-type TYPE]
+ *          [-families t1:f1,f2;t2:f3] [-limit n] &lt;wal file or dir&gt;...
+ */
+public class TriggerWALReplay extends Configured implements Tool {
+
+  private static final Log LOG = LogFactory.getLog(TriggerWALReplay.class);
+
+  public static final String REPLAY_DIR_KEY = "trigger.replay.dir";
+
+  private final StageStats readStats = new StageStats("wal-read");
+  private final StageStats applyStats = new StageStats("region-apply");
+  private final StageStats detectStats = new StageStats("detect");
+  private final StageStats filterStats = new StageStats("filter");
+  private final StageStats actionStats = new StageStats("action");
+
+  private LocalRegions regions;
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String table = null, family = null, column = "*", actionClass = null, type = "ORDINARY";
+    String families = null;
+    long limit = Long.MAX_VALUE;
+    List<Path> inputs = new ArrayList<Path>();
+    for (int i = 0; i < args.length; i++){
+      String a = args[i];
+      if ("-table".equals(a)) table = args[++i];
+      else if ("-family".equals(a)) family = args[++i];
+      else if ("-column".equals(a)) column = args[++i];
+      else if ("-action".equals(a)) actionClass = args[++i];
+      else if ("-type".equals(a)) type = args[++i];
+      else if ("-families".equals(a)) families = args[++i];
+      else if ("-limit".equals(a)) limit = Long.parseLong(args[++i]);
+      else if ("-h".equals(a) || "--help".equals(a)) return usage(null);
+      else inputs.add(new Path(a));
+    }
+    if (table == null || family == null || actionClass == null || inputs.isEmpty())
+      return usage("table, family, action and at least one WAL are required");
+
+    Configuration conf = getConf();
+    FileSystem walFs = inputs.get(0).getFileSystem(conf);
+    List<Path> wals = listWALs(walFs, inputs);
+
+    //regions live on the local file system, and never write a WAL of their own.
+    Configuration localConf = HBaseConfiguration.create(conf);
+    localConf.set("fs.default.name", "file:///");
+    localConf.set("fs.defaultFS", "file:///");
+    Path rootDir = new Path(conf.get(REPLAY_DIR_KEY, "/tmp/trigger/replay"),
+        String.valueOf(System.currentTimeMillis()));
+    localConf.set(HConstants.HBASE_DIR, rootDir.toString());
+    FileSystem localFs = FileSystem.getLocal(localConf);
+    this.regions = new LocalRegions(localConf, rootDir);
+    HTableInterfaceFactory savedFactory = TriggerTables.getFactory();
+    HTrigger ht = null;
+    long start = System.nanoTime();
+    long edits = 0L, events = 0L;
+    try {
+      regions.declare(families);
+      regions.declareFromWAL(walFs, wals, conf);
+
+      HTriggerAction action = (HTriggerAction) conf.getClassByName(actionClass).newInstance();
+      TriggerConf tconf = new TriggerConf(conf);
+      tconf.set("trigger.type", TRIGGERTYPE.fromString(type).toString());
+      HTriggerKey htk = new HTriggerKey(Bytes.toBytes(table), Bytes.toBytes(family), Bytes.toBytes(column));
+      ht = new HTrigger(0, htk, tconf, action);
+      LocalTriggerManage.register(ht);
+      TriggerTables.setFactory(regions);
+
+      start = System.nanoTime();
+      for (Path wal : wals){
+        HLog.Reader reader = HLogFactory.createReader(walFs, wal, conf);
+        try {
+          while (edits < limit){
+            long t0 = System.nanoTime();
+            HLog.Entry entry = reader.next();
+            if (entry == null)
+              break;
+            long t1 = System.nanoTime();
+            readStats.record(t1 - t0);
+            edits++;
+            events += replay(entry);
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    } finally {
+      if (ht != null)
+        LocalTriggerManage.unregister(ht);
+      TriggerTables.setFactory(savedFactory);
+      regions.close();
+      if (!localFs.delete(rootDir, true) && localFs.exists(rootDir))
+        LOG.warn("Failed to remove the local regions in " + rootDir);
+    }
+    long wall = System.nanoTime() - start;
+
+    System.out.println(String.format(Locale.ROOT, "{\"edits\":%d,\"events\":%d,\"wallMs\":%.3f,\"eventsPerSec\":%.1f}",
+        edits, events, wall / 1e6, wall == 0 ? 0D : events * 1e9 / wall));
+    for (StageStats s : new StageStats[]{readStats, applyStats, detectStats, filterStats, actionStats}){
+      System.out.println(s.toJson());
+    }
+    return 0;
+  }
+
+  /**
+   * Apply one WAL entry to the local region, detect and run the action on every fired event.
+   * @return number of events that were fired
+   */
+  private long replay(HLog.Entry entry) throws IOException {
+    byte[] tableName = entry.getKey().getTablename();
+    WALEdit edit = entry.getEdit();
+
+    long t0 = System.nanoTime();
+    HRegion r = regions.getRegion(tableName, null);
+    Map<byte[], Put> puts = new TreeMap<byte[], Put>(Bytes.BYTES_COMPARATOR);
+    Map<byte[], Delete> deletes = new TreeMap<byte[], Delete>(Bytes.BYTES_COMPARATOR);
+    for (KeyValue kv : edit.getKeyValues()){
+      if (HLogUtil.isMetaFamily(kv.getFamily()))
+        continue;
+      if (kv.isDelete()){
+        Delete d = deletes.get(kv.getRow());
+        if (d == null){
+          d = new Delete(kv.getRow());
+          deletes.put(kv.getRow(), d);
+        }
+        d.addDeleteMarker(kv);
+      } else {
+        Put p = puts.get(kv.getRow());
+        if (p == null){
+          p = new Put(kv.getRow());
+          puts.put(kv.getRow(), p);
+        }
+        p.add(kv);
+      }
+    }
+    for (Put p : puts.values()) r.put(p, false);
+    for (Delete d : deletes.values()) r.delete(d, null, false);
+    long t1 = System.nanoTime();
+    applyStats.record(t1 - t0);
+
+    WALDetection.checkDispatch(r.getRegionInfo(), tableName, edit);
+    long t2 = System.nanoTime();
+    detectStats.record(t2 - t1);
+
+    long events = 0L;
+    HTriggerEvent hte = HTriggerEventQueue.tryPoll();
+    while (hte != null){
+      events++;
+      List<HTrigger> triggers = LocalTriggerManage.getTriggerByMeta(hte.getEventTriggerKey());
+      if (triggers != null){
+        for (HTrigger ht : triggers){
+          HTriggerAction action = ht.getActionClass();
+          long f0 = System.nanoTime();
+          boolean pass = action.filterWrapper(hte);
+          long f1 = System.nanoTime();
+          filterStats.record(f1 - f0);
+          if (pass){
+            action.actionWrapper(hte);
+            actionStats.record(System.nanoTime() - f1);
+          }
+        }
+      }
+      hte = HTriggerEventQueue.tryPoll();
+    }
+    return events;
+  }
+
+  private static List<Path> listWALs(FileSystem fs, List<Path> inputs) throws IOException {
+    List<Path> wals = new ArrayList<Path>();
+    for (Path p : inputs){
+      FileStatus st = fs.getFileStatus(p);
+      if (st.isDir()){
+        FileStatus[] files = fs.listStatus(p);
+        Arrays.sort(files);
+        for (FileStatus f : files){
+          if (!f.isDir()) wals.add(f.getPath());
+        }
+      } else {
+        wals.add(p);
+      }
+    }
+    return wals;
+  }
+
+  private int usage(String error){
+    if (error != null) System.err.println("ERROR: " + error);
+    System.err.println("Usage: " + getClass().getName() + " -table <t> -family <cf> [-column <c>]"
+        + " -action <class> [-type <TRIGGERTYPE>] [-families t1:f1,f2;t2:f3] [-limit <edits>]"
+        + " <wal file or dir>...");
+    System.err.println("Replays HLog files through WALDetection and the given action in-process,"
+        + " and prints per-stage throughput and latency as JSON lines.");
+    return -1;
+  }
+
+  /**
+   * Local regions of every table touched by the replay, one region per table covering the
+   * whole key space. Also hands them out as HTableInterface to the trigger engine.
+   */
+  static class LocalRegions implements HTableInterfaceFactory {
+    private final Configuration conf;
+    private final Path rootDir;
+    private final Map<String, Set<byte[]>> declared = new HashMap<String, Set<byte[]>>();
+    private final Map<String, HRegion> regions = new HashMap<String, HRegion>();
+
+    LocalRegions(Configuration conf, Path rootDir){
+      this.conf = conf;
+      this.rootDir = rootDir;
+    }
+
+    /** t1:f1,f2;t2:f3 */
+    void declare(String spec){
+      if (spec == null)
+        return;
+      for (String t : spec.split(";")){
+        String[] parts = t.split(":");
+        if (parts.length != 2)
+          continue;
+        for (String f : parts[1].split(",")){
+          families(parts[0]).add(Bytes.toBytes(f));
+        }
+      }
+    }
+
+    /** first pass over the WALs, only to learn which families every table has */
+    void declareFromWAL(FileSystem fs, List<Path> wals, Configuration c) throws IOException {
+      for (Path wal : wals){
+        HLog.Reader reader = HLogFactory.createReader(fs, wal, c);
+        try {
+          HLog.Entry entry;
+          while ((entry = reader.next()) != null){
+            Set<byte[]> fs1 = families(Bytes.toString(entry.getKey().getTablename()));
+            for (KeyValue kv : entry.getEdit().getKeyValues()){
+              if (!HLogUtil.isMetaFamily(kv.getFamily()))
+                fs1.add(kv.getFamily());
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    }
+
+    private Set<byte[]> families(String table){
+      Set<byte[]> s = declared.get(table);
+      if (s == null){
+        s = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+        declared.put(table, s);
+      }
+      return s;
+    }
+
+    /**
+     * @param extra families to create the region with if it does not exist yet and the table
+     * has not been declared.
+     */
+    synchronized HRegion getRegion(byte[] tableName, Collection<byte[]> extra) throws IOException {
+      String name = Bytes.toString(tableName);
+      HRegion r = regions.get(name);
+      if (r == null){
+        Set<byte[]> fs = families(name);
+        if (extra != null) fs.addAll(extra);
+        HTableDescriptor htd = new HTableDescriptor(tableName);
+        for (byte[] f : fs){
+          htd.addFamily(new HColumnDescriptor(f));
+        }
+        HRegionInfo hri = new HRegionInfo(tableName);
+        r = HRegion.createHRegion(hri, rootDir, conf, htd, null, true, true);
+        regions.put(name, r);
+        LOG.info("Created local region for " + name + " with " + fs.size() + " families");
+      }
+      return r;
+    }
+
+    synchronized void close(){
+      for (HRegion r : regions.values()){
+        try {
+          r.close();
+        } catch (IOException e){
+          LOG.warn("Failed to close " + r, e);
+        }
+      }
+      regions.clear();
+    }
+
+    @Override
+    public HTableInterface createHTableInterface(Configuration config, final byte[] tableName) {
+      return (HTableInterface) Proxy.newProxyInstance(HTableInterface.class.getClassLoader(),
+          new Class<?>[]{HTableInterface.class}, new RegionTable(tableName));
+    }
+
+    @Override
+    public void releaseHTableInterface(HTableInterface table) throws IOException {
+    }
+
+    /**
+     * The subset of HTableInterface used by trigger actions, served by a local HRegion.
+     * Calls outside of it fail with an UnsupportedOperationException naming the call.
+     */
+    private class RegionTable implements InvocationHandler {
+      private final byte[] tableName;
+
+      RegionTable(byte[] tableName){
+        this.tableName = tableName;
+      }
+
+      @Override
+      public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+        String n = m.getName();
+        if ("getTableName".equals(n)) return tableName;
+        if ("getConfiguration".equals(n)) return conf;
+        if ("isAutoFlush".equals(n)) return Boolean.TRUE;
+        if ("flushCommits".equals(n) || "close".equals(n) || "setAutoFlush".equals(n)
+            || "setWriteBufferSize".equals(n)) return null;
+        if ("toString".equals(n)) return "RegionTable(" + Bytes.toString(tableName) + ")";
+        if ("hashCode".equals(n)) return System.identityHashCode(proxy);
+        if ("equals".equals(n)) return proxy == args[0];
+        if ("get".equals(n) || "put".equals(n) || "delete".equals(n) || "exists".equals(n)){
+          if (args[0] instanceof List){
+            List<?> ops = (List<?>) args[0];
+            Result[] rs = new Result[ops.size()];
+            for (int i = 0; i < rs.length; i++){
+              rs[i] = apply((Row) ops.get(i));
+            }
+            return "get".equals(n) ? rs : null;
+          }
+          Result r = apply((Row) args[0]);
+          if ("exists".equals(n)) return !r.isEmpty();
+          return "get".equals(n) ? r : null;
+        }
+        if ("batch".equals(n)){
+          List<?> ops = (List<?>) args[0];
+          Object[] results = args.length > 1 ? (Object[]) args[1] : new Object[ops.size()];
+          for (int i = 0; i < ops.size(); i++){
+            results[i] = apply((Row) ops.get(i));
+          }
+          return args.length > 1 ? null : results;
+        }
+        if ("getScanner".equals(n)){
+          Scan scan;
+          if (args[0] instanceof Scan){
+            scan = (Scan) args[0];
+          } else if (args.length == 1){
+            scan = new Scan().addFamily((byte[]) args[0]);
+          } else {
+            scan = new Scan().addColumn((byte[]) args[0], (byte[]) args[1]);
+          }
+          return new RegionResultScanner(getRegion(tableName, null).getScanner(scan));
+        }
+        if ("getRowOrBefore".equals(n)){
+          return getRegion(tableName, null).getClosestRowBefore((byte[]) args[0], (byte[]) args[1]);
+        }
+        if ("increment".equals(n)){
+          Increment inc = (Increment) args[0];
+          return getRegion(tableName, inc.getFamilyMap().keySet()).increment(inc, null, false);
+        }
+        if ("incrementColumnValue".equals(n)){
+          byte[] family = (byte[]) args[1];
+          Increment inc = new Increment((byte[]) args[0]);
+          inc.addColumn(family, (byte[]) args[2], (Long) args[3]);
+          Result r = getRegion(tableName, Arrays.asList(family)).increment(inc, null, false);
+          return Bytes.toLong(r.getValue(family, (byte[]) args[2]));
+        }
+        throw new UnsupportedOperationException("HTableInterface." + n + "() of "
+            + Bytes.toString(tableName) + " is not supported by the replay harness, only gets,"
+            + " scans, puts, deletes and increments are");
+      }
+
+      private Result apply(Row op) throws IOException {
+        if (op instanceof Get){
+          return getRegion(tableName, null).get((Get) op, null);
+        } else if (op instanceof Put){
+          Put p = (Put) op;
+          getRegion(tableName, p.getFamilyMap().keySet()).put(p, false);
+        } else if (op instanceof Delete){
+          Delete d = (Delete) op;
+          getRegion(tableName, d.getFamilyMap().keySet()).delete(d, null, false);
+        } else {
+          throw new UnsupportedOperationException(op.getClass().getName());
+        }
+        return new Result();
+      }
+    }
+  }
+
+  /**
+   * A scanner over a local region, as returned by an HTable.
+   */
+  private static class RegionResultScanner extends AbstractClientScanner {
+    private final RegionScanner scanner;
+    private boolean more = true;
+
+    RegionResultScanner(RegionScanner scanner){
+      this.scanner = scanner;
+    }
+
+    @Override
+    public Result next() throws IOException {
+      List<KeyValue> kvs = new ArrayList<KeyValue>();
+      while (kvs.isEmpty() && more){
+        more = scanner.next(kvs);
+      }
+      return kvs.isEmpty() ? null : new Result(kvs);
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+      List<Result> rs = new ArrayList<Result>(nbRows);
+      Result r;
+      while (rs.size() < nbRows && (r = next()) != null){
+        rs.add(r);
+      }
+      return rs.toArray(new Result[rs.size()]);
+    }
+
+    @Override
+    public void close(){
+      try {
+        scanner.close();
+      } catch (IOException e){
+        LOG.warn("Failed to close scanner", e);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new TriggerConf(), new TriggerWALReplay(), args));
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * @author daidong
+ * Converts cell values between their stored bytes and a typed object. decode() works on a
+ * slice of a larger array, so HTriggerEvent can hand out the KeyValue backing array directly
+ * without copying the value first.
+ *
+ * The built-in codecs use the binary layout of {@link Bytes}, i.e. Bytes.toBytes(long) etc.
+ */
+public interface ValueCodec<T> {
+
+  T decode(byte[] buf, int offset, int length);
+
+  byte[] encode(T value);
+
+  public static final ValueCodec<Integer> INT = new ValueCodec<Integer>() {
+    public Integer decode(byte[] buf, int offset, int length) {
+      return Bytes.toInt(buf, offset, length);
+    }
+    public byte[] encode(Integer value) {
+      return Bytes.toBytes(value.intValue());
+    }
+  };
+
+  public static final ValueCodec<Long> LONG = new ValueCodec<Long>() {
+    public Long decode(byte[] buf, int offset, int length) {
+      return Bytes.toLong(buf, offset, length);
+    }
+    public byte[] encode(Long value) {
+      return Bytes.toBytes(value.longValue());
+    }
+  };
+
+  public static final ValueCodec<Float> FLOAT = new ValueCodec<Float>() {
+    public Float decode(byte[] buf, int offset, int length) {
+      if (length != Bytes.SIZEOF_FLOAT)
+        throw new IllegalArgumentException("Wrong length: " + length + ", expected " + Bytes.SIZEOF_FLOAT);
+      return Bytes.toFloat(buf, offset);
+    }
+    public byte[] encode(Float value) {
+      return Bytes.toBytes(value.floatValue());
+    }
+  };
+
+  public static final ValueCodec<Double> DOUBLE = new ValueCodec<Double>() {
+    public Double decode(byte[] buf, int offset, int length) {
+      if (length != Bytes.SIZEOF_DOUBLE)
+        throw new IllegalArgumentException("Wrong length: " + length + ", expected " + Bytes.SIZEOF_DOUBLE);
+      return Bytes.toDouble(buf, offset);
+    }
+    public byte[] encode(Double value) {
+      return Bytes.toBytes(value.doubleValue());
+    }
+  };
+
+  public static final ValueCodec<String> STRING = new ValueCodec<String>() {
+    public String decode(byte[] buf, int offset, int length) {
+      return Bytes.toString(buf, offset, length);
+    }
+    public byte[] encode(String value) {
+      return Bytes.toBytes(value);
+    }
+  };
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * @author daidong
+ * Base class of WINDOWED triggers: tumbling or sliding window aggregation keyed by row,
+ * without reading the stored history like AccHTriggerAction does.
+ *
+ * Windows are 'trigger.window.size.ms' long and a new one starts every
+ * 'trigger.window.slide.ms' (default: the size, i.e. tumbling windows). Time is the time the
+ * event was detected. The state of a row is a list of panes of gcd(size, slide) ms; every
+ * event is added into exactly one pane and a window result is the merge of the panes it
+ * covers, so overlapping windows share their panes instead of keeping their own copy.
+ *
+ * A window is closed 'trigger.window.delay.ms' after its end on the trigger timer thread:
+ * emit() is called for every row with data in it, then the panes no later window needs
+ * are evicted. Events older than the oldest open window are dropped and counted as late.
+ * emit() runs on the timer thread, so it should write through getContext().putAsync().
+ * The timer task is cancelled by stop(), windows still open then are not emitted.
+ *
+ * @param <A> type of the per pane accumulator
+ */
+public abstract class WindowedHTriggerAction<A> extends HTriggerAction {
+
+  private static final Log LOG = LogFactory.getLog(WindowedHTriggerAction.class);
+
+  public static final String SIZE_MS_KEY = "trigger.window.size.ms";
+  public static final String SLIDE_MS_KEY = "trigger.window.slide.ms";
+  public static final String DELAY_MS_KEY = "trigger.window.delay.ms";
+
+  private long sizeMs;
+  private long slideMs;
+  private long paneMs;
+  private long delayMs;
+  /** end of the last closed window */
+  private long closedEnd = -1L;
+  private long late = 0L;
+  private ScheduledFuture<?> tick = null;
+  private boolean stopped = false;
+  private final HashMap<RowKey, TreeMap<Long, A>> rows = new HashMap<RowKey, TreeMap<Long, A>>();
+
+  /** A fresh accumulator for one pane. */
+  public abstract A create();
+
+  /** Add one event into the accumulator of its pane, returns the new accumulator. */
+  public abstract A add(A acc, HTriggerEvent hte);
+
+  /** Merge two pane accumulators, must not modify its arguments. */
+  public abstract A merge(A a, A b);
+
+  /** Called once per row and window at window close. */
+  public abstract void emit(byte[] row, long windowStart, long windowEnd, A result);
+
+  @Override
+  public boolean filter(HTriggerEvent hte) {
+    return true;
+  }
+
+  @Override
+  public final void action(HTriggerEvent hte) {
+    synchronized (rows) {
+      if (stopped)
+        return;
+      if (closedEnd < 0)
+        init(System.currentTimeMillis());
+      long pane = hte.getTimeStamp() / paneMs;
+      //the oldest still open window starts at closedEnd + slide - size
+      if ((pane + 1) * paneMs <= closedEnd + slideMs - sizeMs){
+        late++;
+        return;
+      }
+      RowKey key = new RowKey(hte.getRowKey());
+      TreeMap<Long, A> panes = rows.get(key);
+      if (panes == null){
+        panes = new TreeMap<Long, A>();
+        rows.put(key, panes);
+      }
+      A acc = panes.get(pane);
+      panes.put(pane, add(acc == null ? create() : acc, hte));
+    }
+  }
+
+  private void init(long now){
+    Configuration conf = (getHTrigger() != null && getHTrigger().getConf() != null) ?
+        getHTrigger().getConf() : new TriggerConf();
+    sizeMs = conf.getLong(SIZE_MS_KEY, 60000L);
+    slideMs = conf.getLong(SLIDE_MS_KEY, sizeMs);
+    delayMs = conf.getLong(DELAY_MS_KEY, 0L);
+    if (sizeMs <= 0 || slideMs <= 0 || slideMs > sizeMs)
+      throw new IllegalArgumentException("Invalid window: size " + sizeMs + " ms, slide " + slideMs + " ms");
+    paneMs = gcd(sizeMs, slideMs);
+    closedEnd = now / slideMs * slideMs;
+    tick = TriggerDebouncer.getTicker().scheduleAtFixedRate(new Runnable(){
+      @Override
+      public void run(){
+        try {
+          closeWindows(System.currentTimeMillis());
+        } catch (Throwable t) {
+          LOG.error("Failed to close windows", t);
+        }
+      }
+    }, paneMs, paneMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancel the timer task closing the windows and drop their state.
+   */
+  @Override
+  public void stop(){
+    synchronized (rows) {
+      stopped = true;
+      if (tick != null){
+        tick.cancel(false);
+        tick = null;
+      }
+      rows.clear();
+    }
+  }
+
+  /**
+   * Whether the timer task closing the windows is scheduled, for tests.
+   */
+  boolean isTicking(){
+    synchronized (rows) {
+      return tick != null && !tick.isDone();
+    }
+  }
+
+  void closeWindows(long now){
+    synchronized (rows) {
+      while (closedEnd + slideMs + delayMs <= now){
+        long end = closedEnd + slideMs;
+        long start = end - sizeMs;
+        long firstPane = start / paneMs;
+        long lastPane = end / paneMs;  //exclusive
+        //panes before the start of the next window are not needed any more.
+        long keepFrom = (end + slideMs - sizeMs) / paneMs;
+        Iterator<Map.Entry<RowKey, TreeMap<Long, A>>> it = rows.entrySet().iterator();
+        while (it.hasNext()){
+          Map.Entry<RowKey, TreeMap<Long, A>> e = it.next();
+          TreeMap<Long, A> panes = e.getValue();
+          A result = null;
+          for (A acc : panes.subMap(firstPane, lastPane).values()){
+            result = result == null ? acc : merge(result, acc);
+          }
+          if (result != null)
+            emit(e.getKey().row, start, end, result);
+          panes.headMap(keepFrom).clear();
+          if (panes.isEmpty())
+            it.remove();
+        }
+        closedEnd = end;
+      }
+    }
+  }
+
+  /**
+   * Number of events dropped because their window was already closed.
+   */
+  public long getLateEvents(){
+    synchronized (rows) {
+      return late;
+    }
+  }
+
+  private static long gcd(long a, long b){
+    while (b != 0){
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  private static class RowKey {
+    private final byte[] row;
+    private final int hash;
+
+    RowKey(byte[] row){
+      this.row = row;
+      this.hash = Bytes.hashCode(row);
+    }
+
+    @Override
+    public int hashCode(){
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o){
+      return (o instanceof RowKey) && Bytes.equals(row, ((RowKey) o).row);
+    }
+  }
+}
@@ -30,7 +30,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.zookeeper.ZKUtil;
 
@@ -60,7 +60,7 @@ public class WritePrepared{
   private static byte[] lock = new byte[0];
   
   //One Region Server shares the name to table mappping.
-  private static ConcurrentHashMap<byte[], HTable> nameToTableMap = new ConcurrentHashMap<byte[], HTable>();
+  private static ConcurrentHashMap<byte[], HTableInterface> nameToTableMap = new ConcurrentHashMap<byte[], HTableInterface>();
   
   
   public static void recordZKActionRound(String node, int tid, long version){
@@ -116,10 +116,10 @@ public class WritePrepared{
     return true;
   }
   
-  private static HTable getOrNewHTableInstance(byte[] name) throws IOException{
-    HTable ins = nameToTableMap.get(name);
+  private static HTableInterface getOrNewHTableInstance(byte[] name) throws IOException{
+    HTableInterface ins = nameToTableMap.get(name);
     if (ins == null){
-      ins = new HTable(conf, name);
+      ins = TriggerTables.getTable(conf, name);
       nameToTableMap.put(name, ins);
     }
     return ins;
@@ -148,7 +148,7 @@ public class WritePrepared{
 
     try{
     	WriteUnit w = writes.poll();
-    	HTable ins = null;
+    	HTableInterface ins = null;
     	while (w != null){
     		System.out.println("start flush: " + w + "remain: " + writes.size());
     		ins = getOrNewHTableInstance(w.getTableName());
@@ -9,7 +9,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
-import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
 
 public class WritePreparedInst {
 
@@ -22,7 +22,7 @@ public class WritePreparedInst {
 	LinkedBlockingQueue<WriteUnit> cachedWrites = new LinkedBlockingQueue<WriteUnit>();
 
 	//One Region Server shares the name to table mappping.
-	private ConcurrentHashMap<byte[], HTable> nameToTableMap = new ConcurrentHashMap<byte[], HTable>();
+	private ConcurrentHashMap<byte[], HTableInterface> nameToTableMap = new ConcurrentHashMap<byte[], HTableInterface>();
 
 	public WritePreparedInst(HTriggerAction trigger){
 		this.belongTo = trigger;
@@ -38,20 +38,19 @@ public class WritePreparedInst {
 		return true;
 	}
 
-	private HTable getOrNewHTableInstance(byte[] name) throws IOException{
-		HTable ins = nameToTableMap.get(name);
+	private HTableInterface getOrNewHTableInstance(byte[] name) throws IOException{
+		HTableInterface ins = nameToTableMap.get(name);
 		if (ins == null){
-			ins = new HTable(conf, name);
+			ins = TriggerTables.getTable(conf, name);
 			nameToTableMap.put(name, ins);
 		}
 		return ins;
 	}
 
 	public boolean flush(HTriggerAction action){
-		System.out.println("Action " + action + " flush");
 		try{
 			WriteUnit w = cachedWrites.poll();
-			HTable ins = null;
+			HTableInterface ins = null;
 			while (w != null){
 				ins = getOrNewHTableInstance(w.getTableName());
 				ins.put(w.getPut());
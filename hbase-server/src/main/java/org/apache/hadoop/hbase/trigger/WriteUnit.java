@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.trigger;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * A WriteUnit contains 
@@ -66,6 +67,31 @@ public class WriteUnit {
     this.writeToIncr = writeToIncr;
   }
   
+  /**
+   * Typed constructors, values are written in the binary layout of {@link Bytes} so that
+   * readers can use HTriggerEvent.getNewLong()/getNewDouble() etc. instead of parsing text.
+   */
+  public WriteUnit(HTriggerAction action, byte[] tname, byte[] row, byte[] columnFamily, byte[] column, int value){
+    this(action, tname, row, columnFamily, column, Bytes.toBytes(value));
+  }
+  
+  public WriteUnit(HTriggerAction action, byte[] tname, byte[] row, byte[] columnFamily, byte[] column, long value){
+    this(action, tname, row, columnFamily, column, Bytes.toBytes(value));
+  }
+  
+  public WriteUnit(HTriggerAction action, byte[] tname, byte[] row, byte[] columnFamily, byte[] column, float value){
+    this(action, tname, row, columnFamily, column, Bytes.toBytes(value));
+  }
+  
+  public WriteUnit(HTriggerAction action, byte[] tname, byte[] row, byte[] columnFamily, byte[] column, double value){
+    this(action, tname, row, columnFamily, column, Bytes.toBytes(value));
+  }
+  
+  public <T> WriteUnit(HTriggerAction action, byte[] tname, byte[] row, byte[] columnFamily, byte[] column,
+      T value, ValueCodec<T> codec){
+    this(action, tname, row, columnFamily, column, codec.encode(value));
+  }
+  
   public boolean isWriteToIncr(){
     return this.writeToIncr;
   }
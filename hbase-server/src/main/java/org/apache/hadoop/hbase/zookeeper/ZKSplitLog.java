@@ -30,8 +30,10 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.master.SplitLogManager;
 import org.apache.hadoop.hbase.regionserver.SplitLogWorker;
+import org.apache.zookeeper.KeeperException;
 
 /**
  * Common methods and attributes used by {@link SplitLogManager} and {@link SplitLogWorker}
@@ -122,4 +124,70 @@ public class ZKSplitLog {
     return isCorrupt;
   }
 
+  /*
+   * With distributed log replay the regions of a dead server are assigned
+   * before its logs are split, and the split log workers replay the edits
+   * straight into them.  Such a region has a znode under
+   * recoveringRegionsZNode, named after its encoded name and holding its
+   * region name, until all the logs are replayed.
+   */
+
+  public static String getRecoveringRegionNode(ZooKeeperWatcher zkw,
+      String encodedRegionName) {
+    return ZKUtil.joinZNode(zkw.recoveringRegionsZNode, encodedRegionName);
+  }
+
+  public static boolean isRecoveringRegionPath(ZooKeeperWatcher zkw, String path) {
+    String dirname = path.substring(0, path.lastIndexOf('/'));
+    return dirname.equals(zkw.recoveringRegionsZNode);
+  }
+
+  /**
+   * Mark a region as having edits replayed into it.
+   */
+  public static void markRegionRecovering(ZooKeeperWatcher zkw, HRegionInfo hri)
+  throws KeeperException {
+    ZKUtil.createSetData(zkw, getRecoveringRegionNode(zkw, hri.getEncodedName()),
+        hri.getRegionName());
+  }
+
+  /**
+   * Release a region marked by {@link #markRegionRecovering}.
+   */
+  public static void clearRegionRecovering(ZooKeeperWatcher zkw,
+      String encodedRegionName) throws KeeperException {
+    ZKUtil.deleteNodeFailSilent(zkw,
+        getRecoveringRegionNode(zkw, encodedRegionName));
+  }
+
+  /**
+   * @param watch whether to watch the node of the region, so the watcher of
+   * <code>zkw</code> hears when the replay is over
+   * @return true if edits are replayed into the region
+   */
+  public static boolean isRegionRecovering(ZooKeeperWatcher zkw,
+      String encodedRegionName, boolean watch) throws KeeperException {
+    String node = getRecoveringRegionNode(zkw, encodedRegionName);
+    return watch ? ZKUtil.watchAndCheckExists(zkw, node) :
+      ZKUtil.checkExists(zkw, node) != -1;
+  }
+
+  /**
+   * @return region names of all the regions marked as recovering
+   */
+  public static List<byte[]> getRecoveringRegions(ZooKeeperWatcher zkw)
+  throws KeeperException {
+    List<byte[]> regions = new ArrayList<byte[]>();
+    List<String> nodes = ZKUtil.listChildrenNoWatch(zkw, zkw.recoveringRegionsZNode);
+    if (nodes != null) {
+      for (String node : nodes) {
+        byte[] data = ZKUtil.getDataNoWatch(zkw,
+            ZKUtil.joinZNode(zkw.recoveringRegionsZNode, node), null);
+        if (data != null) {
+          regions.add(data);
+        }
+      }
+    }
+    return regions;
+  }
 }
@@ -0,0 +1,158 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Replays a synthetic trace of gets and scans against an {@link LruBlockCache}
+ * and reports the hit ratios, to compare {@link BlockCachePolicy}s.
+ * <p>
+ * Gets read blocks of a hot set, skewed towards its first blocks.  Scans read
+ * runs of consecutive blocks of a table far larger than the cache, each block
+ * once.  Every miss is read "from disk" and cached, the way
+ * {@link HFileReaderV2} does.  Run with no arguments for the defaults, or
+ * with <code>cacheBlocks hotBlocks scanPercent scanLength accesses</code>.
+ */
+public class BlockCachePolicyEvaluation {
+  static final int BLOCK_SIZE = 64 * 1024;
+
+  private final int cacheBlocks;
+  private final int hotBlocks;
+  private final int scanPercent;
+  private final int scanLength;
+  private final int accesses;
+
+  private long gets;
+  private long getHits;
+  private long reads;
+  private long hits;
+
+  BlockCachePolicyEvaluation(int cacheBlocks, int hotBlocks, int scanPercent,
+      int scanLength, int accesses) {
+    this.cacheBlocks = cacheBlocks;
+    this.hotBlocks = hotBlocks;
+    this.scanPercent = scanPercent;
+    this.scanLength = scanLength;
+    this.accesses = accesses;
+  }
+
+  /**
+   * Replays the trace against a cache using the given policy.
+   * @param policy Policy class, or null for the priority buckets
+   */
+  void run(Class<? extends BlockCachePolicy> policy) {
+    Configuration conf = new Configuration();
+    if (policy != null) {
+      conf.set(BlockCachePolicy.POLICY_CLASS_KEY, policy.getName());
+    }
+    long blockHeapSize = new CachedBlock(key("hot", 0), new Block(), 0).heapSize();
+    LruBlockCache cache = new LruBlockCache(cacheBlocks * blockHeapSize,
+        blockHeapSize, false, conf);
+    gets = getHits = reads = hits = 0;
+    Random rand = new Random(42);
+    long scanned = 0;
+    try {
+      for (int i = 0; i < accesses;) {
+        if (rand.nextInt(100) < scanPercent) {
+          for (int j = 0; j < scanLength && i < accesses; j++, i++) {
+            read(cache, key("scan", scanned++), false);
+          }
+        } else {
+          double d = rand.nextDouble();
+          read(cache, key("hot", (int) (hotBlocks * d * d)), true);
+          i++;
+        }
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  private void read(LruBlockCache cache, BlockCacheKey key, boolean get) {
+    reads++;
+    if (get) gets++;
+    if (cache.getBlock(key, true, false) != null) {
+      hits++;
+      if (get) getHits++;
+      return;
+    }
+    cache.cacheBlock(key, new Block());
+  }
+
+  private static BlockCacheKey key(String file, long block) {
+    return new BlockCacheKey(file, block * BLOCK_SIZE);
+  }
+
+  double getHitRatio() {
+    return reads == 0 ? 0 : (double) hits / reads;
+  }
+
+  double getGetHitRatio() {
+    return gets == 0 ? 0 : (double) getHits / gets;
+  }
+
+  /**
+   * A data block of {@link #BLOCK_SIZE} bytes, without the bytes.
+   */
+  static class Block implements Cacheable {
+    @Override
+    public long heapSize() {
+      return BLOCK_SIZE;
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+  }
+
+  public static void main(String[] args) {
+    int cacheBlocks = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int hotBlocks = args.length > 1 ? Integer.parseInt(args[1]) : 1500;
+    int scanPercent = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+    int scanLength = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+    int accesses = args.length > 4 ? Integer.parseInt(args[4]) : 1000000;
+    BlockCachePolicyEvaluation evaluation = new BlockCachePolicyEvaluation(
+        cacheBlocks, hotBlocks, scanPercent, scanLength, accesses);
+    evaluation.run(null);
+    System.out.println(String.format("%-12s hitRatio=%.4f getHitRatio=%.4f",
+        "lru", evaluation.getHitRatio(), evaluation.getGetHitRatio()));
+    evaluation.run(TinyLfuBlockCachePolicy.class);
+    System.out.println(String.format("%-12s hitRatio=%.4f getHitRatio=%.4f",
+        "tinylfu", evaluation.getHitRatio(), evaluation.getGetHitRatio()));
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link BlockAccessStats} and the {@link CompactionCacheWarmer}
+ * deciding on them.
+ */
+@Category(SmallTests.class)
+public class TestCompactionCacheWarmer {
+
+  private static final int BLOCK_SIZE = 1000;
+  private static final int BLOCKS = 10;
+
+  private static byte[] key(int row) {
+    return KeyValue.createFirstOnRow(Bytes.toBytes(String.format("row%04d", row)))
+        .getKey();
+  }
+
+  /**
+   * @return Stats of a file with blocks of 10 rows each, 0 to 9 in the
+   * first, with the given blocks read twice
+   */
+  private static BlockAccessStats createStats(int... hotBlocks) {
+    BlockAccessStats stats = new BlockAccessStats(BLOCKS);
+    for (int block : hotBlocks) {
+      stats.recordAccess(block * BLOCK_SIZE);
+      stats.recordAccess(block * BLOCK_SIZE);
+    }
+    return stats;
+  }
+
+  /**
+   * Moves the compaction reading the file of <code>stats</code> on to its
+   * block <code>block</code>.
+   */
+  private static void compactionRead(BlockAccessStats stats, int block) {
+    if (stats.isRangeBound(block * BLOCK_SIZE)) {
+      stats.addRangeBound(ByteBuffer.wrap(key(block * 10)));
+    }
+  }
+
+  private static boolean shouldCache(CompactionCacheWarmer warmer,
+      int firstRow, int lastRow) {
+    byte[] lastKey = key(lastRow);
+    return warmer.shouldCache(KeyValue.KEY_COMPARATOR, key(firstRow),
+        lastKey, 0, lastKey.length, BLOCK_SIZE);
+  }
+
+  @Test
+  public void testAccessStats() {
+    BlockAccessStats stats = new BlockAccessStats(BLOCKS);
+    stats.recordAccess(0);
+    assertFalse(stats.isHot(0));
+    assertEquals(0, stats.getHotBlockCount());
+    stats.recordAccess(0);
+    stats.recordAccess(0);
+    assertTrue(stats.isHot(0));
+    assertFalse(stats.isHot(BLOCK_SIZE));
+    assertEquals(1, stats.getHotBlockCount());
+  }
+
+  @Test
+  public void testEvenReadsNotHot() {
+    BlockAccessStats stats = new BlockAccessStats(BLOCKS);
+    for (int block = 0; block < BLOCKS; block++) {
+      stats.recordAccess(block * BLOCK_SIZE);
+      stats.recordAccess(block * BLOCK_SIZE);
+    }
+    assertEquals(0, stats.getHotBlockCount());
+    for (int i = 0; i < 3; i++) {
+      stats.recordAccess(0);
+    }
+    assertTrue(stats.isHot(0));
+    assertFalse(stats.isHot(BLOCK_SIZE));
+  }
+
+  @Test
+  public void testAging() {
+    BlockAccessStats stats = new BlockAccessStats(BLOCKS);
+    for (int i = 0; i < 15; i++) {
+      stats.recordAccess(0);
+    }
+    assertTrue(stats.isHot(0));
+    // The counts of both saturate, the first block is only cold once its
+    // count was halved enough
+    for (int i = 0; i < 1000; i++) {
+      stats.recordAccess(BLOCK_SIZE);
+    }
+    assertFalse(stats.isHot(0));
+    assertTrue(stats.isHot(BLOCK_SIZE));
+
+    // The counters are fixed, however many blocks are read
+    long heapSize = stats.heapSize();
+    for (int block = 0; block < 1000; block++) {
+      stats.recordAccess(block * BLOCK_SIZE);
+    }
+    assertEquals(heapSize, stats.heapSize());
+    assertTrue(heapSize < new BlockAccessStats(Integer.MAX_VALUE).heapSize());
+  }
+
+  @Test
+  public void testHotRangesOfTwoInputs() {
+    // Blocks 2 and 3 of the first file, rows 20 to 39, and block 6 of the
+    // second, rows 60 to 69, are hot
+    BlockAccessStats first = createStats(2, 3);
+    BlockAccessStats second = createStats(6);
+    CompactionCacheWarmer warmer = new CompactionCacheWarmer(
+        Arrays.asList(first, second), 100 * BLOCK_SIZE);
+
+    // Output blocks of 15 rows, each written once the inputs read past it
+    compactionRead(first, 0);
+    compactionRead(second, 0);
+    compactionRead(first, 1);
+    compactionRead(second, 1);
+    assertFalse(shouldCache(warmer, 0, 14));
+    compactionRead(first, 2);
+    compactionRead(second, 2);
+    // Rows 20 to 29 are hot, the end of the range is not known yet
+    assertTrue(shouldCache(warmer, 15, 29));
+    compactionRead(first, 3);
+    compactionRead(second, 3);
+    compactionRead(first, 4);
+    compactionRead(second, 4);
+    assertTrue(shouldCache(warmer, 30, 44));
+    compactionRead(first, 5);
+    compactionRead(second, 5);
+    assertFalse(shouldCache(warmer, 45, 59));
+    compactionRead(first, 6);
+    compactionRead(second, 6);
+    compactionRead(first, 7);
+    compactionRead(second, 7);
+    assertTrue(shouldCache(warmer, 60, 74));
+    compactionRead(first, 8);
+    compactionRead(second, 8);
+    compactionRead(first, 9);
+    compactionRead(second, 9);
+    assertFalse(shouldCache(warmer, 75, 89));
+    assertFalse(shouldCache(warmer, 90, 99));
+
+    assertEquals(3, warmer.getCachedBlocks());
+    assertEquals(3 * BLOCK_SIZE, warmer.getCachedBytes());
+    warmer.close();
+    assertFalse(first.isCollectingRanges());
+    assertFalse(second.isCollectingRanges());
+  }
+
+  @Test
+  public void testBudget() {
+    BlockAccessStats stats = createStats(0, 1, 2, 3);
+    CompactionCacheWarmer warmer = new CompactionCacheWarmer(
+        Arrays.asList(stats), 2 * BLOCK_SIZE);
+    for (int block = 0; block < 4; block++) {
+      compactionRead(stats, block);
+    }
+    assertTrue(shouldCache(warmer, 0, 9));
+    assertTrue(shouldCache(warmer, 10, 19));
+    // Over budget
+    assertFalse(shouldCache(warmer, 20, 29));
+    assertEquals(2 * BLOCK_SIZE, warmer.getCachedBytes());
+  }
+}
@@ -352,6 +352,54 @@ public class TestHFileBlock {
     }
   }
 
+  @Test
+  public void testPackedBlock() throws IOException {
+    for (Compression.Algorithm algo : COMPRESSION_ALGORITHMS) {
+      Path path = new Path(TEST_UTIL.getDataTestDir(), "packed_blocks_v2_"
+          + algo);
+      FSDataOutputStream os = fs.create(path);
+      HFileBlock.Writer hbw = new HFileBlock.Writer(algo, null,
+          includesMemstoreTS, HFile.DEFAULT_CHECKSUM_TYPE,
+          HFile.DEFAULT_BYTES_PER_CHECKSUM);
+      DataOutputStream dos = hbw.startWriting(BlockType.DATA);
+      for (int i = 0; i < 1234; ++i)
+        dos.writeInt(i);
+      hbw.writeHeaderAndData(os);
+      long totalSize = hbw.getOnDiskSizeWithHeader();
+      os.close();
+
+      FSDataInputStream is = fs.open(path);
+      HFileBlock.FSReaderV2 hbr = new HFileBlock.FSReaderV2(is, algo,
+          totalSize);
+      HFileBlock expected = hbr.readBlockData(0, -1, -1, false);
+      HFileBlock packed = hbr.readPackedBlockData(0, -1, -1, false);
+      assertEquals(algo != NONE, packed.isPacked());
+      assertFalse(expected.isPacked());
+      if (packed.isPacked()) {
+        assertTrue(packed.heapSize() < expected.heapSize());
+      }
+
+      // Round trip through the serialized form a block cache keeps
+      ByteBuffer serialized = ByteBuffer.allocate(packed.getSerializedLength());
+      packed.serialize(serialized);
+      HFileBlock deserialized =
+          (HFileBlock) packed.getDeserializer().deserialize(serialized);
+      assertEquals(packed.isPacked(), deserialized.isPacked());
+
+      for (HFileBlock b : new HFileBlock[] { packed, deserialized }) {
+        HFileBlock unpacked = hbr.unpack(b);
+        assertFalse(unpacked.isPacked());
+        assertEquals(4936, unpacked.getUncompressedSizeWithoutHeader());
+        assertBuffersEqual(expected.getBufferWithoutHeader(),
+            unpacked.getBufferWithoutHeader(), algo, DataBlockEncoding.NONE,
+            false);
+      }
+      // Unpacking leaves the packed block alone
+      assertEquals(algo != NONE, packed.isPacked());
+      is.close();
+    }
+  }
+
   /**
    * Test encoding/decoding data blocks.
    * @throws IOException a bug or a problem with temporary files.
@@ -0,0 +1,251 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.fs.HFileSystem;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the prefetch of HFile blocks into the block cache on open.
+ */
+@Category(MediumTests.class)
+public class TestPrefetch {
+
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final int NUM_VALID_KEY_TYPES = KeyValue.Type.values().length - 2;
+  private static final int DATA_BLOCK_SIZE = 2048;
+  private static final int NUM_KV = 1000;
+  private static final Random RNG = new Random();
+
+  private Configuration conf;
+  private CacheConfig cacheConf;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    conf.setInt(HFile.FORMAT_VERSION_KEY, HFile.MAX_FORMAT_VERSION);
+    conf.setBoolean(CacheConfig.PREFETCH_BLOCKS_ON_OPEN_KEY, true);
+    fs = HFileSystem.get(conf);
+    cacheConf = new CacheConfig(conf);
+  }
+
+  @Test
+  public void testPrefetchSetInHCDWorks() {
+    HColumnDescriptor columnDesc = new HColumnDescriptor("f");
+    assertFalse(columnDesc.shouldPrefetchBlocksOnOpen());
+    columnDesc.setPrefetchBlocksOnOpen(true);
+    assertTrue(columnDesc.shouldPrefetchBlocksOnOpen());
+    assertTrue(new CacheConfig(new Configuration(), columnDesc).shouldPrefetchOnOpen());
+  }
+
+  @Test(timeout=60000)
+  public void testPrefetch() throws Exception {
+    Path storeFile = writeStoreFile();
+    readStoreFile(storeFile);
+  }
+
+  /**
+   * A prefetch that waits for <code>release</code>, interrupted or not.
+   */
+  private static Runnable blockingPrefetch(final CountDownLatch started,
+      final CountDownLatch release, final AtomicInteger interrupts) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        while (true) {
+          try {
+            release.await();
+            return;
+          } catch (InterruptedException e) {
+            interrupts.incrementAndGet();
+          }
+        }
+      }
+    };
+  }
+
+  private static void waitForCompleted(Path path) throws InterruptedException {
+    while (!PrefetchExecutor.isCompleted(path)) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testPrefetchHandedOver() throws Exception {
+    Path path = new Path(TEST_UTIL.getDataTestDir(), "testPrefetchHandedOver");
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    CountDownLatch firstRelease = new CountDownLatch(1);
+    AtomicInteger firstInterrupts = new AtomicInteger(0);
+    CountDownLatch secondStarted = new CountDownLatch(1);
+    CountDownLatch secondRelease = new CountDownLatch(1);
+    AtomicInteger secondInterrupts = new AtomicInteger(0);
+
+    PrefetchExecutor.Request first = PrefetchExecutor.request(conf, path,
+        blockingPrefetch(firstStarted, firstRelease, firstInterrupts));
+    firstStarted.await();
+    // A second reader of the same file waits for the running prefetch
+    PrefetchExecutor.Request second = PrefetchExecutor.request(conf, path,
+        blockingPrefetch(secondStarted, secondRelease, secondInterrupts));
+    assertEquals(1, secondStarted.getCount());
+
+    // Closing the first reader hands the prefetch over to the second
+    PrefetchExecutor.cancel(first);
+    secondStarted.await();
+    while (firstInterrupts.get() == 0) {
+      Thread.sleep(10);
+    }
+    // The cancelled prefetch finishing does not end the one running now
+    firstRelease.countDown();
+    Thread.sleep(100);
+    assertFalse(PrefetchExecutor.isCompleted(path));
+
+    secondRelease.countDown();
+    waitForCompleted(path);
+    assertEquals(0, secondInterrupts.get());
+    // Nothing left to cancel
+    PrefetchExecutor.cancel(second);
+  }
+
+  @Test(timeout=60000)
+  public void testCancelledPrefetchDoesNotEndNext() throws Exception {
+    Path path = new Path(TEST_UTIL.getDataTestDir(),
+        "testCancelledPrefetchDoesNotEndNext");
+    CountDownLatch oldStarted = new CountDownLatch(1);
+    CountDownLatch oldRelease = new CountDownLatch(1);
+    AtomicInteger oldInterrupts = new AtomicInteger(0);
+    PrefetchExecutor.Request old = PrefetchExecutor.request(conf, path,
+        blockingPrefetch(oldStarted, oldRelease, oldInterrupts));
+    oldStarted.await();
+    PrefetchExecutor.cancel(old);
+    assertTrue(PrefetchExecutor.isCompleted(path));
+
+    // The file is opened again while the cancelled prefetch is still running
+    CountDownLatch newStarted = new CountDownLatch(1);
+    CountDownLatch newRelease = new CountDownLatch(1);
+    PrefetchExecutor.Request reopened = PrefetchExecutor.request(conf, path,
+        blockingPrefetch(newStarted, newRelease, new AtomicInteger(0)));
+    newStarted.await();
+    oldRelease.countDown();
+    Thread.sleep(100);
+    assertFalse(PrefetchExecutor.isCompleted(path));
+
+    PrefetchExecutor.cancel(reopened);
+    newRelease.countDown();
+    assertTrue(PrefetchExecutor.isCompleted(path));
+  }
+
+  private void readStoreFile(Path storeFilePath) throws Exception {
+    // Open the file, which starts the prefetch
+    HFileReaderV2 reader = (HFileReaderV2) HFile.createReader(fs, storeFilePath, cacheConf);
+
+    while (!PrefetchExecutor.isCompleted(storeFilePath)) {
+      // Sleep for a bit
+      Thread.sleep(1000);
+    }
+
+    // Every block, whatever its type, is in the cache now
+    BlockCache blockCache = cacheConf.getBlockCache();
+    long offset = 0;
+    HFileBlock prevBlock = null;
+    while (offset < reader.getTrailer().getLoadOnOpenDataOffset()) {
+      long onDiskSize = -1;
+      if (prevBlock != null) {
+         onDiskSize = prevBlock.getNextBlockOnDiskSizeWithHeader();
+      }
+      HFileBlock block = reader.readBlock(offset, onDiskSize, false, true, false, null);
+      BlockCacheKey blockCacheKey = new BlockCacheKey(reader.getName(), offset,
+          DataBlockEncoding.NONE, block.getBlockType());
+      boolean isCached = blockCache.getBlock(blockCacheKey, true, false) != null;
+      assertTrue("Block " + block + " not cached", isCached);
+      prevBlock = block;
+      offset += block.getOnDiskSizeWithHeader();
+    }
+
+    reader.close(true);
+  }
+
+  private Path writeStoreFile() throws IOException {
+    Path storeFileParentDir = new Path(TEST_UTIL.getDataTestDir(), "TestPrefetch");
+    StoreFile.Writer sfw = new StoreFile.WriterBuilder(conf, cacheConf, fs,
+        DATA_BLOCK_SIZE)
+            .withOutputDir(storeFileParentDir)
+            .withComparator(KeyValue.COMPARATOR)
+            .withBloomType(BloomType.ROW)
+            .withMaxKeyCount(NUM_KV)
+            .build();
+
+    final int rowLen = 32;
+    for (int i = 0; i < NUM_KV; ++i) {
+      byte[] k = TestHFileWriterV2.randomOrderedKey(RNG, i);
+      byte[] v = TestHFileWriterV2.randomValue(RNG);
+      int cfLen = RNG.nextInt(k.length - rowLen + 1);
+      KeyValue kv = new KeyValue(
+          k, 0, rowLen,
+          k, rowLen, cfLen,
+          k, rowLen + cfLen, k.length - rowLen - cfLen,
+          RNG.nextLong(),
+          generateKeyType(RNG),
+          v, 0, v.length);
+      sfw.append(kv);
+    }
+
+    sfw.close();
+    return sfw.getPath();
+  }
+
+  public static KeyValue.Type generateKeyType(Random rand) {
+    if (rand.nextBoolean()) {
+      // Let's make half of KVs puts.
+      return KeyValue.Type.Put;
+    } else {
+      KeyValue.Type keyType =
+          KeyValue.Type.values()[1 + rand.nextInt(NUM_VALID_KEY_TYPES)];
+      if (keyType == KeyValue.Type.Minimum || keyType == KeyValue.Type.Maximum)
+      {
+        throw new RuntimeException("Generated an invalid key type: " + keyType
+            + ". " + "Probably the layout of KeyValue.Type has changed.");
+      }
+      return keyType;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link TinyLfuBlockCachePolicy} and its {@link FrequencySketch}.
+ */
+@Category(SmallTests.class)
+public class TestTinyLfuBlockCachePolicy {
+
+  @Test
+  public void testFrequencySketch() {
+    FrequencySketch sketch = new FrequencySketch(1000);
+    int hash = "block".hashCode();
+    assertEquals(0, sketch.frequency(hash));
+    sketch.increment(hash);
+    assertEquals(1, sketch.frequency(hash));
+    for (int i = 0; i < 5; i++) {
+      sketch.increment(hash);
+    }
+    assertEquals(6, sketch.frequency(hash));
+    for (int i = 0; i < 100; i++) {
+      sketch.increment(hash);
+    }
+    assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(hash));
+
+    // Aging halves the counters and forgets the first occurrence
+    sketch.reset();
+    assertEquals(7, sketch.frequency(hash));
+  }
+
+  @Test
+  public void testScanDoesNotFlushHotBlocks() {
+    long blockHeapSize = new CachedBlock(new BlockCacheKey("hot", 0),
+        new BlockCachePolicyEvaluation.Block(), 0).heapSize();
+    Configuration conf = new Configuration();
+    conf.set(BlockCachePolicy.POLICY_CLASS_KEY,
+        TinyLfuBlockCachePolicy.class.getName());
+    LruBlockCache cache = new LruBlockCache(100 * blockHeapSize,
+        blockHeapSize, false, conf);
+    try {
+      TinyLfuBlockCachePolicy policy = (TinyLfuBlockCachePolicy) cache.getPolicy();
+      assertNotNull(policy);
+
+      // Warm up 80 hot blocks, more than the multi access share of the
+      // priority buckets
+      int hotBlocks = 80;
+      for (int round = 0; round < 5; round++) {
+        for (int i = 0; i < hotBlocks; i++) {
+          BlockCacheKey key = new BlockCacheKey("hot", i);
+          if (cache.getBlock(key, true, false) == null) {
+            cache.cacheBlock(key, new BlockCachePolicyEvaluation.Block());
+          }
+        }
+      }
+
+      // Scan 1000 blocks, each once
+      for (int i = 0; i < 1000; i++) {
+        BlockCacheKey key = new BlockCacheKey("scan", i);
+        assertNull(cache.getBlock(key, true, false));
+        cache.cacheBlock(key, new BlockCachePolicyEvaluation.Block());
+      }
+      assertTrue(policy.getRejectedCount() > 0);
+      assertTrue(cache.getEvictedCount() > 0);
+
+      // Eviction samples, so a few hot blocks may go
+      int cached = 0;
+      for (int i = 0; i < hotBlocks; i++) {
+        if (cache.containsBlock(new BlockCacheKey("hot", i))) cached++;
+      }
+      assertTrue("Only " + cached + " hot blocks left", cached >= hotBlocks * 0.8);
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testHitRatioOnMixedTrace() {
+    BlockCachePolicyEvaluation evaluation =
+        new BlockCachePolicyEvaluation(200, 300, 2, 100, 200000);
+    evaluation.run(null);
+    double lru = evaluation.getGetHitRatio();
+    evaluation.run(TinyLfuBlockCachePolicy.class);
+    double tinyLfu = evaluation.getGetHitRatio();
+    assertTrue("TinyLFU get hit ratio " + tinyLfu + " not above LRU's " + lru,
+        tinyLfu > lru);
+  }
+
+  @Test
+  public void testNoPolicyByDefault() {
+    LruBlockCache cache = new LruBlockCache(100000, 1000, false, new Configuration());
+    try {
+      assertNull(cache.getPolicy());
+    } finally {
+      cache.shutdown();
+    }
+  }
+}
@@ -59,6 +59,7 @@ import org.apache.hadoop.hbase.util.FSUtils;
 import org.apache.hadoop.hbase.util.JVMClusterUtil.RegionServerThread;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.zookeeper.ZKAssign;
+import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -84,6 +85,10 @@ public class TestDistributedLogSplitting {
   HBaseTestingUtility TEST_UTIL;
 
   private void startCluster(int num_rs) throws Exception{
+    startCluster(num_rs, false);
+  }
+
+  private void startCluster(int num_rs, boolean logReplay) throws Exception{
     SplitLogCounters.resetCounters();
     LOG.info("Starting cluster");
     conf = HBaseConfiguration.create();
@@ -93,6 +98,7 @@ public class TestDistributedLogSplitting {
     conf.setInt(HConstants.REGIONSERVER_INFO_PORT, -1);
     conf.setFloat(HConstants.LOAD_BALANCER_SLOP_KEY, (float) 100.0); // no load balancing
     conf.setBoolean(HConstants.DISTRIBUTED_LOG_SPLITTING_KEY, true);
+    conf.setBoolean(HConstants.DISTRIBUTED_LOG_REPLAY_KEY, logReplay);
     TEST_UTIL = new HBaseTestingUtility(conf);
     TEST_UTIL.startMiniCluster(NUM_MASTERS, num_rs);
     cluster = TEST_UTIL.getHBaseCluster();
@@ -274,6 +280,58 @@ public class TestDistributedLogSplitting {
 
 
 
+  @Test (timeout=300000)
+  public void testLogReplayAfterRSAbort() throws Exception {
+    LOG.info("testLogReplayAfterRSAbort");
+    final int NUM_REGIONS_TO_CREATE = 40;
+    final int NUM_ROWS_PER_REGION = 100;
+
+    startCluster(NUM_RS, true);
+
+    ZooKeeperWatcher zkw = new ZooKeeperWatcher(conf,
+        "distributed log replay test", null);
+
+    HTable ht = installTable(zkw, "table", "family", NUM_REGIONS_TO_CREATE);
+    populateDataInTable(NUM_ROWS_PER_REGION, "family");
+
+    // The server shutdown handler only replays logs after assignment when
+    // the dead server did not carry ROOT or META
+    HRegionServer hrs = null;
+    for (RegionServerThread rst : cluster.getLiveRegionServerThreads()) {
+      boolean carryingCatalog = false;
+      for (HRegionInfo hri : ProtobufUtil.getOnlineRegions(rst.getRegionServer())) {
+        carryingCatalog |= hri.isMetaTable();
+      }
+      if (!carryingCatalog) {
+        hrs = rst.getRegionServer();
+        break;
+      }
+    }
+    assertTrue(hrs != null);
+    hrs.abort("testing");
+
+    long start = EnvironmentEdgeManager.currentTimeMillis();
+    while (cluster.getLiveRegionServerThreads().size() > (NUM_RS - 1)) {
+      if (EnvironmentEdgeManager.currentTimeMillis() - start > 60000) {
+        assertTrue(false);
+      }
+      Thread.sleep(200);
+    }
+
+    start = EnvironmentEdgeManager.currentTimeMillis();
+    while (getAllOnlineRegions(cluster).size() < (NUM_REGIONS_TO_CREATE + 2) ||
+        !ZKSplitLog.getRecoveringRegions(zkw).isEmpty()) {
+      if (EnvironmentEdgeManager.currentTimeMillis() - start > 60000) {
+        assertTrue("Timedout", false);
+      }
+      Thread.sleep(200);
+    }
+
+    assertEquals(NUM_REGIONS_TO_CREATE * NUM_ROWS_PER_REGION,
+        TEST_UTIL.countRows(ht));
+    ht.close();
+  }
+
   @Test(timeout=30000)
   public void testDelayedDeleteOnFailure() throws Exception {
     LOG.info("testDelayedDeleteOnFailure");
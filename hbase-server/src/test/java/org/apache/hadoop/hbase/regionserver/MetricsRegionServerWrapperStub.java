@@ -186,6 +186,31 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 419;
   }
 
+  @Override
+  public long getBlockCacheCompressedHitCount() {
+    return 423;
+  }
+
+  @Override
+  public long getBlockCacheUnpackTime() {
+    return 424;
+  }
+
+  @Override
+  public long getMemStoreChunkPoolHitCount() {
+    return 420;
+  }
+
+  @Override
+  public long getMemStoreChunkPoolMissCount() {
+    return 421;
+  }
+
+  @Override
+  public long getMemStoreChunkPoolSize() {
+    return 422;
+  }
+
   @Override
   public void forceRecompute() {
     //IGNORED.
@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -54,6 +55,7 @@ import org.apache.hadoop.hbase.MiniHBaseCluster;
 import org.apache.hadoop.hbase.MultithreadedTestUtil;
 import org.apache.hadoop.hbase.MultithreadedTestUtil.RepeatingTestThread;
 import org.apache.hadoop.hbase.MultithreadedTestUtil.TestThread;
+import org.apache.hadoop.hbase.RegionInRecoveryException;
 import org.apache.hadoop.hbase.client.Append;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
@@ -234,6 +236,47 @@ public class TestHRegion extends HBaseTestCase {
     scanner1.close();
   }
 
+  public void testFlushLargeStoresPolicy() throws Exception {
+    String method = "testFlushLargeStoresPolicy";
+    byte[] tableName = Bytes.toBytes(method);
+    byte[] large = Bytes.toBytes("large");
+    byte[] small = Bytes.toBytes("small");
+    Configuration conf = HBaseConfiguration.create(this.conf);
+    conf.set(FlushPolicy.FLUSH_POLICY_KEY, FlushLargeStoresPolicy.class.getName());
+    conf.setLong(FlushLargeStoresPolicy.FLUSH_SIZE_LOWER_BOUND_KEY, 10000);
+    this.region = initHRegion(tableName, method, conf, large, small);
+    try {
+      for (int i = 0; i < 100; i++) {
+        Put put = new Put(Bytes.toBytes("row" + i));
+        put.add(large, Bytes.toBytes("q"), new byte[200]);
+        region.put(put);
+      }
+      Put put = new Put(Bytes.toBytes("row"));
+      put.add(small, Bytes.toBytes("q"), Bytes.toBytes("v"));
+      region.put(put);
+      Store largeStore = region.getStore(large);
+      Store smallStore = region.getStore(small);
+      long smallSize = smallStore.getMemStoreSize() - MemStore.DEEP_OVERHEAD;
+
+      // Only the store over the lower bound is flushed
+      region.flushcache(false);
+      assertEquals(1, largeStore.getStorefilesCount());
+      assertEquals(MemStore.DEEP_OVERHEAD, largeStore.getMemStoreSize());
+      assertEquals(0, smallStore.getStorefilesCount());
+      assertEquals(smallSize, region.memstoreSize.get());
+
+      // An explicit flush writes out everything
+      region.flushcache();
+      assertEquals(1, smallStore.getStorefilesCount());
+      assertEquals(0, region.memstoreSize.get());
+      Result result = region.get(new Get(Bytes.toBytes("row")), null);
+      assertEquals(1, result.size());
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
   public void testSkipRecoveredEditsReplay() throws Exception {
     String method = "testSkipRecoveredEditsReplay";
     byte[] tableName = Bytes.toBytes(method);
@@ -286,6 +329,82 @@ public class TestHRegion extends HBaseTestCase {
     }
   }
 
+  public void testRecoveredEditsReplayInOrder() throws Exception {
+    // Several files decoded at once
+    replayRecoveredEditsInOrder("testRecoveredEditsReplayInOrder", 2);
+  }
+
+  public void testRecoveredEditsReplayOneThread() throws Exception {
+    replayRecoveredEditsInOrder("testRecoveredEditsReplayOneThread", 1);
+  }
+
+  public void testRecoveredEditsReplayNoThreads() throws Exception {
+    // Still replayed, by a single decoder
+    replayRecoveredEditsInOrder("testRecoveredEditsReplayNoThreads", 0);
+  }
+
+  /**
+   * Replays ten files of edits all writing the same cell and checks the last
+   * one wins, and that the files are gone.
+   * @param threads Number of decoder threads configured
+   */
+  private void replayRecoveredEditsInOrder(String method, int threads)
+      throws Exception {
+    byte[] tableName = Bytes.toBytes(method);
+    byte[] family = Bytes.toBytes("family");
+    byte[] qualifier = Bytes.toBytes("qualifier");
+    Configuration c = new Configuration(conf);
+    // In batches smaller than a file
+    c.setInt(RecoveredEditsDecoder.THREADS_KEY, threads);
+    c.setInt(RecoveredEditsDecoder.BATCH_SIZE_KEY, 3);
+    this.region = initHRegion(tableName, method, c, family);
+    try {
+      Path regiondir = region.getRegionDir();
+      FileSystem fs = region.getFilesystem();
+      byte[] regionName = region.getRegionInfo().getEncodedNameAsBytes();
+
+      Path recoveredEditsDir = HLogUtil.getRegionDirRecoveredEditsDir(regiondir);
+
+      long maxSeqId = 1049;
+      long minSeqId = 1000;
+      long time = System.currentTimeMillis();
+
+      // Every edit writes the same cell, only the last one applied survives
+      for (long i = minSeqId; i <= maxSeqId; i += 10) {
+        Path recoveredEdits = new Path(recoveredEditsDir, String.format("%019d", i));
+        fs.create(recoveredEdits);
+        HLog.Writer writer = HLogFactory.createWriter(fs,
+            recoveredEdits, c);
+        for (long j = i; j < i + 10; j++) {
+          WALEdit edit = new WALEdit();
+          edit.add(new KeyValue(row, family, qualifier,
+              time, KeyValue.Type.Put, Bytes.toBytes(j)));
+          writer.append(new HLog.Entry(new HLogKey(regionName, tableName,
+              j, time, HConstants.DEFAULT_CLUSTER_ID), edit));
+        }
+        writer.close();
+      }
+      MonitoredTask status = TaskMonitor.get().createStatus(method);
+      Map<byte[], Long> maxSeqIdInStores = new TreeMap<byte[], Long>(
+          Bytes.BYTES_COMPARATOR);
+      for (Store store : region.getStores().values()) {
+        maxSeqIdInStores.put(store.getColumnFamilyName().getBytes(),
+            minSeqId - 1);
+      }
+      long seqId = region.replayRecoveredEditsIfAny(regiondir, maxSeqIdInStores, null, status);
+      assertEquals(maxSeqId, seqId);
+      Get get = new Get(row);
+      Result result = region.get(get, null);
+      assertEquals(1, result.size());
+      assertTrue(Bytes.equals(Bytes.toBytes(maxSeqId), result.getValue(family, qualifier)));
+      NavigableSet<Path> left = HLogUtil.getSplitEditFilesSorted(fs, regiondir);
+      assertTrue(left == null || left.isEmpty());
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
   public void testSkipRecoveredEditsReplaySomeIgnored() throws Exception {
     String method = "testSkipRecoveredEditsReplaySomeIgnored";
     byte[] tableName = Bytes.toBytes(method);
@@ -1574,6 +1693,171 @@ public class TestHRegion extends HBaseTestCase {
     }
   }
 
+  private static Put replayPut(byte[] row, byte[] fam, byte[] qual, long ts,
+      byte[] value, long seqNum) {
+    Put put = new Put(row);
+    put.add(fam, qual, ts, value);
+    put.setAttribute(HRegion.LOG_REPLAY_ATTRIBUTE, Bytes.toBytes(seqNum));
+    return put;
+  }
+
+  public void testGetWhileRecovering() throws IOException {
+    byte [] tableName = Bytes.toBytes("testtable");
+    byte [] row = Bytes.toBytes("row");
+    byte [] fam = Bytes.toBytes("fam");
+    byte [] qual = Bytes.toBytes("qual");
+    byte [] value = Bytes.toBytes("value");
+
+    String method = this.getName();
+    this.region = initHRegion(tableName, method, conf, fam);
+    try {
+      region.setRecovering(true);
+      // The replay of the edits of the dead server is taken while recovering
+      OperationStatus[] codes = region.batchMutate(new Pair[] {
+          new Pair<Mutation, Integer>(replayPut(row, fam, qual, 1L, value, 1L), null) });
+      assertEquals(OperationStatusCode.SUCCESS, codes[0].getOperationStatusCode());
+
+      Get get = new Get(row);
+      get.addFamily(fam);
+      try {
+        region.get(get, null);
+        fail("Expected RegionInRecoveryException");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+
+      region.setRecovering(false);
+      Result r = region.get(get, null);
+      assertTrue(Bytes.equals(value, r.getValue(fam, qual)));
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  public void testWritesWhileRecovering() throws IOException {
+    byte [] tableName = Bytes.toBytes("testtable");
+    byte [] row = Bytes.toBytes("row");
+    byte [] fam = Bytes.toBytes("fam");
+    byte [] qual = Bytes.toBytes("qual");
+    byte [] value = Bytes.toBytes("value");
+
+    String method = this.getName();
+    this.region = initHRegion(tableName, method, conf, fam);
+    try {
+      region.setRecovering(true);
+      // Writes that do not read the row are taken
+      Put put = new Put(row);
+      put.add(fam, Bytes.toBytes("live"), value);
+      region.put(put);
+      Delete delete = new Delete(row);
+      delete.deleteColumns(fam, Bytes.toBytes("gone"));
+      region.delete(delete, null, true);
+
+      // The others would read what is not replayed yet
+      Increment inc = new Increment(row);
+      inc.addColumn(fam, qual, 1);
+      try {
+        region.increment(inc, null, true);
+        fail("Expected RegionInRecoveryException");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+      delete = new Delete(row);
+      delete.deleteColumn(fam, qual);
+      try {
+        region.delete(delete, null, true);
+        fail("Expected RegionInRecoveryException");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+      try {
+        region.batchMutate(new Pair[] {
+            new Pair<Mutation, Integer>(put, null),
+            new Pair<Mutation, Integer>(replayPut(row, fam, qual, 1L, value, 1L), null) });
+        fail("Expected DoNotRetryIOException");
+      } catch (DoNotRetryIOException e) {
+        // expected
+      }
+
+      region.setRecovering(false);
+      Get get = new Get(row);
+      get.addColumn(fam, Bytes.toBytes("live"));
+      assertTrue(Bytes.equals(value, region.get(get, null).getValue(fam, Bytes.toBytes("live"))));
+      // A replay coming in once the region recovered is turned away
+      try {
+        region.batchMutate(new Pair[] { new Pair<Mutation, Integer>(
+            replayPut(row, fam, qual, 1L, Bytes.toBytes("old"), 1L), null) });
+        fail("Expected DoNotRetryIOException");
+      } catch (DoNotRetryIOException e) {
+        // expected
+      }
+      get = new Get(row);
+      get.addColumn(fam, qual);
+      assertTrue(region.get(get, null).isEmpty());
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  /**
+   * Edits of the same cell replayed out of order, as when the logs of the
+   * dead server are split by several workers, keep the order of the log, and
+   * writes taken while recovering win over all of them.
+   */
+  public void testReplayOrderWhileRecovering() throws IOException {
+    byte [] tableName = Bytes.toBytes("testtable");
+    byte [] row = Bytes.toBytes("row");
+    byte [] fam = Bytes.toBytes("fam");
+    byte [] qual = Bytes.toBytes("qual");
+    byte [] live = Bytes.toBytes("live");
+
+    String method = this.getName();
+    this.region = initHRegion(tableName, method, conf, fam);
+    try {
+      region.setRecovering(true);
+      // Same row, column and timestamp
+      region.batchMutate(new Pair[] { new Pair<Mutation, Integer>(
+          replayPut(row, fam, qual, 1L, Bytes.toBytes("newer"), 20L), null) });
+      region.batchMutate(new Pair[] { new Pair<Mutation, Integer>(
+          replayPut(row, fam, qual, 1L, Bytes.toBytes("older"), 10L), null) });
+      region.batchMutate(new Pair[] { new Pair<Mutation, Integer>(
+          replayPut(row, fam, live, 1L, Bytes.toBytes("replayed"), 30L), null) });
+      Put put = new Put(row);
+      put.add(fam, live, 1L, Bytes.toBytes("written"));
+      region.put(put);
+      region.batchMutate(new Pair[] { new Pair<Mutation, Integer>(
+          replayPut(row, fam, live, 1L, Bytes.toBytes("replayed later"), 40L), null) });
+      // Without the sequence number of the log
+      Put noSeqNum = new Put(row);
+      noSeqNum.add(fam, qual, 1L, Bytes.toBytes("bad"));
+      noSeqNum.setAttribute(HRegion.LOG_REPLAY_ATTRIBUTE, HConstants.EMPTY_BYTE_ARRAY);
+      try {
+        region.batchMutate(new Pair[] { new Pair<Mutation, Integer>(noSeqNum, null) });
+        fail("Expected DoNotRetryIOException");
+      } catch (DoNotRetryIOException e) {
+        // expected
+      }
+      region.setRecovering(false);
+
+      Get get = new Get(row);
+      get.addFamily(fam);
+      Result r = region.get(get, null);
+      assertTrue(Bytes.equals(Bytes.toBytes("newer"), r.getValue(fam, qual)));
+      assertTrue(Bytes.equals(Bytes.toBytes("written"), r.getValue(fam, live)));
+
+      // Same once flushed
+      region.flushcache();
+      r = region.get(get, null);
+      assertTrue(Bytes.equals(Bytes.toBytes("newer"), r.getValue(fam, qual)));
+      assertTrue(Bytes.equals(Bytes.toBytes("written"), r.getValue(fam, live)));
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
   //Test that checked if there was anything special when reading from the ROOT
   //table. To be able to use this test you need to comment the part in
   //HTableDescriptor that checks for '-' and '.'. You also need to remove the
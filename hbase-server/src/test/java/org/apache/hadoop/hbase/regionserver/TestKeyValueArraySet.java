@@ -0,0 +1,102 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Iterator;
+import java.util.NavigableSet;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import junit.framework.TestCase;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestKeyValueArraySet extends TestCase {
+  private static final int TOTAL = 10;
+  private KeyValue [] kvs;
+  private KeyValueArraySet set;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    byte [] bytes = Bytes.toBytes(getName());
+    this.kvs = new KeyValue[TOTAL];
+    // Even rows only, so there is something between any two of them
+    for (int i = 0; i < TOTAL; i++) {
+      this.kvs[i] = new KeyValue(Bytes.toBytes(2 * i), bytes, bytes, bytes);
+    }
+    this.set = new KeyValueArraySet(KeyValue.COMPARATOR, this.kvs);
+  }
+
+  private KeyValue row(int i) {
+    return KeyValue.createFirstOnRow(Bytes.toBytes(i));
+  }
+
+  public void testIterators() throws Exception {
+    assertEquals(TOTAL, this.set.size());
+    int count = 0;
+    for (KeyValue kv: this.set) {
+      assertSame(this.kvs[count++], kv);
+    }
+    assertEquals(TOTAL, count);
+    Iterator<KeyValue> it = this.set.descendingIterator();
+    while (it.hasNext()) {
+      assertSame(this.kvs[--count], it.next());
+    }
+    assertEquals(0, count);
+    assertSame(this.kvs[0], this.set.first());
+    assertSame(this.kvs[TOTAL - 1], this.set.last());
+  }
+
+  public void testNavigation() throws Exception {
+    assertSame(this.kvs[2], this.set.get(this.kvs[2]));
+    assertNull(this.set.get(row(3)));
+    assertTrue(this.set.contains(this.kvs[3]));
+    // The first KeyValue on a row sorts before all KeyValues of that row.
+    assertSame(this.kvs[2], this.set.ceiling(row(4)));
+    assertSame(this.kvs[2], this.set.higher(row(3)));
+    assertSame(this.kvs[1], this.set.floor(row(3)));
+    assertSame(this.kvs[1], this.set.lower(row(4)));
+    assertNull(this.set.lower(this.kvs[0]));
+    assertNull(this.set.higher(this.kvs[TOTAL - 1]));
+  }
+
+  public void testViews() throws Exception {
+    NavigableSet<KeyValue> tail = this.set.tailSet(this.kvs[3], true);
+    assertEquals(TOTAL - 3, tail.size());
+    assertSame(this.kvs[3], tail.first());
+    tail = this.set.tailSet(this.kvs[3], false);
+    assertSame(this.kvs[4], tail.first());
+
+    NavigableSet<KeyValue> head = this.set.headSet(this.kvs[3], false);
+    assertEquals(3, head.size());
+    assertSame(this.kvs[2], head.last());
+    assertSame(this.kvs[2], head.descendingIterator().next());
+    head = this.set.headSet(this.kvs[3], true);
+    assertSame(this.kvs[3], head.last());
+
+    // Views of views stay within their bounds
+    NavigableSet<KeyValue> sub = tail.headSet(this.kvs[6], false);
+    assertEquals(2, sub.size());
+    assertSame(this.kvs[4], sub.first());
+    assertTrue(sub.tailSet(this.kvs[8], true).isEmpty());
+    assertTrue(this.set.tailSet(row(2 * TOTAL), true).isEmpty());
+  }
+}
@@ -194,6 +194,52 @@ public class TestMemStore extends TestCase {
     verifyScanAcrossSnapshot2(kv1, kv2);
   }
 
+  /**
+   * Scan a compacting memstore while its kvset moves into the pipeline, is
+   * compacted and is snapshotted.
+   * @throws IOException
+   */
+  public void testScanAcrossPipeline() throws IOException {
+    final byte[] f = Bytes.toBytes("f");
+    final byte[] q = Bytes.toBytes("q");
+    final byte[] v = Bytes.toBytes(3);
+
+    final KeyValue kv1 = new KeyValue(Bytes.toBytes(1), f, q, v);
+    final KeyValue kv2 = new KeyValue(Bytes.toBytes(2), f, q, v);
+
+    this.memstore = new MemStore(HBaseConfiguration.create(),
+        KeyValue.COMPARATOR, 1);
+    this.memstore.add(kv1.clone());
+    assertTrue(this.memstore.shouldFlushInMemory());
+    long size = this.memstore.heapSize();
+    assertTrue(this.memstore.flushInMemory());
+    assertFalse(this.memstore.shouldFlushInMemory());
+    assertEquals(size, this.memstore.heapSize());
+    this.memstore.add(kv2.clone());
+    verifyScanAcrossSnapshot2(kv1, kv2);
+
+    // Compact the pipeline into a flat segment
+    List<MemStore.Segment> pipeline = this.memstore.getPipeline();
+    assertEquals(1, pipeline.size());
+    size = this.memstore.heapSize();
+    long delta = this.memstore.swapPipeline(pipeline,
+        new KeyValue[] { pipeline.get(0).kvs.first() });
+    assertEquals(size + delta, this.memstore.heapSize());
+    assertTrue(this.memstore.getPipeline().get(0).kvs instanceof KeyValueArraySet);
+    verifyScanAcrossSnapshot2(kv1, kv2);
+    // Segments which are no longer in the pipeline are not swapped again
+    assertEquals(0, this.memstore.swapPipeline(pipeline, new KeyValue[0]));
+
+    // The snapshot takes the pipeline along
+    this.memstore.snapshot();
+    assertTrue(this.memstore.getPipeline().isEmpty());
+    assertEquals(1, this.memstore.getSnapshotSegments().size());
+    verifyScanAcrossSnapshot2(kv1, kv2);
+    this.memstore.clearSnapshot(this.memstore.getSnapshot());
+    assertTrue(this.memstore.getSnapshotSegments().isEmpty());
+    assertNull(this.memstore.getNextRow(null));
+  }
+
   private void verifyScanAcrossSnapshot2(KeyValue kv1, KeyValue kv2)
       throws IOException {
     MultiVersionConsistencyControl.resetThreadReadPoint(mvcc);
@@ -0,0 +1,109 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests a {@link RecoveredEditsDecoder} always ends the entries it hands over,
+ * whatever its reader fails with.
+ */
+@Category(SmallTests.class)
+public class TestRecoveredEditsDecoder {
+
+  /**
+   * Decodes from the given reader instead of opening the file.
+   */
+  private static RecoveredEditsDecoder decoder(final HLog.Reader reader) {
+    Configuration conf = new Configuration();
+    conf.setInt(RecoveredEditsDecoder.BATCH_SIZE_KEY, 1);
+    return new RecoveredEditsDecoder(null, conf, new Path("/recovered.edits/1")) {
+      @Override
+      HLog.Reader createReader() throws IOException {
+        return reader;
+      }
+    };
+  }
+
+  private static void decode(final RecoveredEditsDecoder decoder) throws Exception {
+    Thread t = new Thread(decoder);
+    t.start();
+    t.join(10000);
+  }
+
+  @Test (timeout=30000)
+  public void testReaderThrowsRuntimeException() throws Exception {
+    HLog.Reader reader = mock(HLog.Reader.class);
+    RuntimeException e = new IllegalStateException("corrupt");
+    when(reader.next()).thenReturn(new HLog.Entry()).thenThrow(e);
+    RecoveredEditsDecoder decoder = decoder(reader);
+    decode(decoder);
+
+    // The entry read before the failure is handed over, then the end
+    List<HLog.Entry> batch = decoder.take();
+    assertEquals(1, batch.size());
+    assertNull(decoder.take());
+    assertNotNull(decoder.getFailure());
+    assertTrue(decoder.getFailure().getCause() == e);
+    verify(reader).close();
+  }
+
+  @Test (timeout=30000)
+  public void testReaderThrowsError() throws Exception {
+    HLog.Reader reader = mock(HLog.Reader.class);
+    Error e = new OutOfMemoryError("testing");
+    when(reader.next()).thenThrow(e);
+    RecoveredEditsDecoder decoder = decoder(reader);
+    decode(decoder);
+
+    assertNull(decoder.take());
+    assertTrue(decoder.getFailure().getCause() == e);
+  }
+
+  @Test (timeout=30000)
+  public void testCreateReaderFails() throws Exception {
+    RecoveredEditsDecoder decoder = new RecoveredEditsDecoder(null, new Configuration(),
+        new Path("/recovered.edits/1")) {
+      @Override
+      HLog.Reader createReader() throws IOException {
+        throw new NullPointerException("no file system");
+      }
+    };
+    decode(decoder);
+
+    assertNull(decoder.take());
+    assertTrue(decoder.getFailure().getCause() instanceof NullPointerException);
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the recovering region markers of distributed log replay and the
+ * {@link RecoveringRegionWatcher} releasing the regions.
+ */
+@Category(MediumTests.class)
+public class TestRecoveringRegionWatcher {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] TABLE = Bytes.toBytes("testRecoveringRegionWatcher");
+
+  private static ZooKeeperWatcher zkw;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniZKCluster();
+    zkw = new ZooKeeperWatcher(TEST_UTIL.getConfiguration(),
+        "TestRecoveringRegionWatcher", null);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    zkw.close();
+    TEST_UTIL.shutdownMiniZKCluster();
+  }
+
+  private static HRegionInfo createRegionInfo(String startKey, String endKey) {
+    return new HRegionInfo(TABLE, Bytes.toBytes(startKey), Bytes.toBytes(endKey));
+  }
+
+  private static HRegion mockRegion(HRegionInfo hri) {
+    HRegion region = mock(HRegion.class);
+    when(region.getRegionInfo()).thenReturn(hri);
+    return region;
+  }
+
+  @Test
+  public void testMarkers() throws Exception {
+    HRegionInfo hri = createRegionInfo("a", "b");
+    String encodedName = hri.getEncodedName();
+    assertFalse(ZKSplitLog.isRegionRecovering(zkw, encodedName, false));
+
+    ZKSplitLog.markRegionRecovering(zkw, hri);
+    assertTrue(ZKSplitLog.isRegionRecovering(zkw, encodedName, false));
+    assertTrue(ZKSplitLog.isRecoveringRegionPath(zkw,
+        ZKSplitLog.getRecoveringRegionNode(zkw, encodedName)));
+    List<byte[]> regions = ZKSplitLog.getRecoveringRegions(zkw);
+    assertEquals(1, regions.size());
+    assertTrue(Bytes.equals(hri.getRegionName(), regions.get(0)));
+
+    ZKSplitLog.clearRegionRecovering(zkw, encodedName);
+    assertFalse(ZKSplitLog.isRegionRecovering(zkw, encodedName, false));
+    assertTrue(ZKSplitLog.getRecoveringRegions(zkw).isEmpty());
+    // Clearing twice is fine, the master may retry
+    ZKSplitLog.clearRegionRecovering(zkw, encodedName);
+  }
+
+  @Test
+  public void testRegionReleased() throws Exception {
+    RecoveringRegionWatcher watcher = new RecoveringRegionWatcher(zkw);
+    watcher.start();
+    HRegionInfo recovering = createRegionInfo("c", "d");
+    HRegionInfo closed = createRegionInfo("d", "e");
+    HRegionInfo other = createRegionInfo("e", "f");
+    ZKSplitLog.markRegionRecovering(zkw, recovering);
+    ZKSplitLog.markRegionRecovering(zkw, closed);
+
+    HRegion recoveringRegion = mockRegion(recovering);
+    HRegion closedRegion = mockRegion(closed);
+    HRegion otherRegion = mockRegion(other);
+    watcher.regionOpened(recoveringRegion);
+    watcher.regionOpened(closedRegion);
+    watcher.regionOpened(otherRegion);
+    verify(recoveringRegion).setRecovering(true);
+    verify(closedRegion).setRecovering(true);
+    verify(otherRegion, never()).setRecovering(anyBoolean());
+
+    watcher.regionClosed(closed.getEncodedName());
+    ZKSplitLog.clearRegionRecovering(zkw, closed.getEncodedName());
+    ZKSplitLog.clearRegionRecovering(zkw, recovering.getEncodedName());
+    verify(recoveringRegion, timeout(10000)).setRecovering(false);
+    verify(closedRegion, never()).setRecovering(false);
+  }
+}
@@ -129,6 +129,7 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
     boolean verify = false;
     boolean verbose = false;
     long roll = Long.MAX_VALUE;
+    int syncs = FSHLog.DEFAULT_SYNCS_IN_FLIGHT;
     // Process command line args
     for (int i = 0; i < args.length; i++) {
       String cmd = args[i];
@@ -155,6 +156,8 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
           verbose = true;
         } else if (cmd.equals("-roll")) {
           roll = Long.parseLong(args[++i]);
+        } else if (cmd.equals("-syncs")) {
+          syncs = Integer.parseInt(args[++i]);
         } else if (cmd.equals("-h")) {
           printUsageAndExit();
         } else if (cmd.equals("--help")) {
@@ -180,6 +183,7 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
       // Initialize Table Descriptor
       HTableDescriptor htd = createHTableDescriptor(numFamilies);
       final long whenToRoll = roll;
+      getConf().setInt(FSHLog.SYNCS_IN_FLIGHT_KEY, syncs);
       HLog hlog = new FSHLog(fs, rootRegionDir, "wals", getConf()) {
         int appends = 0;
         protected void doWrite(HRegionInfo info, HLogKey logKey, WALEdit logEdit,
@@ -198,8 +202,8 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
       try {
         region = openRegion(fs, rootRegionDir, htd, hlog);
         long putTime = runBenchmark(new HLogPutBenchmark(region, htd, numIterations, noSync), numThreads);
-        logBenchmarkResult("Summary: threads=" + numThreads + ", iterations=" + numIterations,
-          numIterations * numThreads, putTime);
+        logBenchmarkResult("Summary: threads=" + numThreads + ", iterations=" + numIterations +
+          ", syncs in flight=" + syncs, numIterations * numThreads, putTime);
         if (region != null) {
           closeRegion(region);
           region = null;
@@ -288,12 +292,16 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
     System.err.println("  -verify          Verify edits written in sequence");
     System.err.println("  -verbose         Output extra info; e.g. all edit seq ids when verifying");
     System.err.println("  -roll <N>        Roll the way every N appends");
+    System.err.println("  -syncs <N>       Number of syncs in flight at a time, 1 to not pipeline them");
     System.err.println("");
     System.err.println("Examples:");
     System.err.println("");
     System.err.println(" To run 100 threads on hdfs with log rolling every 10k edits and verification afterward do:");
     System.err.println(" $ ./bin/hbase org.apache.hadoop.hbase.regionserver.wal.HLogPerformanceEvaluation \\");
     System.err.println("    -conf ./core-site.xml -path hdfs://example.org:7000/tmp -threads 100 -roll 10000 -verify");
+    System.err.println("");
+    System.err.println(" To compare against syncs pipelined three deep, add:");
+    System.err.println("    -syncs 3");
     System.exit(1);
   }
 
@@ -22,9 +22,15 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -148,6 +154,17 @@ public class TestHLog  {
     assertEquals(0, errCode);
   }
 
+  /**
+   * Same with the syncs pipelined, and rolls while syncs are in flight.
+   * @throws Exception
+   */
+  @Test
+  public void testMaintainOrderWithPipelinedSyncs() throws Exception {
+    int errCode = HLogPerformanceEvaluation.innerMain(new String [] {"-threads", "3",
+      "-verify", "-iterations", "3000", "-syncs", "3", "-roll", "2000"});
+    assertEquals(0, errCode);
+  }
+
   /**
    * Just write multiple logs then split.  Before fix for HADOOP-2283, this
    * would fail.
@@ -723,6 +740,292 @@ public class TestHLog  {
     }
   }
 
+  /**
+   * A flush of only some stores of a region must leave the region's oldest
+   * unflushed edit at the oldest edit of the other stores.
+   */
+  @Test
+  public void testPerFamilyFlushSeqNum() throws Exception {
+    final byte [] tableName = Bytes.toBytes("testPerFamilyFlushSeqNum");
+    final byte [] a = Bytes.toBytes("a");
+    final byte [] b = Bytes.toBytes("b");
+    HLog log = HLogFactory.createHLog(fs, hbaseDir, getName(), conf);
+    try {
+      HRegionInfo hri = new HRegionInfo(tableName,
+          HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+      byte [] region = hri.getEncodedNameAsBytes();
+      addFamilyEdit(log, hri, tableName, a);
+      addFamilyEdit(log, hri, tableName, b);
+      long oldestB = log.getSequenceNumber();
+      addFamilyEdit(log, hri, tableName, a);
+
+      Set<byte []> families = new TreeSet<byte []>(Bytes.BYTES_COMPARATOR);
+      families.add(a);
+      long seqId = log.startCacheFlush(region, families);
+      assertEquals(oldestB, log.getOldestUnflushedSeqNum(region));
+      log.completeCacheFlush(region, tableName, seqId, false);
+      assertEquals(oldestB, log.getOldestUnflushedSeqNum(region));
+
+      // Aborting a flush of the last family puts its oldest edit back
+      families.clear();
+      families.add(b);
+      log.startCacheFlush(region, families);
+      assertEquals(-1, log.getOldestUnflushedSeqNum(region));
+      log.abortCacheFlush(region);
+      assertEquals(oldestB, log.getOldestUnflushedSeqNum(region));
+
+      // Even if the other family got newer edits meanwhile
+      addFamilyEdit(log, hri, tableName, a);
+      long oldestA = log.getSequenceNumber();
+      log.startCacheFlush(region, families);
+      assertEquals(oldestA, log.getOldestUnflushedSeqNum(region));
+      log.abortCacheFlush(region);
+      assertEquals(oldestB, log.getOldestUnflushedSeqNum(region));
+
+      seqId = log.startCacheFlush(region);
+      log.completeCacheFlush(region, tableName, seqId, false);
+      assertEquals(-1, log.getOldestUnflushedSeqNum(region));
+    } finally {
+      if (log != null) log.closeAndDelete();
+    }
+  }
+
+  /**
+   * More handlers than the LogSyncer ring has slots must all get their edits
+   * synced, in sequence id order.
+   */
+  @Test
+  public void testSyncWithSmallRingBuffer() throws Exception {
+    final byte [] tableName = Bytes.toBytes("testSyncWithSmallRingBuffer");
+    final int threads = 10;
+    final int edits = 100;
+    Configuration c = new Configuration(conf);
+    c.setInt(FSHLog.RING_BUFFER_SLOTS_KEY, 4);
+    final HLog log = HLogFactory.createHLog(fs, hbaseDir, getName(), c);
+    final HRegionInfo hri = new HRegionInfo(tableName,
+        HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+    final HTableDescriptor htd = new HTableDescriptor();
+    htd.addFamily(new HColumnDescriptor(tableName));
+    try {
+      Thread [] appenders = new Thread[threads];
+      final List<Throwable> errors =
+          Collections.synchronizedList(new ArrayList<Throwable>());
+      for (int t = 0; t < threads; t++) {
+        appenders[t] = new Thread() {
+          public void run() {
+            try {
+              for (int i = 0; i < edits; i++) {
+                WALEdit kvs = new WALEdit();
+                kvs.add(new KeyValue(Bytes.toBytes(i), tableName, tableName));
+                log.append(hri, tableName, kvs, System.currentTimeMillis(), htd);
+              }
+            } catch (Throwable e) {
+              errors.add(e);
+            }
+          }
+        };
+        appenders[t].start();
+      }
+      for (Thread t : appenders) {
+        t.join();
+      }
+      assertTrue(errors.toString(), errors.isEmpty());
+    } finally {
+      log.close();
+    }
+    Reader reader = HLogFactory.createReader(fs, ((FSHLog) log).computeFilename(), c);
+    try {
+      int count = 0;
+      long lastSeqNum = -1;
+      HLog.Entry entry;
+      while ((entry = reader.next()) != null) {
+        assertTrue(entry.getKey().getLogSeqNum() > lastSeqNum);
+        lastSeqNum = entry.getKey().getLogSeqNum();
+        count++;
+      }
+      assertEquals(threads * edits, count);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Pipelined syncs call {@link HLog.Writer#sync()} while the syncer appends
+   * the next batch.  Every entry must still read back whole and in order.
+   */
+  @Test
+  public void testConcurrentAppendAndSync() throws Exception {
+    final byte [] tableName = Bytes.toBytes("testConcurrentAppendAndSync");
+    final byte [] region = Bytes.toBytes("region");
+    final int edits = 5000;
+    // Created without its parent
+    fs.mkdirs(dir);
+    Path path = new Path(dir, "testConcurrentAppendAndSync");
+    final HLog.Writer writer = HLogFactory.createWriter(fs, path, conf);
+    final AtomicBoolean appending = new AtomicBoolean(true);
+    final AtomicInteger syncs = new AtomicInteger(0);
+    final List<Throwable> errors =
+        Collections.synchronizedList(new ArrayList<Throwable>());
+    try {
+      Thread syncer = new Thread() {
+        public void run() {
+          try {
+            while (appending.get()) {
+              writer.sync();
+              syncs.incrementAndGet();
+            }
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      };
+      syncer.start();
+      try {
+        for (int i = 0; i < edits; i++) {
+          WALEdit kvs = new WALEdit();
+          // Values of varying lengths so syncs land mid-entry
+          kvs.add(new KeyValue(Bytes.toBytes(i), tableName, tableName,
+              new byte[i % 1000]));
+          writer.append(new HLog.Entry(new HLogKey(region, tableName, i,
+              System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID), kvs));
+        }
+      } finally {
+        appending.set(false);
+        syncer.join();
+      }
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertTrue(syncs.get() > 0);
+      writer.sync();
+    } finally {
+      writer.close();
+    }
+    Reader reader = HLogFactory.createReader(fs, path, conf);
+    try {
+      int count = 0;
+      HLog.Entry entry;
+      while ((entry = reader.next()) != null) {
+        assertEquals(count, entry.getKey().getLogSeqNum());
+        KeyValue kv = entry.getEdit().getKeyValues().get(0);
+        assertEquals(count, Bytes.toInt(kv.getRow()));
+        assertEquals(count % 1000, kv.getValueLength());
+        count++;
+      }
+      assertEquals(edits, count);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * The log roll asked for by a failed sync must close the failed writer and
+   * write the edits it did not sync to the next one, not abort.
+   */
+  @Test
+  public void testRollAfterFailedSync() throws Exception {
+    final byte [] tableName = Bytes.toBytes("testRollAfterFailedSync");
+    final int edits = 10;
+    final FailingSyncHLog log =
+        new FailingSyncHLog(fs, hbaseDir, getName(), conf);
+    final HRegionInfo hri = new HRegionInfo(tableName,
+        HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+    final HTableDescriptor htd = new HTableDescriptor();
+    htd.addFamily(new HColumnDescriptor(tableName));
+    Path newFile;
+    try {
+      log.failSyncs.set(true);
+      final List<Throwable> errors =
+          Collections.synchronizedList(new ArrayList<Throwable>());
+      Thread appender = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < edits; i++) {
+              WALEdit kvs = new WALEdit();
+              kvs.add(new KeyValue(Bytes.toBytes(i), tableName, tableName));
+              log.append(hri, tableName, kvs, System.currentTimeMillis(), htd);
+            }
+          } catch (Throwable e) {
+            errors.add(e);
+          }
+        }
+      };
+      appender.start();
+      while (log.failedSyncs.get() == 0) {
+        Thread.sleep(10);
+      }
+      log.failSyncs.set(false);
+      // What the syncer's roll request would do
+      log.rollWriter(true);
+      appender.join();
+      assertTrue(errors.toString(), errors.isEmpty());
+      newFile = log.computeFilename();
+    } finally {
+      log.close();
+    }
+    Reader reader = HLogFactory.createReader(fs, newFile, conf);
+    try {
+      int count = 0;
+      while (reader.next() != null) {
+        count++;
+      }
+      // The first edit was not synced on the old file
+      assertEquals(edits, count);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * A log whose writers fail their syncs while <code>failSyncs</code> is set.
+   */
+  static class FailingSyncHLog extends FSHLog {
+    // Null while the constructor rolls the first writer
+    final AtomicBoolean failSyncs;
+    final AtomicInteger failedSyncs;
+
+    FailingSyncHLog(FileSystem fs, Path root, String logDir,
+        Configuration conf) throws IOException {
+      super(fs, root, logDir, conf);
+      this.failSyncs = new AtomicBoolean(false);
+      this.failedSyncs = new AtomicInteger(0);
+    }
+
+    @Override
+    protected Writer createWriterInstance(final FileSystem fs, final Path path,
+        final Configuration conf) throws IOException {
+      final Writer writer = super.createWriterInstance(fs, path, conf);
+      return new Writer() {
+        @Override
+        public void init(FileSystem fs, Path path, Configuration c)
+            throws IOException {
+          writer.init(fs, path, c);
+        }
+
+        @Override
+        public void close() throws IOException {
+          writer.close();
+        }
+
+        @Override
+        public void sync() throws IOException {
+          if (failSyncs != null && failSyncs.get()) {
+            failedSyncs.incrementAndGet();
+            throw new IOException("Injected sync failure");
+          }
+          writer.sync();
+        }
+
+        @Override
+        public void append(Entry entry) throws IOException {
+          writer.append(entry);
+        }
+
+        @Override
+        public long getLength() throws IOException {
+          return writer.getLength();
+        }
+      };
+    }
+  }
 
   @Test
   public void testGetServerNameFromHLogDirectoryName() throws IOException {
@@ -777,6 +1080,17 @@ public class TestHLog  {
     }
   }
 
+  private void addFamilyEdit(HLog log, HRegionInfo hri, byte [] tableName,
+      byte [] family) throws IOException {
+    HTableDescriptor htd = new HTableDescriptor();
+    htd.addFamily(new HColumnDescriptor(family));
+    final byte [] row = Bytes.toBytes("row");
+    long timestamp = System.currentTimeMillis();
+    WALEdit cols = new WALEdit();
+    cols.add(new KeyValue(row, family, row, timestamp, row));
+    log.append(hri, tableName, cols, timestamp, htd);
+  }
+
   static class DumbWALActionsListener implements WALActionsListener {
     int increments = 0;
 
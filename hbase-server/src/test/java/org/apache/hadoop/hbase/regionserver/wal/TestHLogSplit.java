@@ -59,6 +59,10 @@ import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.LargeTests;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.wal.HLog.Entry;
 import org.apache.hadoop.hbase.regionserver.wal.HLog.Reader;
@@ -1213,6 +1217,79 @@ public class TestHLogSplit {
     assertEquals(1, fs.listStatus(corruptDir).length);
   }
 
+  /**
+   * The edits of a recovering region are sent as batches of puts and deletes
+   * marked as a log replay, without the cache flush markers.
+   */
+  @Test
+  public void testLogReplaySink() throws IOException {
+    Configuration c = new Configuration(conf);
+    c.setInt(HLogSplitter.REPLAY_BATCH_SIZE_KEY, 2);
+    HLogSplitter logSplitter = new HLogSplitter(
+        c, HBASEDIR, HLOGDIR, OLDLOGDIR, fs, null);
+    final List<List<Row>> batches = new ArrayList<List<Row>>();
+    HLogSplitter.LogReplaySink sink = logSplitter.new LogReplaySink(null) {
+      @Override
+      void batch(byte[] tableName, List<Row> actions) {
+        assertTrue(Bytes.equals(TABLE_NAME, tableName));
+        if (!actions.isEmpty()) {
+          batches.add(new ArrayList<Row>(actions));
+        }
+      }
+    };
+    byte[] region = Bytes.toBytes(REGIONS.get(0));
+    byte[] row1 = Bytes.toBytes("row1");
+    byte[] row2 = Bytes.toBytes("row2");
+    long ts = System.currentTimeMillis();
+    HLogSplitter.RegionEntryBuffer buffer =
+        new HLogSplitter.RegionEntryBuffer(TABLE_NAME, region);
+    WALEdit edit = new WALEdit();
+    edit.add(new KeyValue(row1, FAMILY, QUALIFIER, ts, VALUE));
+    edit.add(new KeyValue(row1, FAMILY, Bytes.toBytes("q2"), ts, VALUE));
+    appendReplayEntry(buffer, region, 1, edit);
+    edit = new WALEdit();
+    edit.add(new KeyValue(row2, FAMILY, QUALIFIER, ts, KeyValue.Type.Delete));
+    edit.add(new KeyValue(row2, FAMILY, Bytes.toBytes("q2"), ts, VALUE));
+    appendReplayEntry(buffer, region, 2, edit);
+    edit = new WALEdit();
+    edit.add(new KeyValue(HLog.METAROW, HLog.METAFAMILY, null, ts,
+        HLogUtil.COMPLETE_CACHE_FLUSH));
+    appendReplayEntry(buffer, region, 3, edit);
+    edit = new WALEdit();
+    edit.add(new KeyValue(row1, FAMILY, QUALIFIER, ts + 1, VALUE));
+    appendReplayEntry(buffer, region, 4, edit);
+
+    sink.replay(buffer);
+    assertEquals(4, sink.getEditsReplayed());
+    // The batch is sent once it has at least 2 mutations, after whole edits
+    assertEquals(2, batches.size());
+    List<Row> first = batches.get(0);
+    assertEquals(3, first.size());
+    assertTrue(first.get(0) instanceof Put);
+    assertEquals(2, ((Put) first.get(0)).size());
+    assertTrue(first.get(1) instanceof Delete);
+    assertTrue(first.get(2) instanceof Put);
+    assertTrue(Bytes.equals(row2, first.get(2).getRow()));
+    List<Row> second = batches.get(1);
+    assertEquals(1, second.size());
+    assertEquals(ts + 1, ((Put) second.get(0)).get(FAMILY, QUALIFIER).get(0).getTimestamp());
+    // Each mutation carries the sequence number of its edit
+    long[] seqNums = new long[] { 1, 2, 2, 4 };
+    int i = 0;
+    for (List<Row> batch : batches) {
+      for (Row r : batch) {
+        assertEquals(seqNums[i++], Bytes.toLong(
+            ((Mutation) r).getAttribute(HRegion.LOG_REPLAY_ATTRIBUTE)));
+      }
+    }
+  }
+
+  private void appendReplayEntry(HLogSplitter.RegionEntryBuffer buffer,
+      byte[] region, long seq, WALEdit edit) {
+    buffer.appendEntry(new Entry(new HLogKey(region, TABLE_NAME, seq,
+        System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID), edit));
+  }
+
   /**
    * @throws IOException
    * @see https://issues.apache.org/jira/browse/HBASE-4862
@@ -20,9 +20,11 @@ package org.apache.hadoop.hbase.regionserver.wal;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.util.List;
+import java.util.Random;
 
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.junit.Test;
@@ -63,8 +65,47 @@ public class TestKeyValueCompression {
     runTestCycle(kvs);
   }
 
+  @Test
+  public void testCompressedValues() throws Exception {
+    List<KeyValue> kvs = Lists.newArrayList();
+    byte[] large = new byte[1000];
+    for (int i = 0; i < large.length; i++) {
+      large[i] = (byte)(i % 10);
+    }
+    for (int i = 0; i < 400; i++) {
+      byte[] row = Bytes.toBytes("row" + (i % 10));
+      byte[] fam = Bytes.toBytes("fam");
+      byte[] qual = Bytes.toBytes("qual" + (i % 128));
+      // Short, empty, compressible and random values
+      byte[] value;
+      switch (i % 4) {
+        case 0: value = VALUE; break;
+        case 1: value = new byte[0]; break;
+        case 2: value = large; break;
+        default:
+          value = new byte[200];
+          new Random(i).nextBytes(value);
+      }
+      kvs.add(new KeyValue(row, fam, qual, 12345L, value));
+    }
+
+    int plain = runTestCycle(kvs, null, 0);
+    int compressed = runTestCycle(kvs, Compression.Algorithm.GZ, 16);
+    assertTrue("Compressed " + compressed + " >= plain " + plain,
+        compressed < plain);
+  }
+
   private void runTestCycle(List<KeyValue> kvs) throws Exception {
+    runTestCycle(kvs, null, 0);
+  }
+
+  /**
+   * @return the number of bytes the KeyValues took
+   */
+  private int runTestCycle(List<KeyValue> kvs,
+      Compression.Algorithm valueCompression, int minSize) throws Exception {
     CompressionContext ctx = new CompressionContext(LRUDictionary.class);
+    ctx.setValueCompression(valueCompression, minSize);
     DataOutputBuffer buf = new DataOutputBuffer(BUF_SIZE);
     for (KeyValue kv : kvs) {
       KeyValueCompression.writeKV(buf, kv, ctx);
@@ -76,6 +117,8 @@ public class TestKeyValueCompression {
     for (KeyValue kv : kvs) {
       KeyValue readBack = KeyValueCompression.readKV(in, ctx);
       assertEquals(kv, readBack);
+      assertTrue(Bytes.equals(kv.getValue(), readBack.getValue()));
     }
+    return buf.getLength();
   }
 }
@@ -0,0 +1,85 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test the mapping of regions to the HLogs of a region server.
+ */
+@Category(SmallTests.class)
+public class TestRegionGroupingStrategy {
+  private static final int GROUPS = 4;
+
+  @Test
+  public void testByRegion() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    RegionGroupingStrategy strategy = RegionGroupingStrategy.create(conf);
+    assertTrue(strategy instanceof RegionGroupingStrategy.ByRegion);
+    boolean[] used = new boolean[GROUPS];
+    for (int i = 0; i < 100; i++) {
+      HRegionInfo hri = new HRegionInfo(Bytes.toBytes("t"),
+          Bytes.toBytes(i), Bytes.toBytes(i + 1));
+      int group = strategy.group(hri, GROUPS);
+      assertTrue(group >= 0 && group < GROUPS);
+      assertEquals(group, strategy.group(hri, GROUPS));
+      used[group] = true;
+    }
+    for (boolean u : used) {
+      assertTrue(u);
+    }
+  }
+
+  @Test
+  public void testByTable() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(RegionGroupingStrategy.GROUPING_STRATEGY_KEY, "table");
+    RegionGroupingStrategy strategy = RegionGroupingStrategy.create(conf);
+    int group = strategy.group(new HRegionInfo(Bytes.toBytes("t"),
+        Bytes.toBytes("a"), Bytes.toBytes("b")), GROUPS);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(group, strategy.group(new HRegionInfo(Bytes.toBytes("t"),
+          Bytes.toBytes(i), Bytes.toBytes(i + 1)), GROUPS));
+    }
+  }
+
+  @Test (expected = IOException.class)
+  public void testUnknownStrategy() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(RegionGroupingStrategy.GROUPING_STRATEGY_KEY, "no.such.Strategy");
+    RegionGroupingStrategy.create(conf);
+  }
+
+  @Test
+  public void testGetPrefix() {
+    assertEquals("rs", RegionGroupingStrategy.getPrefix("rs", 0));
+    assertEquals("rs.3", RegionGroupingStrategy.getPrefix("rs", 3));
+  }
+}
@@ -423,9 +423,9 @@ public class TestWALReplay {
         final AtomicInteger countOfRestoredEdits = new AtomicInteger(0);
         HRegion region3 = new HRegion(basedir, wal3, newFS, newConf, hri, htd, null) {
           @Override
-          protected boolean restoreEdit(Store s, KeyValue kv) {
-            boolean b = super.restoreEdit(s, kv);
-            countOfRestoredEdits.incrementAndGet();
+          protected boolean restoreEdits(Store s, List<KeyValue> kvs) {
+            boolean b = super.restoreEdits(s, kvs);
+            countOfRestoredEdits.addAndGet(kvs.size());
             return b;
           }
         };
@@ -723,6 +723,11 @@ public class TestWALReplay {
         throw new RuntimeException("Exception flushing", e);
       }
     }
+
+    @Override
+    public void requestFlush(HRegion region, boolean forceFlushAllStores) {
+      requestFlush(region);
+    }
   }
 
   private void addWALEdits (final byte [] tableName, final HRegionInfo hri,
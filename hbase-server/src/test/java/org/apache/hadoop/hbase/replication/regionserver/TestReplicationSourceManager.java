@@ -19,6 +19,8 @@
 package org.apache.hadoop.hbase.replication.regionserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -215,6 +217,34 @@ public class TestReplicationSourceManager {
     // TODO Need a case with only 2 HLogs and we only want to delete the first one
   }
 
+  @Test
+  public void testLogReplayNotReplicated() throws Exception {
+    HLogKey key = new HLogKey(hri.getRegionName(), test, 1,
+        System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID);
+    WALEdit edit = new WALEdit();
+    edit.add(new KeyValue(r1, f1, r1));
+    replication.visitLogEntryBeforeWrite(htd, key, edit);
+    assertTrue(edit.getScopes().containsKey(f1));
+
+    // The edits of a dead server replayed into a recovering region were
+    // already in its log
+    edit = new WALEdit();
+    edit.add(new KeyValue(r1, f1, r1));
+    edit.setLogReplay(true);
+    replication.visitLogEntryBeforeWrite(htd, key, edit);
+    assertNull(edit.getScopes());
+  }
+
+  @Test
+  public void testGetLogGroup() throws Exception {
+    String prefix = URLEncoder.encode("regionserver:60020", "UTF8");
+    assertEquals(prefix, ReplicationSourceManager.getLogGroup(prefix + ".1000"));
+    assertEquals(prefix,
+        ReplicationSourceManager.getLogGroup(prefix + ".1000" + HLog.META_HLOG_FILE_EXTN));
+    assertEquals(prefix + ".2",
+        ReplicationSourceManager.getLogGroup(prefix + ".2.1000"));
+  }
+
   static class DummyServer implements Server {
 
     @Override
@@ -0,0 +1,126 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link BytesPrimitiveMap} and the {@link AccumulatorReader} filling it.
+ */
+@Category(SmallTests.class)
+public class TestBytesPrimitiveMap {
+  private static final byte[] ROW = Bytes.toBytes("row");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  private static byte[] key(int i) {
+    return Bytes.toBytes("key" + i);
+  }
+
+  @Test
+  public void testLongs() {
+    BytesPrimitiveMap map = new BytesPrimitiveMap();
+    assertEquals(-1L, map.getLong(key(0), -1L));
+    assertFalse(map.containsKey(key(0)));
+    // Past the initial capacity of 16 slots
+    for (int i = 0; i < 100; i++) {
+      map.putLong(key(i), i);
+    }
+    assertEquals(100, map.size());
+    assertTrue(map.capacity() >= 200);
+    for (int i = 0; i < 100; i++) {
+      // Equal keys, not the same arrays
+      assertTrue(map.containsKey(key(i)));
+      assertEquals(i, map.getLong(key(i), -1L));
+    }
+    assertEquals(10L, map.addLong(key(0), 10L));
+    assertEquals(5L, map.addLong(key(100), 5L));
+    assertEquals(101, map.size());
+    assertEquals(99 * 100 / 2 + 10 + 5, map.sumLong());
+
+    long sum = 0;
+    int keys = 0;
+    for (int i = 0; i < map.capacity(); i++) {
+      if (map.keyAt(i) != null) {
+        sum += map.longAt(i);
+        keys++;
+      }
+    }
+    assertEquals(map.sumLong(), sum);
+    assertEquals(map.size(), keys);
+  }
+
+  @Test
+  public void testDoubles() {
+    BytesPrimitiveMap map = new BytesPrimitiveMap(50);
+    assertEquals(0.5, map.getDouble(key(0), 0.5), 0d);
+    for (int i = 0; i < 50; i++) {
+      map.putDouble(key(i), i / 4.0);
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i / 4.0, map.getDouble(key(i), -1), 0d);
+    }
+    assertEquals(-1.25, map.addDouble(key(0), -1.25), 0d);
+    assertEquals(49 * 50 / 8.0 - 1.25, map.sumDouble(), 1e-9);
+  }
+
+  @Test
+  public void testAccumulatorReader() throws Exception {
+    byte[] other = Bytes.toBytes("other");
+    KeyValue[] kvs = new KeyValue[] {
+        new KeyValue(ROW, FAMILY, Bytes.toBytes("_partial_result_"), 1L, Bytes.toBytes(100L)),
+        new KeyValue(ROW, FAMILY, Bytes.toBytes("a"), 1L, Bytes.toBytes(3)),
+        new KeyValue(ROW, FAMILY, Bytes.toBytes("b"), 1L, Bytes.toBytes(4L)),
+        new KeyValue(ROW, other, Bytes.toBytes("c"), 1L, Bytes.toBytes(5L))
+    };
+    HRegion region = mock(HRegion.class);
+    when(region.get(any(Get.class), (Integer) isNull())).thenReturn(new Result(kvs));
+    AccumulatorReader reader = new AccumulatorReader(Bytes.toBytes("t"), FAMILY, ROW, 2L, region);
+    BytesPrimitiveMap longs = reader.GetLongValues();
+    assertEquals(2, longs.size());
+    assertEquals(3L, longs.getLong(Bytes.toBytes("a"), -1L));
+    assertEquals(4L, longs.getLong(Bytes.toBytes("b"), -1L));
+    assertEquals(7L, longs.sumLong());
+
+    kvs = new KeyValue[] {
+        new KeyValue(ROW, FAMILY, Bytes.toBytes("a"), 1L, Bytes.toBytes(0.5f)),
+        new KeyValue(ROW, FAMILY, Bytes.toBytes("b"), 1L, Bytes.toBytes(0.25))
+    };
+    when(region.get(any(Get.class), (Integer) isNull())).thenReturn(new Result(kvs));
+    reader = new AccumulatorReader(Bytes.toBytes("t"), FAMILY, ROW, 2L, region);
+    BytesPrimitiveMap doubles = reader.GetDoubleValues();
+    assertEquals(2, doubles.size());
+    assertEquals(0.5, doubles.getDouble(Bytes.toBytes("a"), -1), 0d);
+    assertEquals(0.75, doubles.sumDouble(), 0d);
+  }
+}
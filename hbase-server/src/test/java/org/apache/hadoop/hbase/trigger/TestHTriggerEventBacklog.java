@@ -0,0 +1,250 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the off-heap ring and the spill file of {@link HTriggerEventBacklog}.
+ */
+@Category(SmallTests.class)
+public class TestHTriggerEventBacklog {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final HTriggerKey KEY = new HTriggerKey(Bytes.toBytes("t"),
+      Bytes.toBytes("f"), Bytes.toBytes("c"));
+  /**
+   * Length prefix, header and key of an event of {@link #event(int, long)}, so the
+   * ring holds two of them
+   */
+  private static final int RECORD_SIZE = 4 + 29 + 5 + 5 + 5 + 7 + 12 + 4;
+  private static final int CAPACITY = 2 * RECORD_SIZE + RECORD_SIZE / 2;
+
+  private String spillDir;
+  private HTriggerEventBacklog backlog;
+
+  @Before
+  public void setUp() {
+    spillDir = TEST_UTIL.getDataTestDir("TestHTriggerEventBacklog").toString();
+    backlog = new HTriggerEventBacklog("backlog", CAPACITY, false, spillDir);
+  }
+
+  @After
+  public void tearDown() {
+    backlog.close();
+  }
+
+  private static HTriggerEvent event(int row, long version) {
+    return event(row, version, null);
+  }
+
+  private static HTriggerEvent event(int row, long version, HRegion region) {
+    return new HTriggerEvent(KEY, Bytes.toBytes(String.format("r%02d", row)),
+        Bytes.toBytes(version), null, version, region);
+  }
+
+  private void assertTaken(int row, long version) throws Exception {
+    HTriggerEvent hte = backlog.take();
+    assertArrayEquals(Bytes.toBytes(String.format("r%02d", row)), hte.getRowKey());
+    assertEquals(version, hte.getVersion());
+    assertEquals(version, Bytes.toLong(hte.getNewValue()));
+  }
+
+  @Test
+  public void testRingWraparound() throws Exception {
+    backlog.append(event(1, 1));
+    backlog.append(event(2, 1));
+    assertTaken(1, 1);
+    // Written across the end of the ring
+    backlog.append(event(3, 1));
+    assertEquals(0, backlog.spilledSize());
+    assertTaken(2, 1);
+    backlog.append(event(4, 1));
+    assertEquals(0, backlog.spilledSize());
+    assertTaken(3, 1);
+    assertTaken(4, 1);
+    assertEquals(0, backlog.size());
+  }
+
+  @Test
+  public void testSpillOrder() throws Exception {
+    for (int i = 0; i < 6; i++) {
+      backlog.append(event(i, 1));
+    }
+    assertEquals(6, backlog.size());
+    assertEquals(4, backlog.spilledSize());
+    File spillFile = backlog.getSpillFile();
+    assertTrue(spillFile.exists());
+    // Space in the ring does not take anything ahead of the spilled events
+    assertTaken(0, 1);
+    backlog.append(event(6, 1));
+    assertEquals(5, backlog.spilledSize());
+    for (int i = 1; i < 7; i++) {
+      assertTaken(i, 1);
+    }
+    assertEquals(0, backlog.size());
+    assertFalse(spillFile.exists());
+    assertNull(backlog.getSpillFile());
+
+    // Once read back, events go to the ring again
+    backlog.append(event(7, 1));
+    assertEquals(0, backlog.spilledSize());
+    assertTaken(7, 1);
+  }
+
+  @Test
+  public void testDedup() throws Exception {
+    backlog.append(event(1, 1));
+    backlog.append(event(1, 1));
+    backlog.append(event(2, 1));
+    backlog.append(event(1, 2));
+    assertEquals(4, backlog.size());
+    // The older copy in the ring is skipped
+    assertTaken(1, 1);
+    assertTaken(2, 1);
+    assertTaken(1, 2);
+    assertEquals(0, backlog.size());
+  }
+
+  @Test
+  public void testDedupAcrossSpill() throws Exception {
+    backlog.append(event(1, 1));
+    backlog.append(event(2, 1));
+    // Spilled, superseding the copy in the ring
+    backlog.append(event(1, 1));
+    backlog.append(event(3, 1));
+    assertEquals(2, backlog.spilledSize());
+    assertTaken(2, 1);
+    assertTaken(1, 1);
+    assertTaken(3, 1);
+    assertEquals(0, backlog.size());
+
+    // Copies in the spill file alone are all kept
+    backlog.append(event(4, 1));
+    backlog.append(event(5, 1));
+    backlog.append(event(6, 1));
+    backlog.append(event(6, 1));
+    assertTaken(4, 1);
+    assertTaken(5, 1);
+    assertTaken(6, 1);
+    assertTaken(6, 1);
+  }
+
+  @Test
+  public void testRegionsReleased() throws Exception {
+    HRegion first = mock(HRegion.class);
+    HRegion second = mock(HRegion.class);
+    backlog.append(event(1, 1, first));
+    backlog.append(event(2, 1, second));
+    backlog.append(event(3, 1, first));
+    assertEquals(2, backlog.regionCount());
+    assertSame(first, backlog.take().getRegion());
+    assertEquals(2, backlog.regionCount());
+    assertSame(second, backlog.take().getRegion());
+    assertEquals(1, backlog.regionCount());
+    assertSame(first, backlog.take().getRegion());
+    assertEquals(0, backlog.regionCount());
+
+    // Skipped copies release their region too
+    backlog.append(event(4, 1, second));
+    backlog.append(event(4, 1, second));
+    assertSame(second, backlog.take().getRegion());
+    assertEquals(0, backlog.regionCount());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    for (int i = 0; i < 4; i++) {
+      backlog.append(event(i, 1, mock(HRegion.class)));
+    }
+    File spillFile = backlog.getSpillFile();
+    assertTrue(spillFile.exists());
+    backlog.close();
+    assertFalse(spillFile.exists());
+    assertEquals(0, backlog.size());
+    assertEquals(0, backlog.regionCount());
+    backlog.append(event(5, 1));
+    assertEquals(0, backlog.size());
+    try {
+      backlog.take();
+      fail("Took from a closed backlog");
+    } catch (InterruptedException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testSpillFilesApart() throws Exception {
+    // Left by another region server on this host, or an earlier run
+    File other = new File(spillDir, "backlog.spill");
+    other.getParentFile().mkdirs();
+    assertTrue(other.exists() || other.createNewFile());
+    HTriggerEventBacklog second = new HTriggerEventBacklog("backlog", CAPACITY, false, spillDir);
+    try {
+      for (int i = 0; i < 3; i++) {
+        backlog.append(event(i, 1));
+        second.append(event(i, 1));
+      }
+      assertFalse(backlog.getSpillFile().equals(second.getSpillFile()));
+      assertTrue(backlog.getSpillFile().getName().startsWith("backlog"));
+      second.close();
+      assertTrue(backlog.getSpillFile().exists());
+      for (int i = 0; i < 3; i++) {
+        assertTaken(i, 1);
+      }
+    } finally {
+      second.close();
+    }
+    assertTrue(other.exists());
+  }
+
+  @Test
+  public void testValuesFromKeyValue() throws Exception {
+    byte[] row = Bytes.toBytes("r00");
+    KeyValue kv = new KeyValue(row, Bytes.toBytes("f"), Bytes.toBytes("c"), 1L,
+        Bytes.toBytes("value"));
+    // Old value is the new one
+    backlog.append(new HTriggerEvent(KEY, row, kv, null, 1L, null));
+    backlog.append(new HTriggerEvent(KEY, row, kv, Bytes.toBytes("old"), 2L, null));
+    HTriggerEvent hte = backlog.take();
+    assertArrayEquals(Bytes.toBytes("value"), hte.getNewValue());
+    assertArrayEquals(Bytes.toBytes("value"), hte.getOldValue());
+    hte = backlog.take();
+    assertArrayEquals(Bytes.toBytes("value"), hte.getNewValue());
+    assertArrayEquals(Bytes.toBytes("old"), hte.getOldValue());
+  }
+}
@@ -0,0 +1,205 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.StoppableImplementation;
+import org.apache.hadoop.hbase.zookeeper.ZKUtil;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the region server {@link TriggerAggregators.Syncer} side and the master
+ * {@link TriggerAggregators.Reducer} sealing rounds through ZooKeeper. This region server is
+ * SERVER_A, the partial results of SERVER_B are written straight to ZooKeeper.
+ */
+@Category(MediumTests.class)
+public class TestTriggerAggregators {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final ServerName SERVER_A = new ServerName("a.example.org", 60020, 1L);
+  private static final ServerName SERVER_B = new ServerName("b.example.org", 60020, 1L);
+
+  private ZooKeeperWatcher zkw;
+  private TriggerAggregators.Reducer reducer;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniZKCluster();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniZKCluster();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    zkw = new ZooKeeperWatcher(TEST_UTIL.getConfiguration(),
+        "TestTriggerAggregators", null);
+    Configuration conf = TEST_UTIL.getConfiguration();
+    TriggerAggregators.start(zkw, SERVER_A, conf, new StoppableImplementation());
+    reducer = new TriggerAggregators.Reducer(zkw, conf, new StoppableImplementation());
+    setLive(SERVER_A, true);
+    setLive(SERVER_B, true);
+  }
+
+  @After
+  public void tearDown() {
+    zkw.close();
+  }
+
+  private void setLive(ServerName sn, boolean live) throws Exception {
+    String node = ZKUtil.joinZNode(zkw.rsZNode, sn.toString());
+    if (live) {
+      ZKUtil.createWithParents(zkw, node);
+    } else {
+      ZKUtil.deleteNode(zkw, node);
+    }
+  }
+
+  private String roundNode(String name, long round) {
+    return ZKUtil.joinZNode(ZKUtil.joinZNode(TriggerAggregators.getBaseZNode(zkw), name),
+        TriggerAggregators.roundNode(round));
+  }
+
+  /**
+   * Publish a partial result of SERVER_B.
+   */
+  private void publishB(String name, long round, long count, long expected, long value)
+      throws Exception {
+    String node = ZKUtil.joinZNode(TriggerAggregators.getBaseZNode(zkw), name);
+    ZKUtil.createSetData(zkw, node,
+        Bytes.toBytes(TriggerAggregator.LongSum.class.getName()));
+    ZKUtil.createSetData(zkw, ZKUtil.joinZNode(roundNode(name, round), SERVER_B.toString()),
+        TriggerAggregators.toPartial(count, expected, Bytes.toBytes(value)));
+  }
+
+  private void contributeA(String name, long round, long value, long expected) {
+    TriggerAggregators.contribute(name, TriggerAggregator.LongSum.class, round,
+        Bytes.toBytes(value), expected);
+  }
+
+  /**
+   * Publish the partial results of SERVER_A, reduce, and fetch the sealed results.
+   */
+  private void syncAndReduce() throws Exception {
+    TriggerAggregators.sync();
+    reducer.reduce();
+    TriggerAggregators.sync();
+  }
+
+  @Test
+  public void testSealedWhenAllContributorsReport() throws Exception {
+    String name = "all";
+    contributeA(name, 1, 3L, 0L);
+    publishB(name, 1, 1, 0, 4L);
+    syncAndReduce();
+    assertEquals(7L, Bytes.toLong(TriggerAggregators.get(name, 1)));
+
+    // SERVER_B has not reported round 2 yet
+    contributeA(name, 2, 5L, 0L);
+    syncAndReduce();
+    assertNull(TriggerAggregators.get(name, 2));
+    assertNull(TriggerAggregators.get(name, 2, 100));
+    publishB(name, 2, 1, 0, 6L);
+    syncAndReduce();
+    assertEquals(11L, Bytes.toLong(TriggerAggregators.get(name, 2)));
+
+    // A contributor that reported a later round is done with this one
+    contributeA(name, 3, 1L, 0L);
+    publishB(name, 4, 1, 0, 1L);
+    syncAndReduce();
+    assertEquals(1L, Bytes.toLong(TriggerAggregators.get(name, 3)));
+    assertNull(TriggerAggregators.get(name, 4));
+
+    // A dead contributor does not hold rounds back
+    setLive(SERVER_B, false);
+    contributeA(name, 5, 2L, 0L);
+    syncAndReduce();
+    assertEquals(2L, Bytes.toLong(TriggerAggregators.get(name, 5)));
+  }
+
+  @Test
+  public void testSealedAtExpectedCount() throws Exception {
+    String name = "expected";
+    contributeA(name, 1, 1L, 4L);
+    contributeA(name, 1, 2L, 4L);
+    syncAndReduce();
+    assertNull(TriggerAggregators.get(name, 1));
+    publishB(name, 1, 1, 4, 3L);
+    syncAndReduce();
+    assertNull(TriggerAggregators.get(name, 1));
+
+    // Every live server has reported, but the count is not reached
+    contributeA(name, 2, 1L, 4L);
+    syncAndReduce();
+    assertNull(TriggerAggregators.get(name, 1));
+
+    publishB(name, 1, 2, 4, 7L);
+    syncAndReduce();
+    assertEquals(10L, Bytes.toLong(TriggerAggregators.get(name, 1)));
+  }
+
+  @Test
+  public void testSealedResultNotUpdated() throws Exception {
+    String name = "sealed";
+    contributeA(name, 1, 1L, 1L);
+    syncAndReduce();
+    assertEquals(1L, Bytes.toLong(TriggerAggregators.get(name, 1)));
+    publishB(name, 1, 1, 1, 5L);
+    syncAndReduce();
+    assertEquals(1L, Bytes.toLong(TriggerAggregators.get(name, 1)));
+  }
+
+  @Test
+  public void testUnsealedRoundsRetained() throws Exception {
+    String name = "retained";
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(TriggerAggregators.RETAINED_ROUNDS_KEY, 1);
+    reducer = new TriggerAggregators.Reducer(zkw, conf, new StoppableImplementation());
+    publishB(name, 1, 1, 2, 1L);
+    publishB(name, 2, 1, 1, 1L);
+    publishB(name, 3, 1, 1, 1L);
+    // Seals rounds 2 and 3, then deletes round 2
+    reducer.reduce();
+    reducer.reduce();
+    assertTrue(ZKUtil.checkExists(zkw, roundNode(name, 1)) != -1);
+    assertEquals(-1, ZKUtil.checkExists(zkw, roundNode(name, 2)));
+    assertTrue(ZKUtil.checkExists(zkw, roundNode(name, 3)) != -1);
+
+    publishB(name, 1, 2, 2, 2L);
+    reducer.reduce();
+    reducer.reduce();
+    assertEquals(-1, ZKUtil.checkExists(zkw, roundNode(name, 1)));
+    assertTrue(ZKUtil.checkExists(zkw, roundNode(name, 3)) != -1);
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link TriggerDebouncer} holding back the events of hot rows.
+ */
+@Category(SmallTests.class)
+public class TestTriggerDebouncer {
+  private static final HTriggerKey KEY = new HTriggerKey(Bytes.toBytes("t"),
+      Bytes.toBytes("f"), Bytes.toBytes("c"));
+
+  private static class ListSink implements TriggerDebouncer.Sink {
+    final List<HTriggerEvent> released = new ArrayList<HTriggerEvent>();
+
+    @Override
+    public synchronized void release(HTriggerEvent hte) {
+      released.add(hte);
+    }
+  }
+
+  private static HTriggerEvent event(String row, long version) {
+    return new HTriggerEvent(KEY, Bytes.toBytes(row), Bytes.toBytes(version), null, version);
+  }
+
+  @Test
+  public void testLatestEventReleased() {
+    ListSink sink = new ListSink();
+    TriggerDebouncer debouncer = new TriggerDebouncer(100, 3, 10, sink);
+    long now = System.currentTimeMillis();
+    debouncer.offer(event("a", 1));
+    HTriggerEvent latest = event("a", 2);
+    debouncer.offer(latest);
+    debouncer.offer(event("b", 1));
+    assertEquals(2, debouncer.size());
+    assertTrue(sink.released.isEmpty());
+
+    debouncer.advance(now + 200);
+    assertEquals(0, debouncer.size());
+    assertEquals(2, sink.released.size());
+    assertSame(latest, sink.released.get(0));
+
+    // The third update of a row releases it right away
+    debouncer.offer(event("c", 1));
+    debouncer.offer(event("c", 2));
+    debouncer.offer(event("c", 3));
+    assertEquals(3, sink.released.size());
+    assertEquals(0, debouncer.size());
+  }
+
+  @Test
+  public void testColumnsHeldApart() {
+    ListSink sink = new ListSink();
+    TriggerDebouncer debouncer = new TriggerDebouncer(100, 0, 10, sink);
+    long now = System.currentTimeMillis();
+    // A wildcard column trigger sees the events of every column of the row
+    HTriggerKey q1 = new HTriggerKey(Bytes.toBytes("t"), Bytes.toBytes("f"), Bytes.toBytes("q1"));
+    HTriggerKey q2 = new HTriggerKey(Bytes.toBytes("t"), Bytes.toBytes("f"), Bytes.toBytes("q2"));
+    HTriggerEvent first = new HTriggerEvent(q1, Bytes.toBytes("a"), Bytes.toBytes(1L), null, 1L);
+    HTriggerEvent second = new HTriggerEvent(q2, Bytes.toBytes("a"), Bytes.toBytes(2L), null, 2L);
+    debouncer.offer(first);
+    debouncer.offer(second);
+    assertEquals(2, debouncer.size());
+
+    debouncer.advance(now + 200);
+    assertEquals(2, sink.released.size());
+    assertTrue(sink.released.contains(first));
+    assertTrue(sink.released.contains(second));
+  }
+
+  @Test
+  public void testClose() {
+    Configuration conf = new Configuration();
+    assertNull(TriggerDebouncer.create(conf, new ListSink()));
+    conf.setLong(TriggerDebouncer.WINDOW_MS_KEY, 60000);
+    ListSink sink = new ListSink();
+    TriggerDebouncer debouncer = TriggerDebouncer.create(conf, sink);
+    assertTrue(debouncer.isScheduled());
+    debouncer.offer(event("a", 1));
+    assertEquals(1, debouncer.size());
+
+    debouncer.close();
+    assertFalse(debouncer.isScheduled());
+    assertEquals(0, debouncer.size());
+    // Held and later events never reach the sink
+    debouncer.offer(event("b", 1));
+    debouncer.advance(System.currentTimeMillis() + 1000);
+    assertEquals(0, debouncer.size());
+    assertTrue(sink.released.isEmpty());
+  }
+}
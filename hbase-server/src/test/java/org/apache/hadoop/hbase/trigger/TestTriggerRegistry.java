@@ -0,0 +1,177 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.Waiter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the trigger ids handed out by the master and the {@link TriggerRegistry} of a
+ * region server activating the triggers of the tables it hosts.
+ */
+@Category(MediumTests.class)
+public class TestTriggerRegistry {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final long TIMEOUT = 10000;
+
+  private ZooKeeperWatcher zkw;
+  private CountingRegistry registry;
+
+  /**
+   * Registers triggers without their staging dir, which needs HDFS and a trigger jar.
+   */
+  static class CountingRegistry extends TriggerRegistry {
+    final AtomicInteger activations = new AtomicInteger(0);
+    volatile boolean ranInitial = false;
+
+    CountingRegistry(ZooKeeperWatcher watcher) {
+      super(watcher, null, TEST_UTIL.getConfiguration());
+    }
+
+    @Override
+    public synchronized boolean activate(int triggerId, boolean runInitial) {
+      if (LocalTriggerManage.isRegistered(triggerId)) return true;
+      HTriggerKey htk = new HTriggerKey(Bytes.toBytes("t" + triggerId),
+          Bytes.toBytes("f"), Bytes.toBytes("c"));
+      LocalTriggerManage.register(new HTrigger(triggerId, htk, null,
+          new DefaultTriggerAction()));
+      ranInitial |= runInitial;
+      activations.incrementAndGet();
+      return true;
+    }
+  }
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniZKCluster();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniZKCluster();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    // A watcher per test, a closed registry can't take the events of the next
+    zkw = new ZooKeeperWatcher(TEST_UTIL.getConfiguration(),
+        "TestTriggerRegistry", null);
+    registry = new CountingRegistry(zkw);
+  }
+
+  @After
+  public void tearDown() {
+    registry.close();
+    zkw.close();
+  }
+
+  private static HRegionInfo createRegionInfo(String table, String startKey,
+      String endKey) {
+    return new HRegionInfo(Bytes.toBytes(table), Bytes.toBytes(startKey),
+        Bytes.toBytes(endKey));
+  }
+
+  private static void waitForRegistered(final int triggerId, final boolean registered) {
+    TEST_UTIL.waitFor(TIMEOUT, new Waiter.Predicate<RuntimeException>() {
+      @Override
+      public boolean evaluate() {
+        return LocalTriggerManage.isRegistered(triggerId) == registered;
+      }
+    });
+  }
+
+  @Test
+  public void testNextTriggerId() throws Exception {
+    int first = TriggerRegistry.nextTriggerId(zkw);
+    for (int i = 1; i < 5; i++) {
+      assertEquals(first + i, TriggerRegistry.nextTriggerId(zkw));
+    }
+    // A restarted master reads the counter back from ZooKeeper
+    ZooKeeperWatcher other = new ZooKeeperWatcher(TEST_UTIL.getConfiguration(),
+        "TestTriggerRegistry-other", null);
+    try {
+      assertEquals(first + 5, TriggerRegistry.nextTriggerId(other));
+    } finally {
+      other.close();
+    }
+  }
+
+  @Test
+  public void testActivatedWhileHosted() throws Exception {
+    String table = "testActivatedWhileHosted";
+    int triggerId = TriggerRegistry.nextTriggerId(zkw);
+    TriggerRegistry.persist(zkw, table, triggerId);
+    HRegionInfo first = createRegionInfo(table, "a", "b");
+    HRegionInfo second = createRegionInfo(table, "b", "c");
+
+    registry.regionOpened(first);
+    waitForRegistered(triggerId, true);
+    assertEquals(1, registry.activations.get());
+    // Reopened regions do not rerun the INITIAL round
+    assertFalse(registry.ranInitial);
+
+    // Only the first region of a table activates its triggers, and only the
+    // last one closing deactivates them
+    registry.regionOpened(second);
+    registry.regionClosed(first);
+    assertTrue(LocalTriggerManage.isRegistered(triggerId));
+    assertEquals(1, registry.activations.get());
+
+    HTriggerKey htk = new HTriggerKey(Bytes.toBytes("t" + triggerId),
+        Bytes.toBytes("f"), Bytes.toBytes("c"));
+    assertTrue(LocalTriggerManage.containsTrigger(htk));
+    registry.regionClosed(second);
+    waitForRegistered(triggerId, false);
+    assertFalse(LocalTriggerManage.containsTrigger(htk));
+    assertTrue(LocalTriggerManage.getTriggerByMeta(htk).isEmpty());
+    assertFalse(LocalTriggerManage.containsAccumulator(htk));
+  }
+
+  @Test
+  public void testSubmittedWhileHosted() throws Exception {
+    String table = "testSubmittedWhileHosted";
+    HRegionInfo hri = createRegionInfo(table, "a", "b");
+    registry.regionOpened(hri);
+
+    int triggerId = TriggerRegistry.nextTriggerId(zkw);
+    TriggerRegistry.persist(zkw, table, triggerId);
+    waitForRegistered(triggerId, true);
+    assertTrue(registry.ranInitial);
+
+    TriggerRegistry.remove(zkw, triggerId);
+    waitForRegistered(triggerId, false);
+    registry.regionClosed(hri);
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
+import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that {@link TriggerWALReplay} serves trigger actions from its local regions and cleans
+ * up after itself.
+ */
+@Category(MediumTests.class)
+public class TestTriggerWALReplay {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final String TABLE = "replayed";
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("c");
+  private static final int ROWS = 3;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path replayDir;
+
+  /**
+   * Reads the row of every event back, and scans the table, through the trigger engine.
+   */
+  public static class ReadingAction extends HTriggerAction {
+    static int events;
+    static int lastScanned;
+    static boolean valuesMatched = true;
+
+    @Override
+    public void action(HTriggerEvent hte) {
+      events++;
+      HTableInterface table = TriggerTables.getTable(null, Bytes.toBytes(TABLE));
+      try {
+        Result r = table.get(new Get(hte.getRowKey()));
+        valuesMatched &= Bytes.equals(hte.getNewValue(), r.getValue(FAMILY, QUALIFIER));
+        ResultScanner scanner = table.getScanner(FAMILY);
+        int scanned = 0;
+        try {
+          for (Result row : scanner) {
+            scanned++;
+          }
+        } finally {
+          scanner.close();
+        }
+        lastScanned = scanned;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public boolean filter(HTriggerEvent hte) {
+      return true;
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration(TEST_UTIL.getConfiguration());
+    fs = FileSystem.getLocal(conf);
+    Path testDir = TEST_UTIL.getDataTestDir("TestTriggerWALReplay-" + System.nanoTime());
+    replayDir = new Path(testDir, "replay");
+    conf.set(TriggerWALReplay.REPLAY_DIR_KEY, replayDir.toString());
+    ReadingAction.events = 0;
+    ReadingAction.lastScanned = 0;
+    ReadingAction.valuesMatched = true;
+  }
+
+  private Path writeWAL() throws IOException {
+    Path wal = new Path(TEST_UTIL.getDataTestDir("TestTriggerWALReplay-wal-" + System.nanoTime()),
+        "wal");
+    HLog.Writer writer = HLogFactory.createWriter(fs, wal, conf);
+    try {
+      for (int i = 0; i < ROWS; i++) {
+        byte[] row = Bytes.toBytes("row" + i);
+        WALEdit edit = new WALEdit();
+        edit.add(new KeyValue(row, FAMILY, QUALIFIER, i + 1L, Bytes.toBytes((long) i)));
+        writer.append(new HLog.Entry(new HLogKey(Bytes.toBytes("region"), Bytes.toBytes(TABLE),
+            i + 1L, System.currentTimeMillis(), HConstants.DEFAULT_CLUSTER_ID), edit));
+      }
+      writer.sync();
+    } finally {
+      writer.close();
+    }
+    return wal;
+  }
+
+  @Test
+  public void testActionsReadLocalRegions() throws Exception {
+    Path wal = writeWAL();
+    HTableInterfaceFactory factory = TriggerTables.getFactory();
+    int rc = ToolRunner.run(conf, new TriggerWALReplay(), new String[] { "-table", TABLE,
+        "-family", Bytes.toString(FAMILY), "-column", Bytes.toString(QUALIFIER),
+        "-action", ReadingAction.class.getName(), wal.toString() });
+    assertEquals(0, rc);
+    assertEquals(ROWS, ReadingAction.events);
+    assertTrue(ReadingAction.valuesMatched);
+    // The last event sees every row replayed
+    assertEquals(ROWS, ReadingAction.lastScanned);
+
+    // Cleaned up after the replay
+    assertFalse(LocalTriggerManage.isRegistered(0));
+    assertSame(factory, TriggerTables.getFactory());
+    assertTrue(!fs.exists(replayDir) || fs.listStatus(replayDir).length == 0);
+  }
+
+  @Test
+  public void testRegionTable() throws Exception {
+    TriggerWALReplay.LocalRegions regions =
+        new TriggerWALReplay.LocalRegions(conf, new Path(replayDir, "regions"));
+    try {
+      HTableInterface table = regions.createHTableInterface(conf, Bytes.toBytes(TABLE));
+      byte[] row = Bytes.toBytes("row");
+      table.put(new Put(row).add(FAMILY, QUALIFIER, Bytes.toBytes(1L)));
+      assertTrue(table.exists(new Get(row)));
+      assertEquals(3L, table.incrementColumnValue(row, FAMILY, QUALIFIER, 2L));
+
+      ResultScanner scanner = table.getScanner(FAMILY, QUALIFIER);
+      Result r = scanner.next();
+      assertArrayEquals(row, r.getRow());
+      assertEquals(3L, Bytes.toLong(r.getValue(FAMILY, QUALIFIER)));
+      assertNull(scanner.next());
+      scanner.close();
+
+      try {
+        table.checkAndPut(row, FAMILY, QUALIFIER, null, new Put(row));
+        fail("checkAndPut is not served by the local regions");
+      } catch (UnsupportedOperationException e) {
+        assertTrue(e.getMessage().contains("checkAndPut"));
+      }
+    } finally {
+      regions.close();
+    }
+  }
+}
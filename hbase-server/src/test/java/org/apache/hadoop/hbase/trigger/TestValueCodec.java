@@ -0,0 +1,140 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link ValueCodec}s and the typed value getters of {@link HTriggerEvent}.
+ */
+@Category(SmallTests.class)
+public class TestValueCodec {
+  private static final byte[] ROW = Bytes.toBytes("row");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("c");
+  private static final HTriggerKey KEY = new HTriggerKey(Bytes.toBytes("t"), FAMILY, QUALIFIER);
+
+  /**
+   * Decodes <code>value</code> from the middle of an array, encoded with a byte of padding
+   * on both sides.
+   */
+  private static <T> T decodeSlice(ValueCodec<T> codec, T value) {
+    byte[] encoded = codec.encode(value);
+    byte[] buf = new byte[encoded.length + 2];
+    System.arraycopy(encoded, 0, buf, 1, encoded.length);
+    return codec.decode(buf, 1, encoded.length);
+  }
+
+  private static void assertWrongLength(ValueCodec<?> codec, int length) {
+    try {
+      codec.decode(new byte[16], 0, length);
+      fail("Decoded " + length + " bytes");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * @return an event whose new value is a view over a KeyValue holding <code>value</code>
+   * and followed by more bytes
+   */
+  private static HTriggerEvent event(byte[] value, byte[] oldValue) {
+    KeyValue kv = new KeyValue(ROW, FAMILY, QUALIFIER, 1L, value);
+    byte[] buf = new byte[kv.getLength() + 16];
+    System.arraycopy(kv.getBuffer(), kv.getOffset(), buf, 0, kv.getLength());
+    return new HTriggerEvent(KEY, ROW, new KeyValue(buf, 0, kv.getLength()), oldValue, 1L,
+        null);
+  }
+
+  @Test
+  public void testRoundTrip() {
+    assertEquals(Integer.valueOf(-42), decodeSlice(ValueCodec.INT, -42));
+    assertEquals(Long.valueOf(Long.MAX_VALUE), decodeSlice(ValueCodec.LONG, Long.MAX_VALUE));
+    assertEquals(Float.valueOf(1.5f), decodeSlice(ValueCodec.FLOAT, 1.5f));
+    assertEquals(Double.valueOf(-0.25), decodeSlice(ValueCodec.DOUBLE, -0.25));
+    assertEquals("value", decodeSlice(ValueCodec.STRING, "value"));
+    assertEquals("", decodeSlice(ValueCodec.STRING, ""));
+  }
+
+  @Test
+  public void testWrongLength() {
+    assertWrongLength(ValueCodec.INT, Bytes.SIZEOF_LONG);
+    assertWrongLength(ValueCodec.LONG, Bytes.SIZEOF_INT);
+    assertWrongLength(ValueCodec.FLOAT, Bytes.SIZEOF_DOUBLE);
+    assertWrongLength(ValueCodec.DOUBLE, Bytes.SIZEOF_FLOAT);
+  }
+
+  @Test
+  public void testEventGetters() {
+    assertEquals(7, event(Bytes.toBytes(7), null).getNewInt());
+    assertEquals(7L, event(Bytes.toBytes(7L), null).getNewLong());
+    assertEquals(0.5f, event(Bytes.toBytes(0.5f), null).getNewFloat(), 0f);
+    assertEquals(0.5, event(Bytes.toBytes(0.5), null).getNewDouble(), 0d);
+
+    // The old value is the new one unless given
+    HTriggerEvent hte = event(Bytes.toBytes(3L), null);
+    assertEquals(3L, hte.getOldLong());
+    assertEquals(Long.valueOf(3L), hte.getOldValue(ValueCodec.LONG));
+    hte = event(Bytes.toBytes(3L), Bytes.toBytes(2L));
+    assertEquals(2L, hte.getOldLong());
+    assertEquals(Long.valueOf(2L), hte.getOldValue(ValueCodec.LONG));
+    assertEquals(Long.valueOf(3L), hte.getNewValue(ValueCodec.LONG));
+    assertArrayEquals(Bytes.toBytes(3L), hte.getNewValue());
+  }
+
+  @Test
+  public void testEventGettersWrongLength() {
+    HTriggerEvent hte = event(Bytes.toBytes(1), null);
+    try {
+      hte.getNewDouble();
+      fail("Read a double from an int");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    hte = event(Bytes.toBytes(1L), null);
+    try {
+      hte.getNewFloat();
+      fail("Read a float from a long");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testNullValues() {
+    HTriggerEvent hte = new HTriggerEvent(KEY, ROW, null, null, 1L);
+    assertNull(hte.getNewValue());
+    assertNull(hte.getOldValue());
+    assertNull(hte.getNewValue(ValueCodec.LONG));
+    assertNull(hte.getOldValue(ValueCodec.STRING));
+
+    hte = new HTriggerEvent(KEY, ROW, Bytes.toBytes(1L), null, 1L);
+    assertEquals(Long.valueOf(1L), hte.getNewValue(ValueCodec.LONG));
+    assertNull(hte.getOldValue(ValueCodec.LONG));
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.trigger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the timer task of a {@link WindowedHTriggerAction} is cancelled once its trigger
+ * is gone.
+ */
+@Category(SmallTests.class)
+public class TestWindowedHTriggerAction {
+  private static final HTriggerKey KEY = new HTriggerKey(Bytes.toBytes("t"),
+      Bytes.toBytes("f"), Bytes.toBytes("c"));
+
+  private static class CountingAction extends WindowedHTriggerAction<Long> {
+    @Override
+    public Long create() {
+      return 0L;
+    }
+
+    @Override
+    public Long add(Long acc, HTriggerEvent hte) {
+      return acc + 1;
+    }
+
+    @Override
+    public Long merge(Long a, Long b) {
+      return a + b;
+    }
+
+    @Override
+    public void emit(byte[] row, long windowStart, long windowEnd, Long result) {
+    }
+  }
+
+  private static HTriggerEvent event(String row) {
+    return new HTriggerEvent(KEY, Bytes.toBytes(row), Bytes.toBytes(1L), null, 1L);
+  }
+
+  @Test
+  public void testStopCancelsTimer() {
+    CountingAction action = new CountingAction();
+    assertFalse(action.isTicking());
+    action.action(event("a"));
+    assertTrue(action.isTicking());
+
+    action.stop();
+    assertFalse(action.isTicking());
+    // Stopping twice, or events coming in afterwards, schedules nothing
+    action.stop();
+    action.action(event("a"));
+    assertFalse(action.isTicking());
+  }
+
+  @Test
+  public void testUnregisterStopsAction() {
+    CountingAction action = new CountingAction();
+    HTriggerEvent hte = event("a");
+    LocalTriggerManage.register(new HTrigger(1001, KEY, null, action));
+    action.action(hte);
+    assertTrue(action.isTicking());
+
+    // Unregistered by id, as the registry does
+    assertTrue(LocalTriggerManage.unregister(new HTrigger(1001)));
+    assertFalse(action.isTicking());
+    assertEquals(0, LocalTriggerManage.getTriggerByMeta(KEY).size());
+  }
+}